@@ -112,10 +112,12 @@ export const transferBetweenAccounts = async (sourceAccountId, destinationAccoun
 /**
  * Get user transactions
  * @param {string|number} userId - The user ID
- * @returns {Promise<Array>} List of user transactions
+ * @returns {Promise<Array>} The user's latest transactions, newest first
  */
 export const getUserTransactions = async (userId) => {
-  return authFetch(`/transactions/v1/user/${userId}`, {
+  // the endpoint is paged, the dashboard shows the first page
+  const page = await authFetch(`/transactions/v1/user/${userId}`, {
     method: 'GET'
   });
+  return page.items;
 }; 
\ No newline at end of file
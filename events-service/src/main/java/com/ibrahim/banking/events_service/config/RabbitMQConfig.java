@@ -1,10 +1,13 @@
 package com.ibrahim.banking.events_service.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -21,6 +24,9 @@ public class RabbitMQConfig {
     // Routing keys
     private static final String NOTIFICATION_ROUTING_KEY = "notification.routing.key";
     private static final String NOTIFICATION_DLQ_ROUTING_KEY = "notification";
+    
+    // Listener container that hands the notification consumer a batch of messages at a time
+    public static final String NOTIFICATION_BATCH_CONTAINER_FACTORY = "notificationBatchContainerFactory";
 
     // Create notification queue
     @Bean
@@ -78,4 +84,21 @@ public class RabbitMQConfig {
         rabbitTemplate.setMessageConverter(jsonMessageConverter());
         return rabbitTemplate;
     }
-} 
\ No newline at end of file
+
+    // Receive notifications in batches of up to batch-size, a batch is handed over early once no message
+    // arrived for receive-timeout-ms
+    @Bean(NOTIFICATION_BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory notificationBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${events.notifications.batch-size:50}") int batchSize,
+            @Value("${events.notifications.receive-timeout-ms:100}") long receiveTimeoutMs) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        return factory;
+    }
+}
\ No newline at end of file
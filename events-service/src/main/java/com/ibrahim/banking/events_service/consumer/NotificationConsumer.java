@@ -10,6 +10,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 @RequiredArgsConstructor
 public class NotificationConsumer {
@@ -17,7 +19,29 @@ public class NotificationConsumer {
     
     private final NotificationService notificationService;
     
-    @RabbitListener(queues = RabbitMQConfig.NOTIFICATION_QUEUE)
+    @RabbitListener(queues = RabbitMQConfig.NOTIFICATION_QUEUE,
+            containerFactory = RabbitMQConfig.NOTIFICATION_BATCH_CONTAINER_FACTORY)
+    public void processNotifications(List<NotificationMessageDto> notifications) {
+        logger.info("Received {} notifications", notifications.size());
+        
+        // For now, we'll just log the notifications
+        for (NotificationMessageDto notification : notifications) {
+            logger.info("Sending notification to user {}: {}", 
+                    notification.getUserId(), notification.getMessage());
+        }
+        
+        try {
+            // Save the whole batch in one transaction
+            List<Notification> savedNotifications = notificationService.saveNotifications(notifications, true);
+            logger.info("Saved {} notifications", savedNotifications.size());
+        } catch (Exception e) {
+            logger.error("Error saving a batch of {} notifications, saving them one at a time", 
+                    notifications.size(), e);
+            notifications.forEach(this::processNotification);
+        }
+    }
+    
+    // a single notification on its own, a failed save is recorded as a failed delivery
     public void processNotification(NotificationMessageDto notification) {
         logger.info("Received notification for transaction: {}", notification.getTransactionReference());
         
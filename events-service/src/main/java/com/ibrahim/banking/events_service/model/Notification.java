@@ -17,8 +17,10 @@ import java.time.Instant;
 @Builder
 public class Notification {
     
+    // pooled from the sequence, so a batch of notifications is inserted without fetching a generated key per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "notifications_seq")
+    @SequenceGenerator(name = "notifications_seq", sequenceName = "notifications_seq", allocationSize = 50)
     private Long id;
     
     private Long userId;
@@ -9,6 +9,8 @@ public interface NotificationService {
     
     Notification saveNotification(NotificationMessageDto notificationDto, boolean deliverySuccessful);
     
+    List<Notification> saveNotifications(List<NotificationMessageDto> notificationDtos, boolean deliverySuccessful);
+    
     List<Notification> getNotificationsByUserId(Long userId);
     
     List<Notification> getNotificationsByTransactionReference(String transactionReference);
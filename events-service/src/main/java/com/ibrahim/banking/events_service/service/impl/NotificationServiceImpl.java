@@ -6,6 +6,7 @@ import com.ibrahim.banking.events_service.repository.NotificationRepository;
 import com.ibrahim.banking.events_service.service.NotificationService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
@@ -18,20 +19,16 @@ public class NotificationServiceImpl implements NotificationService {
     
     @Override
     public Notification saveNotification(NotificationMessageDto notificationDto, boolean deliverySuccessful) {
-        Notification notification = Notification.builder()
-                .userId(notificationDto.getUserId())
-                .transactionReference(notificationDto.getTransactionReference())
-                .transactionType(notificationDto.getTransactionType())
-                .transactionStatus(notificationDto.getTransactionStatus())
-                .amount(notificationDto.getAmount())
-                .currency(notificationDto.getCurrency())
-                .timestamp(notificationDto.getTimestamp())
-                .message(notificationDto.getMessage())
-                .sentAt(Instant.now())
-                .deliverySuccessful(deliverySuccessful)
-                .build();
-        
-        return notificationRepository.save(notification);
+        return notificationRepository.save(toNotification(notificationDto, deliverySuccessful));
+    }
+    
+    // one transaction, the inserts go out as JDBC batches
+    @Override
+    @Transactional
+    public List<Notification> saveNotifications(List<NotificationMessageDto> notificationDtos, boolean deliverySuccessful) {
+        return notificationRepository.saveAll(notificationDtos.stream()
+                .map(notificationDto -> toNotification(notificationDto, deliverySuccessful))
+                .toList());
     }
     
     @Override
@@ -48,4 +45,19 @@ public class NotificationServiceImpl implements NotificationService {
     public List<Notification> getAllNotifications() {
         return notificationRepository.findAll();
     }
-} 
\ No newline at end of file
+    
+    private Notification toNotification(NotificationMessageDto notificationDto, boolean deliverySuccessful) {
+        return Notification.builder()
+                .userId(notificationDto.getUserId())
+                .transactionReference(notificationDto.getTransactionReference())
+                .transactionType(notificationDto.getTransactionType())
+                .transactionStatus(notificationDto.getTransactionStatus())
+                .amount(notificationDto.getAmount())
+                .currency(notificationDto.getCurrency())
+                .timestamp(notificationDto.getTimestamp())
+                .message(notificationDto.getMessage())
+                .sentAt(Instant.now())
+                .deliverySuccessful(deliverySuccessful)
+                .build();
+    }
+}
\ No newline at end of file
@@ -14,8 +14,10 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -87,4 +89,35 @@ class NotificationConsumerTest {
 
         verify(notificationService).saveNotification(notificationDto, false);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void processNotifications_shouldSaveTheBatchInOneCall() {
+
+        List<NotificationMessageDto> notifications = List.of(notificationDto, notificationDto);
+        when(notificationService.saveNotifications(notifications, true))
+                .thenReturn(List.of(mockNotification, mockNotification));
+
+
+        notificationConsumer.processNotifications(notifications);
+
+
+        verify(notificationService).saveNotifications(notifications, true);
+        verify(notificationService, never()).saveNotification(any(NotificationMessageDto.class), anyBoolean());
+    }
+
+    @Test
+    void processNotifications_whenBatchSaveFails_shouldSaveOneAtATime() {
+
+        List<NotificationMessageDto> notifications = List.of(notificationDto, notificationDto);
+        doThrow(new RuntimeException("Test exception")).when(notificationService)
+                .saveNotifications(notifications, true);
+        when(notificationService.saveNotification(any(NotificationMessageDto.class), eq(true)))
+                .thenReturn(mockNotification);
+
+
+        notificationConsumer.processNotifications(notifications);
+
+
+        verify(notificationService, times(2)).saveNotification(notificationDto, true);
+    }
+}
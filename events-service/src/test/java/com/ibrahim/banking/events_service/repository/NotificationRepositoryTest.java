@@ -11,6 +11,7 @@ import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -90,6 +91,23 @@ class NotificationRepositoryTest {
         assertFalse(failedNotifications.get(0).isDeliverySuccessful());
     }
     
+    @Test
+    void saveAll_shouldGiveEveryNotificationItsOwnPooledId() {
+
+        List<Notification> notifications = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            notifications.add(createTestNotification(1L, "TX" + i, true));
+        }
+
+
+        List<Notification> saved = notificationRepository.saveAll(notifications);
+        entityManager.flush();
+
+
+        assertEquals(120, saved.stream().map(Notification::getId).distinct().count());
+        assertEquals(120, notificationRepository.findByUserId(1L).size());
+    }
+    
     private Notification createTestNotification(Long userId, String transactionReference, boolean deliverySuccessful) {
         return Notification.builder()
                 .userId(userId)
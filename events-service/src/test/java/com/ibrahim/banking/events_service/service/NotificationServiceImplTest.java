@@ -80,6 +80,22 @@ class NotificationServiceImplTest {
         verify(notificationRepository).save(any(Notification.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void saveNotifications_shouldSaveAllInOneCall() {
+
+        when(notificationRepository.saveAll(any(List.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+
+        List<Notification> result = notificationService.saveNotifications(List.of(notificationDto, notificationDto), false);
+
+
+        assertEquals(2, result.size());
+        assertEquals("TX123456", result.get(0).getTransactionReference());
+        assertEquals(false, result.get(1).isDeliverySuccessful());
+        verify(notificationRepository).saveAll(any(List.class));
+    }
+
     @Test
     void getNotificationsByUserId_shouldReturnNotificationsList() {
 
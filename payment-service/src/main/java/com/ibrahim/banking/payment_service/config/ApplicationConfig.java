@@ -1,14 +1,19 @@
 package com.ibrahim.banking.payment_service.config;
 
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 @Configuration
 public class ApplicationConfig {
 
+    // built from Spring's builder so every call is recorded in http.client.requests per host and uri
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, ClientHttpRequestFactory outboundRequestFactory) {
+        return restTemplateBuilder
+                .requestFactory(() -> outboundRequestFactory)
+                .build();
     }
-} 
\ No newline at end of file
+}
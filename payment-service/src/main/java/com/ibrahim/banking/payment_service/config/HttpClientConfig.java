@@ -0,0 +1,137 @@
+package com.ibrahim.banking.payment_service.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.DefaultSchemePortResolver;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.routing.RoutingSupport;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Outbound HTTP for the Store of Value and auth calls: a shared keep-alive connection pool with
+ * connect, read and response timeouts, so a slow downstream service can no longer hold a consumer
+ * thread indefinitely. Pool usage is exported as {@code httpcomponents.httpclient.pool.*} metrics.
+ */
+@Configuration
+public class HttpClientConfig {
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientConfig.class);
+
+    @Value("${service.http.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${service.http.max-connections-per-route:50}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${service.http.store-of-value.max-connections:100}")
+    private int storeOfValueMaxConnections;
+
+    @Value("${service.http.auth.max-connections:10}")
+    private int authMaxConnections;
+
+    @Value("${service.http.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+
+    @Value("${service.http.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${service.http.response-timeout-ms:5000}")
+    private long responseTimeoutMs;
+
+    // how long a request waits for a free pooled connection
+    @Value("${service.http.connection-request-timeout-ms:1000}")
+    private long connectionRequestTimeoutMs;
+
+    @Value("${service.http.keep-alive-ms:30000}")
+    private long keepAliveMs;
+
+    @Value("${service.http.http2.enabled:false}")
+    private boolean http2Enabled;
+
+    @Value("${service.store-of-value.url}")
+    private String storeOfValueServiceUrl;
+
+    @Value("${service.auth.url}")
+    private String authServiceUrl;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager outboundConnectionManager(MeterRegistry meterRegistry) {
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig)
+                .build();
+        connectionManager.setMaxPerRoute(routeFor(storeOfValueServiceUrl), storeOfValueMaxConnections);
+        connectionManager.setMaxPerRoute(routeFor(authServiceUrl), authMaxConnections);
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound").bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient outboundHttpClient(PoolingHttpClientConnectionManager outboundConnectionManager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(outboundConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // keep connections for the server's keep-alive, but never longer than configured
+                .setKeepAliveStrategy((response, context) -> {
+                    TimeValue serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return TimeValue.ofMilliseconds(Math.min(serverKeepAlive.toMilliseconds(), keepAliveMs));
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMs))
+                .build();
+    }
+
+    @Bean
+    public ClientHttpRequestFactory outboundRequestFactory(CloseableHttpClient outboundHttpClient) {
+        if (http2Enabled) {
+            // the JDK client negotiates HTTP/2 and multiplexes requests over its own connections
+            logger.info("Using HTTP/2 for outbound service calls");
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                    .build();
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+            requestFactory.setReadTimeout(Duration.ofMillis(responseTimeoutMs));
+            return requestFactory;
+        }
+        return new HttpComponentsClientHttpRequestFactory(outboundHttpClient);
+    }
+
+    private HttpRoute routeFor(String url) {
+        // the pool keys routes by explicit port, so http://host and http://host:80 must match
+        HttpHost host = RoutingSupport.normalize(HttpHost.create(URI.create(url)), DefaultSchemePortResolver.INSTANCE);
+        return new HttpRoute(host);
+    }
+}
@@ -32,6 +32,23 @@ public class RabbitMQConfig {
     public static final String WITHDRAWAL_ROUTING_KEY = "payment.withdrawal";
     public static final String TRANSFER_ROUTING_KEY = "payment.transfer";
     public static final String NOTIFICATION_ROUTING_KEY = "notification";
+    
+    // per-account shard queues, used when payment.shards.enabled=true
+    public static final String PAYMENT_SHARD_EXCHANGE = "payment.shard.exchange";
+    public static final String PAYMENT_SHARD_QUEUE_PREFIX = "payment.shard.";
+    public static final String PAYMENT_SHARD_DLQ = "payment.shard.dlq";
+    public static final String SHARD_DLQ_ROUTING_KEY = "payment.shard";
+    
+    // fanout exchange declared by the Store of Value service, used to evict cached account statuses
+    public static final String ACCOUNT_STATUS_EXCHANGE = "account.status.exchange";
+    
+    public static String shardQueue(int shard) {
+        return PAYMENT_SHARD_QUEUE_PREFIX + shard;
+    }
+    
+    public static String shardRoutingKey(int shard) {
+        return PAYMENT_SHARD_QUEUE_PREFIX + shard;
+    }
 
     @Bean
     public MessageConverter jsonMessageConverter() {
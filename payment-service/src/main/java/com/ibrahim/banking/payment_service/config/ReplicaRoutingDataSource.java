@@ -0,0 +1,160 @@
+package com.ibrahim.banking.payment_service.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the read-only transactions of this service to the replica and everything else to the primary.
+ * <p>
+ * Only transactions declared read-only by the service's own classes go to the replica; the implicit
+ * read-only transaction Spring Data opens around a single repository call outside a transaction stays on
+ * the primary, so a consumer reading a row that another thread just wrote never sees a lagging replica.
+ * Reads also stay on the primary while the replica lags more than the allowed time or can't be reached,
+ * and for a short window after a write to the same data, so callers read their own writes. The data is
+ * named by the keys the request or message declared with {@link #touch} (users, accounts or transaction references), not by
+ * who is calling: writes that arrive under a service account pin only what they wrote.
+ * <p>
+ * The route is chosen when a connection is taken, so this must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction's
+ * read-only flag is only known once it has begun.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    static final String PRIMARY = "primary";
+    static final String REPLICA = "replica";
+
+    private static final String SERVICE_PACKAGE = "com.ibrahim.banking.";
+
+    private final JdbcTemplate replicaJdbcTemplate;
+    private final String lagQuery;
+    private final long maxLagMs;
+    private final long pinWindowMs;
+
+    // keys touched by the request or message on this thread, forgotten by clearTouched when it is done
+    private static final ThreadLocal<Set<String>> touched = ThreadLocal.withInitial(HashSet::new);
+    // nothing collects touched keys unless a routing data source exists to clear them
+    private static volatile boolean tracking;
+
+    // last committed write per key, read-only transactions touching a key within the pin window stay on the primary
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private volatile boolean replicaUsable;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, String lagQuery, long maxLagMs,
+                                    long pinWindowMs) {
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+        this.lagQuery = lagQuery;
+        this.maxLagMs = maxLagMs;
+        this.pinWindowMs = pinWindowMs;
+        tracking = true;
+    }
+
+    /**
+     * Declares that the current request or message reads or writes the data named by the key. Keys
+     * touched before or during a writing transaction are pinned when it commits; a read-only transaction
+     * goes to the primary if any key touched before it takes its connection was written within the pin
+     * window.
+     */
+    public static void touch(String key) {
+        if (tracking && key != null) {
+            touched.get().add(key);
+        }
+    }
+
+    /**
+     * Forgets the keys touched on this thread, called when a request or message is done.
+     */
+    public static void clearTouched() {
+        touched.remove();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                pinOnCommit();
+            }
+            return PRIMARY;
+        }
+        String transactionName = TransactionSynchronizationManager.getCurrentTransactionName();
+        if (!replicaUsable || transactionName == null || !transactionName.startsWith(SERVICE_PACKAGE)) {
+            return PRIMARY;
+        }
+        long pinnedSince = System.currentTimeMillis() - pinWindowMs;
+        for (String key : touched.get()) {
+            Long lastWrite = lastWrites.get(key);
+            if (lastWrite != null && lastWrite > pinnedSince) {
+                return PRIMARY;
+            }
+        }
+        return REPLICA;
+    }
+
+    // the keys are read at commit, so ones touched after the connection was taken count too
+    private void pinOnCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            pin(touched.get());
+            return;
+        }
+        Set<String> keys = touched.get();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                pin(keys);
+            }
+        });
+    }
+
+    private void pin(Set<String> keys) {
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            lastWrites.put(key, now);
+        }
+    }
+
+    /**
+     * Measures the replication lag and takes the replica out of (or back into) rotation; also forgets
+     * the writes that are older than the pin window.
+     */
+    @Scheduled(fixedDelayString = "${payment.datasource.replica.lag-check-interval-ms:1000}")
+    public void checkReplicaLag() {
+        boolean usable;
+        try {
+            Long lagMs = replicaJdbcTemplate.queryForObject(lagQuery, Long.class);
+            usable = lagMs != null && lagMs <= maxLagMs;
+            if (!usable && replicaUsable) {
+                logger.warn("Replica lags {} ms behind the primary, reading from the primary", lagMs);
+            }
+        } catch (RuntimeException e) {
+            usable = false;
+            if (replicaUsable) {
+                logger.warn("Replica lag check failed, reading from the primary: {}", e.getMessage());
+            }
+        }
+        if (usable && !replicaUsable) {
+            logger.info("Replica caught up, read-only transactions go to the replica");
+        }
+        replicaUsable = usable;
+
+        long pinnedSince = System.currentTimeMillis() - pinWindowMs;
+        lastWrites.values().removeIf(lastWrite -> lastWrite < pinnedSince);
+    }
+
+    boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+}
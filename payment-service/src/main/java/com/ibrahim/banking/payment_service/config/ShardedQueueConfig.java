@@ -0,0 +1,86 @@
+package com.ibrahim.banking.payment_service.config;
+
+import com.ibrahim.banking.payment_service.consumer.ShardedTransactionConsumer;
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares the payment shard queues and one listener container per shard.
+ * <p>
+ * Shard queues use {@code x-single-active-consumer}, so however many nodes run the service only one
+ * consumer processes a given shard at a time and the others stand by. The per-type queues stay
+ * declared and consumed, so messages published before sharding was switched on still drain.
+ * <p>
+ * When the shard count is lowered, set {@code payment.shards.previous-count} to the old count until
+ * the removed shards are empty; their queues keep being consumed but receive no new messages.
+ */
+@Configuration
+@ConditionalOnProperty(name = "payment.shards.enabled", havingValue = "true")
+public class ShardedQueueConfig implements RabbitListenerConfigurer {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedQueueConfig.class);
+
+    private final ShardedTransactionConsumer shardedTransactionConsumer;
+    private final MessageConverter messageConverter;
+    private final int consumedShards;
+
+    public ShardedQueueConfig(
+            ShardedTransactionConsumer shardedTransactionConsumer,
+            MessageConverter messageConverter,
+            @Value("${payment.shards.count:8}") int shardCount,
+            @Value("${payment.shards.previous-count:0}") int previousShardCount) {
+        this.shardedTransactionConsumer = shardedTransactionConsumer;
+        this.messageConverter = messageConverter;
+        this.consumedShards = Math.max(shardCount, previousShardCount);
+    }
+
+    @Bean
+    public Declarables paymentShardQueues(@Qualifier("paymentDLX") DirectExchange paymentDLX) {
+        List<Declarable> declarables = new ArrayList<>();
+        DirectExchange shardExchange = new DirectExchange(RabbitMQConfig.PAYMENT_SHARD_EXCHANGE);
+        declarables.add(shardExchange);
+
+        Queue shardDLQ = QueueBuilder.durable(RabbitMQConfig.PAYMENT_SHARD_DLQ).build();
+        declarables.add(shardDLQ);
+        declarables.add(BindingBuilder.bind(shardDLQ).to(paymentDLX).with(RabbitMQConfig.SHARD_DLQ_ROUTING_KEY));
+
+        for (int shard = 0; shard < consumedShards; shard++) {
+            Queue queue = QueueBuilder.durable(RabbitMQConfig.shardQueue(shard))
+                    .singleActiveConsumer()
+                    .withArgument("x-dead-letter-exchange", RabbitMQConfig.PAYMENT_DLX)
+                    .withArgument("x-dead-letter-routing-key", RabbitMQConfig.SHARD_DLQ_ROUTING_KEY)
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(shardExchange).with(RabbitMQConfig.shardRoutingKey(shard)));
+        }
+        return new Declarables(declarables);
+    }
+
+    // one container with a single consumer per shard, Spring would otherwise share one across queues
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (int shard = 0; shard < consumedShards; shard++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("payment-shard-" + shard);
+            endpoint.setQueueNames(RabbitMQConfig.shardQueue(shard));
+            endpoint.setConcurrency("1");
+            endpoint.setMessageListener(message -> shardedTransactionConsumer.processShardedTransaction(
+                    (TransactionMessageDto) messageConverter.fromMessage(message)));
+            registrar.registerEndpoint(endpoint);
+        }
+        logger.info("Registered consumers for {} payment shard queues", consumedShards);
+    }
+}
@@ -1,6 +1,13 @@
 package com.ibrahim.banking.payment_service.consumer;
 
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.Posting;
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.PostingType;
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
+import com.ibrahim.banking.payment_service.service.AccountStatusCache;
 import com.ibrahim.banking.payment_service.service.StoreOfValueAuthService;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,11 +16,17 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Component
 public class AccountServiceClient {
@@ -21,132 +34,374 @@ public class AccountServiceClient {
     
     private final RestTemplate restTemplate;
     private final StoreOfValueAuthService authService;
+    private final AccountStatusCache accountStatusCache;
+    
+    // null unless service.store-of-value.coalescing.enabled=true
+    private final PostingCoalescer postingCoalescer;
+    private final long coalescingWaitTimeoutMs;
     
     @Value("${service.store-of-value.url}")
     private String storeOfValueServiceUrl;
     
-    public AccountServiceClient(RestTemplate restTemplate, StoreOfValueAuthService authService) {
+    // a hold that is neither captured nor released gives its funds back after this long
+    @Value("${service.store-of-value.hold-expiry-seconds:900}")
+    private long holdExpirySeconds;
+    
+    public AccountServiceClient(
+            RestTemplate restTemplate,
+            StoreOfValueAuthService authService,
+            AccountStatusCache accountStatusCache,
+            MeterRegistry meterRegistry,
+            @Value("${service.store-of-value.coalescing.enabled:false}") boolean coalescingEnabled,
+            @Value("${service.store-of-value.coalescing.window-ms:2}") long coalescingWindowMs,
+            @Value("${service.store-of-value.coalescing.max-batch-size:100}") int coalescingMaxBatchSize,
+            @Value("${service.store-of-value.coalescing.max-in-flight:4}") int coalescingMaxInFlight,
+            @Value("${service.store-of-value.coalescing.wait-timeout-ms:10000}") long coalescingWaitTimeoutMs) {
         this.restTemplate = restTemplate;
         this.authService = authService;
+        this.accountStatusCache = accountStatusCache;
+        this.postingCoalescer = coalescingEnabled
+                ? new PostingCoalescer(this::sendPostingBatch, coalescingMaxBatchSize, coalescingWindowMs,
+                        coalescingMaxInFlight, coalescingMaxBatchSize * 10, meterRegistry)
+                : null;
+        this.coalescingWaitTimeoutMs = coalescingWaitTimeoutMs;
+    }
+    
+    @PostConstruct
+    public void start() {
+        if (postingCoalescer != null) {
+            postingCoalescer.start();
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (postingCoalescer != null) {
+            postingCoalescer.shutdown();
+        }
     }
     
     public boolean creditAccount(Long accountId, BigDecimal amount, String currency, String transactionReference) {
+        if (postingCoalescer != null) {
+            return awaitPosting(new Posting(accountId, PostingType.CREDIT, amount, currency, transactionReference));
+        }
         try {
-            String url = storeOfValueServiceUrl + "/api/accounts/" + accountId + "/credit";
+            // uri template keeps http.client.requests to one series per endpoint
+            String url = storeOfValueServiceUrl + "/api/accounts/{accountId}/credit";
             
             Map<String, Object> requestBody = new HashMap<>();
             requestBody.put("amount", amount);
             requestBody.put("currency", currency);
             requestBody.put("transactionReference", transactionReference);
             
-            HttpHeaders headers = getAuthenticatedHeaders();
-            if (headers == null) {
-                logger.error("Failed to get authentication token for Store of Value service");
-                return false;
-            }
-            
-            HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(requestBody, headers);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    requestEntity,
-                    Map.class
-            );
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, requestBody, accountId);
             
             if (response.getStatusCode().is2xxSuccessful()) {
                 logger.info("Successfully credited account {} with amount {}", accountId, amount);
                 return true;
             } else {
                 logger.error("Failed to credit account {}: {}", accountId, response.getStatusCode());
+                accountStatusCache.evict(accountId);
                 return false;
             }
-        } catch (Exception e) {
-            logger.error("Error calling credit account API: ", e);
+        } catch (HttpClientErrorException e) {
+            logger.error("Credit of account {} rejected: {}", accountId, e.getStatusCode());
+            // the account may have been deactivated, don't keep trusting the cached status
+            accountStatusCache.evict(accountId);
             return false;
+        } catch (RuntimeException e) {
+            accountStatusCache.evict(accountId);
+            throw unknownOutcome("credit of account " + accountId, e);
         }
     }
     
     public boolean debitAccount(Long accountId, BigDecimal amount, String currency, String transactionReference) {
+        if (postingCoalescer != null) {
+            return awaitPosting(new Posting(accountId, PostingType.DEBIT, amount, currency, transactionReference));
+        }
         try {
-            String url = storeOfValueServiceUrl + "/api/accounts/" + accountId + "/debit";
+            String url = storeOfValueServiceUrl + "/api/accounts/{accountId}/debit";
             
             Map<String, Object> requestBody = new HashMap<>();
             requestBody.put("amount", amount);
             requestBody.put("currency", currency);
             requestBody.put("transactionReference", transactionReference);
             
-            HttpHeaders headers = getAuthenticatedHeaders();
-            if (headers == null) {
-                logger.error("Failed to get authentication token for Store of Value service");
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, requestBody, accountId);
+            
+            if (response.getStatusCode().is2xxSuccessful()) {
+                logger.info("Successfully debited account {} with amount {}", accountId, amount);
+                return true;
+            } else {
+                logger.error("Failed to debit account {}: {}", accountId, response.getStatusCode());
+                accountStatusCache.evict(accountId);
                 return false;
             }
+        } catch (HttpClientErrorException e) {
+            logger.error("Debit of account {} rejected: {}", accountId, e.getStatusCode());
+            accountStatusCache.evict(accountId);
+            return false;
+        } catch (RuntimeException e) {
+            accountStatusCache.evict(accountId);
+            throw unknownOutcome("debit of account " + accountId, e);
+        }
+    }
+    
+    // without a result the posting may or may not have been applied, so this throws instead of returning
+    // false; the transaction goes back to pending and the redelivery repeats the posting by reference
+    private boolean awaitPosting(Posting posting) {
+        try {
+            return postingCoalescer.submit(posting).get(coalescingWaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentProcessingException("Interrupted waiting for the result of posting " + posting.transactionReference(), e);
+        } catch (ExecutionException | TimeoutException e) {
+            accountStatusCache.evict(posting.accountId());
+            throw new PaymentProcessingException("No result for " + posting.type() + " of account " + posting.accountId()
+                    + ", outcome unknown", e);
+        }
+    }
+    
+    // called by the coalescer with the postings gathered from concurrent callers
+    private List<Boolean> sendPostingBatch(List<Posting> postings) {
+        String url = storeOfValueServiceUrl + "/api/accounts/postings:batch";
+        
+        List<Map<String, Object>> items = new ArrayList<>(postings.size());
+        for (Posting posting : postings) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("accountNumber", String.valueOf(posting.accountId()));
+            item.put("type", posting.type().name());
+            item.put("amount", posting.amount());
+            item.put("currency", posting.currency());
+            item.put("transactionReference", posting.transactionReference());
+            items.add(item);
+        }
+        
+        ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, Map.of("postings", items));
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new PaymentProcessingException("Batch posting failed: " + response.getStatusCode());
+        }
+        
+        // the batch was processed but there is no per-posting answer, so none of them can be failed
+        List<Map<String, Object>> results = (List<Map<String, Object>>) response.getBody().get("results");
+        if (results == null || results.size() != postings.size()) {
+            throw new PaymentProcessingException("Batch posting returned " + (results == null ? "no" : results.size())
+                    + " results for " + postings.size() + " postings, outcome unknown");
+        }
+        
+        List<Boolean> applied = new ArrayList<>(postings.size());
+        for (int i = 0; i < postings.size(); i++) {
+            Posting posting = postings.get(i);
+            Object status = results.get(i).get("status");
+            if ("APPLIED".equals(status)) {
+                applied.add(true);
+            } else {
+                logger.error("Failed to {} account {}: {}", posting.type().name().toLowerCase(), posting.accountId(), status);
+                accountStatusCache.evict(posting.accountId());
+                applied.add(false);
+            }
+        }
+        return applied;
+    }
+    
+    /**
+     * Debits the source and credits the destination account in one Store of Value transaction,
+     * so a failed transfer never leaves money taken from the source
+     * @return true if the transfer was applied, false if Store of Value rejected it and no balance changed
+     * @throws PaymentProcessingException if it is unknown whether the transfer was applied
+     */
+    public boolean transfer(Long sourceAccountId, Long destinationAccountId, BigDecimal amount,
+                            String currency, String transactionReference) {
+        try {
+            String url = storeOfValueServiceUrl + "/api/accounts/transfer";
             
-            HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(requestBody, headers);
+            Map<String, Object> requestBody = new HashMap<>();
+            requestBody.put("sourceAccountNumber", String.valueOf(sourceAccountId));
+            requestBody.put("destinationAccountNumber", String.valueOf(destinationAccountId));
+            requestBody.put("amount", amount);
+            requestBody.put("currency", currency);
+            requestBody.put("transactionReference", transactionReference);
             
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    requestEntity,
-                    Map.class
-            );
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, requestBody);
             
             if (response.getStatusCode().is2xxSuccessful()) {
-                logger.info("Successfully debited account {} with amount {}", accountId, amount);
+                logger.info("Successfully transferred {} from account {} to account {}", amount, sourceAccountId, destinationAccountId);
                 return true;
             } else {
-                logger.error("Failed to debit account {}: {}", accountId, response.getStatusCode());
+                logger.error("Failed to transfer from account {} to account {}: {}", sourceAccountId, destinationAccountId, response.getStatusCode());
+                accountStatusCache.evict(sourceAccountId);
+                accountStatusCache.evict(destinationAccountId);
                 return false;
             }
-        } catch (Exception e) {
-            logger.error("Error calling debit account API: ", e);
+        } catch (HttpClientErrorException e) {
+            logger.error("Transfer from account {} to account {} rejected: {}", sourceAccountId, destinationAccountId, e.getStatusCode());
+            accountStatusCache.evict(sourceAccountId);
+            accountStatusCache.evict(destinationAccountId);
             return false;
+        } catch (RuntimeException e) {
+            accountStatusCache.evict(sourceAccountId);
+            accountStatusCache.evict(destinationAccountId);
+            throw unknownOutcome("transfer from account " + sourceAccountId + " to account " + destinationAccountId, e);
         }
     }
     
-    public boolean isAccountActive(Long accountId) {
+    /**
+     * Reserves funds on the account, they stay unavailable to other debits until the hold is
+     * captured or released, or expires
+     * @return true if the funds are now held, false if Store of Value refused the hold
+     * @throws PaymentProcessingException if it is unknown whether the hold was placed
+     */
+    public boolean placeHold(Long accountId, BigDecimal amount, String currency, String holdReference) {
         try {
-            String url = storeOfValueServiceUrl + "/api/accounts/" + accountId + "/status";
+            String url = storeOfValueServiceUrl + "/api/accounts/{accountId}/holds";
+            
+            Map<String, Object> requestBody = new HashMap<>();
+            requestBody.put("amount", amount);
+            requestBody.put("currency", currency);
+            requestBody.put("holdReference", holdReference);
+            requestBody.put("expiresInSeconds", holdExpirySeconds);
             
-            HttpHeaders headers = getAuthenticatedHeaders();
-            if (headers == null) {
-                logger.error("Failed to get authentication token for Store of Value service");
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, requestBody, accountId);
+            
+            if (response.getStatusCode().is2xxSuccessful()) {
+                logger.info("Successfully held {} on account {} (hold {})", amount, accountId, holdReference);
+                return true;
+            } else {
+                logger.error("Failed to hold funds on account {}: {}", accountId, response.getStatusCode());
+                accountStatusCache.evict(accountId);
                 return false;
             }
+        } catch (HttpClientErrorException e) {
+            logger.error("Hold on account {} rejected: {}", accountId, e.getStatusCode());
+            accountStatusCache.evict(accountId);
+            return false;
+        } catch (RuntimeException e) {
+            accountStatusCache.evict(accountId);
+            throw unknownOutcome("hold " + holdReference + " on account " + accountId, e);
+        }
+    }
+    
+    /**
+     * Debits the held funds, or transfers them to the destination account when one is given.
+     * A hold that was already captured counts as success, so a redelivered message is harmless.
+     * @throws PaymentProcessingException if it is unknown whether the hold was captured
+     */
+    public boolean captureHold(Long accountId, String holdReference, Long destinationAccountId) {
+        try {
+            String url = storeOfValueServiceUrl + "/api/accounts/holds/{holdReference}/capture";
             
-            HttpEntity<?> requestEntity = new HttpEntity<>(headers);
+            Map<String, Object> requestBody = new HashMap<>();
+            if (destinationAccountId != null) {
+                requestBody.put("destinationAccountNumber", String.valueOf(destinationAccountId));
+            }
             
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    requestEntity,
-                    Map.class
-            );
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, requestBody, holdReference);
             
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Boolean isActive = (Boolean) response.getBody().get("status").equals("ACTIVE");
-                return isActive != null && isActive;
+            if (response.getStatusCode().is2xxSuccessful()) {
+                logger.info("Successfully captured hold {} on account {}", holdReference, accountId);
+                return true;
             } else {
-                logger.error("Failed to check account status for {}: {}", accountId, response.getStatusCode());
+                logger.error("Failed to capture hold {} on account {}: {}", holdReference, accountId, response.getStatusCode());
+                evictAll(accountId, destinationAccountId);
                 return false;
             }
+        } catch (HttpClientErrorException e) {
+            logger.error("Capture of hold {} on account {} rejected: {}", holdReference, accountId, e.getStatusCode());
+            evictAll(accountId, destinationAccountId);
+            return false;
+        } catch (RuntimeException e) {
+            evictAll(accountId, destinationAccountId);
+            throw unknownOutcome("capture of hold " + holdReference, e);
+        }
+    }
+    
+    /**
+     * Gives held funds back, used when a transaction with a hold fails before it is captured
+     */
+    public boolean releaseHold(String holdReference) {
+        try {
+            String url = storeOfValueServiceUrl + "/api/accounts/holds/{holdReference}/release";
+            
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.POST, null, holdReference);
+            
+            if (response.getStatusCode().is2xxSuccessful()) {
+                logger.info("Successfully released hold {}", holdReference);
+                return true;
+            } else {
+                logger.error("Failed to release hold {}: {}", holdReference, response.getStatusCode());
+                return false;
+            }
+        } catch (Exception e) {
+            // the hold still expires on its own
+            logger.error("Error calling release hold API: ", e);
+            return false;
+        }
+    }
+    
+    public boolean isAccountActive(Long accountId) {
+        try {
+            return accountStatusCache.isActive(accountId, this::fetchAccountActive);
         } catch (Exception e) {
-            logger.error("Error calling account status API: ", e.getMessage());
+            logger.error("Error calling account status API for account {}: {}", accountId, e.getMessage());
             return false;
         }
     }
     
-    private HttpHeaders getAuthenticatedHeaders() {
+    // definite answers are returned so they can be cached, anything else throws
+    private Boolean fetchAccountActive(Long accountId) {
+        String url = storeOfValueServiceUrl + "/api/accounts/{accountId}/status";
+        
+        try {
+            ResponseEntity<Map> response = exchangeAuthenticated(url, HttpMethod.GET, null, accountId);
+            
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                return "ACTIVE".equals(response.getBody().get("status"));
+            }
+            throw new PaymentProcessingException("Failed to check account status for " + accountId + ": " + response.getStatusCode());
+        } catch (HttpClientErrorException.NotFound e) {
+            logger.warn("Account {} does not exist", accountId);
+            return false;
+        }
+    }
+    
+    private ResponseEntity<Map> exchangeAuthenticated(String url, HttpMethod method, Object body, Object... uriVariables) {
         String authToken = authService.getAuthToken();
         if (authToken == null) {
-            return null;
+            throw new PaymentProcessingException("Failed to get authentication token for Store of Value service");
         }
-
-        logger.info("Auth token ->" + authToken);
         
+        try {
+            return restTemplate.exchange(url, method, new HttpEntity<>(body, authenticatedHeaders(authToken)), Map.class, uriVariables);
+        } catch (HttpClientErrorException.Unauthorized e) {
+            // the token was rejected before the request was processed, so retrying once with a new one is safe
+            String refreshedToken = authService.refreshAfterUnauthorized(authToken);
+            if (refreshedToken == null) {
+                throw e;
+            }
+            return restTemplate.exchange(url, method, new HttpEntity<>(body, authenticatedHeaders(refreshedToken)), Map.class, uriVariables);
+        }
+    }
+    
+    // a timeout, a failed connection or a 5xx may come after Store of Value applied the request, so the
+    // call is not reported as rejected; the transaction goes back to pending and the request, idempotent
+    // by reference, is repeated
+    private static PaymentProcessingException unknownOutcome(String operation, RuntimeException e) {
+        logger.error("No answer for {}, outcome unknown: {}", operation, e.toString());
+        return new PaymentProcessingException("Outcome of " + operation + " unknown", e);
+    }
+    
+    private void evictAll(Long... accountIds) {
+        for (Long accountId : accountIds) {
+            if (accountId != null) {
+                accountStatusCache.evict(accountId);
+            }
+        }
+    }
+    
+    private HttpHeaders authenticatedHeaders(String authToken) {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Content-Type", "application/json");
         headers.set("Authorization", authToken);
         return headers;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
+import com.ibrahim.banking.payment_service.dto.AccountStatusEventDto;
+import com.ibrahim.banking.payment_service.service.AccountStatusCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evicts cached account statuses when the Store of Value service activates or deactivates an account.
+ * Every instance binds its own temporary queue, so each local cache sees every change.
+ */
+@Component
+public class AccountStatusEventConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(AccountStatusEventConsumer.class);
+    
+    private final AccountStatusCache accountStatusCache;
+    
+    public AccountStatusEventConsumer(AccountStatusCache accountStatusCache) {
+        this.accountStatusCache = accountStatusCache;
+    }
+    
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(autoDelete = "true", exclusive = "true"),
+            exchange = @Exchange(value = RabbitMQConfig.ACCOUNT_STATUS_EXCHANGE, type = ExchangeTypes.FANOUT)))
+    public void processAccountStatusEvent(AccountStatusEventDto event) {
+        Long accountId;
+        try {
+            accountId = Long.valueOf(event.getAccountNumber());
+        } catch (NumberFormatException e) {
+            // payments address accounts by numeric id, anything else can't be in the cache
+            logger.debug("Ignoring status change of account {}", event.getAccountNumber());
+            return;
+        }
+        
+        logger.info("Account {} is now {}, evicting cached status", accountId, event.getStatus());
+        accountStatusCache.evict(accountId);
+    }
+}
@@ -0,0 +1,88 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.config.ReplicaRoutingDataSource;
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
+import com.ibrahim.banking.payment_service.service.TransactionService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService.TransactionLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+
+/**
+ * Claims a transaction for a consumer and runs its work under the account locks taken when the
+ * transaction was created.
+ * <p>
+ * When the work throws, the transaction goes back to PENDING, its locks are kept for the next
+ * delivery and the exception is rethrown so the listener retries the message. Postings are idempotent
+ * by transaction reference, so repeating the Store of Value call is safe.
+ */
+class ClaimedTransactionRunner {
+    private static final Logger logger = LoggerFactory.getLogger(ClaimedTransactionRunner.class);
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionLockService transactionLockService;
+
+    ClaimedTransactionRunner(TransactionRepository transactionRepository, TransactionLockService transactionLockService) {
+        this.transactionRepository = transactionRepository;
+        this.transactionLockService = transactionLockService;
+    }
+
+    /**
+     * @param accountIds accounts locked by the transaction, none when its funds are on hold instead
+     * @return false if the transaction was no longer pending and nothing was run
+     */
+    boolean run(TransactionMessageDto messageDto, Runnable work, Long... accountIds) {
+        String reference = messageDto.getTransactionReference();
+        // the status changes below pin the transaction's reads to the primary for a while
+        TransactionService.touchReadKeys(messageDto.getUserId(), reference,
+                messageDto.getSourceAccountId(), messageDto.getDestinationAccountId());
+        try {
+            return claimAndRun(reference, work, accountIds);
+        } finally {
+            ReplicaRoutingDataSource.clearTouched();
+        }
+    }
+
+    private boolean claimAndRun(String reference, Runnable work, Long... accountIds) {
+        // claim the transaction first; a redelivered or duplicate message finds it no longer pending
+        // and leaves the locks alone, they are still held for the delivery that claimed it; if that delivery's
+        // consumer died, TransactionRecoveryService hands the transaction back once the claim is stale
+        if (transactionRepository.claim(reference, Instant.now()) == 0) {
+            return false;
+        }
+
+        TransactionLease lease = null;
+        try {
+            if (accountIds.length > 0) {
+                lease = transactionLockService.resumeLease(reference, accountIds);
+            }
+            work.run();
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("Error processing transaction {}, returning it to pending for redelivery", reference, e);
+            if (returnToPending(reference) && lease != null) {
+                lease.retainForRedelivery();
+            }
+            throw e;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    // false when the transaction already left PROCESSING: its outcome is recorded and a redelivery skips it
+    private boolean returnToPending(String reference) {
+        try {
+            return transactionRepository.transitionStatus(reference,
+                    TransactionStatus.PROCESSING, TransactionStatus.PENDING, null, null) == 1;
+        } catch (RuntimeException e) {
+            logger.error("Could not return transaction {} to pending, it stays in processing", reference, e);
+            return false;
+        }
+    }
+}
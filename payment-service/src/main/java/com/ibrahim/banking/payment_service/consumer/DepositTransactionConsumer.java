@@ -2,17 +2,16 @@ package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.Optional;
 
 @Component
 public class DepositTransactionConsumer {
@@ -21,60 +20,56 @@ public class DepositTransactionConsumer {
     private final TransactionRepository transactionRepository;
     private final AccountServiceClient accountServiceClient;
     private final NotificationPublisherService notificationPublisherService;
+    private final ClaimedTransactionRunner claimedTransactionRunner;
     
     public DepositTransactionConsumer(
             TransactionRepository transactionRepository,
             AccountServiceClient accountServiceClient,
-            NotificationPublisherService notificationPublisherService) {
+            NotificationPublisherService notificationPublisherService,
+            TransactionLockService transactionLockService) {
         this.transactionRepository = transactionRepository;
         this.accountServiceClient = accountServiceClient;
         this.notificationPublisherService = notificationPublisherService;
+        this.claimedTransactionRunner = new ClaimedTransactionRunner(transactionRepository, transactionLockService);
     }
     
     @RabbitListener(queues = RabbitMQConfig.PAYMENT_DEPOSIT_QUEUE)
     public void processDepositTransaction(TransactionMessageDto messageDto) {
         logger.info("Received deposit transaction with reference: {}", messageDto.getTransactionReference());
         
-        try {
-            // find transaction in db
-            Optional<Transaction> optionalTransaction = transactionRepository.findByTransactionReference(
-                    messageDto.getTransactionReference());
-            
-            if (optionalTransaction.isEmpty()) {
-                logger.error("Transaction not found: {}", messageDto.getTransactionReference());
-                return;
-            }
-            
-            Transaction transaction = optionalTransaction.get();
-            
-            // call SOV to add money
-            boolean depositSuccessful = accountServiceClient.creditAccount(
-                    transaction.getSourceAccountId(),
-                    transaction.getAmount(),
-                    transaction.getCurrency(),
-                    transaction.getTransactionReference()
-            );
-            
-            if (depositSuccessful) {
-                transaction.setStatus(TransactionStatus.COMPLETED);
-                transaction.setCompletedAt(Instant.now());
-                transactionRepository.save(transaction);
-                
-                logger.info("Deposit transaction completed successfully: {}", transaction.getTransactionReference());
-            } else {
-                // make it failed
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("Failed to credit account");
-                transactionRepository.save(transaction);
-                
-                logger.error("Failed to complete deposit transaction: {}", transaction.getTransactionReference());
-            }
-            
-            // send notification to user
-            notificationPublisherService.publishTransactionNotification(transaction);
-            
-        } catch (Exception e) {
-            logger.error("Error processing deposit transaction: {}", messageDto.getTransactionReference(), e);
+        // the account locks taken when the transaction was created are held until the message is done
+        if (!claimedTransactionRunner.run(messageDto,
+                () -> completeDeposit(messageDto), messageDto.getSourceAccountId())) {
+            logger.warn("Deposit transaction {} is not pending, skipping", messageDto.getTransactionReference());
         }
     }
+    
+    private void completeDeposit(TransactionMessageDto messageDto) {
+        // call SOV to add money
+        boolean depositSuccessful = accountServiceClient.creditAccount(
+                messageDto.getSourceAccountId(),
+                messageDto.getAmount(),
+                messageDto.getCurrency(),
+                messageDto.getTransactionReference()
+        );
+        
+        TransactionStatus status;
+        if (depositSuccessful) {
+            status = TransactionStatus.COMPLETED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, Instant.now(), null);
+        
+            logger.info("Deposit transaction completed successfully: {}", messageDto.getTransactionReference());
+        } else {
+            // make it failed
+            status = TransactionStatus.FAILED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, null, "Failed to credit account");
+        
+            logger.error("Failed to complete deposit transaction: {}", messageDto.getTransactionReference());
+        }
+        
+        // send notification to user
+        notificationPublisherService.publishTransactionNotification(messageDto, status);
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Gathers credits and debits from concurrent consumer threads for up to {@code windowMs} and sends
+ * them to Store of Value as one batch request, so a burst of payments costs a handful of HTTP calls
+ * and database transactions instead of one per posting. Each caller still gets its own result.
+ * <p>
+ * Up to {@code maxInFlight} batches are sent at the same time. When the queue is full the posting is
+ * sent on the caller's thread as a batch of one.
+ */
+class PostingCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(PostingCoalescer.class);
+
+    enum PostingType {
+        CREDIT,
+        DEBIT
+    }
+
+    record Posting(Long accountId, PostingType type, BigDecimal amount, String currency, String transactionReference) {
+    }
+
+    private record PendingPosting(Posting posting, CompletableFuture<Boolean> result) {
+    }
+
+    private final Function<List<Posting>, List<Boolean>> sender;
+    private final int maxBatchSize;
+    private final long windowMs;
+    private final BlockingQueue<PendingPosting> queue;
+    private final ExecutorService senders;
+    private final DistributionSummary batchSizes;
+    private final Timer batchLatency;
+
+    private volatile boolean running;
+    private Thread collector;
+
+    /**
+     * @param sender sends one batch and returns whether each posting was applied, in order; an exception
+     *               means the outcome of the batch is unknown and completes every result exceptionally
+     */
+    PostingCoalescer(Function<List<Posting>, List<Boolean>> sender, int maxBatchSize, long windowMs,
+                     int maxInFlight, int capacity, MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMs = windowMs;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        AtomicInteger threads = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "posting-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchSizes = DistributionSummary.builder("payment.postings.batch.size")
+                .description("Postings sent to Store of Value per batch request")
+                .register(meterRegistry);
+        this.batchLatency = Timer.builder("payment.postings.batch.latency")
+                .description("Duration of Store of Value batch posting requests")
+                .register(meterRegistry);
+    }
+
+    void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        collector = new Thread(this::collectLoop, "posting-coalescer");
+        collector.setDaemon(true);
+        collector.start();
+        logger.info("Coalescing Store of Value postings (window {} ms, batch size {})", windowMs, maxBatchSize);
+    }
+
+    CompletableFuture<Boolean> submit(Posting posting) {
+        PendingPosting pending = new PendingPosting(posting, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            logger.warn("Posting queue is full, sending posting {} on its own", posting.transactionReference());
+            send(List.of(pending));
+        }
+        return pending.result();
+    }
+
+    private void collectLoop() {
+        while (running) {
+            try {
+                PendingPosting first = queue.poll(windowMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingPosting> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                collect(batch);
+                senders.execute(() -> send(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Error collecting postings", e);
+            }
+        }
+    }
+
+    // waits up to the window for the batch to fill up
+    private void collect(List<PendingPosting> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                return;
+            }
+            PendingPosting next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void send(List<PendingPosting> batch) {
+        List<Posting> postings = batch.stream().map(PendingPosting::posting).toList();
+        batchSizes.record(postings.size());
+        long start = System.nanoTime();
+        try {
+            List<Boolean> applied = sender.apply(postings);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(i < applied.size() && Boolean.TRUE.equals(applied.get(i)));
+            }
+        } catch (Exception e) {
+            // some postings may have been applied, the callers must not record them as failed
+            logger.error("Batch of {} postings failed: {}", batch.size(), e.getMessage());
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+        } finally {
+            batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        collector.interrupt();
+        try {
+            collector.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // don't leave callers waiting for postings that were never sent
+        List<PendingPosting> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += maxBatchSize) {
+            send(remaining.subList(from, Math.min(remaining.size(), from + maxBatchSize)));
+        }
+        senders.shutdown();
+    }
+}
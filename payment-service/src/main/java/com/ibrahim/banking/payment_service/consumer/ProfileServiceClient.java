@@ -10,6 +10,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 @Component
@@ -29,22 +30,26 @@ public class ProfileServiceClient {
     
     public UserProfileDto getUserProfile(Long userId) {
         try {
-            String url = profileServiceUrl + "/api/profile/" + userId;
+            String url = profileServiceUrl + "/api/profile/{userId}";
             
-            HttpHeaders headers = getAuthenticatedHeaders();
-            if (headers == null) {
+            String authToken = authService.getAuthToken();
+            if (authToken == null) {
                 logger.error("Failed to get authentication token for Profile service");
                 return null;
             }
             
-            HttpEntity<?> requestEntity = new HttpEntity<>(headers);
-            
-            ResponseEntity<UserProfileDto> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    requestEntity,
-                    UserProfileDto.class
-            );
+            ResponseEntity<UserProfileDto> response;
+            try {
+                response = restTemplate.exchange(url, HttpMethod.GET,
+                        new HttpEntity<>(authenticatedHeaders(authToken)), UserProfileDto.class, userId);
+            } catch (HttpClientErrorException.Unauthorized e) {
+                String refreshedToken = authService.refreshAfterUnauthorized(authToken);
+                if (refreshedToken == null) {
+                    throw e;
+                }
+                response = restTemplate.exchange(url, HttpMethod.GET,
+                        new HttpEntity<>(authenticatedHeaders(refreshedToken)), UserProfileDto.class, userId);
+            }
             
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                 logger.info("Successfully retrieved profile for user id: {}", userId);
@@ -59,15 +64,10 @@ public class ProfileServiceClient {
         }
     }
     
-    private HttpHeaders getAuthenticatedHeaders() {
-        String authToken = authService.getAuthToken();
-        if (authToken == null) {
-            return null;
-        }
-        
+    private HttpHeaders authenticatedHeaders(String authToken) {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Content-Type", "application/json");
         headers.set("Authorization", authToken);
         return headers;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,51 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Consumes the shard queues. A shard carries every transaction type of its accounts, so each message
+ * is handed to the consumer for its type on the shard's single consumer thread.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.shards.enabled", havingValue = "true")
+public class ShardedTransactionConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedTransactionConsumer.class);
+
+    private final DepositTransactionConsumer depositTransactionConsumer;
+    private final WithdrawalTransactionConsumer withdrawalTransactionConsumer;
+    private final TransferTransactionConsumer transferTransactionConsumer;
+
+    public ShardedTransactionConsumer(
+            DepositTransactionConsumer depositTransactionConsumer,
+            WithdrawalTransactionConsumer withdrawalTransactionConsumer,
+            TransferTransactionConsumer transferTransactionConsumer) {
+        this.depositTransactionConsumer = depositTransactionConsumer;
+        this.withdrawalTransactionConsumer = withdrawalTransactionConsumer;
+        this.transferTransactionConsumer = transferTransactionConsumer;
+    }
+
+    public void processShardedTransaction(TransactionMessageDto messageDto) {
+        if (messageDto.getType() == null) {
+            logger.error("Dropping sharded message without a transaction type: {}", messageDto.getTransactionReference());
+            return;
+        }
+
+        switch (messageDto.getType()) {
+            case DEPOSIT:
+                depositTransactionConsumer.processDepositTransaction(messageDto);
+                break;
+            case WITHDRAWAL:
+                withdrawalTransactionConsumer.processWithdrawalTransaction(messageDto);
+                break;
+            case TRANSFER:
+                transferTransactionConsumer.processTransferTransaction(messageDto);
+                break;
+            default:
+                logger.error("Unknown transaction type: {}", messageDto.getType());
+        }
+    }
+}
@@ -2,17 +2,16 @@ package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.Optional;
 
 @Component
 public class TransferTransactionConsumer {
@@ -21,106 +20,90 @@ public class TransferTransactionConsumer {
     private final TransactionRepository transactionRepository;
     private final AccountServiceClient accountServiceClient;
     private final NotificationPublisherService notificationPublisherService;
+    private final ClaimedTransactionRunner claimedTransactionRunner;
     
     public TransferTransactionConsumer(
             TransactionRepository transactionRepository,
             AccountServiceClient accountServiceClient,
-            NotificationPublisherService notificationPublisherService) {
+            NotificationPublisherService notificationPublisherService,
+            TransactionLockService transactionLockService) {
         this.transactionRepository = transactionRepository;
         this.accountServiceClient = accountServiceClient;
         this.notificationPublisherService = notificationPublisherService;
+        this.claimedTransactionRunner = new ClaimedTransactionRunner(transactionRepository, transactionLockService);
     }
     
     @RabbitListener(queues = RabbitMQConfig.PAYMENT_TRANSFER_QUEUE)
     public void processTransferTransaction(TransactionMessageDto messageDto) {
         logger.info("Received transfer transaction with reference: {}", messageDto.getTransactionReference());
         
-        try {
-            // Find the transaction in the database
-            Optional<Transaction> optionalTransaction = transactionRepository.findByTransactionReference(
-                    messageDto.getTransactionReference());
-            
-            if (optionalTransaction.isEmpty()) {
-                logger.error("Transaction not found: {}", messageDto.getTransactionReference());
-                return;
-            }
-            
-            Transaction transaction = optionalTransaction.get();
-            
-            // Validate destination account
-            if (transaction.getDestinationAccountId() == null) {
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("Destination account ID is required for transfers");
-                transactionRepository.save(transaction);
-                
-                logger.error("Transfer failed: Destination account ID is required");
-                notificationPublisherService.publishTransactionNotification(transaction);
-                return;
-            }
-            
-            // First debit the source account
-            boolean debitSuccessful = accountServiceClient.debitAccount(
-                    transaction.getSourceAccountId(),
-                    transaction.getAmount(),
-                    transaction.getCurrency(),
-                    transaction.getTransactionReference()
-            );
-            
-            if (!debitSuccessful) {
-                // Mark as failed if debit fails
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("Failed to debit source account");
-                transactionRepository.save(transaction);
-                
-                logger.error("Transfer failed: Could not debit source account {}", transaction.getSourceAccountId());
-                notificationPublisherService.publishTransactionNotification(transaction);
-                return;
-            }
-            
-            // Then credit the destination account
-            boolean creditSuccessful = accountServiceClient.creditAccount(
-                    transaction.getDestinationAccountId(),
-                    transaction.getAmount(),
-                    transaction.getCurrency(),
-                    transaction.getTransactionReference()
-            );
-            
-            if (creditSuccessful) {
-                // Update transaction status
-                transaction.setStatus(TransactionStatus.COMPLETED);
-                transaction.setCompletedAt(Instant.now());
-                transactionRepository.save(transaction);
-                
-                logger.info("Transfer transaction completed successfully: {}", transaction.getTransactionReference());
-            } else {
-                // If credit fails, we need to reverse the debit
-                boolean reversalSuccessful = accountServiceClient.creditAccount(
-                        transaction.getSourceAccountId(),
-                        transaction.getAmount(),
-                        transaction.getCurrency(),
-                        transaction.getTransactionReference() + "-reversal"
+        // the account locks taken when the transaction was created are held until the message is done,
+        // a transaction with funds on hold took none
+        if (!claimedTransactionRunner.run(messageDto,
+                () -> completeTransfer(messageDto), lockedAccounts(messageDto))) {
+            logger.warn("Transfer transaction {} is not pending, skipping", messageDto.getTransactionReference());
+        }
+    }
+    
+    private void completeTransfer(TransactionMessageDto messageDto) {
+        // Validate destination account
+        if (messageDto.getDestinationAccountId() == null) {
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, TransactionStatus.FAILED, null,
+                    "Destination account ID is required for transfers");
+        
+            logger.error("Transfer failed: Destination account ID is required");
+            releaseHold(messageDto);
+            notificationPublisherService.publishTransactionNotification(messageDto, TransactionStatus.FAILED);
+            return;
+        }
+        
+        // debit and credit happen in one Store of Value transaction, there is nothing to reverse;
+        // with funds on hold the held amount is what moves
+        boolean transferSuccessful = messageDto.isFundsHeld()
+                ? accountServiceClient.captureHold(messageDto.getSourceAccountId(),
+                        messageDto.getTransactionReference(), messageDto.getDestinationAccountId())
+                : accountServiceClient.transfer(
+                        messageDto.getSourceAccountId(),
+                        messageDto.getDestinationAccountId(),
+                        messageDto.getAmount(),
+                        messageDto.getCurrency(),
+                        messageDto.getTransactionReference()
                 );
-                
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("Failed to credit destination account, debit was reversed");
-                
-                if (!reversalSuccessful) {
-                    transaction.setFailureReason("Failed to credit destination account, debit reversal also failed");
-                    logger.error("Critical: Transfer failed and reversal also failed: {}", 
-                            transaction.getTransactionReference());
-                } else {
-                    logger.warn("Transfer failed but debit was successfully reversed: {}", 
-                            transaction.getTransactionReference());
-                }
-                
-                transactionRepository.save(transaction);
-            }
-            
-            // Send notification
-            notificationPublisherService.publishTransactionNotification(transaction);
-            
-        } catch (Exception e) {
-            logger.error("Error processing transfer transaction: {}", messageDto.getTransactionReference(), e);
+        
+        TransactionStatus status;
+        if (transferSuccessful) {
+            // Update transaction status
+            status = TransactionStatus.COMPLETED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, Instant.now(), null);
+        
+            logger.info("Transfer transaction completed successfully: {}", messageDto.getTransactionReference());
+        } else {
+            // false is a definite rejection; when the outcome is unknown the client throws and the
+            // transaction goes back to pending, it is never failed after a transfer that may have committed
+            status = TransactionStatus.FAILED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, null,
+                    "Failed to transfer between accounts, no balance was changed");
+        
+            logger.error("Transfer failed: Could not transfer from account {} to account {}",
+                    messageDto.getSourceAccountId(), messageDto.getDestinationAccountId());
+            releaseHold(messageDto);
+        }
+        
+        // Send notification
+        notificationPublisherService.publishTransactionNotification(messageDto, status);
+    }
+    
+    private Long[] lockedAccounts(TransactionMessageDto messageDto) {
+        return messageDto.isFundsHeld() ? new Long[0] : new Long[] {messageDto.getSourceAccountId(), messageDto.getDestinationAccountId()};
+    }
+    
+    // a failed transaction doesn't keep its funds until the hold expires
+    private void releaseHold(TransactionMessageDto messageDto) {
+        if (messageDto.isFundsHeld()) {
+            accountServiceClient.releaseHold(messageDto.getTransactionReference());
         }
     }
 } 
\ No newline at end of file
@@ -2,17 +2,16 @@ package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.Optional;
 
 @Component
 public class WithdrawalTransactionConsumer {
@@ -21,61 +20,73 @@ public class WithdrawalTransactionConsumer {
     private final TransactionRepository transactionRepository;
     private final AccountServiceClient accountServiceClient;
     private final NotificationPublisherService notificationPublisherService;
+    private final ClaimedTransactionRunner claimedTransactionRunner;
     
     public WithdrawalTransactionConsumer(
             TransactionRepository transactionRepository,
             AccountServiceClient accountServiceClient,
-            NotificationPublisherService notificationPublisherService) {
+            NotificationPublisherService notificationPublisherService,
+            TransactionLockService transactionLockService) {
         this.transactionRepository = transactionRepository;
         this.accountServiceClient = accountServiceClient;
         this.notificationPublisherService = notificationPublisherService;
+        this.claimedTransactionRunner = new ClaimedTransactionRunner(transactionRepository, transactionLockService);
     }
     
     @RabbitListener(queues = RabbitMQConfig.PAYMENT_WITHDRAWAL_QUEUE)
     public void processWithdrawalTransaction(TransactionMessageDto messageDto) {
         logger.info("Received withdrawal transaction with reference: {}", messageDto.getTransactionReference());
         
-        try {
-            // Find the transaction in the database
-            Optional<Transaction> optionalTransaction = transactionRepository.findByTransactionReference(
-                    messageDto.getTransactionReference());
-            
-            if (optionalTransaction.isEmpty()) {
-                logger.error("Transaction not found: {}", messageDto.getTransactionReference());
-                return;
-            }
-            
-            Transaction transaction = optionalTransaction.get();
-            
-            // Call Store of Value service to debit the account
-            boolean withdrawalSuccessful = accountServiceClient.debitAccount(
-                    transaction.getSourceAccountId(),
-                    transaction.getAmount(),
-                    transaction.getCurrency(),
-                    transaction.getTransactionReference()
-            );
-            
-            if (withdrawalSuccessful) {
-                // Update transaction status
-                transaction.setStatus(TransactionStatus.COMPLETED);
-                transaction.setCompletedAt(Instant.now());
-                transactionRepository.save(transaction);
-                
-                logger.info("Withdrawal transaction completed successfully: {}", transaction.getTransactionReference());
-            } else {
-                // Mark as failed
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("Failed to debit account");
-                transactionRepository.save(transaction);
-                
-                logger.error("Failed to complete withdrawal transaction: {}", transaction.getTransactionReference());
-            }
-            
-            // Send notification
-            notificationPublisherService.publishTransactionNotification(transaction);
-            
-        } catch (Exception e) {
-            logger.error("Error processing withdrawal transaction: {}", messageDto.getTransactionReference(), e);
+        // the account locks taken when the transaction was created are held until the message is done,
+        // a transaction with funds on hold took none
+        if (!claimedTransactionRunner.run(messageDto,
+                () -> completeWithdrawal(messageDto), lockedAccounts(messageDto))) {
+            logger.warn("Withdrawal transaction {} is not pending, skipping", messageDto.getTransactionReference());
+        }
+    }
+    
+    private void completeWithdrawal(TransactionMessageDto messageDto) {
+        // Call Store of Value service to debit the account, or to take the funds held for it
+        boolean withdrawalSuccessful = messageDto.isFundsHeld()
+                ? accountServiceClient.captureHold(
+                        messageDto.getSourceAccountId(), messageDto.getTransactionReference(), null)
+                : accountServiceClient.debitAccount(
+                        messageDto.getSourceAccountId(),
+                        messageDto.getAmount(),
+                        messageDto.getCurrency(),
+                        messageDto.getTransactionReference()
+                );
+        
+        TransactionStatus status;
+        if (withdrawalSuccessful) {
+            // Update transaction status
+            status = TransactionStatus.COMPLETED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, Instant.now(), null);
+        
+            logger.info("Withdrawal transaction completed successfully: {}", messageDto.getTransactionReference());
+        } else {
+            // Mark as failed
+            status = TransactionStatus.FAILED;
+            transactionRepository.transitionStatus(messageDto.getTransactionReference(),
+                    TransactionStatus.PROCESSING, status, null, "Failed to debit account");
+        
+            logger.error("Failed to complete withdrawal transaction: {}", messageDto.getTransactionReference());
+            releaseHold(messageDto);
+        }
+        
+        // Send notification
+        notificationPublisherService.publishTransactionNotification(messageDto, status);
+    }
+    
+    private Long[] lockedAccounts(TransactionMessageDto messageDto) {
+        return messageDto.isFundsHeld() ? new Long[0] : new Long[] {messageDto.getSourceAccountId()};
+    }
+    
+    // a failed transaction doesn't keep its funds until the hold expires
+    private void releaseHold(TransactionMessageDto messageDto) {
+        if (messageDto.isFundsHeld()) {
+            accountServiceClient.releaseHold(messageDto.getTransactionReference());
         }
     }
 } 
\ No newline at end of file
@@ -4,10 +4,12 @@ import com.ibrahim.banking.payment_service.dto.*;
 import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
 import com.ibrahim.banking.payment_service.exception.ResourceNotFoundException;
 import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import com.ibrahim.banking.payment_service.service.TransactionExportService;
 import com.ibrahim.banking.payment_service.service.TransactionService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
-import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -16,15 +18,23 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 import java.math.BigDecimal;
-import java.util.List;
+import java.time.Instant;
+import java.io.OutputStream;
+import jakarta.servlet.http.HttpServletResponse;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/transactions")
@@ -34,9 +44,14 @@ public class TransactionController {
     private static final Logger logger = LoggerFactory.getLogger(TransactionController.class);
     
     private final TransactionService transactionService;
+    private final TransactionExportService transactionExportService;
+    private final long exportTimeoutMillis;
     
-    public TransactionController(TransactionService transactionService) {
+    public TransactionController(TransactionService transactionService, TransactionExportService transactionExportService,
+                                 @Value("${payment.export.timeout-ms:600000}") long exportTimeoutMillis) {
         this.transactionService = transactionService;
+        this.transactionExportService = transactionExportService;
+        this.exportTimeoutMillis = exportTimeoutMillis;
     }
     
     @Operation(summary = "Create deposit transaction", description = "Creates a new deposit transaction for an account")
@@ -177,43 +192,109 @@ public class TransactionController {
         }
     }
     
-    @Operation(summary = "Get transactions by user ID", description = "Retrieves all transactions for a specific user")
+    @Operation(summary = "Get transactions by user ID",
+               description = "Retrieves a user's transactions, newest first, one page at a time. Pass the nextCursor " +
+                             "of a page as cursor to get the next one; it is null on the last page")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved transactions", 
-                     content = @Content(array = @ArraySchema(schema = @Schema(implementation = TransactionDetailsDto.class)))),
+                     content = @Content(schema = @Schema(implementation = TransactionPageDto.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor, limit or filter", 
+                     content = @Content(schema = @Schema(implementation = ErrorResponseDto.class))),
         @ApiResponse(responseCode = "401", description = "Unauthorized"),
         @ApiResponse(responseCode = "500", description = "Server error", 
                      content = @Content(schema = @Schema(implementation = ErrorResponseDto.class)))
     })
     @GetMapping("/user/{userId}")
     @PreAuthorize("hasAnyAuthority('ROLE_USER', 'ROLE_ADMIN')")
-    public ResponseEntity<List<TransactionDetailsDto>> getTransactionsByUserId(
-            @Parameter(description = "ID of the user") @PathVariable Long userId) {
-        List<Transaction> transactions = transactionService.getTransactionsByUserId(userId);
-        List<TransactionDetailsDto> transactionDetails = transactions.stream()
-                .map(TransactionDetailsDto::new)
-                .collect(Collectors.toList());
-        
-        return ResponseEntity.ok(transactionDetails);
+    public ResponseEntity<TransactionPageDto> getTransactionsByUserId(
+            @Parameter(description = "ID of the user") @PathVariable Long userId,
+            @Parameter(description = "Only transactions in this status") @RequestParam(required = false) TransactionStatus status,
+            @Parameter(description = "Only transactions of this type") @RequestParam(required = false) TransactionType type,
+            @Parameter(description = "Created at or after this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @Parameter(description = "Created before this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @Parameter(description = "nextCursor of the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, at most 200") @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(transactionService.getTransactionsByUserId(
+                userId, new TransactionHistoryFilter(status, type, from, to), cursor, limit));
     }
     
-    @Operation(summary = "Get transactions by account ID", description = "Retrieves all transactions for a specific account")
+    @Operation(summary = "Get transactions by account ID",
+               description = "Retrieves the transactions an account is the source or destination of, newest first, " +
+                             "one page at a time. Pass the nextCursor of a page as cursor to get the next one")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved transactions", 
-                     content = @Content(array = @ArraySchema(schema = @Schema(implementation = TransactionDetailsDto.class)))),
+                     content = @Content(schema = @Schema(implementation = TransactionPageDto.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor, limit or filter", 
+                     content = @Content(schema = @Schema(implementation = ErrorResponseDto.class))),
         @ApiResponse(responseCode = "401", description = "Unauthorized"),
         @ApiResponse(responseCode = "500", description = "Server error", 
                      content = @Content(schema = @Schema(implementation = ErrorResponseDto.class)))
     })
     @GetMapping("/account/{accountId}")
     @PreAuthorize("hasAnyAuthority('ROLE_USER', 'ROLE_ADMIN')")
-    public ResponseEntity<List<TransactionDetailsDto>> getTransactionsByAccountId(
-            @Parameter(description = "ID of the account") @PathVariable Long accountId) {
-        List<Transaction> transactions = transactionService.getTransactionsByAccountId(accountId);
-        List<TransactionDetailsDto> transactionDetails = transactions.stream()
-                .map(TransactionDetailsDto::new)
-                .collect(Collectors.toList());
+    public ResponseEntity<TransactionPageDto> getTransactionsByAccountId(
+            @Parameter(description = "ID of the account") @PathVariable Long accountId,
+            @Parameter(description = "Only transactions in this status") @RequestParam(required = false) TransactionStatus status,
+            @Parameter(description = "Only transactions of this type") @RequestParam(required = false) TransactionType type,
+            @Parameter(description = "Created at or after this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @Parameter(description = "Created before this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @Parameter(description = "nextCursor of the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, at most 200") @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(transactionService.getTransactionsByAccountId(
+                accountId, new TransactionHistoryFilter(status, type, from, to), cursor, limit));
+    }
+    
+    @Operation(summary = "Export transactions",
+               description = "Streams transactions, oldest first, as NDJSON or CSV. The response is gzip-encoded when " +
+                             "the client accepts it. Exports are for administrators")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Export streamed"),
+        @ApiResponse(responseCode = "400", description = "Unsupported format", 
+                     content = @Content(schema = @Schema(implementation = ErrorResponseDto.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden, requires the admin role")
+    })
+    @GetMapping("/export")
+    // nothing here knows which accounts a user owns, so exports, even of one account, are admin only
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public WebAsyncTask<Void> exportTransactions(
+            @Parameter(description = "Only transactions of this account, as source or destination") 
+            @RequestParam(required = false) Long accountId,
+            @Parameter(description = "Created at or after this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @Parameter(description = "Created before this instant") @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @Parameter(description = "ndjson or csv") @RequestParam(defaultValue = "ndjson") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) {
+        TransactionExportService.Format exportFormat = TransactionExportService.Format.of(format);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(exportFormat.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("transactions-" + (accountId != null ? accountId : "all") + "." + exportFormat.getExtension())
+                .build().toString());
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.addHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
         
-        return ResponseEntity.ok(transactionDetails);
+        // streamed off the request thread with a timeout of its own, the default async timeout
+        // (30s on Tomcat) is kept for every other async request
+        return new WebAsyncTask<>(exportTimeoutMillis, () -> {
+            OutputStream out = response.getOutputStream();
+            OutputStream target = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+            transactionExportService.export(accountId, from, to, exportFormat, target);
+            if (target instanceof GZIPOutputStream gzipStream) {
+                gzipStream.finish();
+            }
+            target.flush();
+            return null;
+        });
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.ibrahim.banking.payment_service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+public class AccountStatusEventDto implements Serializable {
+    private String accountNumber;
+    private String status;
+    private Instant changedAt;
+    
+    // Constructors
+    public AccountStatusEventDto() {
+    }
+    
+    public AccountStatusEventDto(String accountNumber, String status, Instant changedAt) {
+        this.accountNumber = accountNumber;
+        this.status = status;
+        this.changedAt = changedAt;
+    }
+    
+    // Getters and setters
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public void setAccountNumber(String accountNumber) {
+        this.accountNumber = accountNumber;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+
+    public void setChangedAt(Instant changedAt) {
+        this.changedAt = changedAt;
+    }
+}
@@ -42,6 +42,26 @@ public class TransactionDetailsDto {
         this.failureReason = transaction.getFailureReason();
     }
 
+    // used by the history queries to select the columns straight into the DTO, without loading entities
+    public TransactionDetailsDto(Long id, String transactionReference, TransactionType type, BigDecimal amount,
+                                 Long sourceAccountId, Long destinationAccountId, TransactionStatus status,
+                                 String currency, String description, Instant createdAt, Instant completedAt,
+                                 Long userId, String failureReason) {
+        this.id = id;
+        this.transactionReference = transactionReference;
+        this.type = type;
+        this.amount = amount;
+        this.sourceAccountId = sourceAccountId;
+        this.destinationAccountId = destinationAccountId;
+        this.status = status;
+        this.currency = currency;
+        this.description = description;
+        this.createdAt = createdAt;
+        this.completedAt = completedAt;
+        this.userId = userId;
+        this.failureReason = failureReason;
+    }
+
     // Getters and setters
     public Long getId() {
         return id;
@@ -0,0 +1,16 @@
+package com.ibrahim.banking.payment_service.dto;
+
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+
+import java.time.Instant;
+
+/**
+ * Optional filters of a history request; null means no filter. {@code from} is inclusive, {@code to} exclusive.
+ */
+public record TransactionHistoryFilter(TransactionStatus status, TransactionType type, Instant from, Instant to) {
+
+    public static TransactionHistoryFilter none() {
+        return new TransactionHistoryFilter(null, null, null, null);
+    }
+}
@@ -19,6 +19,7 @@ public class TransactionMessageDto implements Serializable {
     private String description;
     private Instant createdAt;
     private Long userId;
+    private boolean fundsHeld;  // no account locks were taken, the funds are on hold in Store of Value
     
     // Constructors
     public TransactionMessageDto() {
@@ -112,4 +113,12 @@ public class TransactionMessageDto implements Serializable {
     public void setUserId(Long userId) {
         this.userId = userId;
     }
+
+    public boolean isFundsHeld() {
+        return fundsHeld;
+    }
+
+    public void setFundsHeld(boolean fundsHeld) {
+        this.fundsHeld = fundsHeld;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.ibrahim.banking.payment_service.dto;
+
+import java.util.List;
+
+public class TransactionPageDto {
+    private List<TransactionDetailsDto> items;
+    private String nextCursor;  // null on the last page
+
+    // Constructors
+    public TransactionPageDto() {
+    }
+
+    public TransactionPageDto(List<TransactionDetailsDto> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and setters
+    public List<TransactionDetailsDto> getItems() {
+        return items;
+    }
+
+    public void setItems(List<TransactionDetailsDto> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
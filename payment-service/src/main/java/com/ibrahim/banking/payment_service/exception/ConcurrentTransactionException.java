@@ -1,5 +1,7 @@
 package com.ibrahim.banking.payment_service.exception;
 
+import java.util.Collection;
+
 public class ConcurrentTransactionException extends RuntimeException {
     
     public ConcurrentTransactionException(String message) {
@@ -9,4 +11,8 @@ public class ConcurrentTransactionException extends RuntimeException {
     public ConcurrentTransactionException(Long accountId) {
         super("A similar transaction for account " + accountId + " is already in progress. Please try again later.");
     }
+    
+    public ConcurrentTransactionException(Collection<Long> accountIds) {
+        super("A transaction for one of the accounts " + accountIds + " is already in progress. Please try again later.");
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import java.util.List;
+
+/**
+ * Backend that stores the per-account transaction locks. Implementations are selected with the
+ * {@code payment.lock.provider} property ({@code redis}, {@code in-memory} or {@code postgres}).
+ * <p>
+ * Account ids are always passed sorted ascending and without duplicates. A lock is owned by the
+ * token it was acquired with and only that owner may renew or release it.
+ */
+public interface AccountLockProvider {
+
+    /**
+     * Locks every account or none of them.
+     * @return true if all accounts were free and are now held by the owner
+     */
+    boolean tryAcquire(List<Long> accountIds, String ownerToken, long leaseMillis);
+
+    /**
+     * Releases the accounts still held by the owner.
+     * @return the number of locks released
+     */
+    long release(List<Long> accountIds, String ownerToken);
+
+    /**
+     * Extends the lease of the accounts still held by the owner.
+     * @return the number of locks renewed
+     */
+    long renew(List<Long> accountIds, String ownerToken, long leaseMillis);
+}
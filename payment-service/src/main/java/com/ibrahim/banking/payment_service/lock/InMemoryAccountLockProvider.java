@@ -0,0 +1,122 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Locks kept in this JVM, for single-node deployments where the Redis hop is pure overhead.
+ * Leases live in a concurrent map; every check-and-set on an account is guarded by one of a
+ * fixed number of stripe locks, taken in ascending stripe order for multi-account requests.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.lock.provider", havingValue = "in-memory")
+public class InMemoryAccountLockProvider implements AccountLockProvider {
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes;
+    private final LongSupplier currentTimeMillis;
+
+    @Autowired
+    public InMemoryAccountLockProvider(@Value("${payment.lock.in-memory.stripes:64}") int stripeCount) {
+        this(stripeCount, System::currentTimeMillis);
+    }
+
+    public InMemoryAccountLockProvider(int stripeCount, LongSupplier currentTimeMillis) {
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    @Override
+    public boolean tryAcquire(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        int[] held = lockStripes(accountIds);
+        try {
+            long now = currentTimeMillis.getAsLong();
+            for (Long accountId : accountIds) {
+                Lease lease = leases.get(accountId);
+                if (lease != null && lease.expiresAt > now) {
+                    return false;
+                }
+            }
+            Lease lease = new Lease(ownerToken, now + leaseMillis);
+            for (Long accountId : accountIds) {
+                leases.put(accountId, lease);
+            }
+            return true;
+        } finally {
+            unlockStripes(held);
+        }
+    }
+
+    @Override
+    public long release(List<Long> accountIds, String ownerToken) {
+        int[] held = lockStripes(accountIds);
+        try {
+            long released = 0;
+            long now = currentTimeMillis.getAsLong();
+            for (Long accountId : accountIds) {
+                if (isOwnedBy(leases.get(accountId), ownerToken, now)) {
+                    leases.remove(accountId);
+                    released++;
+                }
+            }
+            return released;
+        } finally {
+            unlockStripes(held);
+        }
+    }
+
+    @Override
+    public long renew(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        int[] held = lockStripes(accountIds);
+        try {
+            long renewed = 0;
+            long now = currentTimeMillis.getAsLong();
+            Lease extended = new Lease(ownerToken, now + leaseMillis);
+            for (Long accountId : accountIds) {
+                if (isOwnedBy(leases.get(accountId), ownerToken, now)) {
+                    leases.put(accountId, extended);
+                    renewed++;
+                }
+            }
+            return renewed;
+        } finally {
+            unlockStripes(held);
+        }
+    }
+
+    private boolean isOwnedBy(Lease lease, String ownerToken, long now) {
+        return lease != null && lease.owner.equals(ownerToken) && lease.expiresAt > now;
+    }
+
+    private int[] lockStripes(List<Long> accountIds) {
+        int[] indexes = accountIds.stream()
+                .mapToInt(accountId -> Math.floorMod(accountId.hashCode(), stripes.length))
+                .distinct()
+                .sorted()
+                .toArray();
+        for (int index : indexes) {
+            stripes[index].lock();
+        }
+        return indexes;
+    }
+
+    private void unlockStripes(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    private record Lease(String owner, long expiresAt) {
+    }
+}
@@ -0,0 +1,132 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Locks stored in the payment database, for deployments that want to drop Redis.
+ * <p>
+ * A transaction lock has to outlive the request that takes it (the consumer releases it), so it
+ * is kept as a lease row in {@code account_locks}. {@code pg_advisory_xact_lock} serializes the
+ * check-and-set on those rows: each acquire runs in its own short transaction that takes the
+ * advisory locks in ascending account order, inspects and upserts the leases, and commits.
+ * The table is created by the Flyway migration {@code V3__account_locks.sql}.
+ * <p>
+ * Locks are taken from inside the {@code @Transactional} create methods, which already hold a
+ * connection of the main pool. The provider has its own small pool ({@code payment.lock.postgres.pool-size})
+ * and transaction manager, so a lock call never waits for a second main-pool connection while its
+ * caller holds one, which under load could leave every request waiting on the pool.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.lock.provider", havingValue = "postgres")
+public class PostgresAccountLockProvider implements AccountLockProvider {
+
+    private static final String ADVISORY_LOCK_SQL = "SELECT pg_advisory_xact_lock(:accountId)";
+
+    private static final String COUNT_HELD_SQL =
+            "SELECT count(*) FROM account_locks WHERE account_id IN (:accountIds) AND expires_at > now()";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO account_locks (account_id, owner_token, expires_at) " +
+            "VALUES (:accountId, :owner, now() + :leaseMillis * interval '1 millisecond') " +
+            "ON CONFLICT (account_id) DO UPDATE SET owner_token = EXCLUDED.owner_token, expires_at = EXCLUDED.expires_at";
+
+    private static final String RELEASE_SQL =
+            "DELETE FROM account_locks WHERE account_id IN (:accountIds) AND owner_token = :owner AND expires_at > now()";
+
+    private static final String RENEW_SQL =
+            "UPDATE account_locks SET expires_at = now() + :leaseMillis * interval '1 millisecond' " +
+            "WHERE account_id IN (:accountIds) AND owner_token = :owner AND expires_at > now()";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final HikariDataSource ownedDataSource;
+
+    @Autowired
+    public PostgresAccountLockProvider(DataSourceProperties properties,
+                                       @Value("${payment.lock.postgres.pool-size:4}") int poolSize) {
+        this(lockDataSource(properties, poolSize));
+    }
+
+    /**
+     * @param dataSource used for nothing but the lock table; closed with the provider if it is a pool
+     */
+    public PostgresAccountLockProvider(DataSource dataSource) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        // a transaction of its own on its own connection, the advisory locks are dropped as soon as we are done
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.ownedDataSource = dataSource instanceof HikariDataSource hikari ? hikari : null;
+    }
+
+    // same database as the main pool; not a bean, a second DataSource bean would switch off the auto-configured one
+    private static HikariDataSource lockDataSource(DataSourceProperties properties, int poolSize) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("account-locks");
+        dataSource.setMaximumPoolSize(poolSize);
+        return dataSource;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (ownedDataSource != null) {
+            ownedDataSource.close();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        Boolean acquired = transactionTemplate.execute(status -> {
+            for (Long accountId : accountIds) {
+                jdbcTemplate.queryForList(ADVISORY_LOCK_SQL, new MapSqlParameterSource("accountId", accountId));
+            }
+
+            Long held = jdbcTemplate.queryForObject(COUNT_HELD_SQL,
+                    new MapSqlParameterSource("accountIds", accountIds), Long.class);
+            if (held != null && held > 0) {
+                return false;
+            }
+
+            MapSqlParameterSource[] rows = accountIds.stream()
+                    .map(accountId -> new MapSqlParameterSource()
+                            .addValue("accountId", accountId)
+                            .addValue("owner", ownerToken)
+                            .addValue("leaseMillis", leaseMillis))
+                    .toArray(MapSqlParameterSource[]::new);
+            jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+            return true;
+        });
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    @Override
+    public long release(List<Long> accountIds, String ownerToken) {
+        // own transaction, a release from a failing request must not roll back with it
+        Integer released = transactionTemplate.execute(status -> jdbcTemplate.update(RELEASE_SQL,
+                new MapSqlParameterSource()
+                        .addValue("accountIds", accountIds)
+                        .addValue("owner", ownerToken)));
+        return released != null ? released : 0;
+    }
+
+    @Override
+    public long renew(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        Integer renewed = transactionTemplate.execute(status -> jdbcTemplate.update(RENEW_SQL,
+                new MapSqlParameterSource()
+                        .addValue("accountIds", accountIds)
+                        .addValue("owner", ownerToken)
+                        .addValue("leaseMillis", leaseMillis)));
+        return renewed != null ? renewed : 0;
+    }
+}
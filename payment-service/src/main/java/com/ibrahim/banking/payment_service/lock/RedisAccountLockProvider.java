@@ -0,0 +1,75 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Shared locks in Redis, one key per account. Every operation is a single Lua script so a
+ * multi-account lock costs one round trip.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.lock.provider", havingValue = "redis", matchIfMissing = true)
+public class RedisAccountLockProvider implements AccountLockProvider {
+    private static final String KEY_PREFIX = "transaction:account:";
+
+    // all-or-nothing: either every account key is free and gets our token, or nothing is written.
+    // Returns 0 on success or the (1-based) position of the first key that is already held
+    static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "for i, key in ipairs(KEYS) do " +
+            "if redis.call('exists', key) == 1 then return i end end " +
+            "for i, key in ipairs(KEYS) do " +
+            "redis.call('set', key, ARGV[1], 'PX', ARGV[2]) end " +
+            "return 0", Long.class);
+
+    // only delete / extend the keys we still own, otherwise a late consumer
+    // could remove a lock that has since been taken by another transaction
+    static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "local released = 0 " +
+            "for i, key in ipairs(KEYS) do " +
+            "if redis.call('get', key) == ARGV[1] then released = released + redis.call('del', key) end end " +
+            "return released", Long.class);
+
+    static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local renewed = 0 " +
+            "for i, key in ipairs(KEYS) do " +
+            "if redis.call('get', key) == ARGV[1] then renewed = renewed + redis.call('pexpire', key, ARGV[2]) end end " +
+            "return renewed", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    public RedisAccountLockProvider(RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public boolean tryAcquire(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        Long busyIndex = redisTemplate.execute(ACQUIRE_SCRIPT, toKeys(accountIds), ownerToken,
+                String.valueOf(leaseMillis));
+        // Handle null case just to be safe
+        return busyIndex != null && busyIndex == 0;
+    }
+
+    @Override
+    public long release(List<Long> accountIds, String ownerToken) {
+        Long released = redisTemplate.execute(RELEASE_SCRIPT, toKeys(accountIds), ownerToken);
+        return released != null ? released : 0;
+    }
+
+    @Override
+    public long renew(List<Long> accountIds, String ownerToken, long leaseMillis) {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, toKeys(accountIds), ownerToken,
+                String.valueOf(leaseMillis));
+        return renewed != null ? renewed : 0;
+    }
+
+    private List<String> toKeys(List<Long> accountIds) {
+        return accountIds.stream()
+                .map(accountId -> KEY_PREFIX + accountId)
+                .toList();
+    }
+}
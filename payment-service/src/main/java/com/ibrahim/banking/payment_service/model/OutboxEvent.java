@@ -0,0 +1,91 @@
+package com.ibrahim.banking.payment_service.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Message waiting to be published to RabbitMQ. Written in the same database transaction as the
+ * transaction it belongs to and deleted by the outbox relay once the broker has confirmed it.
+ */
+@Entity
+@Table(name = "outbox_events")
+public class OutboxEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(nullable = false)
+    private String aggregateReference;  // transaction reference the message is about
+    
+    @Column(nullable = false)
+    private String exchange;
+    
+    @Column(nullable = false)
+    private String routingKey;
+    
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;  // message body as JSON
+    
+    @Column(nullable = false)
+    private Instant createdAt;
+    
+    public OutboxEvent() {
+    }
+    
+    public OutboxEvent(String aggregateReference, String exchange, String routingKey, String payload, Instant createdAt) {
+        this.aggregateReference = aggregateReference;
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+    
+    // Getters and setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getAggregateReference() {
+        return aggregateReference;
+    }
+
+    public void setAggregateReference(String aggregateReference) {
+        this.aggregateReference = aggregateReference;
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    public void setExchange(String exchange) {
+        this.exchange = exchange;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
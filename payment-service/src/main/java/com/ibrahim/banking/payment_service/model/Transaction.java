@@ -1,14 +1,29 @@
 package com.ibrahim.banking.payment_service.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
-@Table(name = "transactions")
+@Table(name = "transactions",
+        uniqueConstraints = @UniqueConstraint(name = "uk_transactions_reference", columnNames = "transactionReference"),
+        indexes = {
+                // history pages, newest first, per user and per side of an account
+                @Index(name = "idx_transactions_user_created", columnList = "userId, createdAt, id"),
+                @Index(name = "idx_transactions_source_created", columnList = "sourceAccountId, createdAt, id"),
+                @Index(name = "idx_transactions_destination_created", columnList = "destinationAccountId, createdAt, id"),
+                // the per-account queue, oldest first
+                @Index(name = "idx_transactions_source_queued", columnList = "sourceAccountId, queuedAt"),
+                @Index(name = "idx_transactions_destination_queued", columnList = "destinationAccountId, queuedAt"),
+                // claims the recovery sweep looks for
+                @Index(name = "idx_transactions_status_claimed", columnList = "status, claimedAt")
+        })
 public class Transaction {
+    // ids come from the sequence a block of 50 at a time, so inserts need no generated key back and can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transactions_seq")
+    @SequenceGenerator(name = "transactions_seq", sequenceName = "transactions_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
@@ -47,6 +62,14 @@ public class Transaction {
     
     private String metadata;  // extra data as JSON if needed
     
+    private Instant queuedAt;  // set while waiting for a concurrent transaction on the same account
+    
+    private Instant claimedAt;  // when a consumer last moved it to PROCESSING
+    
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean fundsHeld;  // funds were reserved in Store of Value on creation, the consumer captures the hold
+    
     // Getters and setters
     public Long getId() {
         return id;
@@ -159,4 +182,28 @@ public class Transaction {
     public void setMetadata(String metadata) {
         this.metadata = metadata;
     }
+
+    public Instant getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(Instant queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    public Instant getClaimedAt() {
+        return claimedAt;
+    }
+
+    public void setClaimedAt(Instant claimedAt) {
+        this.claimedAt = claimedAt;
+    }
+
+    public boolean isFundsHeld() {
+        return fundsHeld;
+    }
+
+    public void setFundsHeld(boolean fundsHeld) {
+        this.fundsHeld = fundsHeld;
+    }
 } 
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.ibrahim.banking.payment_service.model;
 
 public enum TransactionStatus {
     PENDING,
+    PROCESSING,  // claimed by a consumer, Store of Value is being called
     COMPLETED,
     FAILED,
     REVERSED
@@ -1,10 +1,17 @@
 package com.ibrahim.banking.payment_service.repository;
 
+import com.ibrahim.banking.payment_service.dto.TransactionDetailsDto;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
@@ -13,6 +20,17 @@ import java.util.Optional;
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
     
+    String HISTORY_SELECT = "SELECT new com.ibrahim.banking.payment_service.dto.TransactionDetailsDto(" +
+            "t.id, t.transactionReference, t.type, t.amount, t.sourceAccountId, t.destinationAccountId, t.status, " +
+            "t.currency, t.description, t.createdAt, t.completedAt, t.userId, t.failureReason) FROM Transaction t ";
+    
+    // newest first, the page after (beforeCreatedAt, beforeId); walks the (..., created_at, id) indexes
+    String HISTORY_FILTER_AND_KEYSET = "AND (:status IS NULL OR t.status = :status) " +
+            "AND (:type IS NULL OR t.type = :type) " +
+            "AND t.createdAt >= :from " +
+            "AND (t.createdAt < :beforeCreatedAt OR (t.createdAt = :beforeCreatedAt AND t.id < :beforeId)) " +
+            "ORDER BY t.createdAt DESC, t.id DESC";
+    
     Optional<Transaction> findByTransactionReference(String transactionReference);
     
     List<Transaction> findByUserId(Long userId);
@@ -30,4 +48,82 @@ public interface TransactionRepository extends JpaRepository<Transaction, Long>
     List<Transaction> findByUserIdAndCreatedAtBetween(Long userId, Instant startDate, Instant endDate);
     
     List<Transaction> findBySourceAccountIdAndCreatedAtBetween(Long accountId, Instant startDate, Instant endDate);
+    
+    @Query(HISTORY_SELECT + "WHERE t.userId = :userId " + HISTORY_FILTER_AND_KEYSET)
+    List<TransactionDetailsDto> findHistoryByUserId(@Param("userId") Long userId,
+                                                    @Param("status") TransactionStatus status,
+                                                    @Param("type") TransactionType type,
+                                                    @Param("from") Instant from,
+                                                    @Param("beforeCreatedAt") Instant beforeCreatedAt,
+                                                    @Param("beforeId") Long beforeId,
+                                                    Limit limit);
+    
+    // one query for both sides of the account, so the page is ordered across them
+    @Query(HISTORY_SELECT + "WHERE (t.sourceAccountId = :accountId OR t.destinationAccountId = :accountId) " +
+           HISTORY_FILTER_AND_KEYSET)
+    List<TransactionDetailsDto> findHistoryByAccountId(@Param("accountId") Long accountId,
+                                                       @Param("status") TransactionStatus status,
+                                                       @Param("type") TransactionType type,
+                                                       @Param("from") Instant from,
+                                                       @Param("beforeCreatedAt") Instant beforeCreatedAt,
+                                                       @Param("beforeId") Long beforeId,
+                                                       Limit limit);
+    
+    // transactions waiting behind an in-flight transaction on the account, in arrival order; ids are
+    // handed out in blocks per instance, so they don't follow arrival across instances
+    @Query("SELECT t FROM Transaction t WHERE t.queuedAt IS NOT NULL " +
+           "AND (t.sourceAccountId = :accountId OR t.destinationAccountId = :accountId) ORDER BY t.queuedAt, t.id")
+    List<Transaction> findQueuedByAccountId(@Param("accountId") Long accountId, Pageable pageable);
+    
+    @Query("SELECT COUNT(t) FROM Transaction t WHERE t.queuedAt IS NOT NULL " +
+           "AND (t.sourceAccountId = :accountId OR t.destinationAccountId = :accountId)")
+    long countQueuedByAccountId(@Param("accountId") Long accountId);
+    
+    List<Transaction> findByQueuedAtIsNotNullOrderByQueuedAtAscIdAsc(Pageable pageable);
+    
+    // takes a transaction out of the account queue; 0 rows when it already left it, dispatched or expired
+    // by another thread or node since it was read
+    @Transactional
+    @Modifying
+    @Query("UPDATE Transaction t SET t.queuedAt = NULL WHERE t.id = :id AND t.queuedAt IS NOT NULL")
+    int dequeue(@Param("id") Long id);
+    
+    // fails a transaction that is still queued; 0 rows when it already left the queue
+    @Transactional
+    @Modifying
+    @Query("UPDATE Transaction t SET t.queuedAt = NULL, " +
+           "t.status = com.ibrahim.banking.payment_service.model.TransactionStatus.FAILED, " +
+           "t.failureReason = :failureReason WHERE t.id = :id AND t.queuedAt IS NOT NULL")
+    int expireQueued(@Param("id") Long id, @Param("failureReason") String failureReason);
+    
+    // PENDING to PROCESSING for a consumer, 0 rows when it is not pending; the claim time lets the recovery
+    // sweep find transactions whose consumer died while processing them
+    @Transactional
+    @Modifying
+    @Query("UPDATE Transaction t SET t.status = com.ibrahim.banking.payment_service.model.TransactionStatus.PROCESSING, " +
+           "t.claimedAt = :claimedAt WHERE t.transactionReference = :reference " +
+           "AND t.status = com.ibrahim.banking.payment_service.model.TransactionStatus.PENDING")
+    int claim(@Param("reference") String reference, @Param("claimedAt") Instant claimedAt);
+    
+    List<Transaction> findByStatusAndClaimedAtBeforeOrderByClaimedAt(TransactionStatus status, Instant claimedBefore, Pageable pageable);
+    
+    // back to PENDING only if nobody claimed or finished it since it was read, so one sweep acts on it
+    @Transactional
+    @Modifying
+    @Query("UPDATE Transaction t SET t.status = com.ibrahim.banking.payment_service.model.TransactionStatus.PENDING " +
+           "WHERE t.id = :id AND t.status = com.ibrahim.banking.payment_service.model.TransactionStatus.PROCESSING " +
+           "AND t.claimedAt = :claimedAt")
+    int releaseStaleClaim(@Param("id") Long id, @Param("claimedAt") Instant claimedAt);
+    
+    // moves a transaction on only if it is still in the expected status; 0 rows means another consumer
+    // (or an earlier delivery of the same message) already moved it, or there is no such transaction
+    @Transactional
+    @Modifying
+    @Query("UPDATE Transaction t SET t.status = :to, t.completedAt = :completedAt, t.failureReason = :failureReason " +
+           "WHERE t.transactionReference = :reference AND t.status = :from")
+    int transitionStatus(@Param("reference") String reference,
+                         @Param("from") TransactionStatus from,
+                         @Param("to") TransactionStatus to,
+                         @Param("completedAt") Instant completedAt,
+                         @Param("failureReason") String failureReason);
 } 
\ No newline at end of file
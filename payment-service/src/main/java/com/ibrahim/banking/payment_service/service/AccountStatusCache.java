@@ -0,0 +1,151 @@
+package com.ibrahim.banking.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Short-lived local cache of whether an account is active, in front of the Store of Value status call.
+ * <p>
+ * Concurrent lookups of an account that is not cached share one remote call. Inactive or unknown
+ * accounts are cached too, for a shorter time. Entries are evicted when Store of Value announces a
+ * status change, so the TTL only bounds staleness when an event is lost. Failed lookups are never
+ * cached.
+ */
+@Service
+public class AccountStatusCache {
+    private static final Logger logger = LoggerFactory.getLogger(AccountStatusCache.class);
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxEntries;
+    private final LongSupplier nanoClock;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    @Autowired
+    public AccountStatusCache(
+            MeterRegistry meterRegistry,
+            @Value("${payment.account-status-cache.enabled:true}") boolean enabled,
+            @Value("${payment.account-status-cache.ttl-ms:5000}") long ttlMs,
+            @Value("${payment.account-status-cache.negative-ttl-ms:1000}") long negativeTtlMs,
+            @Value("${payment.account-status-cache.max-entries:100000}") int maxEntries) {
+        this(meterRegistry, enabled, ttlMs, negativeTtlMs, maxEntries, System::nanoTime);
+    }
+
+    AccountStatusCache(MeterRegistry meterRegistry, boolean enabled, long ttlMs, long negativeTtlMs,
+                       int maxEntries, LongSupplier nanoClock) {
+        this.enabled = enabled;
+        this.ttlNanos = ttlMs * 1_000_000;
+        this.negativeTtlNanos = negativeTtlMs * 1_000_000;
+        this.maxEntries = maxEntries;
+        this.nanoClock = nanoClock;
+
+        this.hits = lookups(meterRegistry, "hit");
+        this.misses = lookups(meterRegistry, "miss");
+        this.coalesced = lookups(meterRegistry, "coalesced");
+        Gauge.builder("payment.account.status.cache.size", entries, Map::size)
+                .description("Accounts with a cached status")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached status or loads it, sharing the load with concurrent callers for the same account
+     * @param loader remote lookup, an exception is passed on to every waiting caller and nothing is cached
+     */
+    public boolean isActive(Long accountId, Function<Long, Boolean> loader) {
+        if (!enabled) {
+            misses.increment();
+            return loader.apply(accountId);
+        }
+
+        Entry entry = entries.get(accountId);
+        if (entry != null && entry.expiresAt - nanoClock.getAsLong() > 0) {
+            hits.increment();
+            return entry.active;
+        }
+
+        CompletableFuture<Boolean> load = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(accountId, load);
+        if (existing != null) {
+            coalesced.increment();
+            return join(existing);
+        }
+
+        misses.increment();
+        long evictionsBeforeLoad = evictions.get();
+        try {
+            boolean active = loader.apply(accountId);
+            // a status change announced while we were loading may not be reflected in the answer
+            if (evictions.get() == evictionsBeforeLoad) {
+                store(accountId, active);
+            }
+            load.complete(active);
+            return active;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(accountId, load);
+        }
+    }
+
+    public void evict(Long accountId) {
+        evictions.incrementAndGet();
+        if (entries.remove(accountId) != null) {
+            logger.debug("Evicted cached status of account {}", accountId);
+        }
+    }
+
+    private void store(Long accountId, boolean active) {
+        if (entries.size() >= maxEntries) {
+            // crude but bounded: drop everything that expired, and everything if that wasn't enough
+            long now = nanoClock.getAsLong();
+            entries.values().removeIf(existing -> existing.expiresAt - now <= 0);
+            if (entries.size() >= maxEntries) {
+                entries.clear();
+            }
+        }
+        entries.put(accountId, new Entry(active, nanoClock.getAsLong() + (active ? ttlNanos : negativeTtlNanos)));
+    }
+
+    private boolean join(CompletableFuture<Boolean> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("payment.account.status.cache")
+                .description("Account status lookups by outcome, misses are remote calls")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Entry(boolean active, long expiresAt) {
+    }
+}
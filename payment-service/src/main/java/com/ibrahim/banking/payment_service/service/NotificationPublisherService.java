@@ -2,41 +2,29 @@ package com.ibrahim.banking.payment_service.service;
 
 import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
 import com.ibrahim.banking.payment_service.dto.NotificationMessageDto;
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
 import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
 import java.time.Instant;
 
 @Service
 public class NotificationPublisherService {
     private static final Logger logger = LoggerFactory.getLogger(NotificationPublisherService.class);
     
-    private final RabbitTemplate rabbitTemplate;
+    private final RabbitMessagePublisher messagePublisher;
     
-    public NotificationPublisherService(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public NotificationPublisherService(RabbitMessagePublisher messagePublisher) {
+        this.messagePublisher = messagePublisher;
     }
     
     public void publishTransactionNotification(Transaction transaction) {
-        NotificationMessageDto notificationDto = createNotificationDto(transaction);
-        
-        logger.info("Publishing notification for transaction with reference {} to notification queue", 
-                transaction.getTransactionReference());
-        
-        rabbitTemplate.convertAndSend(
-                RabbitMQConfig.NOTIFICATION_EXCHANGE, 
-                RabbitMQConfig.NOTIFICATION_ROUTING_KEY, 
-                notificationDto
-        );
-    }
-    
-    private NotificationMessageDto createNotificationDto(Transaction transaction) {
-        String message = generateNotificationMessage(transaction);
-        
-        return new NotificationMessageDto(
+        publish(new NotificationMessageDto(
                 transaction.getUserId(),
                 transaction.getTransactionReference(),
                 transaction.getType(),
@@ -44,18 +32,46 @@ public class NotificationPublisherService {
                 transaction.getAmount(),
                 transaction.getCurrency(),
                 Instant.now(),
-                message
+                generateNotificationMessage(transaction.getType(), transaction.getAmount(),
+                        transaction.getCurrency(), transaction.getStatus())
+        ));
+    }
+    
+    // for consumers, which only have the queued message and the status they moved the transaction to
+    public void publishTransactionNotification(TransactionMessageDto messageDto, TransactionStatus status) {
+        publish(new NotificationMessageDto(
+                messageDto.getUserId(),
+                messageDto.getTransactionReference(),
+                messageDto.getType(),
+                status,
+                messageDto.getAmount(),
+                messageDto.getCurrency(),
+                Instant.now(),
+                generateNotificationMessage(messageDto.getType(), messageDto.getAmount(),
+                        messageDto.getCurrency(), status)
+        ));
+    }
+    
+    private void publish(NotificationMessageDto notificationDto) {
+        logger.info("Publishing notification for transaction with reference {} to notification queue", 
+                notificationDto.getTransactionReference());
+        
+        messagePublisher.publish(
+                RabbitMQConfig.NOTIFICATION_EXCHANGE, 
+                RabbitMQConfig.NOTIFICATION_ROUTING_KEY, 
+                notificationDto
         );
     }
     
-    private String generateNotificationMessage(Transaction transaction) {
-        String statusMessage = transaction.getStatus().toString().toLowerCase();
-        String typeMessage = transaction.getType().toString().toLowerCase();
+    private String generateNotificationMessage(TransactionType type, BigDecimal amount, String currency,
+                                               TransactionStatus status) {
+        String statusMessage = status.toString().toLowerCase();
+        String typeMessage = type.toString().toLowerCase();
         
         return String.format("Your %s transaction of %s %s has been %s.", 
                 typeMessage, 
-                transaction.getAmount(), 
-                transaction.getCurrency(),
+                amount, 
+                currency,
                 statusMessage);
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import com.ibrahim.banking.payment_service.model.OutboxEvent;
+import com.ibrahim.banking.payment_service.repository.OutboxEventRepository;
+import com.ibrahim.banking.payment_service.service.RabbitMessagePublisher.PendingMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes outbox rows to RabbitMQ in batches.
+ * <p>
+ * Each pass locks up to {@code batch-size} of the oldest rows (rows locked by another instance are
+ * skipped), publishes them through the {@link RabbitMessagePublisher} with correlated publisher
+ * confirms, waits for the broker to confirm the whole batch and only then deletes them. If the broker does not confirm, the database transaction
+ * rolls back and the rows are published again on a later pass, so delivery is at least once.
+ * <p>
+ * The poll interval adapts to load: a full batch is followed immediately by the next one, a partial
+ * batch waits the minimum interval and every empty poll doubles the wait up to the maximum. New rows
+ * wake the relay up as soon as they commit, so the long idle interval does not add latency.
+ */
+@Service
+public class OutboxRelay {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final RabbitMessagePublisher messagePublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+
+    private final ScheduledExecutorService executor;
+    private final AtomicLong pollIntervalMs;
+    private ScheduledFuture<?> nextPass;
+
+    private final Timer relayLag;
+    private final Counter published;
+    private final Counter failures;
+    private final DistributionSummary batchSizes;
+
+    public OutboxRelay(
+            OutboxEventRepository outboxEventRepository,
+            RabbitMessagePublisher messagePublisher,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${payment.outbox.relay.enabled:true}") boolean enabled,
+            @Value("${payment.outbox.batch-size:100}") int batchSize,
+            @Value("${payment.outbox.min-interval-ms:10}") long minIntervalMs,
+            @Value("${payment.outbox.max-interval-ms:1000}") long maxIntervalMs) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.messagePublisher = messagePublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.pollIntervalMs = new AtomicLong(minIntervalMs);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.relayLag = Timer.builder("payment.outbox.relay.lag")
+                .description("Time from writing an outbox row to the broker confirming it")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.published = Counter.builder("payment.outbox.published")
+                .description("Outbox messages confirmed by the broker")
+                .register(meterRegistry);
+        this.failures = Counter.builder("payment.outbox.relay.failures")
+                .description("Relay passes that were rolled back")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("payment.outbox.relay.batch.size")
+                .description("Messages published per relay pass")
+                .register(meterRegistry);
+        Gauge.builder("payment.outbox.relay.poll.interval", pollIntervalMs, AtomicLong::get)
+                .description("Current wait between relay polls in milliseconds")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Outbox relay is disabled");
+            return;
+        }
+        logger.info("Starting outbox relay (batch size {}, poll interval {}-{} ms)", batchSize, minIntervalMs, maxIntervalMs);
+        schedule(0);
+    }
+
+    /**
+     * Runs the next pass right away instead of waiting out the current poll interval
+     */
+    public void wakeUp() {
+        if (!enabled) {
+            return;
+        }
+        pollIntervalMs.set(minIntervalMs);
+        synchronized (this) {
+            // only pull a waiting pass forward, a running one reschedules itself when done
+            if (nextPass != null && nextPass.getDelay(TimeUnit.MILLISECONDS) > 0 && nextPass.cancel(false)) {
+                schedule(0);
+            }
+        }
+    }
+
+    /**
+     * Publishes one batch of outbox rows and deletes them once the broker has confirmed them
+     * @return the number of messages published
+     */
+    public int relayBatch() {
+        Integer count = transactionTemplate.execute(status -> {
+            List<OutboxEvent> batch = outboxEventRepository.findBatchForRelay(PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                return 0;
+            }
+
+            // the broker has the whole batch, or this throws and the rows stay for the next pass
+            messagePublisher.publishAndConfirm(batch.stream()
+                    .map(event -> new PendingMessage(event.getAggregateReference(), event.getExchange(),
+                            event.getRoutingKey(), readPayload(event)))
+                    .toList());
+            outboxEventRepository.deleteAllInBatch(batch);
+
+            Instant now = Instant.now();
+            for (OutboxEvent event : batch) {
+                relayLag.record(Duration.between(event.getCreatedAt(), now));
+            }
+            return batch.size();
+        });
+
+        int relayed = count == null ? 0 : count;
+        if (relayed > 0) {
+            published.increment(relayed);
+            batchSizes.record(relayed);
+            logger.debug("Relayed {} outbox messages", relayed);
+        }
+        return relayed;
+    }
+
+    long getPollIntervalMs() {
+        return pollIntervalMs.get();
+    }
+
+    private void runPass() {
+        long delay;
+        try {
+            int relayed = relayBatch();
+            delay = nextDelay(relayed);
+        } catch (Exception e) {
+            failures.increment();
+            logger.error("Error relaying outbox messages, retrying in {} ms", maxIntervalMs, e);
+            pollIntervalMs.set(maxIntervalMs);
+            delay = maxIntervalMs;
+        }
+        schedule(delay);
+    }
+
+    // full batch: more is waiting, go again now; partial: poll soon; empty: back off
+    long nextDelay(int relayed) {
+        if (relayed >= batchSize) {
+            pollIntervalMs.set(minIntervalMs);
+            return 0;
+        }
+        if (relayed > 0) {
+            pollIntervalMs.set(minIntervalMs);
+            return minIntervalMs;
+        }
+        return pollIntervalMs.updateAndGet(interval -> Math.min(Math.max(interval, 1) * 2, maxIntervalMs));
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        nextPass = executor.schedule(this::runPass, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private TransactionMessageDto readPayload(OutboxEvent event) {
+        try {
+            return objectMapper.readValue(event.getPayload(), TransactionMessageDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable outbox payload for transaction " + event.getAggregateReference(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,305 @@
+package com.ibrahim.banking.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared RabbitMQ publisher for the transaction and notification publishers.
+ * <p>
+ * In {@code batching} mode (default) messages go into a bounded buffer and return immediately. A
+ * background thread flushes the buffer when it holds {@code batch-size} messages or the oldest one
+ * has waited {@code flush-interval-ms}, sends the batch with correlated publisher confirms and puts
+ * nacked or unconfirmed messages back at the head of the buffer, up to {@code max-attempts} sends per
+ * message, so they go out before anything buffered after them. Messages later in the same batch that
+ * were confirmed can still overtake a retried one.
+ * When the buffer is full the caller publishes synchronously instead of dropping the message.
+ * <p>
+ * {@code sync} mode keeps the old behaviour of one {@code convertAndSend} per call without confirms.
+ * <p>
+ * The outbox relay uses {@link #publishAndConfirm} instead, which skips the buffer and leaves retries
+ * to the caller.
+ */
+@Service
+public class RabbitMessagePublisher {
+    private static final Logger logger = LoggerFactory.getLogger(RabbitMessagePublisher.class);
+    private static final String SYNC_MODE = "sync";
+
+    private final RabbitTemplate rabbitTemplate;
+    private final boolean batching;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long confirmTimeoutMs;
+    private final int maxAttempts;
+    private final BlockingDeque<PendingMessage> buffer;
+
+    private final Counter nacks;
+    private final Counter retries;
+    private final Counter dropped;
+    private final Counter overflows;
+    private final Timer confirmLatency;
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public RabbitMessagePublisher(
+            RabbitTemplate rabbitTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${payment.publisher.mode:batching}") String mode,
+            @Value("${payment.publisher.buffer-capacity:10000}") int bufferCapacity,
+            @Value("${payment.publisher.batch-size:100}") int batchSize,
+            @Value("${payment.publisher.flush-interval-ms:5}") long flushIntervalMs,
+            @Value("${payment.publisher.confirm-timeout-ms:5000}") long confirmTimeoutMs,
+            @Value("${payment.publisher.max-attempts:5}") int maxAttempts) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.batching = !SYNC_MODE.equalsIgnoreCase(mode);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.maxAttempts = maxAttempts;
+        this.buffer = new LinkedBlockingDeque<>(bufferCapacity);
+
+        Gauge.builder("payment.publisher.buffer.depth", buffer, BlockingDeque::size)
+                .description("Messages waiting to be sent to RabbitMQ")
+                .register(meterRegistry);
+        this.nacks = Counter.builder("payment.publisher.nacks")
+                .description("Messages nacked or not confirmed by the broker in time")
+                .register(meterRegistry);
+        this.retries = Counter.builder("payment.publisher.retries")
+                .description("Messages put back into the buffer after a failed send")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("payment.publisher.dropped")
+                .description("Messages given up on after max-attempts sends")
+                .register(meterRegistry);
+        this.overflows = Counter.builder("payment.publisher.overflows")
+                .description("Messages published synchronously because the buffer was full")
+                .register(meterRegistry);
+        this.confirmLatency = Timer.builder("payment.publisher.confirm.latency")
+                .description("Time from sending a message to the broker confirming it")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!batching || running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "rabbit-publisher");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Started batching RabbitMQ publisher (batch size {}, flush interval {} ms)", batchSize, flushIntervalMs);
+    }
+
+    public void publish(String exchange, String routingKey, Object payload) {
+        if (!batching) {
+            rabbitTemplate.convertAndSend(exchange, routingKey, payload);
+            return;
+        }
+
+        PendingMessage message = new PendingMessage(UUID.randomUUID().toString(), exchange, routingKey, payload, 1);
+        if (!running || !buffer.offer(message)) {
+            // never lose a message because of back pressure, fall back to the caller's thread
+            overflows.increment();
+            logger.warn("Publisher buffer is full, publishing to {} synchronously", routingKey);
+            rabbitTemplate.convertAndSend(exchange, routingKey, payload);
+        }
+    }
+
+    /**
+     * Sends the messages on the caller's thread, in order, and waits for the broker to confirm all of them
+     * @throws AmqpException if a message could not be sent, was nacked or was not confirmed within
+     * {@code confirm-timeout-ms}; the caller decides whether to send them again
+     */
+    public void publishAndConfirm(List<PendingMessage> messages) {
+        List<CorrelationData> confirms = send(messages);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        for (CorrelationData correlationData : confirms) {
+            CorrelationData.Confirm confirm;
+            try {
+                confirm = awaitConfirm(correlationData, deadline);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmqpException("Interrupted waiting for publisher confirms", e);
+            }
+            if (confirm == null) {
+                nacks.increment();
+                throw new AmqpException("No publisher confirm for message " + correlationData.getId());
+            }
+            if (!confirm.isAck()) {
+                nacks.increment();
+                throw new AmqpException("Broker nacked message " + correlationData.getId() + ": " + confirm.getReason());
+            }
+        }
+    }
+
+    int getBufferDepth() {
+        return buffer.size();
+    }
+
+    private void flushLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingMessage first = buffer.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Error flushing RabbitMQ publisher buffer", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // waits up to the flush interval for the batch to fill up
+    private void collect(List<PendingMessage> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingMessage next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Sends the batch and waits for the broker to confirm every message
+     * @return the number of messages that were confirmed
+     */
+    int flush(List<PendingMessage> batch) throws InterruptedException {
+        long sentAt = System.nanoTime();
+        List<CorrelationData> confirms = send(batch);
+
+        int confirmed = 0;
+        List<PendingMessage> failed = new ArrayList<>();
+        long deadline = sentAt + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        for (int i = 0; i < batch.size(); i++) {
+            PendingMessage message = batch.get(i);
+            CorrelationData.Confirm confirm = awaitConfirm(confirms.get(i), deadline);
+            if (confirm != null && confirm.isAck()) {
+                confirmLatency.record(System.nanoTime() - sentAt, TimeUnit.NANOSECONDS);
+                confirmed++;
+            } else {
+                nacks.increment();
+                logger.warn("Message to {} was not confirmed ({})", message.routingKey(),
+                        confirm == null ? "no confirm within " + confirmTimeoutMs + " ms" : confirm.getReason());
+                failed.add(message);
+            }
+        }
+        retry(failed);
+        return confirmed;
+    }
+
+    // correlated confirms: everything is sent first, then the confirms are collected; a failed send
+    // counts as a nack
+    private List<CorrelationData> send(List<PendingMessage> batch) {
+        List<CorrelationData> confirms = new ArrayList<>(batch.size());
+        for (PendingMessage message : batch) {
+            CorrelationData correlationData = new CorrelationData(message.id());
+            try {
+                rabbitTemplate.convertAndSend(message.exchange(), message.routingKey(), message.payload(), correlationData);
+            } catch (Exception e) {
+                logger.warn("Error sending message to {}: {}", message.routingKey(), e.getMessage());
+                correlationData.getFuture().complete(new CorrelationData.Confirm(false, e.getMessage()));
+            }
+            confirms.add(correlationData);
+        }
+        return confirms;
+    }
+
+    private CorrelationData.Confirm awaitConfirm(CorrelationData correlationData, long deadline) throws InterruptedException {
+        try {
+            return correlationData.getFuture().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // back at the head of the buffer in their original order, ahead of everything published since
+    private void retry(List<PendingMessage> failed) {
+        for (int i = failed.size() - 1; i >= 0; i--) {
+            PendingMessage message = failed.get(i);
+            if (message.attempt() >= maxAttempts) {
+                dropped.increment();
+                logger.error("Giving up on message to {} after {} attempts", message.routingKey(), message.attempt());
+                continue;
+            }
+            retries.increment();
+            PendingMessage next = new PendingMessage(message.id(), message.exchange(), message.routingKey(),
+                    message.payload(), message.attempt() + 1);
+            if (!buffer.offerFirst(next)) {
+                overflows.increment();
+                rabbitTemplate.convertAndSend(next.exchange(), next.routingKey(), next.payload());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(confirmTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // hand whatever is still buffered to the broker before the connection goes away
+        List<PendingMessage> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (PendingMessage message : remaining) {
+            try {
+                rabbitTemplate.convertAndSend(message.exchange(), message.routingKey(), message.payload());
+            } catch (Exception e) {
+                logger.error("Lost message to {} during shutdown", message.routingKey(), e);
+            }
+        }
+    }
+
+    /**
+     * @param id correlation id of the publisher confirm, named in errors
+     * @param attempt sends so far including this one
+     */
+    public record PendingMessage(String id, String exchange, String routingKey, Object payload, int attempt) {
+
+        public PendingMessage(String id, String exchange, String routingKey, Object payload) {
+            this(id, exchange, routingKey, payload, 1);
+        }
+    }
+}
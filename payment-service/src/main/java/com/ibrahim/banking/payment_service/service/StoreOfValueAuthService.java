@@ -1,5 +1,8 @@
 package com.ibrahim.banking.payment_service.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,108 +12,219 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Service account token for the Store of Value and profile calls.
+ * <p>
+ * Reading the token is a single volatile read. A new token is fetched in the background before the
+ * current one expires, based on its {@code exp} claim, so callers only wait for a sign-in when there
+ * is no usable token at all, and then only one of them performs it.
+ */
 @Service
 public class StoreOfValueAuthService {
     private static final Logger logger = LoggerFactory.getLogger(StoreOfValueAuthService.class);
-    
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // don't hand out a token that may expire while the request is in flight
+    private static final Duration EXPIRY_SKEW = Duration.ofSeconds(5);
+
     private final RestTemplate restTemplate;
-    
+
     @Value("${service.auth.url}")
     private String storeOfValueServiceUrl;
-    
+
     @Value("${service.auth.username}")
     private String username;
-    
+
     @Value("${service.auth.password}")
     private String password;
-    
-    // Token expiration time is usually 24 hours (in milliseconds)
-    private static final long TOKEN_EXPIRATION_TIME = 23 * 60 * 60 * 1000;
-    
-    private final AtomicReference<String> cachedToken = new AtomicReference<>();
-    private Instant tokenExpirationTime;
-    
+
+    @Value("${service.auth.refresh-ahead-ms:60000}")
+    private long refreshAheadMs;
+
+    @Value("${service.auth.refresh-retry-ms:5000}")
+    private long refreshRetryMs;
+
+    // used when the token is not a JWT or has no exp claim
+    @Value("${service.auth.fallback-token-ttl-ms:82800000}")
+    private long fallbackTokenTtlMs;
+
+    private volatile AuthToken currentToken;
+    private final ReentrantLock signInLock = new ReentrantLock();
+    private final ScheduledExecutorService refreshScheduler;
+
     public StoreOfValueAuthService(RestTemplate restTemplate) {
         this.restTemplate = restTemplate;
+        this.refreshScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sov-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshScheduler.shutdownNow();
+    }
+
+    public String getAuthToken() {
+        AuthToken token = currentToken;
+        if (token != null && token.isUsableAt(Instant.now())) {
+            return token.value();
+        }
+        return refresh(token);
+    }
+
+    /**
+     * Replaces a token that a downstream service rejected with 401. Callers rejected with the same
+     * token share one sign-in, a token that was already replaced is not refreshed again.
+     * @return the new token, or null if signing in failed
+     */
+    public String refreshAfterUnauthorized(String rejectedToken) {
+        AuthToken token = currentToken;
+        if (token != null && !token.value().equals(rejectedToken) && token.isUsableAt(Instant.now())) {
+            return token.value();
+        }
+        logger.warn("Store of Value rejected the auth token, signing in again");
+        return refresh(token);
+    }
+
+    private String refresh(AuthToken stale) {
+        signInLock.lock();
+        try {
+            // another thread may have signed in while we were waiting
+            AuthToken token = currentToken;
+            if (token != null && token != stale && token.isUsableAt(Instant.now())) {
+                return token.value();
+            }
+
+            AuthToken fresh = signIn();
+            if (fresh == null) {
+                return null;
+            }
+            currentToken = fresh;
+            // at most one background sign-in per retry interval, even if the token is issued nearly expired
+            Duration untilRefresh = Duration.between(Instant.now(), fresh.refreshAt());
+            scheduleRefresh(fresh, untilRefresh.toMillis() < refreshRetryMs ? Duration.ofMillis(refreshRetryMs) : untilRefresh);
+            return fresh.value();
+        } finally {
+            signInLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh(AuthToken token, Duration delay) {
+        try {
+            refreshScheduler.schedule(() -> refreshInBackground(token),
+                    Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            logger.debug("Token refresh not scheduled: {}", e.getMessage());
+        }
     }
-    
-    public synchronized String getAuthToken() {
-        // Check if we have a valid token
-        if (cachedToken.get() != null && tokenExpirationTime != null && 
-                Instant.now().isBefore(tokenExpirationTime)) {
-            return cachedToken.get();
+
+    private void refreshInBackground(AuthToken token) {
+        if (currentToken != token) {
+            return; // already replaced, e.g. after a 401
         }
-        
-        // Token is null or expired, need to authenticate
+        if (refresh(token) == null && token.isUsableAt(Instant.now().plusMillis(refreshRetryMs))) {
+            logger.warn("Background token refresh failed, retrying in {} ms", refreshRetryMs);
+            scheduleRefresh(token, Duration.ofMillis(refreshRetryMs));
+        }
+    }
+
+    private AuthToken signIn() {
         try {
             String authUrl = storeOfValueServiceUrl + "/api/auth/signin";
             logger.info("Attempting to authenticate with profile service at URL: {}", authUrl);
             logger.info("Using username: {}", username);
             // Log partial password for debugging (first two chars and last two)
-            String maskedPassword = password.length() > 4 ? 
-                    password.substring(0, 2) + "****" + password.substring(password.length() - 2) : 
+            String maskedPassword = password.length() > 4 ?
+                    password.substring(0, 2) + "****" + password.substring(password.length() - 2) :
                     "****";
             logger.info("Using password (masked): {}", maskedPassword);
-            
+
             HttpHeaders headers = new HttpHeaders();
             headers.set("Content-Type", "application/json");
-            
+
             // Create request body
             Map<String, String> requestBody = Map.of(
                     "username", username,
                     "password", password
             );
-            
+
             HttpEntity<Map<String, String>> requestEntity = new HttpEntity<>(requestBody, headers);
-            
-            try {
-                logger.info("Sending authentication request to profile service...");
-                ResponseEntity<Map> response = restTemplate.postForEntity(
-                        authUrl,
-                        requestEntity,
-                        Map.class
-                );
-                
-                logger.info("Authentication response received with status: {}", response.getStatusCode());
-                
-                if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                    // Extract token from response
-                    String token = (String) response.getBody().get("token");
-                    String tokenType = (String) response.getBody().get("type");
-                    
-                    if (token != null && tokenType != null) {
-                        // Cache the token
-                        String fullToken = tokenType + " " + token;
-                        cachedToken.set(fullToken);
-                        
-                        // Set expiration time (with a small safety margin)
-                        tokenExpirationTime = Instant.now().plusMillis(TOKEN_EXPIRATION_TIME);
-                        
-                        logger.info("Successfully authenticated with profile service. Token acquired (first 10 chars): {}...", 
-                                token.substring(0, Math.min(10, token.length())));
-                        return fullToken;
-                    } else {
-                        logger.error("Authentication response did not contain token or type. Response body: {}", response.getBody());
+
+            logger.info("Sending authentication request to profile service...");
+            ResponseEntity<Map> response = restTemplate.postForEntity(
+                    authUrl,
+                    requestEntity,
+                    Map.class
+            );
+
+            logger.info("Authentication response received with status: {}", response.getStatusCode());
+
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                // Extract token from response
+                String token = (String) response.getBody().get("token");
+                String tokenType = (String) response.getBody().get("type");
+
+                if (token != null && tokenType != null) {
+                    Instant issuedAt = Instant.now();
+                    Instant expiresAt = expiryOf(token, issuedAt);
+
+                    // refresh ahead of expiry, but not in the first half of a short-lived token
+                    Instant refreshAt = expiresAt.minusMillis(refreshAheadMs);
+                    Instant halfLife = issuedAt.plus(Duration.between(issuedAt, expiresAt).dividedBy(2));
+                    if (refreshAt.isBefore(halfLife)) {
+                        refreshAt = halfLife;
                     }
+
+                    logger.info("Successfully authenticated with profile service. Token acquired (first 10 chars): {}..., expires at {}",
+                            token.substring(0, Math.min(10, token.length())), expiresAt);
+                    return new AuthToken(tokenType + " " + token, expiresAt, refreshAt);
                 } else {
-                    logger.error("Authentication failed with status code: {}", response.getStatusCode());
-                    if (response.getBody() != null) {
-                        logger.error("Response body: {}", response.getBody());
-                    }
+                    logger.error("Authentication response did not contain token or type. Response body: {}", response.getBody());
+                }
+            } else {
+                logger.error("Authentication failed with status code: {}", response.getStatusCode());
+                if (response.getBody() != null) {
+                    logger.error("Response body: {}", response.getBody());
                 }
-            } catch (Exception e) {
-                logger.error("Exception while making authentication request: {}", e.getMessage(), e);
             }
-            
-            return null;
-            
         } catch (Exception e) {
-            logger.error("Error authenticating with profile service", e);
-            return null;
+            logger.error("Exception while making authentication request: {}", e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    // the signature is checked by the services that accept the token, here we only need exp
+    private Instant expiryOf(String token, Instant issuedAt) {
+        String[] parts = token.split("\\.");
+        if (parts.length == 3) {
+            try {
+                JsonNode exp = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+                if (exp != null && exp.canConvertToLong()) {
+                    return Instant.ofEpochSecond(exp.asLong());
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("Could not read the expiry of the auth token: {}", e.getMessage());
+            }
+        }
+        return issuedAt.plusMillis(fallbackTokenTtlMs);
+    }
+
+    private record AuthToken(String value, Instant expiresAt, Instant refreshAt) {
+        boolean isUsableAt(Instant instant) {
+            return instant.isBefore(expiresAt.minus(EXPIRY_SKEW));
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,265 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.ibrahim.banking.payment_service.dto.TransactionDetailsDto;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes transaction history straight from a forward-only JDBC cursor to an output stream, one row at
+ * a time, so an export holds a row and the fetch buffer in memory however long the history is.
+ * <p>
+ * The rows are read in one read-only transaction, which PostgreSQL needs to fetch {@code fetch-size}
+ * rows per round trip instead of the whole result at once, and which routes the export to the read
+ * replica when one is configured.
+ */
+@Service
+public class TransactionExportService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExportService.class);
+
+    private static final String SELECT = "SELECT id, transaction_reference, type, amount, source_account_id, " +
+            "destination_account_id, status, currency, description, created_at, completed_at, user_id, failure_reason " +
+            "FROM transactions WHERE 1 = 1";
+
+    private static final String CSV_HEADER = "id,transactionReference,type,amount,sourceAccountId,destinationAccountId," +
+            "status,currency,description,createdAt,completedAt,userId,failureReason";
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported export format: " + name + ", use ndjson or csv");
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter jsonWriter;
+
+    public TransactionExportService(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper,
+            @Value("${payment.export.fetch-size:500}") int fetchSize) {
+        // its own template, the fetch size is only wanted for exports
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setName(TransactionExportService.class.getName() + ".export");
+        // the stream is the response's, it is closed by the caller
+        this.jsonWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Writes the transactions matching the filters, oldest first.
+     * @param accountId only transactions this account is the source or destination of, null for all
+     * @param from created at or after, null for no lower bound
+     * @param to created before, null for no upper bound
+     * @return the number of rows written
+     */
+    public long export(Long accountId, Instant from, Instant to, Format format, OutputStream out) {
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(SELECT);
+        if (accountId != null) {
+            sql.append(" AND (source_account_id = ? OR destination_account_id = ?)");
+            parameters.add(accountId);
+            parameters.add(accountId);
+        }
+        if (from != null) {
+            sql.append(" AND created_at >= ?");
+            parameters.add(Timestamp.from(from));
+        }
+        if (to != null) {
+            sql.append(" AND created_at < ?");
+            parameters.add(Timestamp.from(to));
+        }
+        sql.append(" ORDER BY created_at, id");
+
+        PreparedStatementCreator statement = connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setObject(i + 1, parameters.get(i));
+            }
+            return ps;
+        };
+
+        long rows = transactionTemplate.execute(status -> {
+            try (RowSink sink = format == Format.CSV ? new CsvSink(out) : new NdjsonSink(out)) {
+                jdbcTemplate.query(statement, resultSet -> {
+                    try {
+                        sink.write(toDetails(resultSet));
+                    } catch (IOException e) {
+                        // most likely the client went away, stop reading
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                return sink.count();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        logger.info("Exported {} transactions as {} (account {}, from {}, to {})", rows, format, accountId, from, to);
+        return rows;
+    }
+
+    private static TransactionDetailsDto toDetails(ResultSet rs) throws SQLException {
+        return new TransactionDetailsDto(
+                rs.getLong("id"),
+                rs.getString("transaction_reference"),
+                TransactionType.valueOf(rs.getString("type")),
+                rs.getBigDecimal("amount"),
+                rs.getObject("source_account_id", Long.class),
+                rs.getObject("destination_account_id", Long.class),
+                TransactionStatus.valueOf(rs.getString("status")),
+                rs.getString("currency"),
+                rs.getString("description"),
+                instant(rs.getTimestamp("created_at")),
+                instant(rs.getTimestamp("completed_at")),
+                rs.getObject("user_id", Long.class),
+                rs.getString("failure_reason"));
+    }
+
+    private static Instant instant(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+
+    private abstract static class RowSink implements AutoCloseable {
+        private long count;
+
+        final void write(TransactionDetailsDto row) throws IOException {
+            writeRow(row);
+            count++;
+        }
+
+        final long count() {
+            return count;
+        }
+
+        abstract void writeRow(TransactionDetailsDto row) throws IOException;
+
+        @Override
+        public abstract void close() throws IOException;
+    }
+
+    private final class NdjsonSink extends RowSink {
+        private final SequenceWriter writer;
+
+        private NdjsonSink(OutputStream out) throws IOException {
+            this.writer = jsonWriter.withRootValueSeparator("\n").writeValues(out);
+        }
+
+        @Override
+        void writeRow(TransactionDetailsDto row) throws IOException {
+            writer.write(row);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class CsvSink extends RowSink {
+        private final Writer writer;
+
+        private CsvSink(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(CSV_HEADER);
+            writer.write("\r\n");
+        }
+
+        @Override
+        void writeRow(TransactionDetailsDto row) throws IOException {
+            writer.write(String.join(",",
+                    value(row.getId()),
+                    text(row.getTransactionReference()),
+                    value(row.getType()),
+                    row.getAmount() != null ? row.getAmount().toPlainString() : "",
+                    value(row.getSourceAccountId()),
+                    value(row.getDestinationAccountId()),
+                    value(row.getStatus()),
+                    text(row.getCurrency()),
+                    text(row.getDescription()),
+                    value(row.getCreatedAt()),
+                    value(row.getCompletedAt()),
+                    value(row.getUserId()),
+                    text(row.getFailureReason())));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            // flushes what is buffered, the stream itself belongs to the caller
+            writer.flush();
+        }
+
+        private static String value(Object value) {
+            return value != null ? value.toString() : "";
+        }
+
+        // RFC 4180 quoting; text a spreadsheet would run as a formula gets a leading quote
+        static String text(String value) {
+            if (value == null || value.isEmpty()) {
+                return "";
+            }
+            if ("=+-@".indexOf(value.charAt(0)) >= 0) {
+                value = "'" + value;
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ibrahim.banking.payment_service.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position in a history listing, newest first: the next page holds the transactions before
+ * ({@code createdAt}, {@code id}). Handed to clients as an opaque base64url string.
+ */
+record TransactionHistoryCursor(Instant createdAt, long id) {
+
+    // later than any transaction, so the first page needs no separate query without a keyset condition
+    private static final Instant END_OF_TIME = Instant.parse("9999-12-31T23:59:59Z");
+
+    static TransactionHistoryCursor first(Instant to) {
+        // with an upper bound, (to, MIN_VALUE) keeps exactly the transactions created before it
+        return to == null
+                ? new TransactionHistoryCursor(END_OF_TIME, Long.MAX_VALUE)
+                : new TransactionHistoryCursor(to, Long.MIN_VALUE);
+    }
+
+    static TransactionHistoryCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new TransactionHistoryCursor(
+                    Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1])), Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            // NumberFormatException and bad base64 are IllegalArgumentExceptions too
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    String encode() {
+        String value = createdAt.getEpochSecond() + ":" + createdAt.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
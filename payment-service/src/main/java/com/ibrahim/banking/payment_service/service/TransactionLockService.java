@@ -1,53 +1,262 @@
 package com.ibrahim.banking.payment_service.service;
 
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.lock.AccountLockProvider;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Account locks held by a transaction from the moment it is created until its consumer is done.
+ * <p>
+ * Nothing renews the locks while the message waits in the outbox or in RabbitMQ, so they are taken
+ * with a queued lease sized for the worst-case queue delay ({@code payment.lock.queued-lease-ms}).
+ * The consumer resumes them under the short working lease, renewed in the background, and takes them
+ * back if the queued lease ran out before it got there and no other transaction took the accounts.
+ * <p>
+ * A consumer that fails keeps the locks for the listener's next attempt, under a lease that only
+ * covers the retry backoff: once the retries are exhausted and the message is dead-lettered, the
+ * accounts are free again shortly after instead of answering 409 for the whole queued lease.
+ */
 @Service
 public class TransactionLockService {
     private static final Logger logger = LoggerFactory.getLogger(TransactionLockService.class);
-    private static final long LOCK_TIMEOUT_SECONDS = 12; // 12 seconds lock time
-    private static final String KEY_PREFIX = "transaction:account:";
-    
-    private final RedisTemplate<String, String> redisTemplate;
-    
-    public TransactionLockService(RedisTemplate<String, String> redisTemplate) {
-        this.redisTemplate = redisTemplate;
+    private static final long LOCK_TIMEOUT_SECONDS = 12; // 12 seconds lease, renewed while a consumer is working
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(LOCK_TIMEOUT_SECONDS);
+    private static final long LEASE_RENEWAL_INTERVAL_MS = LEASE_MILLIS / 3;
+
+    private final AccountLockProvider lockProvider;
+    private final long queuedLeaseMillis;
+    private final long retainedLeaseMillis;
+    private final ScheduledExecutorService leaseRenewer;
+    private final List<Consumer<List<Long>>> releaseListeners = new CopyOnWriteArrayList<>();
+
+    public TransactionLockService(
+            AccountLockProvider lockProvider,
+            @Value("${payment.lock.queued-lease-ms:600000}") long queuedLeaseMillis,
+            @Value("${spring.rabbitmq.listener.simple.retry.max-interval:10000}") long retryMaxIntervalMillis) {
+        this.lockProvider = lockProvider;
+        this.queuedLeaseMillis = queuedLeaseMillis;
+        // the longest wait for the next attempt, plus a working lease of slack for it to resume them
+        this.retainedLeaseMillis = retryMaxIntervalMillis + LEASE_MILLIS;
+        this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-lock-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
-    
+
     /**
      * Attempts to acquire a lock for an account transaction
      * @param accountId The account ID to lock
+     * @param ownerToken Token identifying the holder, normally the transaction reference
      * @return true if lock was acquired, false if account already has an active transaction
      */
-    public boolean acquireTransactionLock(Long accountId) {
-        String key = KEY_PREFIX + accountId;
-        Boolean lockAcquired = redisTemplate.opsForValue()
-                .setIfAbsent(key, "LOCKED", LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        
-        // Handle null case just to be safe
-        boolean result = lockAcquired != null && lockAcquired;
-        
+    public boolean acquireTransactionLock(Long accountId, String ownerToken) {
+        return acquireTransactionLocks(Collections.singletonList(accountId), ownerToken);
+    }
+
+    /**
+     * Atomically locks every account (one Redis round trip with the default provider). Accounts are
+     * taken in ascending order and either all of them are acquired or none are, so two transfers
+     * between the same pair of accounts can never each hold one half. The locks get the queued lease,
+     * they have to outlast the message until a consumer resumes them.
+     * @param accountIds The accounts to lock
+     * @param ownerToken Token identifying the holder, normally the transaction reference
+     * @return true if all locks were acquired, false if any account already has an active transaction
+     */
+    public boolean acquireTransactionLocks(Collection<Long> accountIds, String ownerToken) {
+        List<Long> accounts = sorted(accountIds);
+        boolean result = lockProvider.tryAcquire(accounts, ownerToken, queuedLeaseMillis);
+
         if (result) {
-            logger.info("Acquired transaction lock for account: {}", accountId);
+            logger.info("Acquired transaction lock for accounts: {} (owner {})", accounts, ownerToken);
         } else {
-            logger.warn("Failed to acquire transaction lock for account: {} - concurrent transaction in progress", accountId);
+            logger.warn("Failed to acquire transaction lock for accounts: {} - concurrent transaction in progress", accounts);
         }
-        
+
         return result;
     }
-    
+
     /**
-     * Releases a transaction lock for an account (can be used if transaction completes before timeout)
+     * Releases a transaction lock for an account, but only if it is still held by the given owner
      * @param accountId The account ID to unlock
+     * @param ownerToken Token the lock was acquired with
+     * @return true if the lock was ours and has been deleted
      */
-    public void releaseTransactionLock(Long accountId) {
-        String key = KEY_PREFIX + accountId;
-        redisTemplate.delete(key);
-        logger.info("Released transaction lock for account: {}", accountId);
+    public boolean releaseTransactionLock(Long accountId, String ownerToken) {
+        return releaseTransactionLocks(Collections.singletonList(accountId), ownerToken) > 0;
+    }
+
+    /**
+     * Releases the locks on all given accounts that are still held by the owner
+     * @return the number of locks that were released
+     */
+    public long releaseTransactionLocks(Collection<Long> accountIds, String ownerToken) {
+        List<Long> accounts = sorted(accountIds);
+        long count = lockProvider.release(accounts, ownerToken);
+
+        if (count == accounts.size()) {
+            logger.info("Released transaction lock for accounts: {} (owner {})", accounts, ownerToken);
+        } else {
+            logger.warn("Released {} of {} transaction locks for accounts: {} - the rest are no longer held by {}",
+                    count, accounts.size(), accounts, ownerToken);
+        }
+        return count;
+    }
+
+    /**
+     * Extends the lease of the locks still held by the given owner
+     * @return true if every lease was extended, false if any lock expired or belongs to someone else
+     */
+    public boolean renewTransactionLocks(Collection<Long> accountIds, String ownerToken) {
+        List<Long> accounts = sorted(accountIds);
+        boolean result = lockProvider.renew(accounts, ownerToken, LEASE_MILLIS) == accounts.size();
+        if (!result) {
+            logger.warn("Could not renew all transaction locks for accounts: {} - lease lost by {}", accounts, ownerToken);
+        }
+        return result;
+    }
+
+    /**
+     * Takes over the locks acquired when the transaction was created. The lease is kept alive in
+     * the background while the caller works and the locks are released when the lease is closed.
+     * Locks whose queued lease ran out are taken again if they are free.
+     * @param ownerToken Token the locks were acquired with (the transaction reference)
+     * @param accountIds Accounts locked by the transaction, null entries are ignored
+     * @throws ConcurrentTransactionException if another transaction holds one of the accounts by now
+     */
+    public TransactionLease resumeLease(String ownerToken, Long... accountIds) {
+        List<Long> lockedAccounts = Arrays.stream(accountIds)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+
+        if (!lockedAccounts.isEmpty()) {
+            reclaim(sorted(lockedAccounts), ownerToken);
+        }
+
+        ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> {
+            try {
+                renewTransactionLocks(lockedAccounts, ownerToken);
+            } catch (Exception e) {
+                // keep the schedule alive, an exception would cancel further renewals
+                logger.error("Error renewing transaction locks for accounts: {}", lockedAccounts, e);
+            }
+        }, LEASE_RENEWAL_INTERVAL_MS, LEASE_RENEWAL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        return new TransactionLease(ownerToken, lockedAccounts, renewal);
+    }
+
+    // moves the locks to the working lease; acquisition is all-or-nothing, so any that expired while
+    // queued are taken again together with the ones still held
+    private void reclaim(List<Long> accounts, String ownerToken) {
+        if (lockProvider.renew(accounts, ownerToken, LEASE_MILLIS) == accounts.size()) {
+            return;
+        }
+        logger.warn("Queued lease on accounts {} ran out before {} was consumed, taking the locks again", accounts, ownerToken);
+        lockProvider.release(accounts, ownerToken);
+        if (!lockProvider.tryAcquire(accounts, ownerToken, LEASE_MILLIS)) {
+            throw new ConcurrentTransactionException(accounts);
+        }
+    }
+
+    /**
+     * Registers a callback that is told which accounts became free whenever a lease is closed,
+     * used to hand the accounts to the next queued transaction
+     */
+    public void addReleaseListener(Consumer<List<Long>> listener) {
+        releaseListeners.add(listener);
+    }
+
+    // sorted and de-duplicated so every caller takes the locks in the same order
+    private List<Long> sorted(Collection<Long> accountIds) {
+        return List.copyOf(new TreeSet<>(accountIds));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        leaseRenewer.shutdownNow();
+    }
+
+    /**
+     * Locks held by an in-flight transaction. Closing the lease stops renewal and releases the locks.
+     */
+    public class TransactionLease implements AutoCloseable {
+        private final String ownerToken;
+        private final List<Long> accountIds;
+        private final ScheduledFuture<?> renewal;
+        private boolean retained;
+
+        private TransactionLease(String ownerToken, List<Long> accountIds, ScheduledFuture<?> renewal) {
+            this.ownerToken = ownerToken;
+            this.accountIds = accountIds;
+            this.renewal = renewal;
+        }
+
+        public String getOwnerToken() {
+            return ownerToken;
+        }
+
+        public List<Long> getAccountIds() {
+            return accountIds;
+        }
+
+        /**
+         * Keeps the locks for the next attempt at the message instead of releasing them on close:
+         * renewal stops and the locks get a lease covering the retry backoff. A replay from the
+         * dead-letter queue takes them again if they are free by then.
+         */
+        public void retainForRedelivery() {
+            renewal.cancel(false);
+            retained = true;
+            if (accountIds.isEmpty()) {
+                return;
+            }
+            try {
+                if (lockProvider.renew(sorted(accountIds), ownerToken, retainedLeaseMillis) < accountIds.size()) {
+                    logger.warn("Could not keep all transaction locks for accounts: {} for redelivery of {}", accountIds, ownerToken);
+                }
+            } catch (Exception e) {
+                // the next delivery takes the locks again if they are free by then
+                logger.error("Error keeping transaction locks for accounts: {}", accountIds, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            renewal.cancel(false);
+            if (retained || accountIds.isEmpty()) {
+                return;
+            }
+            try {
+                releaseTransactionLocks(accountIds, ownerToken);
+            } catch (Exception e) {
+                // the lease will still run out on its own
+                logger.error("Error releasing transaction locks for accounts: {}", accountIds, e);
+            }
+            for (Consumer<List<Long>> listener : releaseListeners) {
+                try {
+                    listener.accept(accountIds);
+                } catch (Exception e) {
+                    logger.error("Error notifying release listener for accounts: {}", accountIds, e);
+                }
+            }
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
+import com.ibrahim.banking.payment_service.model.OutboxEvent;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.repository.OutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+
+/**
+ * Writes transaction messages to the outbox table instead of publishing them directly. The row
+ * commits or rolls back together with the transaction, the {@link OutboxRelay} publishes it afterwards.
+ */
+@Service
+public class TransactionOutboxService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionOutboxService.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionPublisherService publisherService;
+    private final OutboxRelay outboxRelay;
+    private final ObjectMapper objectMapper;
+
+    public TransactionOutboxService(
+            OutboxEventRepository outboxEventRepository,
+            TransactionPublisherService publisherService,
+            OutboxRelay outboxRelay,
+            ObjectMapper objectMapper) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.publisherService = publisherService;
+        this.outboxRelay = outboxRelay;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Adds the transaction message to the outbox, joining the caller's database transaction
+     */
+    @Transactional
+    public OutboxEvent enqueue(Transaction transaction) {
+        String routingKey = publisherService.routingKeyFor(transaction);
+        if (routingKey == null) {
+            throw new PaymentProcessingException("Unknown transaction type: " + transaction.getType());
+        }
+
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(publisherService.convertToMessageDto(transaction));
+        } catch (JsonProcessingException e) {
+            throw new PaymentProcessingException("Could not serialize transaction " + transaction.getTransactionReference(), e);
+        }
+
+        OutboxEvent event = outboxEventRepository.save(new OutboxEvent(transaction.getTransactionReference(),
+                publisherService.exchangeFor(transaction), routingKey, payload, Instant.now()));
+        logger.info("Added transaction {} to the outbox with routing key {}", transaction.getTransactionReference(), routingKey);
+
+        // don't wait for the next poll, but only once the row is visible to the relay
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    outboxRelay.wakeUp();
+                }
+            });
+        } else {
+            outboxRelay.wakeUp();
+        }
+        return event;
+    }
+}
@@ -4,47 +4,47 @@ import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionType;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
+/**
+ * Decides where a transaction message goes and what it carries. Transactions are never published
+ * from here: they are written to the outbox and the {@link OutboxRelay} publishes them.
+ */
 @Service
 public class TransactionPublisherService {
-    private static final Logger logger = LoggerFactory.getLogger(TransactionPublisherService.class);
     
-    private final RabbitTemplate rabbitTemplate;
+    private final TransactionShardRouter shardRouter;
     
-    public TransactionPublisherService(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public TransactionPublisherService(TransactionShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
     }
     
-    public void publishTransaction(Transaction transaction) {
-        TransactionMessageDto messageDto = convertToMessageDto(transaction);
-        
-        String routingKey;
-        switch (transaction.getType()) {
+    public String exchangeFor(Transaction transaction) {
+        return shardRouter.isEnabled() ? RabbitMQConfig.PAYMENT_SHARD_EXCHANGE : RabbitMQConfig.PAYMENT_EXCHANGE;
+    }
+    
+    // with sharding on every type of an account goes to the account's shard queue
+    public String routingKeyFor(Transaction transaction) {
+        if (shardRouter.isEnabled()) {
+            return shardRouter.routingKeyFor(transaction);
+        }
+        return routingKeyFor(transaction.getType());
+    }
+    
+    public String routingKeyFor(TransactionType type) {
+        switch (type) {
             case DEPOSIT:
-                routingKey = RabbitMQConfig.DEPOSIT_ROUTING_KEY;
-                break;
+                return RabbitMQConfig.DEPOSIT_ROUTING_KEY;
             case WITHDRAWAL:
-                routingKey = RabbitMQConfig.WITHDRAWAL_ROUTING_KEY;
-                break;
+                return RabbitMQConfig.WITHDRAWAL_ROUTING_KEY;
             case TRANSFER:
-                routingKey = RabbitMQConfig.TRANSFER_ROUTING_KEY;
-                break;
+                return RabbitMQConfig.TRANSFER_ROUTING_KEY;
             default:
-                logger.error("Unknown transaction type: {}", transaction.getType());
-                return;
+                return null;
         }
-        
-        logger.info("Publishing transaction with reference {} to queue with routing key {}", 
-                transaction.getTransactionReference(), routingKey);
-        
-        rabbitTemplate.convertAndSend(RabbitMQConfig.PAYMENT_EXCHANGE, routingKey, messageDto);
     }
     
-    private TransactionMessageDto convertToMessageDto(Transaction transaction) {
+    public TransactionMessageDto convertToMessageDto(Transaction transaction) {
         TransactionMessageDto dto = new TransactionMessageDto();
         dto.setId(transaction.getId());
         dto.setTransactionReference(transaction.getTransactionReference());
@@ -57,6 +57,7 @@ public class TransactionPublisherService {
         dto.setDescription(transaction.getDescription());
         dto.setCreatedAt(transaction.getCreatedAt());
         dto.setUserId(transaction.getUserId());
+        dto.setFundsHeld(transaction.isFundsHeld());
         return dto;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,222 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Optional per-account FIFO for transactions that arrive while the account is locked.
+ * <p>
+ * Instead of answering 409, a conflicting transaction is saved as PENDING with {@code queuedAt}
+ * set and is not published yet. When the in-flight transaction's lease is closed the oldest queued
+ * transaction on the account takes the lock and is handed to the outbox. A periodic sweep fails
+ * entries that waited longer than the configured limit and retries dispatch for accounts whose
+ * wake-up was missed.
+ * <p>
+ * Entries leave the queue through conditional updates on {@code queued_at}, so an entry read by a
+ * sweep and by a release listener, or by two nodes, is dispatched or expired exactly once.
+ * <p>
+ * The depth limit is checked under a per-account advisory lock held until the enqueuing transaction
+ * commits, so concurrent enqueues on an account count each other's entries. The locks use their own
+ * key space, apart from the single-key locks of the postgres lock provider.
+ */
+@Service
+public class TransactionQueueService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionQueueService.class);
+    private static final int SWEEP_BATCH_SIZE = 500;
+
+    // first key of the two-key advisory locks; account ids are folded into the second key, a
+    // collision only makes two accounts share a queue lock
+    private static final int QUEUE_LOCK_SPACE = 0x51554555;
+    private static final String QUEUE_LOCK_SQL =
+            "SELECT pg_advisory_xact_lock(" + QUEUE_LOCK_SPACE + ", CAST(:accountId % 2147483647 AS integer))";
+
+    private final TransactionRepository transactionRepository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionLockService transactionLockService;
+    private final TransactionOutboxService outboxService;
+    private final TransactionTemplate transactionTemplate;
+    private final NotificationPublisherService notificationPublisherService;
+    private final boolean enabled;
+    private final int maxDepth;
+    private final Duration maxWait;
+
+    public TransactionQueueService(
+            TransactionRepository transactionRepository,
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionLockService transactionLockService,
+            TransactionOutboxService outboxService,
+            PlatformTransactionManager transactionManager,
+            NotificationPublisherService notificationPublisherService,
+            @Value("${payment.queue.enabled:false}") boolean enabled,
+            @Value("${payment.queue.max-depth:50}") int maxDepth,
+            @Value("${payment.queue.max-wait-ms:30000}") long maxWaitMs) {
+        this.transactionRepository = transactionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionLockService = transactionLockService;
+        this.outboxService = outboxService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.notificationPublisherService = notificationPublisherService;
+        this.enabled = enabled;
+        this.maxDepth = maxDepth;
+        this.maxWait = Duration.ofMillis(maxWaitMs);
+
+        if (enabled) {
+            transactionLockService.addReleaseListener(this::dispatchNext);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * New transactions must line up behind queued ones, otherwise they would overtake them
+     * in the gap between a lease being released and the next entry taking it.
+     */
+    public boolean hasQueuedTransactions(Collection<Long> accountIds) {
+        if (!enabled) {
+            return false;
+        }
+        return accountIds.stream().anyMatch(accountId -> transactionRepository.countQueuedByAccountId(accountId) > 0);
+    }
+
+    /**
+     * Saves the transaction as a queued PENDING transaction, as part of the caller's transaction
+     * @throws ConcurrentTransactionException if any of the accounts already has a full queue
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Transaction enqueue(Transaction transaction) {
+        // ascending, like the account locks, so two transfers between the same accounts can't deadlock
+        Set<Long> accountIds = new TreeSet<>(accountsOf(transaction));
+        for (Long accountId : accountIds) {
+            jdbcTemplate.queryForList(QUEUE_LOCK_SQL, new MapSqlParameterSource("accountId", accountId));
+        }
+        for (Long accountId : accountIds) {
+            if (transactionRepository.countQueuedByAccountId(accountId) >= maxDepth) {
+                logger.warn("Transaction queue for account {} is full ({} entries)", accountId, maxDepth);
+                throw new ConcurrentTransactionException(
+                        "Too many transactions are waiting for account " + accountId + ". Please try again later.");
+            }
+        }
+
+        transaction.setQueuedAt(Instant.now());
+        Transaction savedTransaction = transactionRepository.save(transaction);
+        logger.info("Queued {} transaction {} behind an in-flight transaction",
+                savedTransaction.getType().toString().toLowerCase(), savedTransaction.getTransactionReference());
+        return savedTransaction;
+    }
+
+    /**
+     * Hands each freed account to the oldest transaction queued on it, if that transaction can
+     * lock all of its accounts
+     */
+    public void dispatchNext(Collection<Long> accountIds) {
+        for (Long accountId : accountIds) {
+            List<Transaction> head = transactionRepository.findQueuedByAccountId(accountId, PageRequest.of(0, 1));
+            if (!head.isEmpty()) {
+                dispatch(head.get(0));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${payment.queue.sweep-interval-ms:1000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+
+        Instant deadline = Instant.now().minus(maxWait);
+        Set<Long> waitingAccounts = new LinkedHashSet<>();
+        for (Transaction transaction : transactionRepository.findByQueuedAtIsNotNullOrderByQueuedAtAscIdAsc(
+                PageRequest.of(0, SWEEP_BATCH_SIZE))) {
+            if (transaction.getQueuedAt().isBefore(deadline)) {
+                expire(transaction);
+            } else {
+                waitingAccounts.addAll(accountsOf(transaction));
+            }
+        }
+        dispatchNext(waitingAccounts);
+    }
+
+    private void dispatch(Transaction transaction) {
+        List<Long> accountIds = accountsOf(transaction);
+        String reference = transaction.getTransactionReference();
+        if (!transactionLockService.acquireTransactionLocks(accountIds, reference)) {
+            // another account of this transaction is still busy, its release will retry
+            return;
+        }
+
+        Instant queuedAt = transaction.getQueuedAt();
+        boolean dispatched;
+        try {
+            // leaving the queue and entering the outbox happen together or not at all
+            dispatched = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                if (transactionRepository.dequeue(transaction.getId()) == 0) {
+                    return false;
+                }
+                transaction.setQueuedAt(null);
+                outboxService.enqueue(transaction);
+                return true;
+            }));
+        } catch (Exception e) {
+            // rolled back, the entry is still queued
+            logger.error("Error dispatching queued transaction {}", reference, e);
+            transactionLockService.releaseTransactionLocks(accountIds, reference);
+            return;
+        }
+
+        if (dispatched) {
+            logger.info("Dispatched queued transaction {} after {} ms", reference,
+                    Duration.between(queuedAt, Instant.now()).toMillis());
+        } else {
+            // expired since it was read; a dispatch elsewhere would still hold the locks, so these are ours
+            logger.info("Queued transaction {} already left the queue", reference);
+            transactionLockService.releaseTransactionLocks(accountIds, reference);
+        }
+    }
+
+    private void expire(Transaction transaction) {
+        String failureReason = "Timed out waiting for a concurrent transaction on the account";
+        if (transactionRepository.expireQueued(transaction.getId(), failureReason) == 0) {
+            // dispatched or expired by someone else since the sweep read it
+            return;
+        }
+        transaction.setQueuedAt(null);
+        transaction.setStatus(TransactionStatus.FAILED);
+        transaction.setFailureReason(failureReason);
+
+        logger.warn("Queued transaction {} expired after waiting more than {} ms",
+                transaction.getTransactionReference(), maxWait.toMillis());
+        notificationPublisherService.publishTransactionNotification(transaction);
+    }
+
+    private List<Long> accountsOf(Transaction transaction) {
+        return Stream.of(transaction.getSourceAccountId(), transaction.getDestinationAccountId())
+                .filter(Objects::nonNull)
+                .toList();
+    }
+}
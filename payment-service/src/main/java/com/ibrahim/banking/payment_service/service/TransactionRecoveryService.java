@@ -0,0 +1,83 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Hands back transactions whose consumer died while processing them.
+ * <p>
+ * A consumer claims a transaction by moving it to PROCESSING before it calls Store of Value. If the
+ * process dies before the outcome is recorded, the redelivered message finds the transaction no longer
+ * pending and is skipped, so nothing would ever finish it. A periodic sweep moves transactions claimed
+ * longer ago than {@code payment.recovery.stale-after-ms} back to PENDING and publishes them again
+ * through the outbox. The Store of Value calls are idempotent by transaction reference, so repeating
+ * the work of a claim that got as far as the posting is safe.
+ * <p>
+ * The limit has to be well above the time a consumer can spend on one claim, the Store of Value
+ * timeouts included, or a slow consumer would see its transaction handed to another one.
+ */
+@Service
+public class TransactionRecoveryService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionRecoveryService.class);
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionOutboxService outboxService;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration staleAfter;
+
+    public TransactionRecoveryService(
+            TransactionRepository transactionRepository,
+            TransactionOutboxService outboxService,
+            PlatformTransactionManager transactionManager,
+            @Value("${payment.recovery.stale-after-ms:300000}") long staleAfterMs) {
+        this.transactionRepository = transactionRepository;
+        this.outboxService = outboxService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.staleAfter = Duration.ofMillis(staleAfterMs);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.recovery.sweep-interval-ms:60000}")
+    public void sweep() {
+        Instant claimedBefore = Instant.now().minus(staleAfter);
+        for (Transaction transaction : transactionRepository.findByStatusAndClaimedAtBeforeOrderByClaimedAt(
+                TransactionStatus.PROCESSING, claimedBefore, PageRequest.of(0, SWEEP_BATCH_SIZE))) {
+            try {
+                recover(transaction);
+            } catch (Exception e) {
+                logger.error("Error recovering transaction {}", transaction.getTransactionReference(), e);
+            }
+        }
+    }
+
+    private void recover(Transaction transaction) {
+        String reference = transaction.getTransactionReference();
+        // back to pending and into the outbox together; another sweep or a late consumer that got
+        // there first leaves no row to update
+        boolean recovered = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (transactionRepository.releaseStaleClaim(transaction.getId(), transaction.getClaimedAt()) == 0) {
+                return false;
+            }
+            transaction.setStatus(TransactionStatus.PENDING);
+            outboxService.enqueue(transaction);
+            return true;
+        }));
+
+        if (recovered) {
+            logger.warn("Transaction {} was processing since {}, its consumer is gone; published it again",
+                    reference, transaction.getClaimedAt());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ibrahim.banking.payment_service.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Hands out transaction references like {@code TXN-0F3K9ZQ7M2B4X}: 63 bits of milliseconds since
+ * 2025-01-01, node id and a per-millisecond counter, written as 13 Crockford base32 characters.
+ * <p>
+ * A reference is unique as long as every instance has its own node id, and references sort by the
+ * time they were created, so new rows land at the right edge of the reference index. The last
+ * timestamp and counter handed out sit in one atomic long: more than 4096 references in a
+ * millisecond, or the clock stepping back, borrow the next millisecond instead of waiting, so a
+ * node's references only ever increase while it runs.
+ */
+@Service
+public class TransactionReferenceGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionReferenceGenerator.class);
+
+    static final String PREFIX = "TXN-";
+
+    private static final long EPOCH_MILLIS = 1_735_689_600_000L;  // 2025-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int COUNTER_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int LENGTH = 13;
+
+    private final long node;
+    private final LongSupplier currentTimeMillis;
+
+    // (milliseconds since the epoch << COUNTER_BITS) | counter of the last reference handed out
+    private final AtomicLong last = new AtomicLong();
+
+    @Autowired
+    public TransactionReferenceGenerator(@Value("${payment.references.node-id:-1}") int nodeId) {
+        this(nodeId < 0 ? nodeIdFromHostName() : nodeId, System::currentTimeMillis);
+    }
+
+    TransactionReferenceGenerator(int nodeId, LongSupplier currentTimeMillis) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ", was " + nodeId);
+        }
+        this.node = nodeId;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    public String next() {
+        long now = (currentTimeMillis.getAsLong() - EPOCH_MILLIS) << COUNTER_BITS;
+        long previous;
+        long claimed;
+        do {
+            previous = last.get();
+            // a full counter carries into the millisecond
+            claimed = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, claimed));
+
+        long millis = claimed >>> COUNTER_BITS;
+        long counter = claimed & ((1L << COUNTER_BITS) - 1);
+        return encode(millis << (NODE_BITS + COUNTER_BITS) | node << COUNTER_BITS | counter);
+    }
+
+    static String encode(long value) {
+        char[] chars = new char[PREFIX.length() + LENGTH];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        for (int i = chars.length - 1; i >= PREFIX.length(); i--) {
+            chars[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    // without a configured id, two instances share a node id about once in a thousand pairs;
+    // the unique key on the reference still turns that into a failed insert, never a wrong lookup
+    private static int nodeIdFromHostName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = String.valueOf(ProcessHandle.current().pid());
+        }
+        int nodeId = Math.floorMod(host.hashCode(), MAX_NODE_ID + 1);
+        logger.info("No payment.references.node-id configured, using {} derived from host {}", nodeId, host);
+        return nodeId;
+    }
+}
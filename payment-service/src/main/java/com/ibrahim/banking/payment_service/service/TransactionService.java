@@ -1,13 +1,21 @@
 package com.ibrahim.banking.payment_service.service;
 
+import com.ibrahim.banking.payment_service.config.ReplicaRoutingDataSource;
 import com.ibrahim.banking.payment_service.consumer.AccountServiceClient;
+import com.ibrahim.banking.payment_service.dto.TransactionDetailsDto;
+import com.ibrahim.banking.payment_service.dto.TransactionHistoryFilter;
+import com.ibrahim.banking.payment_service.dto.TransactionPageDto;
 import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.exception.InvalidTransactionException;
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -15,7 +23,6 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 @Service
 public class TransactionService {
@@ -23,18 +30,33 @@ public class TransactionService {
     
     private final TransactionRepository transactionRepository;
     private final AccountServiceClient accountServiceClient;
-    private final TransactionPublisherService publisherService;
+    private final TransactionOutboxService outboxService;
     private final TransactionLockService transactionLockService;
+    private final TransactionQueueService transactionQueueService;
+    private final TransactionReferenceGenerator referenceGenerator;
+    
+    // withdrawals and transfers reserve their funds in Store of Value when they are created,
+    // instead of locking the accounts until the consumer is done
+    @Value("${payment.holds.enabled:false}")
+    private boolean holdsEnabled;
+    
+    // larger history limits are capped to this
+    @Value("${payment.history.max-page-size:200}")
+    private int maxPageSize;
     
     public TransactionService(
             TransactionRepository transactionRepository,
             AccountServiceClient accountServiceClient,
-            TransactionPublisherService publisherService,
-            TransactionLockService transactionLockService) {
+            TransactionOutboxService outboxService,
+            TransactionLockService transactionLockService,
+            TransactionQueueService transactionQueueService,
+            TransactionReferenceGenerator referenceGenerator) {
         this.transactionRepository = transactionRepository;
         this.accountServiceClient = accountServiceClient;
-        this.publisherService = publisherService;
+        this.outboxService = outboxService;
         this.transactionLockService = transactionLockService;
+        this.transactionQueueService = transactionQueueService;
+        this.referenceGenerator = referenceGenerator;
     }
     
     @Transactional
@@ -45,14 +67,15 @@ public class TransactionService {
             throw new IllegalArgumentException("Account is not active or does not exist");
         }
         
-        // Check if a transaction for this account is already in progress
-        if (!transactionLockService.acquireTransactionLock(accountId)) {
-            throw new ConcurrentTransactionException(accountId);
-        }
+        // Check if a transaction for this account is already in progress,
+        // the reference doubles as the lock owner so the consumer can release it
+        String transactionReference = generateTransactionReference();
+        List<Long> lockedAccounts = List.of(accountId);
+        boolean locked = lockOrQueue(lockedAccounts, transactionReference);
         
         try {
             Transaction transaction = new Transaction();
-            transaction.setTransactionReference(generateTransactionReference());
+            transaction.setTransactionReference(transactionReference);
             transaction.setType(TransactionType.DEPOSIT);
             transaction.setAmount(amount);
             transaction.setSourceAccountId(accountId);
@@ -61,22 +84,30 @@ public class TransactionService {
             transaction.setDescription(description);
             transaction.setCreatedAt(Instant.now());
             transaction.setUserId(userId);
+            touchReadKeys(userId, transactionReference, accountId);
+            
+            if (!locked) {
+                // account is busy, wait in line instead of rejecting the request
+                return transactionQueueService.enqueue(transaction);
+            }
             
             // Save to db
             Transaction savedTransaction = transactionRepository.save(transaction);
             logger.info("Created deposit transaction: {}", savedTransaction.getTransactionReference());
             
-            // send to que
-            publisherService.publishTransaction(savedTransaction);
-            logger.info("Published deposit transaction to queue: {}", savedTransaction.getTransactionReference());
+            // send to que, the outbox relay publishes it after commit
+            outboxService.enqueue(savedTransaction);
+            logger.info("Added deposit transaction to outbox: {}", savedTransaction.getTransactionReference());
             
             return savedTransaction;
         } catch (Exception e) {
             // In case of exception, manually release the lock to prevent deadlock
-            transactionLockService.releaseTransactionLock(accountId);
+            if (locked) {
+                transactionLockService.releaseTransactionLocks(lockedAccounts, transactionReference);
+            }
             throw e;
         }
-        // We don't release the lock here, it will auto-expire after the configured timeout (12 seconds)
+        // We don't release the lock here, the consumer releases it once the transaction is processed
     }
     
     @Transactional
@@ -87,36 +118,49 @@ public class TransactionService {
             throw new IllegalArgumentException("Account is not active or does not exist");
         }
         
-        // Check if a transaction for this account is already in progress
-        if (!transactionLockService.acquireTransactionLock(accountId)) {
-            throw new ConcurrentTransactionException(accountId);
+        String transactionReference = generateTransactionReference();
+        Transaction transaction = new Transaction();
+        transaction.setTransactionReference(transactionReference);
+        transaction.setType(TransactionType.WITHDRAWAL);
+        transaction.setAmount(amount);
+        transaction.setSourceAccountId(accountId);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setCurrency(currency);
+        transaction.setDescription(description);
+        transaction.setCreatedAt(Instant.now());
+        transaction.setUserId(userId);
+        touchReadKeys(userId, transactionReference, accountId);
+        
+        if (holdsEnabled) {
+            return holdAndEnqueue(transaction);
         }
         
+        // Check if a transaction for this account is already in progress,
+        // the reference doubles as the lock owner so the consumer can release it
+        List<Long> lockedAccounts = List.of(accountId);
+        boolean locked = lockOrQueue(lockedAccounts, transactionReference);
+        
         try {
-            Transaction transaction = new Transaction();
-            transaction.setTransactionReference(generateTransactionReference());
-            transaction.setType(TransactionType.WITHDRAWAL);
-            transaction.setAmount(amount);
-            transaction.setSourceAccountId(accountId);
-            transaction.setStatus(TransactionStatus.PENDING);
-            transaction.setCurrency(currency);
-            transaction.setDescription(description);
-            transaction.setCreatedAt(Instant.now());
-            transaction.setUserId(userId);
+            if (!locked) {
+                // account is busy, wait in line instead of rejecting the request
+                return transactionQueueService.enqueue(transaction);
+            }
             
             Transaction savedTransaction = transactionRepository.save(transaction);
             logger.info("Created withdrawal transaction: {}", savedTransaction.getTransactionReference());
             
-            publisherService.publishTransaction(savedTransaction);
-            logger.info("Published withdrawal transaction to queue: {}", savedTransaction.getTransactionReference());
+            outboxService.enqueue(savedTransaction);
+            logger.info("Added withdrawal transaction to outbox: {}", savedTransaction.getTransactionReference());
             
             return savedTransaction;
         } catch (Exception e) {
             // In case of exception, manually release the lock to prevent deadlock
-            transactionLockService.releaseTransactionLock(accountId);
+            if (locked) {
+                transactionLockService.releaseTransactionLocks(lockedAccounts, transactionReference);
+            }
             throw e;
         }
-        // We don't release the lock here, it will auto-expire after the configured timeout (12 seconds)
+        // We don't release the lock here, the consumer releases it once the transaction is processed
     }
     
     @Transactional
@@ -132,73 +176,192 @@ public class TransactionService {
             throw new IllegalArgumentException("Destination account is not active or does not exist");
         }
         
-        // Check if transactions for these accounts are already in progress
-        boolean sourceAccountLocked = transactionLockService.acquireTransactionLock(sourceAccountId);
-        if (!sourceAccountLocked) {
-            throw new ConcurrentTransactionException(sourceAccountId);
+        String transactionReference = generateTransactionReference();
+        Transaction transaction = new Transaction();
+        transaction.setTransactionReference(transactionReference);
+        transaction.setType(TransactionType.TRANSFER);
+        transaction.setAmount(amount);
+        transaction.setSourceAccountId(sourceAccountId);
+        transaction.setDestinationAccountId(destinationAccountId);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setCurrency(currency);
+        transaction.setDescription(description);
+        transaction.setCreatedAt(Instant.now());
+        transaction.setUserId(userId);
+        touchReadKeys(userId, transactionReference, sourceAccountId, destinationAccountId);
+        
+        if (holdsEnabled) {
+            return holdAndEnqueue(transaction);
         }
         
-        boolean destinationAccountLocked = false;
+        // Lock both accounts at once so opposite-direction transfers cannot each hold half
+        List<Long> lockedAccounts = List.of(sourceAccountId, destinationAccountId);
+        boolean locked = lockOrQueue(lockedAccounts, transactionReference);
+        
         try {
-            destinationAccountLocked = transactionLockService.acquireTransactionLock(destinationAccountId);
-            if (!destinationAccountLocked) {
-                // Release source account lock if destination is locked
-                transactionLockService.releaseTransactionLock(sourceAccountId);
-                throw new ConcurrentTransactionException(destinationAccountId);
+            if (!locked) {
+                // account is busy, wait in line instead of rejecting the request
+                return transactionQueueService.enqueue(transaction);
             }
             
-            Transaction transaction = new Transaction();
-            transaction.setTransactionReference(generateTransactionReference());
-            transaction.setType(TransactionType.TRANSFER);
-            transaction.setAmount(amount);
-            transaction.setSourceAccountId(sourceAccountId);
-            transaction.setDestinationAccountId(destinationAccountId);
-            transaction.setStatus(TransactionStatus.PENDING);
-            transaction.setCurrency(currency);
-            transaction.setDescription(description);
-            transaction.setCreatedAt(Instant.now());
-            transaction.setUserId(userId);
-            
             // save it
             Transaction savedTransaction = transactionRepository.save(transaction);
             logger.info("Created transfer transaction: {}", savedTransaction.getTransactionReference());
             
-            // publish to queue
-            publisherService.publishTransaction(savedTransaction);
-            logger.info("Published transfer transaction to queue: {}", savedTransaction.getTransactionReference());
+            // publish to queue through the outbox
+            outboxService.enqueue(savedTransaction);
+            logger.info("Added transfer transaction to outbox: {}", savedTransaction.getTransactionReference());
             
             return savedTransaction;
         } catch (Exception e) {
             // In case of exception, manually release the locks to prevent deadlock
-            if (sourceAccountLocked) {
-                transactionLockService.releaseTransactionLock(sourceAccountId);
-            }
-            if (destinationAccountLocked) {
-                transactionLockService.releaseTransactionLock(destinationAccountId);
+            if (locked) {
+                transactionLockService.releaseTransactionLocks(lockedAccounts, transactionReference);
             }
             throw e;
         }
-        // We don't release the locks here, they will auto-expire after the configured timeout (12 seconds)
+        // We don't release the locks here, the consumer releases them once the transfer is processed
     }
     
+    @Transactional(readOnly = true)
     public Optional<Transaction> getTransactionByReference(String transactionReference) {
+        touchReadKeys(null, transactionReference);
         return transactionRepository.findByTransactionReference(transactionReference);
     }
     
-    public List<Transaction> getTransactionsByUserId(Long userId) {
-        return transactionRepository.findByUserId(userId);
+    /**
+     * One page of a user's transactions, newest first.
+     * @param cursor the {@code nextCursor} of the previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor is not one this service handed out
+     */
+    @Transactional(readOnly = true)
+    public TransactionPageDto getTransactionsByUserId(Long userId, TransactionHistoryFilter filter, String cursor, int limit) {
+        touchReadKeys(userId, null);
+        TransactionHistoryCursor before = startOf(filter, cursor);
+        int pageSize = pageSize(limit);
+        return page(transactionRepository.findHistoryByUserId(userId, filter.status(), filter.type(), fromOf(filter),
+                before.createdAt(), before.id(), Limit.of(pageSize + 1)), pageSize);
+    }
+    
+    /**
+     * One page of the transactions an account took part in, as source or destination, newest first.
+     * @param cursor the {@code nextCursor} of the previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor is not one this service handed out
+     */
+    @Transactional(readOnly = true)
+    public TransactionPageDto getTransactionsByAccountId(Long accountId, TransactionHistoryFilter filter, String cursor, int limit) {
+        touchReadKeys(null, null, accountId);
+        TransactionHistoryCursor before = startOf(filter, cursor);
+        int pageSize = pageSize(limit);
+        return page(transactionRepository.findHistoryByAccountId(accountId, filter.status(), filter.type(), fromOf(filter),
+                before.createdAt(), before.id(), Limit.of(pageSize + 1)), pageSize);
+    }
+    
+    /**
+     * Names a transaction's data for read-your-writes routing: with a read replica configured, reads
+     * by the same reference, user or account stay on the primary for a while after it is written.
+     */
+    public static void touchReadKeys(Long userId, String transactionReference, Long... accountIds) {
+        if (userId != null) {
+            ReplicaRoutingDataSource.touch("user:" + userId);
+        }
+        if (transactionReference != null) {
+            ReplicaRoutingDataSource.touch("transaction:" + transactionReference);
+        }
+        for (Long accountId : accountIds) {
+            if (accountId != null) {
+                ReplicaRoutingDataSource.touch("account:" + accountId);
+            }
+        }
+    }
+    
+    private TransactionHistoryCursor startOf(TransactionHistoryFilter filter, String cursor) {
+        return cursor == null || cursor.isBlank()
+                ? TransactionHistoryCursor.first(filter.to())
+                : TransactionHistoryCursor.decode(cursor);
+    }
+    
+    private static Instant fromOf(TransactionHistoryFilter filter) {
+        return filter.from() != null ? filter.from() : Instant.EPOCH;
+    }
+    
+    private int pageSize(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        return Math.min(limit, maxPageSize);
+    }
+    
+    // one row more than the page was fetched, to tell whether there is a next page
+    private static TransactionPageDto page(List<TransactionDetailsDto> rows, int pageSize) {
+        if (rows.size() <= pageSize) {
+            return new TransactionPageDto(rows, null);
+        }
+        List<TransactionDetailsDto> items = rows.subList(0, pageSize);
+        TransactionDetailsDto last = items.get(pageSize - 1);
+        return new TransactionPageDto(items, new TransactionHistoryCursor(last.getCreatedAt(), last.getId()).encode());
     }
     
-    public List<Transaction> getTransactionsByAccountId(Long accountId) {
-        List<Transaction> sourceTransactions = transactionRepository.findBySourceAccountId(accountId);
-        List<Transaction> destinationTransactions = transactionRepository.findByDestinationAccountId(accountId);
+    /**
+     * Reserves the amount on the source account and queues the transaction, whose consumer captures
+     * the hold. Missing funds are reported to the caller right away, and no account lock is held
+     * while the message waits in the queue: Store of Value keeps concurrent debits from spending the
+     * held funds.
+     * @throws InvalidTransactionException if the funds could not be held
+     */
+    private Transaction holdAndEnqueue(Transaction transaction) {
+        String transactionReference = transaction.getTransactionReference();
+        boolean held;
+        try {
+            held = accountServiceClient.placeHold(transaction.getSourceAccountId(), transaction.getAmount(),
+                    transaction.getCurrency(), transactionReference);
+        } catch (PaymentProcessingException e) {
+            // the hold may have been placed, give it back rather than leave the funds until it expires
+            accountServiceClient.releaseHold(transactionReference);
+            throw e;
+        }
+        if (!held) {
+            throw new InvalidTransactionException("Insufficient funds or the funds could not be reserved",
+                    transactionReference, "HOLD_REJECTED");
+        }
+        transaction.setFundsHeld(true);
         
-        // combine lists
-        sourceTransactions.addAll(destinationTransactions);
-        return sourceTransactions;
+        try {
+            Transaction savedTransaction = transactionRepository.save(transaction);
+            logger.info("Created {} transaction with funds on hold: {}", savedTransaction.getType(), transactionReference);
+            
+            outboxService.enqueue(savedTransaction);
+            logger.info("Added {} transaction to outbox: {}", savedTransaction.getType(), transactionReference);
+            
+            return savedTransaction;
+        } catch (Exception e) {
+            // give the funds back now rather than when the hold expires
+            accountServiceClient.releaseHold(transactionReference);
+            throw e;
+        }
+    }
+    
+    /**
+     * Locks the accounts for a new transaction.
+     * @return true if the accounts are now locked, false if the transaction has to wait in the account queue
+     * @throws ConcurrentTransactionException if an account is busy and queueing is disabled
+     */
+    private boolean lockOrQueue(List<Long> accountIds, String transactionReference) {
+        if (transactionQueueService.hasQueuedTransactions(accountIds)) {
+            return false;
+        }
+        if (transactionLockService.acquireTransactionLocks(accountIds, transactionReference)) {
+            return true;
+        }
+        if (transactionQueueService.isEnabled()) {
+            return false;
+        }
+        throw accountIds.size() == 1
+                ? new ConcurrentTransactionException(accountIds.get(0))
+                : new ConcurrentTransactionException(accountIds);
     }
     
     private String generateTransactionReference() {
-        return "TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return referenceGenerator.next();
     }
 } 
\ No newline at end of file
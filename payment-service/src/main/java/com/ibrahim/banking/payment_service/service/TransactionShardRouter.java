@@ -0,0 +1,73 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps accounts to payment shard queues.
+ * <p>
+ * A transaction is routed by the lower id of its accounts, so transfers in both directions between
+ * two accounts share a shard queue, and each shard queue has a single active consumer. A transfer
+ * still lands on a different shard than the deposits of its other account, so routing alone does not
+ * order an account's transactions: the account locks (or the account queue) do, as they let only one
+ * transaction per account be in flight. The shards just run in parallel.
+ * <p>
+ * Jump consistent hashing is used so that changing the shard count only moves about 1/N of the
+ * accounts. A moved account's next transaction goes to its new shard while older ones may still be
+ * queued on the old shard; the account locks keep it from overtaking them, but transactions that
+ * hold funds instead of locks can be applied out of order across the change.
+ */
+@Component
+public class TransactionShardRouter {
+
+    private final boolean enabled;
+    private final int shardCount;
+
+    public TransactionShardRouter(
+            @Value("${payment.shards.enabled:false}") boolean enabled,
+            @Value("${payment.shards.count:8}") int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("payment.shards.count must be at least 1");
+        }
+        this.enabled = enabled;
+        this.shardCount = shardCount;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int shardFor(Long accountId) {
+        return jumpConsistentHash(accountId, shardCount);
+    }
+
+    public String routingKeyFor(Transaction transaction) {
+        Long accountId = transaction.getSourceAccountId();
+        Long destinationAccountId = transaction.getDestinationAccountId();
+        if (destinationAccountId != null && (accountId == null || destinationAccountId < accountId)) {
+            accountId = destinationAccountId;
+        }
+        return RabbitMQConfig.shardRoutingKey(shardFor(accountId));
+    }
+
+    /**
+     * Jump consistent hash (Lamping and Veach). Growing from n to n + 1 buckets moves only the keys
+     * that end up in the new bucket.
+     */
+    static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
@@ -0,0 +1,12 @@
+-- Hibernate creates the status column with a check of the enum values it knew at the time, and
+-- ddl-auto=update never changes that check. Tables created before PROCESSING existed reject it.
+-- On a new database the table does not exist yet and Hibernate creates the current check itself.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_constraint
+               WHERE conname = 'transactions_status_check' AND conrelid = to_regclass('transactions')) THEN
+        ALTER TABLE transactions DROP CONSTRAINT transactions_status_check;
+        ALTER TABLE transactions ADD CONSTRAINT transactions_status_check
+            CHECK (status IN ('PENDING', 'PROCESSING', 'COMPLETED', 'FAILED', 'REVERSED'));
+    END IF;
+END $$;
@@ -0,0 +1,17 @@
+-- Transaction ids used to be identity values. Hibernate's schema update would create transactions_seq starting at 1,
+-- below the ids already in the table, so it is created here and moved past the highest id. Ids are
+-- handed out in blocks of 50 (pooled-lo), the sequence value being the first id of a block.
+CREATE SEQUENCE IF NOT EXISTS transactions_seq START WITH 1 INCREMENT BY 50;
+
+DO $$
+DECLARE
+    max_id BIGINT;
+BEGIN
+    IF to_regclass('transactions') IS NOT NULL THEN
+        SELECT MAX(id) INTO max_id FROM transactions;
+        -- leave a sequence that is already ahead alone, running instances may hold blocks from it
+        IF max_id IS NOT NULL AND max_id >= (SELECT last_value FROM transactions_seq) THEN
+            PERFORM setval('transactions_seq', max_id + 1, false);
+        END IF;
+    END IF;
+END $$;
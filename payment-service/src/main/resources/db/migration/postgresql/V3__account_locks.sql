@@ -0,0 +1,7 @@
+-- Lease rows of the postgres lock provider (payment.lock.provider=postgres), one per locked account.
+-- Created whatever the provider, an empty table costs nothing and switching providers needs no migration.
+CREATE TABLE IF NOT EXISTS account_locks (
+    account_id  BIGINT PRIMARY KEY,
+    owner_token VARCHAR(64) NOT NULL,
+    expires_at  TIMESTAMP WITH TIME ZONE NOT NULL
+);
@@ -0,0 +1,111 @@
+package com.ibrahim.banking.payment_service.config;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientConfigTest {
+
+    private HttpServer server;
+    private HttpClientConfig httpClientConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private RestTemplate restTemplate;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fast", exchange -> respond(exchange, 0));
+        server.createContext("/slow", exchange -> respond(exchange, 2000));
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        httpClientConfig = new HttpClientConfig();
+        // Set required fields using reflection since they're normally injected by Spring
+        ReflectionTestUtils.setField(httpClientConfig, "maxConnections", 20);
+        ReflectionTestUtils.setField(httpClientConfig, "maxConnectionsPerRoute", 5);
+        ReflectionTestUtils.setField(httpClientConfig, "storeOfValueMaxConnections", 10);
+        ReflectionTestUtils.setField(httpClientConfig, "authMaxConnections", 2);
+        ReflectionTestUtils.setField(httpClientConfig, "connectTimeoutMs", 500L);
+        ReflectionTestUtils.setField(httpClientConfig, "readTimeoutMs", 300L);
+        ReflectionTestUtils.setField(httpClientConfig, "responseTimeoutMs", 300L);
+        ReflectionTestUtils.setField(httpClientConfig, "connectionRequestTimeoutMs", 300L);
+        ReflectionTestUtils.setField(httpClientConfig, "keepAliveMs", 30000L);
+        ReflectionTestUtils.setField(httpClientConfig, "storeOfValueServiceUrl", baseUrl);
+        ReflectionTestUtils.setField(httpClientConfig, "authServiceUrl", "http://auth-service");
+
+        meterRegistry = new SimpleMeterRegistry();
+        connectionManager = httpClientConfig.outboundConnectionManager(meterRegistry);
+        httpClient = httpClientConfig.outboundHttpClient(connectionManager);
+        restTemplate = new RestTemplate(httpClientConfig.outboundRequestFactory(httpClient));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void outboundConnectionManager_ConfiguredRoutes_GetTheirOwnLimits() {
+        assertEquals(10, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "localhost", server.getAddress().getPort()))));
+        assertEquals(2, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "auth-service", 80))));
+        assertEquals(5, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "other-service", 80))));
+        assertEquals(20, connectionManager.getMaxTotal());
+    }
+
+    @Test
+    void restTemplate_RepeatedCalls_ReuseKeptAliveConnection() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ok", restTemplate.getForObject(baseUrl + "/fast", String.class));
+        }
+
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+        assertEquals(1.0, meterRegistry.get("httpcomponents.httpclient.pool.total.connections")
+                .tag("state", "available").gauge().value());
+    }
+
+    @Test
+    void restTemplate_SlowServer_TimesOutInsteadOfBlocking() {
+        long start = System.nanoTime();
+
+        assertThrows(ResourceAccessException.class, () -> restTemplate.getForObject(baseUrl + "/slow", String.class));
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMs < 1500, "request should have timed out after about 300 ms, took " + elapsedMs + " ms");
+    }
+
+    private void respond(HttpExchange exchange, long delayMs) throws IOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        } catch (IOException e) {
+            // client gave up already
+        }
+    }
+}
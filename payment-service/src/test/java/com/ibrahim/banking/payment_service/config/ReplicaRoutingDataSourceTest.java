@@ -0,0 +1,133 @@
+package com.ibrahim.banking.payment_service.config;
+
+import com.ibrahim.banking.payment_service.service.TransactionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// two H2 databases stand in for the primary and the replica; each one knows its own name
+public class ReplicaRoutingDataSourceTest {
+
+    private static final String SERVICE_READ = "com.ibrahim.banking.payment_service.service.TransactionService.getTransactionsByUserId";
+    private static final String SERVICE_WRITE = "com.ibrahim.banking.payment_service.service.TransactionService.createDepositTransaction";
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private DataSourceTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        primary = new JdbcTemplate(database("payment_routing_primary"));
+        replica = new JdbcTemplate(database("payment_routing_replica"));
+        primary.execute("CREATE TABLE origin (name VARCHAR(10))");
+        primary.update("INSERT INTO origin VALUES ('primary')");
+        replica.execute("CREATE TABLE origin (name VARCHAR(10))");
+        replica.update("INSERT INTO origin VALUES ('replica')");
+        replica.execute("CREATE TABLE replica_lag (lag_ms BIGINT)");
+        replica.update("INSERT INTO replica_lag VALUES (0)");
+
+        routingDataSource = new ReplicaRoutingDataSource(primary.getDataSource(), replica.getDataSource(),
+                "SELECT lag_ms FROM replica_lag", 1000, 60_000);
+        routingDataSource.afterPropertiesSet();
+        routingDataSource.checkReplicaLag();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReplicaRoutingDataSource.clearTouched();
+        primary.execute("DROP ALL OBJECTS");
+        replica.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void readOnlyServiceTransaction_UsesTheReplica() {
+        // Act & Assert
+        assertEquals("replica", origin(SERVICE_READ, true));
+        assertEquals("primary", origin(SERVICE_WRITE, false));
+        assertEquals("primary", jdbcTemplate.queryForObject("SELECT name FROM origin", String.class));
+    }
+
+    @Test
+    void repositoryDefaultTransaction_StaysOnThePrimary() {
+        // Act & Assert
+        assertEquals("primary", origin("org.springframework.data.jpa.repository.support.SimpleJpaRepository.findAll", true));
+    }
+
+    @Test
+    void laggingReplica_FallsBackToThePrimary() {
+        // Arrange
+        replica.update("UPDATE replica_lag SET lag_ms = 5000");
+
+        // Act
+        routingDataSource.checkReplicaLag();
+
+        // Assert
+        assertFalse(routingDataSource.isReplicaUsable());
+        assertEquals("primary", origin(SERVICE_READ, true));
+    }
+
+    @Test
+    void readAfterConsumerWrite_StaysOnThePrimaryForTheWrittenKeysOnly() {
+        // Arrange - a consumer thread completes the transaction, no user is authenticated there
+        TransactionService.touchReadKeys(7L, "TXN-1", 1L);
+        origin("com.ibrahim.banking.payment_service.repository.TransactionRepository.transitionStatus", false);
+        ReplicaRoutingDataSource.clearTouched();
+
+        // Act
+        TransactionService.touchReadKeys(7L, null);
+        String sameUser = origin(SERVICE_READ, true);
+        ReplicaRoutingDataSource.clearTouched();
+        TransactionService.touchReadKeys(8L, null);
+        String otherUser = origin(SERVICE_READ, true);
+        ReplicaRoutingDataSource.clearTouched();
+        TransactionService.touchReadKeys(null, null, 1L);
+        String writtenAccount = origin(SERVICE_READ, true);
+
+        // Assert
+        assertEquals("primary", sameUser);
+        assertEquals("replica", otherUser);
+        assertEquals("primary", writtenAccount);
+    }
+
+    @Test
+    void rolledBackWrite_DoesNotPin() {
+        // Arrange
+        TransactionService.touchReadKeys(7L, null);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(SERVICE_WRITE);
+
+        // Act
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT name FROM origin", String.class);
+            status.setRollbackOnly();
+        });
+
+        // Assert
+        assertEquals("replica", origin(SERVICE_READ, true));
+    }
+
+    private String origin(String transactionName, boolean readOnly) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(transactionName);
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM origin", String.class));
+    }
+
+    private static DataSource database(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+}
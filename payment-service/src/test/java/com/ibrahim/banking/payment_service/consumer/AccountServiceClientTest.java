@@ -0,0 +1,163 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
+import com.ibrahim.banking.payment_service.service.AccountStatusCache;
+import com.ibrahim.banking.payment_service.service.StoreOfValueAuthService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// coalescing is enabled but the coalescer is not started, so each posting goes out as a batch of one
+// on the caller's thread; singlePostingClient() sends them one request each
+@ExtendWith(MockitoExtension.class)
+public class AccountServiceClientTest {
+
+    private static final String BATCH_URL = "http://store-of-value/api/accounts/postings:batch";
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    @Mock
+    private StoreOfValueAuthService authService;
+
+    @Mock
+    private AccountStatusCache accountStatusCache;
+
+    private AccountServiceClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = new AccountServiceClient(restTemplate, authService, accountStatusCache, new SimpleMeterRegistry(),
+                true, 2, 100, 1, 5_000);
+        ReflectionTestUtils.setField(client, "storeOfValueServiceUrl", "http://store-of-value");
+        when(authService.getAuthToken()).thenReturn("Bearer token");
+    }
+
+    @Test
+    void creditAccount_Coalesced_SendsTheSameFieldsAsASinglePosting() {
+        // Arrange
+        batchReturns(Map.of("results", List.of(Map.of("status", "APPLIED"))));
+
+        // Act
+        boolean result = client.creditAccount(1L, BigDecimal.TEN, "USD", "TXN-1");
+
+        // Assert
+        assertTrue(result);
+        ArgumentCaptor<HttpEntity> request = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate).exchange(eq(BATCH_URL), eq(HttpMethod.POST), request.capture(), eq(Map.class));
+        List<Map<String, Object>> items = (List<Map<String, Object>>) ((Map<String, Object>) request.getValue().getBody()).get("postings");
+        assertEquals(Map.of(
+                "accountNumber", "1",
+                "type", "CREDIT",
+                "amount", BigDecimal.TEN,
+                "currency", "USD",
+                "transactionReference", "TXN-1"), items.get(0));
+    }
+
+    @Test
+    void debitAccount_PostingRejected_ReturnsFalse() {
+        // Arrange
+        batchReturns(Map.of("results", List.of(Map.of("status", "INSUFFICIENT_FUNDS"))));
+
+        // Act
+        boolean result = client.debitAccount(1L, BigDecimal.TEN, "USD", "TXN-1");
+
+        // Assert
+        assertFalse(result);
+        verify(accountStatusCache).evict(1L);
+    }
+
+    @Test
+    void debitAccount_NoResults_ThrowsInsteadOfFailing() {
+        // Arrange - the batch was processed, whether the debit was applied is unknown
+        batchReturns(Map.of("applied", 1));
+
+        // Act & Assert
+        assertThrows(PaymentProcessingException.class,
+                () -> client.debitAccount(1L, BigDecimal.TEN, "USD", "TXN-1"));
+    }
+
+    @Test
+    void creditAccount_FewerResultsThanPostings_ThrowsInsteadOfFailing() {
+        // Arrange
+        batchReturns(Map.of("results", List.of()));
+
+        // Act & Assert
+        assertThrows(PaymentProcessingException.class,
+                () -> client.creditAccount(1L, BigDecimal.TEN, "USD", "TXN-1"));
+    }
+
+    @Test
+    void creditAccount_Rejected_ReturnsFalse() {
+        // Arrange
+        AccountServiceClient singleClient = singlePostingClient();
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class), eq(1L)))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.UNPROCESSABLE_ENTITY, "Unprocessable", null, null, null));
+
+        // Act
+        boolean result = singleClient.creditAccount(1L, BigDecimal.TEN, "USD", "TXN-1");
+
+        // Assert
+        assertFalse(result);
+        verify(accountStatusCache).evict(1L);
+    }
+
+    @Test
+    void debitAccount_ServerError_ThrowsInsteadOfFailing() {
+        // Arrange - Store of Value may have committed the debit before failing
+        AccountServiceClient singleClient = singlePostingClient();
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class), eq(1L)))
+                .thenThrow(HttpServerErrorException.create(HttpStatus.BAD_GATEWAY, "Bad Gateway", null, null, null));
+
+        // Act & Assert
+        assertThrows(PaymentProcessingException.class,
+                () -> singleClient.debitAccount(1L, BigDecimal.TEN, "USD", "TXN-1"));
+    }
+
+    @Test
+    void transfer_ReadTimeout_ThrowsInsteadOfFailing() {
+        // Arrange
+        AccountServiceClient singleClient = singlePostingClient();
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class)))
+                .thenThrow(new ResourceAccessException("Read timed out"));
+
+        // Act & Assert
+        assertThrows(PaymentProcessingException.class,
+                () -> singleClient.transfer(1L, 2L, BigDecimal.TEN, "USD", "TXN-1"));
+        verify(accountStatusCache).evict(1L);
+        verify(accountStatusCache).evict(2L);
+    }
+
+    private AccountServiceClient singlePostingClient() {
+        AccountServiceClient singleClient = new AccountServiceClient(restTemplate, authService, accountStatusCache,
+                new SimpleMeterRegistry(), false, 2, 100, 1, 5_000);
+        ReflectionTestUtils.setField(singleClient, "storeOfValueServiceUrl", "http://store-of-value");
+        return singleClient;
+    }
+
+    private void batchReturns(Map<String, Object> body) {
+        when(restTemplate.exchange(eq(BATCH_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class)))
+                .thenReturn(ResponseEntity.ok(body));
+    }
+}
@@ -0,0 +1,155 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService.TransactionLease;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ClaimedTransactionRunnerTest {
+
+    private static final String REFERENCE = "TXN-12345678";
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private TransactionLockService transactionLockService;
+
+    @Mock
+    private TransactionLease lease;
+
+    private ClaimedTransactionRunner runner;
+
+    @BeforeEach
+    void setUp() {
+        runner = new ClaimedTransactionRunner(transactionRepository, transactionLockService);
+    }
+
+    @Test
+    void run_Claimed_RunsWorkUnderLeaseAndClosesIt() {
+        // Arrange
+        claim(1);
+        when(transactionLockService.resumeLease(REFERENCE, 1L, 2L)).thenReturn(lease);
+        Runnable work = mock(Runnable.class);
+
+        // Act
+        boolean result = runner.run(message(), work, 1L, 2L);
+
+        // Assert
+        assertTrue(result);
+        InOrder inOrder = inOrder(transactionRepository, transactionLockService, work, lease);
+        inOrder.verify(transactionRepository).claim(eq(REFERENCE), any(Instant.class));
+        inOrder.verify(transactionLockService).resumeLease(REFERENCE, 1L, 2L);
+        inOrder.verify(work).run();
+        inOrder.verify(lease).close();
+        verify(lease, never()).retainForRedelivery();
+    }
+
+    @Test
+    void run_NotPending_LeavesLocksAlone() {
+        // Arrange - a duplicate delivery, the first one still holds the locks
+        claim(0);
+        Runnable work = mock(Runnable.class);
+
+        // Act
+        boolean result = runner.run(message(), work, 1L);
+
+        // Assert
+        assertFalse(result);
+        verifyNoInteractions(transactionLockService, work);
+    }
+
+    @Test
+    void run_NoLockedAccounts_RunsWithoutLease() {
+        // Arrange - funds on hold instead of account locks
+        claim(1);
+        Runnable work = mock(Runnable.class);
+
+        // Act
+        runner.run(message(), work);
+
+        // Assert
+        verify(work).run();
+        verifyNoInteractions(transactionLockService);
+    }
+
+    @Test
+    void run_WorkThrows_ReturnsToPendingKeepsLocksAndRethrows() {
+        // Arrange
+        claim(1);
+        when(transactionLockService.resumeLease(REFERENCE, 1L)).thenReturn(lease);
+        when(transactionRepository.transitionStatus(REFERENCE,
+                TransactionStatus.PROCESSING, TransactionStatus.PENDING, null, null)).thenReturn(1);
+        RuntimeException failure = new RuntimeException("Store of Value unavailable");
+
+        // Act
+        RuntimeException thrown = assertThrows(RuntimeException.class,
+                () -> runner.run(message(), () -> { throw failure; }, 1L));
+
+        // Assert
+        assertSame(failure, thrown);
+        InOrder inOrder = inOrder(lease);
+        inOrder.verify(lease).retainForRedelivery();
+        inOrder.verify(lease).close();
+    }
+
+    @Test
+    void run_WorkThrowsAfterOutcomeRecorded_ReleasesLocks() {
+        // Arrange - e.g. the notification failed after the transaction was completed
+        claim(1);
+        when(transactionLockService.resumeLease(REFERENCE, 1L)).thenReturn(lease);
+        when(transactionRepository.transitionStatus(REFERENCE,
+                TransactionStatus.PROCESSING, TransactionStatus.PENDING, null, null)).thenReturn(0);
+
+        // Act
+        assertThrows(RuntimeException.class,
+                () -> runner.run(message(), () -> { throw new RuntimeException("broker down"); }, 1L));
+
+        // Assert - a redelivery skips the transaction, nobody else would release them
+        verify(lease, never()).retainForRedelivery();
+        verify(lease).close();
+    }
+
+    @Test
+    void run_LocksTakenByAnotherTransaction_ReturnsToPending() {
+        // Arrange
+        claim(1);
+        when(transactionLockService.resumeLease(REFERENCE, 1L)).thenThrow(new ConcurrentTransactionException(1L));
+        Runnable work = mock(Runnable.class);
+
+        // Act
+        assertThrows(ConcurrentTransactionException.class, () -> runner.run(message(), work, 1L));
+
+        // Assert
+        verify(work, never()).run();
+        verify(transactionRepository).transitionStatus(REFERENCE,
+                TransactionStatus.PROCESSING, TransactionStatus.PENDING, null, null);
+    }
+
+    private static TransactionMessageDto message() {
+        TransactionMessageDto messageDto = new TransactionMessageDto();
+        messageDto.setTransactionReference(REFERENCE);
+        messageDto.setUserId(7L);
+        messageDto.setSourceAccountId(1L);
+        return messageDto;
+    }
+
+    private void claim(int rows) {
+        when(transactionRepository.claim(eq(REFERENCE), any(Instant.class))).thenReturn(rows);
+    }
+}
@@ -1,27 +1,25 @@
 package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.Optional;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,8 +34,8 @@ public class DepositTransactionConsumerTest {
     @Mock
     private NotificationPublisherService notificationPublisherService;
 
-    @Captor
-    private ArgumentCaptor<Transaction> transactionCaptor;
+    @Mock
+    private TransactionLockService transactionLockService;
 
     private DepositTransactionConsumer consumer;
 
@@ -46,7 +44,8 @@ public class DepositTransactionConsumerTest {
         consumer = new DepositTransactionConsumer(
                 transactionRepository,
                 accountServiceClient,
-                notificationPublisherService
+                notificationPublisherService,
+                transactionLockService
         );
     }
 
@@ -54,144 +53,99 @@ public class DepositTransactionConsumerTest {
     void processDepositTransaction_Success_UpdatesTransactionStatusToCompleted() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference, TransactionType.DEPOSIT);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(true);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1);
+        when(accountServiceClient.creditAccount(1L, new BigDecimal("100.00"), "USD", reference)).thenReturn(true);
+
         // Act
         consumer.processDepositTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.COMPLETED, savedTransaction.getStatus());
-        assertNotNull(savedTransaction.getCompletedAt());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+        verify(accountServiceClient).creditAccount(1L, new BigDecimal("100.00"), "USD", reference);
+        verify(transactionRepository).transitionStatus(eq(reference), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.COMPLETED), notNull(), isNull());
+        verify(transactionRepository, never()).findByTransactionReference(any());
+        verify(transactionRepository, never()).save(any());
+
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.COMPLETED);
+        verify(transactionLockService).resumeLease(reference, 1L);
     }
 
     @Test
     void processDepositTransaction_Failure_UpdatesTransactionStatusToFailed() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference, TransactionType.DEPOSIT);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(false);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1);
+        when(accountServiceClient.creditAccount(1L, new BigDecimal("100.00"), "USD", reference)).thenReturn(false);
+
         // Act
         consumer.processDepositTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.FAILED, savedTransaction.getStatus());
-        assertEquals("Failed to credit account", savedTransaction.getFailureReason());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.FAILED, null, "Failed to credit account");
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.FAILED);
     }
 
     @Test
-    void processDepositTransaction_TransactionNotFound_DoesNothing() {
-        // Arrange
+    void processDepositTransaction_NotPending_DoesNothing() {
+        // Arrange - already processed by an earlier delivery, or no such transaction
         String reference = "TXN-12345678";
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.empty());
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(0);
+
         // Act
         consumer.processDepositTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
         verify(accountServiceClient, never()).creditAccount(any(), any(), any(), any());
-        verify(transactionRepository, never()).save(any());
-        verify(notificationPublisherService, never()).publishTransactionNotification(any());
+        verify(transactionRepository, never()).transitionStatus(any(), any(), any(), any(), any());
+        verify(notificationPublisherService, never()).publishTransactionNotification(any(), any());
+        // the locks belong to the delivery that claimed it
+        verify(transactionLockService, never()).resumeLease(any(), any(Long[].class));
     }
 
     @Test
-    void processDepositTransaction_ExceptionThrown_LogsError() {
+    void processDepositTransaction_ExceptionThrown_ReturnsToPendingAndRethrows() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference, TransactionType.DEPOSIT);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenThrow(new RuntimeException("Test exception"));
-        
-        // Act
-        consumer.processDepositTransaction(messageDto);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1);
+        when(accountServiceClient.creditAccount(1L, new BigDecimal("100.00"), "USD", reference))
+                .thenThrow(new RuntimeException("Test exception"));
+
+        // Act - the listener retries the message, the posting is idempotent by reference
+        assertThrows(RuntimeException.class, () -> consumer.processDepositTransaction(messageDto));
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).creditAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository, never()).save(any());
-        verify(notificationPublisherService, never()).publishTransactionNotification(any());
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.PENDING, null, null);
+        verify(transactionRepository, never()).transitionStatus(any(), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.FAILED), any(), any());
+        verify(notificationPublisherService, never()).publishTransactionNotification(any(), any());
     }
 
-    private Transaction createTransaction(String reference, TransactionType type) {
-        Transaction transaction = new Transaction();
-        transaction.setId(1L);
-        transaction.setTransactionReference(reference);
-        transaction.setType(type);
-        transaction.setAmount(new BigDecimal("100.00"));
-        transaction.setSourceAccountId(1L);
-        transaction.setStatus(TransactionStatus.PENDING);
-        transaction.setCurrency("USD");
-        transaction.setDescription("Test transaction");
-        transaction.setCreatedAt(Instant.now());
-        transaction.setUserId(1L);
-        return transaction;
+    private TransactionMessageDto createMessage(String reference) {
+        TransactionMessageDto messageDto = new TransactionMessageDto();
+        messageDto.setId(1L);
+        messageDto.setTransactionReference(reference);
+        messageDto.setType(TransactionType.DEPOSIT);
+        messageDto.setAmount(new BigDecimal("100.00"));
+        messageDto.setSourceAccountId(1L);
+        messageDto.setStatus(TransactionStatus.PENDING);
+        messageDto.setCurrency("USD");
+        messageDto.setDescription("Test transaction");
+        messageDto.setCreatedAt(Instant.now());
+        messageDto.setUserId(1L);
+        return messageDto;
     }
-} 
\ No newline at end of file
+}
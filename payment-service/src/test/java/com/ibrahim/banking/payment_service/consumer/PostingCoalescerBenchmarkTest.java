@@ -0,0 +1,142 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.Posting;
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.PostingType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares one Store of Value request per posting with coalesced batch requests. The server is
+ * simulated: every request costs a fixed round trip plus a small per-posting cost, and at most
+ * {@code SERVER_CONCURRENCY} requests are served at once, like a connection pool in front of the
+ * database. 32 consumer threads post for one second and the test reports throughput and
+ * per-posting latency percentiles. Either way every posting must reach the server exactly once and
+ * come back applied.
+ */
+@Tag("benchmark")
+public class PostingCoalescerBenchmarkTest {
+
+    private static final int THREADS = 32;
+    private static final int SERVER_CONCURRENCY = 8;
+    private static final long ROUND_TRIP_MICROS = 2_000;
+    private static final long PER_POSTING_MICROS = 50;
+    private static final long DURATION_MS = 1_000;
+
+    @Test
+    void coalescing_AppliesEveryPostingOnceAndOutperformsOneRequestPerPosting(TestReporter reporter) throws Exception {
+        AtomicLong singleApplied = new AtomicLong();
+        Function<List<Posting>, List<Boolean>> singleServer = simulatedServer(singleApplied);
+        Result single = run(posting -> singleServer.apply(List.of(posting)).get(0));
+        reporter.publishEntry("one request per posting", single.toString());
+
+        AtomicLong coalescedApplied = new AtomicLong();
+        PostingCoalescer coalescer = new PostingCoalescer(simulatedServer(coalescedApplied), 100, 2, SERVER_CONCURRENCY,
+                10_000, new SimpleMeterRegistry());
+        coalescer.start();
+        Result coalesced;
+        try {
+            coalesced = run(posting -> coalescer.submit(posting).get(10, TimeUnit.SECONDS));
+        } finally {
+            coalescer.shutdown();
+        }
+        reporter.publishEntry("coalesced", coalesced.toString());
+
+        assertEquals(0, single.failures);
+        assertEquals(single.operations, singleApplied.get());
+        assertEquals(0, coalesced.failures);
+        assertEquals(coalesced.operations, coalescedApplied.get());
+        // the round trip is shared by a whole batch, so the connection limit stops capping postings
+        assertTrue(coalesced.perSecond > single.perSecond,
+                "coalesced " + coalesced.perSecond + "/s, one per request " + single.perSecond + "/s");
+    }
+
+    private Function<List<Posting>, List<Boolean>> simulatedServer(AtomicLong applied) {
+        Semaphore connections = new Semaphore(SERVER_CONCURRENCY);
+        return postings -> {
+            connections.acquireUninterruptibly();
+            try {
+                sleepMicros(ROUND_TRIP_MICROS + PER_POSTING_MICROS * postings.size());
+            } finally {
+                connections.release();
+            }
+            applied.addAndGet(postings.size());
+            return postings.stream().map(p -> true).toList();
+        };
+    }
+
+    private Result run(PostingCall call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < THREADS; t++) {
+            long accountId = t;
+            futures.add(executor.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    if (!call.post(new Posting(accountId, PostingType.CREDIT, BigDecimal.ONE, "USD", "TXN-" + start))) {
+                        failures.incrementAndGet();
+                    }
+                    latencies.add(System.nanoTime() - start);
+                }
+                return latencies;
+            }));
+        }
+
+        List<Long> all = new ArrayList<>();
+        for (Future<List<Long>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+
+        long[] sorted = all.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return new Result(sorted.length, failures.get(), sorted.length * 1000L / DURATION_MS,
+                percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * p))]);
+    }
+
+    private static void sleepMicros(long micros) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface PostingCall {
+        boolean post(Posting posting) throws Exception;
+    }
+
+    private record Result(long operations, long failures, long perSecond, long p50Micros, long p99Micros) {
+        @Override
+        public String toString() {
+            return operations + " postings, " + perSecond + "/s, p50 " + p50Micros + " us, p99 " + p99Micros + " us";
+        }
+    }
+}
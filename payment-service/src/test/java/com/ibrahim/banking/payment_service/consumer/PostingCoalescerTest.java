@@ -0,0 +1,131 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.Posting;
+import com.ibrahim.banking.payment_service.consumer.PostingCoalescer.PostingType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostingCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<List<Posting>> sentBatches = new CopyOnWriteArrayList<>();
+    private PostingCoalescer coalescer;
+
+    @AfterEach
+    void tearDown() {
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+    }
+
+    @Test
+    void submit_PostingsWithinWindow_SentAsOneBatch() throws Exception {
+        // Arrange
+        coalescer = createCoalescer(recordingSender(postings -> postings.stream().map(p -> true).toList()), 100, 200);
+        coalescer.start();
+
+        // Act
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(coalescer.submit(posting(i, PostingType.CREDIT)));
+        }
+
+        // Assert
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, sentBatches.size());
+        assertEquals(5, sentBatches.get(0).size());
+        assertEquals(5.0, meterRegistry.get("payment.postings.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void submit_BatchFull_SentWithoutWaitingForWindow() throws Exception {
+        // Arrange
+        coalescer = createCoalescer(recordingSender(postings -> postings.stream().map(p -> true).toList()), 2, 60_000);
+        coalescer.start();
+
+        // Act
+        CompletableFuture<Boolean> first = coalescer.submit(posting(1, PostingType.CREDIT));
+        CompletableFuture<Boolean> second = coalescer.submit(posting(2, PostingType.CREDIT));
+
+        // Assert
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_PerPostingResults_CompletedInOrder() throws Exception {
+        // Arrange - debits are rejected, credits applied
+        coalescer = createCoalescer(recordingSender(postings -> postings.stream()
+                .map(p -> p.type() == PostingType.CREDIT).toList()), 100, 200);
+        coalescer.start();
+
+        // Act
+        CompletableFuture<Boolean> credit = coalescer.submit(posting(1, PostingType.CREDIT));
+        CompletableFuture<Boolean> debit = coalescer.submit(posting(2, PostingType.DEBIT));
+
+        // Assert
+        assertTrue(credit.get(5, TimeUnit.SECONDS));
+        assertFalse(debit.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_SenderFails_EveryPostingInBatchFailsExceptionally() {
+        // Arrange
+        coalescer = createCoalescer(postings -> {
+            throw new IllegalStateException("Store of Value unavailable");
+        }, 100, 50);
+        coalescer.start();
+
+        // Act
+        CompletableFuture<Boolean> first = coalescer.submit(posting(1, PostingType.CREDIT));
+        CompletableFuture<Boolean> second = coalescer.submit(posting(2, PostingType.DEBIT));
+
+        // Assert - the outcome is unknown, not a rejection
+        ExecutionException firstFailure = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, firstFailure.getCause());
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_NotStarted_SentOnCallersThread() throws Exception {
+        // Arrange
+        coalescer = createCoalescer(recordingSender(postings -> List.of(true)), 100, 50);
+
+        // Act
+        CompletableFuture<Boolean> result = coalescer.submit(posting(1, PostingType.CREDIT));
+
+        // Assert
+        assertTrue(result.isDone());
+        assertTrue(result.get());
+        assertEquals(1, sentBatches.size());
+    }
+
+    private PostingCoalescer createCoalescer(Function<List<Posting>, List<Boolean>> sender, int maxBatchSize, long windowMs) {
+        return new PostingCoalescer(sender, maxBatchSize, windowMs, 2, 1000, meterRegistry);
+    }
+
+    private Function<List<Posting>, List<Boolean>> recordingSender(Function<List<Posting>, List<Boolean>> results) {
+        return postings -> {
+            sentBatches.add(postings);
+            return results.apply(postings);
+        };
+    }
+
+    private Posting posting(long accountId, PostingType type) {
+        return new Posting(accountId, type, BigDecimal.TEN, "USD", "TXN-" + accountId);
+    }
+}
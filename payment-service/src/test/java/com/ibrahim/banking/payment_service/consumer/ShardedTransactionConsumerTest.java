@@ -0,0 +1,75 @@
+package com.ibrahim.banking.payment_service.consumer;
+
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ShardedTransactionConsumerTest {
+
+    @Mock
+    private DepositTransactionConsumer depositTransactionConsumer;
+
+    @Mock
+    private WithdrawalTransactionConsumer withdrawalTransactionConsumer;
+
+    @Mock
+    private TransferTransactionConsumer transferTransactionConsumer;
+
+    private ShardedTransactionConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        consumer = new ShardedTransactionConsumer(depositTransactionConsumer, withdrawalTransactionConsumer,
+                transferTransactionConsumer);
+    }
+
+    @Test
+    void processShardedTransaction_Withdrawal_HandsToWithdrawalConsumer() {
+        // Arrange
+        TransactionMessageDto messageDto = createMessage(TransactionType.WITHDRAWAL);
+
+        // Act
+        consumer.processShardedTransaction(messageDto);
+
+        // Assert
+        verify(withdrawalTransactionConsumer).processWithdrawalTransaction(messageDto);
+        verifyNoInteractions(depositTransactionConsumer, transferTransactionConsumer);
+    }
+
+    @Test
+    void processShardedTransaction_Transfer_HandsToTransferConsumer() {
+        // Arrange
+        TransactionMessageDto messageDto = createMessage(TransactionType.TRANSFER);
+
+        // Act
+        consumer.processShardedTransaction(messageDto);
+
+        // Assert
+        verify(transferTransactionConsumer).processTransferTransaction(messageDto);
+        verifyNoInteractions(depositTransactionConsumer, withdrawalTransactionConsumer);
+    }
+
+    @Test
+    void processShardedTransaction_MissingType_Dropped() {
+        // Act
+        consumer.processShardedTransaction(createMessage(null));
+
+        // Assert
+        verifyNoInteractions(depositTransactionConsumer, withdrawalTransactionConsumer, transferTransactionConsumer);
+    }
+
+    private TransactionMessageDto createMessage(TransactionType type) {
+        TransactionMessageDto messageDto = new TransactionMessageDto();
+        messageDto.setTransactionReference("TXN-12345678");
+        messageDto.setType(type);
+        messageDto.setSourceAccountId(1L);
+        return messageDto;
+    }
+}
@@ -1,25 +1,22 @@
 package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.Optional;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -35,8 +32,8 @@ public class TransferTransactionConsumerTest {
     @Mock
     private NotificationPublisherService notificationPublisherService;
 
-    @Captor
-    private ArgumentCaptor<Transaction> transactionCaptor;
+    @Mock
+    private TransactionLockService transactionLockService;
 
     private TransferTransactionConsumer consumer;
 
@@ -45,7 +42,8 @@ public class TransferTransactionConsumerTest {
         consumer = new TransferTransactionConsumer(
                 transactionRepository,
                 accountServiceClient,
-                notificationPublisherService
+                notificationPublisherService,
+                transactionLockService
         );
     }
 
@@ -53,132 +51,148 @@ public class TransferTransactionConsumerTest {
     void processTransferTransaction_Success_UpdatesTransactionStatusToCompleted() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        
-        when(accountServiceClient.debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(true);
-        
-        when(accountServiceClient.creditAccount(
-                eq(transaction.getDestinationAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(true);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.transfer(1L, 2L, new BigDecimal("100.00"), "USD", reference)).thenReturn(true);
+
         // Act
         consumer.processTransferTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        verify(accountServiceClient).creditAccount(
-                eq(transaction.getDestinationAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.COMPLETED, savedTransaction.getStatus());
-        assertNotNull(savedTransaction.getCompletedAt());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+        verify(accountServiceClient).transfer(1L, 2L, new BigDecimal("100.00"), "USD", reference);
+        verify(accountServiceClient, never()).debitAccount(any(), any(), any(), any());
+        verify(accountServiceClient, never()).creditAccount(any(), any(), any(), any());
+
+        verify(transactionRepository).transitionStatus(eq(reference), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.COMPLETED), notNull(), isNull());
+        verify(transactionRepository, never()).findByTransactionReference(any());
+
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.COMPLETED);
+        verify(transactionLockService).resumeLease(reference, 1L, 2L);
     }
 
     @Test
-    void processTransferTransaction_DebitFails_UpdatesTransactionStatusToFailed() {
+    void processTransferTransaction_TransferFails_UpdatesTransactionStatusToFailed() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        
-        when(accountServiceClient.debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(false);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.transfer(any(), any(), any(), any(), any())).thenReturn(false);
+
         // Act
         consumer.processTransferTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
+        verify(accountServiceClient).transfer(1L, 2L, new BigDecimal("100.00"), "USD", reference);
+        // nothing was applied, so there is no reversal
         verify(accountServiceClient, never()).creditAccount(
                 any(), any(), any(), any()
         );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.FAILED, savedTransaction.getStatus());
-        assertEquals("Failed to debit source account", savedTransaction.getFailureReason());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.FAILED, null, "Failed to transfer between accounts, no balance was changed");
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.FAILED);
     }
 
+    @Test
+    void processTransferTransaction_OutcomeUnknown_ReturnsToPendingWithoutFailing() {
+        // Arrange - e.g. a read timeout, the transfer may have committed
+        String reference = "TXN-12345678";
+        TransactionMessageDto messageDto = createMessage(reference);
 
+        claimSucceeds(reference);
+        when(accountServiceClient.transfer(any(), any(), any(), any(), any()))
+                .thenThrow(new PaymentProcessingException("Outcome of transfer unknown"));
+
+        // Act
+        assertThrows(PaymentProcessingException.class, () -> consumer.processTransferTransaction(messageDto));
+
+        // Assert
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.PENDING, null, null);
+        verify(transactionRepository, never()).transitionStatus(any(), any(), eq(TransactionStatus.FAILED), any(), any());
+        verifyNoInteractions(notificationPublisherService);
+    }
 
     @Test
-    void processTransferTransaction_TransactionNotFound_DoesNothing() {
+    void processTransferTransaction_NotPending_DoesNothing() {
         // Arrange
         String reference = "TXN-12345678";
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.empty());
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(0);
+
         // Act
         consumer.processTransferTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient, never()).debitAccount(any(), any(), any(), any());
-        verify(accountServiceClient, never()).creditAccount(any(), any(), any(), any());
-        verify(transactionRepository, never()).save(any());
-        verify(notificationPublisherService, never()).publishTransactionNotification(any());
+        verify(accountServiceClient, never()).transfer(any(), any(), any(), any(), any());
+        verify(transactionRepository, never()).transitionStatus(any(), any(), any(), any(), any());
+        verify(notificationPublisherService, never()).publishTransactionNotification(any(), any());
+        // the locks belong to the delivery that claimed it
+        verify(transactionLockService, never()).resumeLease(any(), any(Long[].class));
     }
 
-    private Transaction createTransaction(String reference) {
-        Transaction transaction = new Transaction();
-        transaction.setId(1L);
-        transaction.setTransactionReference(reference);
-        transaction.setType(TransactionType.TRANSFER);
-        transaction.setAmount(new BigDecimal("100.00"));
-        transaction.setSourceAccountId(1L);
-        transaction.setDestinationAccountId(2L);
-        transaction.setStatus(TransactionStatus.PENDING);
-        transaction.setCurrency("USD");
-        transaction.setDescription("Test transfer transaction");
-        transaction.setCreatedAt(Instant.now());
-        transaction.setUserId(1L);
-        return transaction;
+    @Test
+    void processTransferTransaction_MissingDestination_Fails() {
+        // Arrange
+        String reference = "TXN-12345678";
+        TransactionMessageDto messageDto = createMessage(reference);
+        messageDto.setDestinationAccountId(null);
+
+        claimSucceeds(reference);
+
+        // Act
+        consumer.processTransferTransaction(messageDto);
+
+        // Assert
+        verify(accountServiceClient, never()).transfer(any(), any(), any(), any(), any());
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.FAILED, null, "Destination account ID is required for transfers");
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.FAILED);
+    }
+
+    @Test
+    void processTransferTransaction_FundsHeld_CapturesHoldToDestination() {
+        // Arrange
+        String reference = "TXN-12345678";
+        TransactionMessageDto messageDto = createMessage(reference);
+        messageDto.setFundsHeld(true);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.captureHold(1L, reference, 2L)).thenReturn(true);
+
+        // Act
+        consumer.processTransferTransaction(messageDto);
+
+        // Assert
+        verify(accountServiceClient, never()).transfer(any(), any(), any(), any(), any());
+        verify(transactionRepository).transitionStatus(eq(reference), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.COMPLETED), notNull(), isNull());
+        verifyNoInteractions(transactionLockService);
+    }
+
+    private void claimSucceeds(String reference) {
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1);
+    }
+
+    private TransactionMessageDto createMessage(String reference) {
+        TransactionMessageDto messageDto = new TransactionMessageDto();
+        messageDto.setId(1L);
+        messageDto.setTransactionReference(reference);
+        messageDto.setType(TransactionType.TRANSFER);
+        messageDto.setAmount(new BigDecimal("100.00"));
+        messageDto.setSourceAccountId(1L);
+        messageDto.setDestinationAccountId(2L);
+        messageDto.setStatus(TransactionStatus.PENDING);
+        messageDto.setCurrency("USD");
+        messageDto.setDescription("Test transfer transaction");
+        messageDto.setCreatedAt(Instant.now());
+        messageDto.setUserId(1L);
+        return messageDto;
     }
-} 
\ No newline at end of file
+}
@@ -1,27 +1,25 @@
 package com.ibrahim.banking.payment_service.consumer;
 
 import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
-import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
 import com.ibrahim.banking.payment_service.repository.TransactionRepository;
 import com.ibrahim.banking.payment_service.service.NotificationPublisherService;
+import com.ibrahim.banking.payment_service.service.TransactionLockService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.Optional;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,8 +34,8 @@ public class WithdrawalTransactionConsumerTest {
     @Mock
     private NotificationPublisherService notificationPublisherService;
 
-    @Captor
-    private ArgumentCaptor<Transaction> transactionCaptor;
+    @Mock
+    private TransactionLockService transactionLockService;
 
     private WithdrawalTransactionConsumer consumer;
 
@@ -46,7 +44,8 @@ public class WithdrawalTransactionConsumerTest {
         consumer = new WithdrawalTransactionConsumer(
                 transactionRepository,
                 accountServiceClient,
-                notificationPublisherService
+                notificationPublisherService,
+                transactionLockService
         );
     }
 
@@ -54,144 +53,141 @@ public class WithdrawalTransactionConsumerTest {
     void processWithdrawalTransaction_Success_UpdatesTransactionStatusToCompleted() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(true);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.debitAccount(1L, new BigDecimal("100.00"), "USD", reference)).thenReturn(true);
+
         // Act
         consumer.processWithdrawalTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.COMPLETED, savedTransaction.getStatus());
-        assertNotNull(savedTransaction.getCompletedAt());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+        verify(accountServiceClient).debitAccount(1L, new BigDecimal("100.00"), "USD", reference);
+        verify(transactionRepository).transitionStatus(eq(reference), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.COMPLETED), notNull(), isNull());
+        verify(transactionRepository, never()).findByTransactionReference(any());
+
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.COMPLETED);
+        verify(transactionLockService).resumeLease(reference, 1L);
     }
 
     @Test
     void processWithdrawalTransaction_Failure_UpdatesTransactionStatusToFailed() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenReturn(false);
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.debitAccount(1L, new BigDecimal("100.00"), "USD", reference)).thenReturn(false);
+
         // Act
         consumer.processWithdrawalTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository).save(transactionCaptor.capture());
-        Transaction savedTransaction = transactionCaptor.getValue();
-        assertEquals(TransactionStatus.FAILED, savedTransaction.getStatus());
-        assertEquals("Failed to debit account", savedTransaction.getFailureReason());
-        
-        verify(notificationPublisherService).publishTransactionNotification(transaction);
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.FAILED, null, "Failed to debit account");
+        verify(notificationPublisherService).publishTransactionNotification(messageDto, TransactionStatus.FAILED);
     }
 
     @Test
-    void processWithdrawalTransaction_TransactionNotFound_DoesNothing() {
+    void processWithdrawalTransaction_DuplicateMessage_DoesNotDebitAgain() {
         // Arrange
         String reference = "TXN-12345678";
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.empty());
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1, 0);
+        when(accountServiceClient.debitAccount(1L, new BigDecimal("100.00"), "USD", reference)).thenReturn(true);
+
+        // Act
+        consumer.processWithdrawalTransaction(messageDto);
+        consumer.processWithdrawalTransaction(messageDto);
+
+        // Assert
+        verify(accountServiceClient, times(1)).debitAccount(any(), any(), any(), any());
+        verify(notificationPublisherService, times(1)).publishTransactionNotification(any(), any());
+        // only the delivery that claimed it resumes and releases the locks
+        verify(transactionLockService, times(1)).resumeLease(reference, 1L);
+    }
+
+    @Test
+    void processWithdrawalTransaction_ExceptionThrown_ReturnsToPendingAndRethrows() {
+        // Arrange
+        String reference = "TXN-12345678";
+        TransactionMessageDto messageDto = createMessage(reference);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.debitAccount(1L, new BigDecimal("100.00"), "USD", reference))
+                .thenThrow(new RuntimeException("Test exception"));
+
+        // Act - the listener retries the message, the posting is idempotent by reference
+        assertThrows(RuntimeException.class, () -> consumer.processWithdrawalTransaction(messageDto));
+
+        // Assert
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.PENDING, null, null);
+        verify(transactionRepository, never()).transitionStatus(any(), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.FAILED), any(), any());
+        verify(notificationPublisherService, never()).publishTransactionNotification(any(), any());
+    }
+
+    @Test
+    void processWithdrawalTransaction_FundsHeld_CapturesHoldWithoutLease() {
+        // Arrange
+        String reference = "TXN-12345678";
+        TransactionMessageDto messageDto = createMessage(reference);
+        messageDto.setFundsHeld(true);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.captureHold(1L, reference, null)).thenReturn(true);
+
         // Act
         consumer.processWithdrawalTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
+        verify(transactionRepository).transitionStatus(eq(reference), eq(TransactionStatus.PROCESSING),
+                eq(TransactionStatus.COMPLETED), notNull(), isNull());
         verify(accountServiceClient, never()).debitAccount(any(), any(), any(), any());
-        verify(transactionRepository, never()).save(any());
-        verify(notificationPublisherService, never()).publishTransactionNotification(any());
+        verify(accountServiceClient, never()).releaseHold(any());
+        verifyNoInteractions(transactionLockService);
     }
 
     @Test
-    void processWithdrawalTransaction_ExceptionThrown_LogsError() {
+    void processWithdrawalTransaction_FundsHeldCaptureFails_ReleasesHold() {
         // Arrange
         String reference = "TXN-12345678";
-        Transaction transaction = createTransaction(reference);
-        
-        TransactionMessageDto messageDto = new TransactionMessageDto();
-        messageDto.setTransactionReference(reference);
-        
-        when(transactionRepository.findByTransactionReference(reference))
-                .thenReturn(Optional.of(transaction));
-        when(accountServiceClient.debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        )).thenThrow(new RuntimeException("Test exception"));
-        
+        TransactionMessageDto messageDto = createMessage(reference);
+        messageDto.setFundsHeld(true);
+
+        claimSucceeds(reference);
+        when(accountServiceClient.captureHold(1L, reference, null)).thenReturn(false);
+
         // Act
         consumer.processWithdrawalTransaction(messageDto);
-        
+
         // Assert
-        verify(transactionRepository).findByTransactionReference(reference);
-        verify(accountServiceClient).debitAccount(
-                eq(transaction.getSourceAccountId()),
-                eq(transaction.getAmount()),
-                eq(transaction.getCurrency()),
-                eq(transaction.getTransactionReference())
-        );
-        
-        verify(transactionRepository, never()).save(any());
-        verify(notificationPublisherService, never()).publishTransactionNotification(any());
+        verify(transactionRepository).transitionStatus(reference, TransactionStatus.PROCESSING,
+                TransactionStatus.FAILED, null, "Failed to debit account");
+        verify(accountServiceClient).releaseHold(reference);
+    }
+
+    private void claimSucceeds(String reference) {
+        when(transactionRepository.claim(eq(reference), any(Instant.class)))
+                .thenReturn(1);
     }
 
-    private Transaction createTransaction(String reference) {
-        Transaction transaction = new Transaction();
-        transaction.setId(1L);
-        transaction.setTransactionReference(reference);
-        transaction.setType(TransactionType.WITHDRAWAL);
-        transaction.setAmount(new BigDecimal("100.00"));
-        transaction.setSourceAccountId(1L);
-        transaction.setStatus(TransactionStatus.PENDING);
-        transaction.setCurrency("USD");
-        transaction.setDescription("Test withdrawal transaction");
-        transaction.setCreatedAt(Instant.now());
-        transaction.setUserId(1L);
-        return transaction;
+    private TransactionMessageDto createMessage(String reference) {
+        TransactionMessageDto messageDto = new TransactionMessageDto();
+        messageDto.setId(1L);
+        messageDto.setTransactionReference(reference);
+        messageDto.setType(TransactionType.WITHDRAWAL);
+        messageDto.setAmount(new BigDecimal("100.00"));
+        messageDto.setSourceAccountId(1L);
+        messageDto.setStatus(TransactionStatus.PENDING);
+        messageDto.setCurrency("USD");
+        messageDto.setDescription("Test withdrawal transaction");
+        messageDto.setCreatedAt(Instant.now());
+        messageDto.setUserId(1L);
+        return messageDto;
     }
-} 
\ No newline at end of file
+}
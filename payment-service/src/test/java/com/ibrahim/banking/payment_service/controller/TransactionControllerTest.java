@@ -8,31 +8,41 @@ import com.ibrahim.banking.payment_service.exception.ResourceNotFoundException;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
+import com.ibrahim.banking.payment_service.service.TransactionExportService;
 import com.ibrahim.banking.payment_service.service.TransactionService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
@@ -41,7 +51,9 @@ public class TransactionControllerTest {
     @Mock
     private TransactionService transactionService;
 
-    @InjectMocks
+    @Mock
+    private TransactionExportService transactionExportService;
+
     private TransactionController transactionController;
 
     private MockMvc mockMvc;
@@ -49,6 +61,7 @@ public class TransactionControllerTest {
 
     @BeforeEach
     void setUp() {
+        transactionController = new TransactionController(transactionService, transactionExportService, 600_000L);
         // Include the GlobalExceptionHandler in the MockMvc setup
         mockMvc = MockMvcBuilders
                 .standaloneSetup(transactionController)
@@ -239,39 +252,123 @@ public class TransactionControllerTest {
     }
 
     @Test
-    void getTransactionsByUserId_ReturnsTransactionsList() throws Exception {
+    void getTransactionsByUserId_ReturnsTransactionsPage() throws Exception {
         // Arrange
         Long userId = 1L;
         Transaction transaction1 = createTransaction("TXN-12345678", TransactionType.DEPOSIT);
         Transaction transaction2 = createTransaction("TXN-87654321", TransactionType.WITHDRAWAL);
-        List<Transaction> transactions = Arrays.asList(transaction1, transaction2);
+        TransactionPageDto page = new TransactionPageDto(
+                List.of(new TransactionDetailsDto(transaction1), new TransactionDetailsDto(transaction2)), "next");
         
-        when(transactionService.getTransactionsByUserId(userId)).thenReturn(transactions);
+        when(transactionService.getTransactionsByUserId(userId, TransactionHistoryFilter.none(), null, 50)).thenReturn(page);
 
         // Act & Assert
         mockMvc.perform(get("/api/transactions/user/{userId}", userId))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(2)))
-                .andExpect(jsonPath("$[0].transactionReference", is(transaction1.getTransactionReference())))
-                .andExpect(jsonPath("$[1].transactionReference", is(transaction2.getTransactionReference())));
+                .andExpect(jsonPath("$.items", hasSize(2)))
+                .andExpect(jsonPath("$.items[0].transactionReference", is(transaction1.getTransactionReference())))
+                .andExpect(jsonPath("$.items[1].transactionReference", is(transaction2.getTransactionReference())))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
     }
 
     @Test
-    void getTransactionsByAccountId_ReturnsTransactionsList() throws Exception {
+    void getTransactionsByAccountId_ReturnsTransactionsPage() throws Exception {
         // Arrange
         Long accountId = 1L;
         Transaction transaction1 = createTransaction("TXN-12345678", TransactionType.DEPOSIT);
         Transaction transaction2 = createTransaction("TXN-87654321", TransactionType.WITHDRAWAL);
-        List<Transaction> transactions = Arrays.asList(transaction1, transaction2);
+        TransactionPageDto page = new TransactionPageDto(
+                List.of(new TransactionDetailsDto(transaction1), new TransactionDetailsDto(transaction2)), null);
+        TransactionHistoryFilter filter = new TransactionHistoryFilter(TransactionStatus.COMPLETED, TransactionType.DEPOSIT,
+                Instant.parse("2025-01-01T00:00:00Z"), null);
         
-        when(transactionService.getTransactionsByAccountId(accountId)).thenReturn(transactions);
+        when(transactionService.getTransactionsByAccountId(accountId, filter, "abc", 20)).thenReturn(page);
+
+        // Act & Assert
+        mockMvc.perform(get("/api/transactions/account/{accountId}", accountId)
+                        .param("status", "COMPLETED")
+                        .param("type", "DEPOSIT")
+                        .param("from", "2025-01-01T00:00:00Z")
+                        .param("cursor", "abc")
+                        .param("limit", "20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items", hasSize(2)))
+                .andExpect(jsonPath("$.items[0].transactionReference", is(transaction1.getTransactionReference())))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void getTransactionsByAccountId_InvalidCursor_ReturnsBadRequest() throws Exception {
+        // Arrange
+        when(transactionService.getTransactionsByAccountId(eq(1L), any(), eq("bad"), anyInt()))
+                .thenThrow(new IllegalArgumentException("Invalid cursor"));
 
         // Act & Assert
-        mockMvc.perform(get("/api/transactions/account/{accountId}", accountId))
+        mockMvc.perform(get("/api/transactions/account/{accountId}", 1L).param("cursor", "bad"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void exportTransactions_AcceptsGzip_StreamsCompressedCsv() throws Exception {
+        // Arrange
+        Instant from = Instant.parse("2025-01-01T00:00:00Z");
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(4);
+            out.write("id,transactionReference\r\n1,TXN-12345678\r\n".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        }).when(transactionExportService).export(eq(1L), eq(from), isNull(), eq(TransactionExportService.Format.CSV), any());
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/api/transactions/export")
+                        .param("accountId", "1")
+                        .param("from", "2025-01-01T00:00:00Z")
+                        .param("format", "csv")
+                        .header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(600_000L, result.getRequest().getAsyncContext().getTimeout());
+
+        // Assert
+        MvcResult streamed = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "text/csv"))
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"transactions-1.csv\""))
+                .andReturn();
+        byte[] body = streamed.getResponse().getContentAsByteArray();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertEquals("id,transactionReference\r\n1,TXN-12345678\r\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void exportTransactions_NoGzip_StreamsPlainNdjson() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(4);
+            out.write("{\"transactionReference\":\"TXN-12345678\"}".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        }).when(transactionExportService).export(isNull(), isNull(), isNull(), eq(TransactionExportService.Format.NDJSON), any());
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/api/transactions/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(2)))
-                .andExpect(jsonPath("$[0].transactionReference", is(transaction1.getTransactionReference())))
-                .andExpect(jsonPath("$[1].transactionReference", is(transaction2.getTransactionReference())));
+                .andExpect(header().string("Content-Type", "application/x-ndjson"))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(jsonPath("$.transactionReference", is("TXN-12345678")));
+    }
+
+    @Test
+    void exportTransactions_UnsupportedFormat_ReturnsBadRequest() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/transactions/export").param("format", "xml"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(transactionExportService);
     }
 
     private Transaction createTransaction(String reference, TransactionType type) {
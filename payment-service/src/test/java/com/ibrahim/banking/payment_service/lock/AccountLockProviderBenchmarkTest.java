@@ -0,0 +1,178 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Contention benchmark for the lock backends: 8 threads acquire and release random accounts out
+ * of a small hot set and report throughput and acquire/release latency percentiles. Every run also
+ * checks that no account was ever held by two threads at once.
+ * <p>
+ * The in-memory backend always runs. The Redis and PostgreSQL backends run only when pointed at a
+ * server, e.g. {@code -Dbenchmark.redis.host=localhost} or
+ * {@code -Dbenchmark.postgres.url=jdbc:postgresql://localhost:5435/transactionsdb
+ * -Dbenchmark.postgres.username=... -Dbenchmark.postgres.password=...}.
+ */
+@Tag("benchmark")
+public class AccountLockProviderBenchmarkTest {
+
+    private static final int THREADS = 8;
+    private static final int HOT_ACCOUNTS = 32;
+    private static final long DURATION_MS = 1_000;
+
+    @Test
+    void inMemoryProvider(TestReporter reporter) throws Exception {
+        assertExclusive(run(new InMemoryAccountLockProvider(64)), "in-memory", reporter);
+    }
+
+    @Test
+    void redisProvider(TestReporter reporter) throws Exception {
+        String host = System.getProperty("benchmark.redis.host");
+        assumeTrue(host != null, "set -Dbenchmark.redis.host to benchmark the Redis provider");
+
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(host, Integer.getInteger("benchmark.redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        try {
+            RedisTemplate<String, String> template = new RedisTemplate<>();
+            template.setConnectionFactory(connectionFactory);
+            template.setKeySerializer(new StringRedisSerializer());
+            template.setValueSerializer(new StringRedisSerializer());
+            template.afterPropertiesSet();
+
+            assertExclusive(run(new RedisAccountLockProvider(template)), "redis", reporter);
+        } finally {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void postgresProvider(TestReporter reporter) throws Exception {
+        String url = System.getProperty("benchmark.postgres.url");
+        assumeTrue(url != null, "set -Dbenchmark.postgres.url to benchmark the PostgreSQL provider");
+
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url,
+                System.getProperty("benchmark.postgres.username"), System.getProperty("benchmark.postgres.password"));
+        PostgresAccountLockProvider provider = new PostgresAccountLockProvider(dataSource);
+        new ResourceDatabasePopulator(new ClassPathResource("db/migration/postgresql/V3__account_locks.sql")).execute(dataSource);
+
+        assertExclusive(run(provider), "postgres", reporter);
+    }
+
+    private static void assertExclusive(Result result, String provider, TestReporter reporter) {
+        reporter.publishEntry(provider, result.toString());
+        assertTrue(result.operations > 0);
+        assertEquals(0, result.overlaps, "an account was held by two owners at once");
+    }
+
+    private Result run(AccountLockProvider provider) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<long[][]>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        // owners currently holding each account, as far as the provider told them
+        AtomicIntegerArray holders = new AtomicIntegerArray(HOT_ACCOUNTS);
+        AtomicLong overlaps = new AtomicLong();
+
+        for (int t = 0; t < THREADS; t++) {
+            String owner = "BENCH-" + t;
+            futures.add(executor.submit(() -> {
+                LatencyRecorder acquire = new LatencyRecorder();
+                LatencyRecorder release = new LatencyRecorder();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int account = random.nextInt(HOT_ACCOUNTS);
+                    List<Long> accounts = List.of((long) account);
+                    long start = System.nanoTime();
+                    boolean acquired = provider.tryAcquire(accounts, owner, 10_000);
+                    acquire.record(System.nanoTime() - start);
+                    if (acquired) {
+                        if (holders.incrementAndGet(account) > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        holders.decrementAndGet(account);
+                        start = System.nanoTime();
+                        provider.release(accounts, owner);
+                        release.record(System.nanoTime() - start);
+                    }
+                }
+                return new long[][]{acquire.values(), release.values()};
+            }));
+        }
+
+        List<long[]> acquireSamples = new ArrayList<>();
+        List<long[]> releaseSamples = new ArrayList<>();
+        for (Future<long[][]> future : futures) {
+            long[][] samples = future.get();
+            acquireSamples.add(samples[0]);
+            releaseSamples.add(samples[1]);
+        }
+        executor.shutdown();
+
+        long[] acquire = merge(acquireSamples);
+        long[] release = merge(releaseSamples);
+        return new Result(acquire.length + release.length, overlaps.get(), acquire, release);
+    }
+
+    private static long[] merge(List<long[]> samples) {
+        long[] merged = samples.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static final class LatencyRecorder {
+        private long[] values = new long[1024];
+        private int size;
+
+        void record(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        long[] values() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private record Result(long operations, long overlaps, long[] acquire, long[] release) {
+
+        @Override
+        public String toString() {
+            return String.format("%,d ops/s, acquire p50=%.1fus p99=%.1fus, release p50=%.1fus p99=%.1fus",
+                    operations * 1000 / DURATION_MS,
+                    percentile(acquire, 0.50), percentile(acquire, 0.99),
+                    percentile(release, 0.50), percentile(release, 0.99));
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.round(quantile * (sorted.length - 1)))] / 1000.0;
+        }
+    }
+}
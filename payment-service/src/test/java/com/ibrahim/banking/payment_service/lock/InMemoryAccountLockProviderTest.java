@@ -0,0 +1,81 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryAccountLockProviderTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private InMemoryAccountLockProvider lockProvider;
+
+    @BeforeEach
+    void setUp() {
+        lockProvider = new InMemoryAccountLockProvider(16, clock::get);
+    }
+
+    @Test
+    void tryAcquire_OneAccountHeld_AcquiresNothing() {
+        assertTrue(lockProvider.tryAcquire(List.of(2L), "TXN-A", 1000));
+
+        assertFalse(lockProvider.tryAcquire(List.of(1L, 2L), "TXN-B", 1000));
+        // account 1 must not have been left locked by the failed attempt
+        assertTrue(lockProvider.tryAcquire(List.of(1L), "TXN-C", 1000));
+    }
+
+    @Test
+    void release_DifferentOwner_KeepsLock() {
+        lockProvider.tryAcquire(List.of(1L), "TXN-A", 1000);
+
+        assertEquals(0, lockProvider.release(List.of(1L), "TXN-B"));
+        assertFalse(lockProvider.tryAcquire(List.of(1L), "TXN-B", 1000));
+        assertEquals(1, lockProvider.release(List.of(1L), "TXN-A"));
+        assertTrue(lockProvider.tryAcquire(List.of(1L), "TXN-B", 1000));
+    }
+
+    @Test
+    void expiredLease_CanBeTakenAndNoLongerRenewedByOldOwner() {
+        lockProvider.tryAcquire(List.of(1L), "TXN-A", 1000);
+        clock.addAndGet(500);
+        assertEquals(1, lockProvider.renew(List.of(1L), "TXN-A", 1000));
+
+        clock.addAndGet(1200);
+        assertTrue(lockProvider.tryAcquire(List.of(1L), "TXN-B", 1000));
+        assertEquals(0, lockProvider.renew(List.of(1L), "TXN-A", 1000));
+        assertEquals(0, lockProvider.release(List.of(1L), "TXN-A"));
+    }
+
+    @Test
+    void concurrentOppositeTransfers_NeverBothHoldTheAccounts() throws InterruptedException {
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            List<Long> accounts = List.of(1L, 2L);
+            String owner = "TXN-" + i;
+            executor.submit(() -> {
+                for (int n = 0; n < 10_000; n++) {
+                    if (lockProvider.tryAcquire(accounts, owner, 60_000)) {
+                        if (holders.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        holders.decrementAndGet();
+                        lockProvider.release(accounts, owner);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+    }
+}
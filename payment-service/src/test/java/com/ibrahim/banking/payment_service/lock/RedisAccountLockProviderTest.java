@@ -0,0 +1,87 @@
+package com.ibrahim.banking.payment_service.lock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RedisAccountLockProviderTest {
+
+    private static final String OWNER = "TXN-12345678";
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    private RedisAccountLockProvider lockProvider;
+
+    @BeforeEach
+    void setUp() {
+        lockProvider = new RedisAccountLockProvider(redisTemplate);
+    }
+
+    @Test
+    void tryAcquire_AllKeysFree_SingleScriptCall() {
+        // Arrange
+        List<String> keys = List.of("transaction:account:3", "transaction:account:7");
+        when(redisTemplate.execute(eq(RedisAccountLockProvider.ACQUIRE_SCRIPT), eq(keys), eq(OWNER), eq("12000")))
+                .thenReturn(0L);
+
+        // Act
+        boolean result = lockProvider.tryAcquire(List.of(3L, 7L), OWNER, 12000L);
+
+        // Assert
+        assertTrue(result);
+        verify(redisTemplate, times(1)).execute(eq(RedisAccountLockProvider.ACQUIRE_SCRIPT), anyList(), any(), any());
+    }
+
+    @Test
+    void tryAcquire_KeyHeld_ReturnsFalse() {
+        // Arrange
+        List<String> keys = List.of("transaction:account:1");
+        when(redisTemplate.execute(eq(RedisAccountLockProvider.ACQUIRE_SCRIPT), eq(keys), eq(OWNER), eq("12000")))
+                .thenReturn(1L);
+
+        // Act
+        boolean result = lockProvider.tryAcquire(List.of(1L), OWNER, 12000L);
+
+        // Assert
+        assertFalse(result);
+    }
+
+    @Test
+    void release_OwnerChecked_ReturnsReleasedCount() {
+        // Arrange
+        List<String> keys = List.of("transaction:account:1", "transaction:account:2");
+        when(redisTemplate.execute(eq(RedisAccountLockProvider.RELEASE_SCRIPT), eq(keys), eq(OWNER)))
+                .thenReturn(1L);
+
+        // Act
+        long released = lockProvider.release(List.of(1L, 2L), OWNER);
+
+        // Assert
+        assertEquals(1L, released);
+        verify(redisTemplate, never()).delete(anyString());
+    }
+
+    @Test
+    void renew_Owner_ExtendsLease() {
+        // Arrange
+        List<String> keys = List.of("transaction:account:1");
+        when(redisTemplate.execute(eq(RedisAccountLockProvider.RENEW_SCRIPT), eq(keys), eq(OWNER), eq("12000")))
+                .thenReturn(1L);
+
+        // Act
+        long renewed = lockProvider.renew(List.of(1L), OWNER, 12000L);
+
+        // Assert
+        assertEquals(1L, renewed);
+    }
+}
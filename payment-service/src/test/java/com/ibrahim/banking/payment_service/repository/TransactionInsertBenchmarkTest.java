@@ -0,0 +1,135 @@
+package com.ibrahim.banking.payment_service.repository;
+
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Inserts the same number of transactions once with a save per transaction and once with
+ * {@code saveAll} over chunks, and reports inserts per second. Runs against the in-memory H2
+ * database, so the numbers show the statement and round trip savings, not PostgreSQL throughput.
+ */
+@Tag("benchmark")
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class TransactionInsertBenchmarkTest {
+
+    private static final int COUNT = 1_000;
+    private static final int CHUNK = 500;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DELETE FROM transactions");
+    }
+
+    @Test
+    void singleSaves(TestReporter reporter) {
+        // Arrange
+        List<Transaction> transactions = createTransactions("SINGLE");
+
+        // Act
+        long start = System.nanoTime();
+        transactions.forEach(transactionRepository::save);
+        long elapsed = System.nanoTime() - start;
+
+        // Assert
+        report(reporter, "single saves", elapsed);
+        assertEquals(COUNT, transactionRepository.count());
+        // the baseline: at least an insert per row
+        assertTrue(statistics.getPrepareStatementCount() >= COUNT,
+                "prepared statements: " + statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void batchedSaves(TestReporter reporter) {
+        // Arrange
+        List<Transaction> transactions = createTransactions("BATCH");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        // Act
+        long start = System.nanoTime();
+        for (int from = 0; from < COUNT; from += CHUNK) {
+            List<Transaction> chunk = transactions.subList(from, Math.min(from + CHUNK, COUNT));
+            transactionTemplate.executeWithoutResult(status -> transactionRepository.saveAll(chunk));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Assert
+        report(reporter, "batched saves", elapsed);
+        assertEquals(COUNT, transactionRepository.count());
+        // 50 rows per JDBC batch and one sequence call per 50 ids, not a statement per row
+        assertTrue(statistics.getPrepareStatementCount() < COUNT / 10,
+                "prepared statements: " + statistics.getPrepareStatementCount());
+    }
+
+    private void report(TestReporter reporter, String label, long elapsedNanos) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        reporter.publishEntry(label, String.format("%d inserts in %d ms, %d inserts/s, %d statements prepared",
+                COUNT, millis, COUNT * 1000L / millis, statistics.getPrepareStatementCount()));
+    }
+
+    private List<Transaction> createTransactions(String prefix) {
+        List<Transaction> transactions = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setTransactionReference("TXN-" + prefix + "-" + i);
+            transaction.setType(TransactionType.DEPOSIT);
+            transaction.setAmount(new BigDecimal("100.00"));
+            transaction.setSourceAccountId(1L + i % 10);
+            transaction.setStatus(TransactionStatus.PENDING);
+            transaction.setCurrency("USD");
+            transaction.setCreatedAt(Instant.now());
+            transaction.setUserId(1L);
+            transactions.add(transaction);
+        }
+        return transactions;
+    }
+}
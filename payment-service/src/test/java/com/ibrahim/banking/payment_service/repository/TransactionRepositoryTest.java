@@ -1,5 +1,6 @@
 package com.ibrahim.banking.payment_service.repository;
 
+import com.ibrahim.banking.payment_service.dto.TransactionDetailsDto;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
@@ -7,6 +8,9 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
@@ -55,6 +59,16 @@ public class TransactionRepositoryTest {
         assertFalse(result.isPresent());
     }
 
+    @Test
+    void saveAndFlush_DuplicateReference_IsRejected() {
+        // Arrange
+        entityManager.persistAndFlush(createTransaction("TXN-12345678", TransactionType.DEPOSIT));
+
+        // Act & Assert
+        assertThrows(DataIntegrityViolationException.class, () ->
+                transactionRepository.saveAndFlush(createTransaction("TXN-12345678", TransactionType.WITHDRAWAL)));
+    }
+
     @Test
     void findByUserId_ExistingUserId_ReturnsTransactions() {
         // Arrange
@@ -260,6 +274,214 @@ public class TransactionRepositoryTest {
         assertTrue(result.stream().anyMatch(t -> t.getTransactionReference().equals("TXN-22222222")));
     }
 
+    @Test
+    void transitionStatus_OnlyMovesFromTheExpectedStatus() {
+        // Arrange
+        String reference = "TXN-11111111";
+        entityManager.persist(createTransaction(reference, TransactionType.DEPOSIT));
+        entityManager.flush();
+        entityManager.clear();
+        Instant completedAt = Instant.now();
+
+        // Act
+        int claimed = transactionRepository.transitionStatus(
+                reference, TransactionStatus.PENDING, TransactionStatus.PROCESSING, null, null);
+        int claimedAgain = transactionRepository.transitionStatus(
+                reference, TransactionStatus.PENDING, TransactionStatus.PROCESSING, null, null);
+        int completed = transactionRepository.transitionStatus(
+                reference, TransactionStatus.PROCESSING, TransactionStatus.COMPLETED, completedAt, null);
+        int failedAfterCompletion = transactionRepository.transitionStatus(
+                reference, TransactionStatus.PROCESSING, TransactionStatus.FAILED, null, "too late");
+
+        // Assert
+        assertEquals(1, claimed);
+        assertEquals(0, claimedAgain);
+        assertEquals(1, completed);
+        assertEquals(0, failedAfterCompletion);
+        entityManager.clear();
+        Transaction result = transactionRepository.findByTransactionReference(reference).orElseThrow();
+        assertEquals(TransactionStatus.COMPLETED, result.getStatus());
+        assertNotNull(result.getCompletedAt());
+        assertNull(result.getFailureReason());
+    }
+
+    @Test
+    void transitionStatus_UnknownReference_UpdatesNothing() {
+        // Act
+        int updated = transactionRepository.transitionStatus(
+                "TXN-NONEXISTENT", TransactionStatus.PENDING, TransactionStatus.PROCESSING, null, null);
+
+        // Assert
+        assertEquals(0, updated);
+    }
+
+    @Test
+    void claim_RecordsClaimTimeAndOnlyClaimsPending() {
+        // Arrange
+        String reference = "TXN-11111111";
+        entityManager.persist(createTransaction(reference, TransactionType.DEPOSIT));
+        entityManager.flush();
+        entityManager.clear();
+        Instant claimedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        // Act
+        int claimed = transactionRepository.claim(reference, claimedAt);
+        int claimedAgain = transactionRepository.claim(reference, claimedAt.plusSeconds(1));
+
+        // Assert
+        assertEquals(1, claimed);
+        assertEquals(0, claimedAgain);
+        entityManager.clear();
+        Transaction result = transactionRepository.findByTransactionReference(reference).orElseThrow();
+        assertEquals(TransactionStatus.PROCESSING, result.getStatus());
+        assertEquals(claimedAt, result.getClaimedAt());
+    }
+
+    @Test
+    void releaseStaleClaim_OnlyReleasesTheClaimThatWasRead() {
+        // Arrange
+        String reference = "TXN-11111111";
+        entityManager.persist(createTransaction(reference, TransactionType.DEPOSIT));
+        entityManager.flush();
+        entityManager.clear();
+        Instant staleClaim = Instant.now().minus(10, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.MILLIS);
+        transactionRepository.claim(reference, staleClaim);
+        entityManager.clear();
+        List<Transaction> stale = transactionRepository.findByStatusAndClaimedAtBeforeOrderByClaimedAt(
+                TransactionStatus.PROCESSING, Instant.now().minus(5, ChronoUnit.MINUTES), PageRequest.of(0, 10));
+        Long id = stale.get(0).getId();
+
+        // Act
+        int released = transactionRepository.releaseStaleClaim(id, staleClaim);
+        int releasedAgain = transactionRepository.releaseStaleClaim(id, staleClaim);
+
+        // Assert - a second sweep with the same stale read finds nothing to do
+        assertEquals(1, stale.size());
+        assertEquals(1, released);
+        assertEquals(0, releasedAgain);
+        entityManager.clear();
+        assertEquals(TransactionStatus.PENDING,
+                transactionRepository.findByTransactionReference(reference).orElseThrow().getStatus());
+    }
+
+    @Test
+    void dequeueAndExpireQueued_OnlyOneTakesTheEntryOutOfTheQueue() {
+        // Arrange
+        Transaction transaction = createTransaction("TXN-11111111", TransactionType.DEPOSIT);
+        transaction.setQueuedAt(Instant.now());
+        Long id = entityManager.persistAndFlush(transaction).getId();
+        entityManager.clear();
+
+        // Act
+        int dequeued = transactionRepository.dequeue(id);
+        int expired = transactionRepository.expireQueued(id, "too late");
+        int dequeuedAgain = transactionRepository.dequeue(id);
+
+        // Assert
+        assertEquals(1, dequeued);
+        assertEquals(0, expired);
+        assertEquals(0, dequeuedAgain);
+        entityManager.clear();
+        Transaction result = transactionRepository.findById(id).orElseThrow();
+        assertNull(result.getQueuedAt());
+        assertEquals(TransactionStatus.PENDING, result.getStatus());
+        assertNull(result.getFailureReason());
+    }
+
+    @Test
+    void findQueuedByAccountId_OrdersByQueuedAtNotById() {
+        // Arrange - the lower id was queued later, as with id blocks from two instances
+        Instant base = Instant.parse("2025-06-01T10:00:00Z");
+        Transaction later = createTransaction("TXN-11111111", TransactionType.WITHDRAWAL);
+        later.setQueuedAt(base.plusMillis(5));
+        entityManager.persist(later);
+        Transaction earlier = createTransaction("TXN-22222222", TransactionType.TRANSFER);
+        earlier.setSourceAccountId(2L);
+        earlier.setDestinationAccountId(1L);
+        earlier.setQueuedAt(base);
+        entityManager.persist(earlier);
+        entityManager.persist(createTransaction("TXN-33333333", TransactionType.DEPOSIT));
+        entityManager.flush();
+
+        // Act
+        List<Transaction> queue = transactionRepository.findQueuedByAccountId(1L, PageRequest.of(0, 10));
+        List<Transaction> allQueued = transactionRepository.findByQueuedAtIsNotNullOrderByQueuedAtAscIdAsc(PageRequest.of(0, 10));
+
+        // Assert
+        assertTrue(later.getId() < earlier.getId());
+        assertEquals(List.of("TXN-22222222", "TXN-11111111"),
+                queue.stream().map(Transaction::getTransactionReference).toList());
+        assertEquals(List.of("TXN-22222222", "TXN-11111111"),
+                allQueued.stream().map(Transaction::getTransactionReference).toList());
+    }
+
+    @Test
+    void findHistoryByAccountId_PagesThroughBothSidesNewestFirst() {
+        // Arrange
+        Instant base = Instant.parse("2025-06-01T10:00:00Z");
+        Transaction oldest = createTransaction("TXN-H1", TransactionType.DEPOSIT);
+        oldest.setCreatedAt(base);
+        Transaction incoming = createTransaction("TXN-H2", TransactionType.TRANSFER);
+        incoming.setSourceAccountId(2L);
+        incoming.setDestinationAccountId(1L);
+        incoming.setCreatedAt(base.plusSeconds(60));
+        Transaction sameTime = createTransaction("TXN-H3", TransactionType.WITHDRAWAL);
+        sameTime.setCreatedAt(base.plusSeconds(60));
+        Transaction otherAccount = createTransaction("TXN-H4", TransactionType.DEPOSIT);
+        otherAccount.setSourceAccountId(3L);
+        otherAccount.setCreatedAt(base.plusSeconds(120));
+        for (Transaction transaction : List.of(oldest, incoming, sameTime, otherAccount)) {
+            entityManager.persist(transaction);
+        }
+        entityManager.flush();
+
+        // Act
+        List<TransactionDetailsDto> firstPage = transactionRepository.findHistoryByAccountId(1L, null, null, Instant.EPOCH,
+                Instant.parse("9999-12-31T23:59:59Z"), Long.MAX_VALUE, Limit.of(2));
+        TransactionDetailsDto last = firstPage.get(1);
+        List<TransactionDetailsDto> secondPage = transactionRepository.findHistoryByAccountId(1L, null, null, Instant.EPOCH,
+                last.getCreatedAt(), last.getId(), Limit.of(2));
+
+        // Assert - equal timestamps are ordered by id, descending
+        assertEquals(List.of("TXN-H3", "TXN-H2"), firstPage.stream().map(TransactionDetailsDto::getTransactionReference).toList());
+        assertEquals(List.of("TXN-H1"), secondPage.stream().map(TransactionDetailsDto::getTransactionReference).toList());
+    }
+
+    @Test
+    void findHistoryByUserId_Filters_ReturnOnlyMatchingTransactions() {
+        // Arrange
+        Instant base = Instant.parse("2025-06-01T10:00:00Z");
+        Transaction early = createTransaction("TXN-F1", TransactionType.DEPOSIT);
+        early.setCreatedAt(base);
+        Transaction completed = createTransaction("TXN-F2", TransactionType.DEPOSIT);
+        completed.setStatus(TransactionStatus.COMPLETED);
+        completed.setCreatedAt(base.plusSeconds(60));
+        Transaction withdrawal = createTransaction("TXN-F3", TransactionType.WITHDRAWAL);
+        withdrawal.setCreatedAt(base.plusSeconds(60));
+        Transaction late = createTransaction("TXN-F4", TransactionType.DEPOSIT);
+        late.setCreatedAt(base.plusSeconds(120));
+        for (Transaction transaction : List.of(early, completed, withdrawal, late)) {
+            entityManager.persist(transaction);
+        }
+        entityManager.flush();
+
+        // Act - deposits still pending, created in [base + 1s, base + 120s)
+        List<TransactionDetailsDto> result = transactionRepository.findHistoryByUserId(1L, TransactionStatus.PENDING,
+                TransactionType.DEPOSIT, base.plusSeconds(1), base.plusSeconds(120), Long.MIN_VALUE, Limit.of(10));
+
+        // Assert
+        assertTrue(result.isEmpty());
+
+        // Act - the same without the status filter
+        result = transactionRepository.findHistoryByUserId(1L, null, TransactionType.DEPOSIT, base.plusSeconds(1),
+                base.plusSeconds(120), Long.MIN_VALUE, Limit.of(10));
+
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals("TXN-F2", result.get(0).getTransactionReference());
+        assertEquals(TransactionStatus.COMPLETED, result.get(0).getStatus());
+    }
+
     private Transaction createTransaction(String reference, TransactionType type) {
         Transaction transaction = new Transaction();
         transaction.setTransactionReference(reference);
@@ -0,0 +1,200 @@
+package com.ibrahim.banking.payment_service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountStatusCacheTest {
+
+    private static final long TTL_MS = 5000;
+    private static final long NEGATIVE_TTL_MS = 1000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong clock;
+    private AtomicInteger loads;
+    private AccountStatusCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new AtomicLong();
+        loads = new AtomicInteger();
+        cache = new AccountStatusCache(meterRegistry, true, TTL_MS, NEGATIVE_TTL_MS, 100, clock::get);
+    }
+
+    @Test
+    void isActive_CachedWithinTtl_LoadsOnce() {
+        // Act
+        boolean first = cache.isActive(1L, this::activeLoader);
+        boolean second = cache.isActive(1L, this::activeLoader);
+
+        // Assert
+        assertTrue(first);
+        assertTrue(second);
+        assertEquals(1, loads.get());
+        assertEquals(1.0, lookups("hit"));
+        assertEquals(1.0, lookups("miss"));
+    }
+
+    @Test
+    void isActive_AfterTtl_LoadsAgain() {
+        // Arrange
+        cache.isActive(1L, this::activeLoader);
+        advanceMs(TTL_MS);
+
+        // Act
+        cache.isActive(1L, this::activeLoader);
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void isActive_Inactive_CachedForNegativeTtlOnly() {
+        // Arrange
+        cache.isActive(1L, this::inactiveLoader);
+        advanceMs(NEGATIVE_TTL_MS - 1);
+        cache.isActive(1L, this::inactiveLoader);
+        advanceMs(1);
+
+        // Act
+        boolean active = cache.isActive(1L, this::inactiveLoader);
+
+        // Assert
+        assertFalse(active);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void isActive_LoaderFails_NothingCached() {
+        // Arrange
+        assertThrows(IllegalStateException.class, () -> cache.isActive(1L, accountId -> {
+            throw new IllegalStateException("Store of Value unavailable");
+        }));
+
+        // Act
+        boolean active = cache.isActive(1L, this::activeLoader);
+
+        // Assert
+        assertTrue(active);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void evict_CachedAccount_LoadsAgain() {
+        // Arrange
+        cache.isActive(1L, this::activeLoader);
+
+        // Act
+        cache.evict(1L);
+        boolean active = cache.isActive(1L, this::inactiveLoader);
+
+        // Assert
+        assertFalse(active);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void evict_DuringLoad_ResultNotCached() {
+        // Arrange
+        cache.isActive(1L, accountId -> {
+            cache.evict(accountId);
+            return activeLoader(accountId);
+        });
+
+        // Act
+        cache.isActive(1L, this::activeLoader);
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void isActive_Disabled_AlwaysLoads() {
+        // Arrange
+        cache = new AccountStatusCache(meterRegistry, false, TTL_MS, NEGATIVE_TTL_MS, 100, clock::get);
+
+        // Act
+        cache.isActive(1L, this::activeLoader);
+        cache.isActive(1L, this::activeLoader);
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void isActive_ConcurrentMisses_ShareOneLoad() throws Exception {
+        // Arrange
+        int callers = 8;
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try {
+            // Act
+            results.add(executor.submit(() -> cache.isActive(1L, accountId -> {
+                loading.countDown();
+                await(release);
+                return activeLoader(accountId);
+            })));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> cache.isActive(1L, this::activeLoader)));
+            }
+            // the callers must be waiting on the in-flight load before it completes
+            long deadline = System.currentTimeMillis() + 5000;
+            while (lookups("coalesced") < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            // Assert
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertEquals(callers - 1.0, lookups("coalesced"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Boolean activeLoader(Long accountId) {
+        loads.incrementAndGet();
+        return true;
+    }
+
+    private Boolean inactiveLoader(Long accountId) {
+        loads.incrementAndGet();
+        return false;
+    }
+
+    private void advanceMs(long ms) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("payment.account.status.cache").tag("result", result).counter().count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -12,7 +12,6 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -26,7 +25,7 @@ import static org.mockito.Mockito.verify;
 public class NotificationPublisherServiceTest {
 
     @Mock
-    private RabbitTemplate rabbitTemplate;
+    private RabbitMessagePublisher messagePublisher;
 
     @Captor
     private ArgumentCaptor<NotificationMessageDto> messageDtoCaptor;
@@ -35,7 +34,7 @@ public class NotificationPublisherServiceTest {
 
     @BeforeEach
     void setUp() {
-        publisherService = new NotificationPublisherService(rabbitTemplate);
+        publisherService = new NotificationPublisherService(messagePublisher);
     }
 
     @Test
@@ -47,7 +46,7 @@ public class NotificationPublisherServiceTest {
         publisherService.publishTransactionNotification(transaction);
 
         // Assert
-        verify(rabbitTemplate).convertAndSend(
+        verify(messagePublisher).publish(
                 eq(RabbitMQConfig.NOTIFICATION_EXCHANGE),
                 eq(RabbitMQConfig.NOTIFICATION_ROUTING_KEY),
                 messageDtoCaptor.capture());
@@ -68,7 +67,7 @@ public class NotificationPublisherServiceTest {
         publisherService.publishTransactionNotification(transaction);
 
         // Assert
-        verify(rabbitTemplate).convertAndSend(
+        verify(messagePublisher).publish(
                 eq(RabbitMQConfig.NOTIFICATION_EXCHANGE),
                 eq(RabbitMQConfig.NOTIFICATION_ROUTING_KEY),
                 messageDtoCaptor.capture());
@@ -89,7 +88,7 @@ public class NotificationPublisherServiceTest {
         publisherService.publishTransactionNotification(transaction);
 
         // Assert
-        verify(rabbitTemplate).convertAndSend(
+        verify(messagePublisher).publish(
                 eq(RabbitMQConfig.NOTIFICATION_EXCHANGE),
                 eq(RabbitMQConfig.NOTIFICATION_ROUTING_KEY),
                 messageDtoCaptor.capture());
@@ -109,7 +108,7 @@ public class NotificationPublisherServiceTest {
         publisherService.publishTransactionNotification(transaction);
 
         // Assert
-        verify(rabbitTemplate).convertAndSend(
+        verify(messagePublisher).publish(
                 eq(RabbitMQConfig.NOTIFICATION_EXCHANGE),
                 eq(RabbitMQConfig.NOTIFICATION_ROUTING_KEY),
                 messageDtoCaptor.capture());
@@ -0,0 +1,145 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
+import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
+import com.ibrahim.banking.payment_service.model.OutboxEvent;
+import com.ibrahim.banking.payment_service.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OutboxRelayTest {
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OutboxRelay outboxRelay;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        RabbitMessagePublisher messagePublisher = new RabbitMessagePublisher(rabbitTemplate, meterRegistry,
+                "sync", 10, 5, 5, 5000, 3);
+        outboxRelay = new OutboxRelay(outboxEventRepository, messagePublisher, transactionManager, objectMapper,
+                meterRegistry, true, 2, 10, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        outboxRelay.shutdown();
+    }
+
+    @Test
+    void relayBatch_Confirmed_PublishesAndDeletesBatch() {
+        // Arrange
+        List<OutboxEvent> batch = List.of(createEvent("TXN-1"), createEvent("TXN-2"));
+        when(outboxEventRepository.findBatchForRelay(any(Pageable.class))).thenReturn(batch);
+        brokerConfirms(true);
+
+        // Act
+        int relayed = outboxRelay.relayBatch();
+
+        // Assert
+        assertEquals(2, relayed);
+        verify(rabbitTemplate, times(2)).convertAndSend(eq(RabbitMQConfig.PAYMENT_EXCHANGE),
+                eq(RabbitMQConfig.DEPOSIT_ROUTING_KEY), any(TransactionMessageDto.class), any(CorrelationData.class));
+        verify(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class),
+                argThat((CorrelationData correlationData) -> "TXN-1".equals(correlationData.getId())));
+        verify(outboxEventRepository).deleteAllInBatch(batch);
+        assertEquals(2.0, meterRegistry.get("payment.outbox.published").counter().count());
+        assertEquals(2, meterRegistry.get("payment.outbox.relay.lag").timer().count());
+    }
+
+    @Test
+    void relayBatch_NotConfirmed_KeepsRows() {
+        // Arrange
+        when(outboxEventRepository.findBatchForRelay(any(Pageable.class))).thenReturn(List.of(createEvent("TXN-1")));
+        brokerConfirms(false);
+
+        // Act & Assert
+        assertThrows(AmqpException.class, () -> outboxRelay.relayBatch());
+        verify(outboxEventRepository, never()).deleteAllInBatch(anyIterable());
+        verify(transactionManager).rollback(any());
+        assertEquals(0.0, meterRegistry.get("payment.outbox.published").counter().count());
+    }
+
+    @Test
+    void relayBatch_Empty_DoesNotTouchBroker() {
+        // Arrange
+        when(outboxEventRepository.findBatchForRelay(any(Pageable.class))).thenReturn(List.of());
+
+        // Act
+        int relayed = outboxRelay.relayBatch();
+
+        // Assert
+        assertEquals(0, relayed);
+        verifyNoInteractions(rabbitTemplate);
+    }
+
+    @Test
+    void nextDelay_AdaptsToLoad() {
+        // full batch goes again immediately, partial batch waits the minimum
+        assertEquals(0, outboxRelay.nextDelay(2));
+        assertEquals(10, outboxRelay.nextDelay(1));
+
+        // empty polls back off up to the maximum
+        assertEquals(20, outboxRelay.nextDelay(0));
+        assertEquals(40, outboxRelay.nextDelay(0));
+        for (int i = 0; i < 10; i++) {
+            outboxRelay.nextDelay(0);
+        }
+        assertEquals(1000, outboxRelay.getPollIntervalMs());
+
+        // new work resets the interval
+        outboxRelay.wakeUp();
+        assertEquals(10, outboxRelay.getPollIntervalMs());
+    }
+
+    private void brokerConfirms(boolean ack) {
+        doAnswer(invocation -> {
+            invocation.getArgument(3, CorrelationData.class).getFuture()
+                    .complete(new CorrelationData.Confirm(ack, ack ? null : "nack"));
+            return null;
+        }).when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+    }
+
+    private OutboxEvent createEvent(String reference) {
+        TransactionMessageDto dto = new TransactionMessageDto();
+        dto.setTransactionReference(reference);
+        try {
+            return new OutboxEvent(reference, RabbitMQConfig.PAYMENT_EXCHANGE, RabbitMQConfig.DEPOSIT_ROUTING_KEY,
+                    objectMapper.writeValueAsString(dto), Instant.now().minusMillis(50));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
+import com.ibrahim.banking.payment_service.service.RabbitMessagePublisher.PendingMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RabbitMessagePublisherTest {
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RabbitMessagePublisher messagePublisher;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        messagePublisher = createPublisher("batching");
+    }
+
+    @AfterEach
+    void tearDown() {
+        messagePublisher.shutdown();
+    }
+
+    @Test
+    void publish_SyncMode_SendsImmediatelyWithoutConfirms() {
+        // Arrange
+        messagePublisher = createPublisher("sync");
+
+        // Act
+        messagePublisher.publish(RabbitMQConfig.NOTIFICATION_EXCHANGE, RabbitMQConfig.NOTIFICATION_ROUTING_KEY, "payload");
+
+        // Assert
+        verify(rabbitTemplate).convertAndSend(RabbitMQConfig.NOTIFICATION_EXCHANGE, RabbitMQConfig.NOTIFICATION_ROUTING_KEY, "payload");
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+        assertEquals(0, messagePublisher.getBufferDepth());
+    }
+
+    @Test
+    void publish_BatchingMode_FlushedInBackgroundWithCorrelationData() {
+        // Arrange
+        brokerConfirms(true);
+        messagePublisher.start();
+
+        // Act
+        messagePublisher.publish(RabbitMQConfig.NOTIFICATION_EXCHANGE, RabbitMQConfig.NOTIFICATION_ROUTING_KEY, "payload");
+
+        // Assert
+        verify(rabbitTemplate, timeout(2000)).convertAndSend(eq(RabbitMQConfig.NOTIFICATION_EXCHANGE),
+                eq(RabbitMQConfig.NOTIFICATION_ROUTING_KEY), eq("payload"), any(CorrelationData.class));
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class));
+    }
+
+    @Test
+    void flush_AllAcked_RecordsConfirmLatency() throws Exception {
+        // Arrange
+        brokerConfirms(true);
+
+        // Act
+        int confirmed = messagePublisher.flush(List.of(message(1), message(1)));
+
+        // Assert
+        assertEquals(2, confirmed);
+        assertEquals(2, meterRegistry.get("payment.publisher.confirm.latency").timer().count());
+        assertEquals(1, meterRegistry.find("payment.publisher.confirm.latency").timers().size());
+        assertEquals(0, messagePublisher.getBufferDepth());
+    }
+
+    @Test
+    void flush_Nacked_PutsMessageBackIntoBuffer() throws Exception {
+        // Arrange
+        brokerConfirms(false);
+
+        // Act
+        int confirmed = messagePublisher.flush(List.of(message(1)));
+
+        // Assert
+        assertEquals(0, confirmed);
+        assertEquals(1, messagePublisher.getBufferDepth());
+        assertEquals(1.0, meterRegistry.get("payment.publisher.nacks").counter().count());
+        assertEquals(1.0, meterRegistry.get("payment.publisher.retries").counter().count());
+    }
+
+    @Test
+    void flush_Nacked_RetriesAheadOfLaterMessagesInOrder() throws Exception {
+        // Arrange - the broker acks only what is in acked, and records every send
+        List<Object> sent = new CopyOnWriteArrayList<>();
+        Set<Object> acked = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            Object payload = invocation.getArgument(2);
+            sent.add(payload);
+            boolean ack = acked.contains(payload);
+            invocation.getArgument(3, CorrelationData.class).getFuture()
+                    .complete(new CorrelationData.Confirm(ack, ack ? null : "nack"));
+            return null;
+        }).when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+        // already waiting in the buffer when the batch is nacked
+        messagePublisher.flush(List.of(message("later", 1)));
+        acked.add("third");
+
+        // Act
+        messagePublisher.flush(List.of(message("first", 1), message("second", 1), message("third", 1)));
+        acked.addAll(List.of("first", "second", "later"));
+        messagePublisher.start();
+
+        // Assert
+        verify(rabbitTemplate, timeout(2000).times(7)).convertAndSend(anyString(), anyString(), any(Object.class),
+                any(CorrelationData.class));
+        assertEquals(List.of("first", "second", "later"), sent.subList(4, 7));
+    }
+
+    @Test
+    void flush_NackedOnLastAttempt_GivesUp() throws Exception {
+        // Arrange
+        brokerConfirms(false);
+
+        // Act
+        messagePublisher.flush(List.of(message(3)));
+
+        // Assert
+        assertEquals(0, messagePublisher.getBufferDepth());
+        assertEquals(1.0, meterRegistry.get("payment.publisher.dropped").counter().count());
+    }
+
+    @Test
+    void publishAndConfirm_AllAcked_SendsInOrderWithTheirIds() {
+        // Arrange
+        brokerConfirms(true);
+        PendingMessage first = new PendingMessage("TXN-1", RabbitMQConfig.PAYMENT_EXCHANGE, RabbitMQConfig.DEPOSIT_ROUTING_KEY, "one");
+        PendingMessage second = new PendingMessage("TXN-2", RabbitMQConfig.PAYMENT_EXCHANGE, RabbitMQConfig.DEPOSIT_ROUTING_KEY, "two");
+
+        // Act
+        messagePublisher.publishAndConfirm(List.of(first, second));
+
+        // Assert
+        InOrder inOrder = inOrder(rabbitTemplate);
+        inOrder.verify(rabbitTemplate).convertAndSend(eq(RabbitMQConfig.PAYMENT_EXCHANGE), eq(RabbitMQConfig.DEPOSIT_ROUTING_KEY),
+                eq("one"), argThat((CorrelationData correlationData) -> "TXN-1".equals(correlationData.getId())));
+        inOrder.verify(rabbitTemplate).convertAndSend(eq(RabbitMQConfig.PAYMENT_EXCHANGE), eq(RabbitMQConfig.DEPOSIT_ROUTING_KEY),
+                eq("two"), argThat((CorrelationData correlationData) -> "TXN-2".equals(correlationData.getId())));
+        assertEquals(0, messagePublisher.getBufferDepth());
+    }
+
+    @Test
+    void publishAndConfirm_Nacked_ThrowsWithoutBuffering() {
+        // Arrange
+        brokerConfirms(false);
+
+        // Act & Assert
+        AmqpException thrown = assertThrows(AmqpException.class, () -> messagePublisher.publishAndConfirm(List.of(message(1))));
+        assertTrue(thrown.getMessage().contains("msg-1"));
+        assertEquals(0, messagePublisher.getBufferDepth());
+        assertEquals(1.0, meterRegistry.get("payment.publisher.nacks").counter().count());
+    }
+
+    private RabbitMessagePublisher createPublisher(String mode) {
+        return new RabbitMessagePublisher(rabbitTemplate, meterRegistry, mode, 10, 5, 5, 1000, 3);
+    }
+
+    private void brokerConfirms(boolean ack) {
+        lenient().doAnswer(invocation -> {
+            invocation.getArgument(3, CorrelationData.class).getFuture()
+                    .complete(new CorrelationData.Confirm(ack, ack ? null : "nack"));
+            return null;
+        }).when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+    }
+
+    private PendingMessage message(int attempt) {
+        return message("payload", attempt);
+    }
+
+    private PendingMessage message(String payload, int attempt) {
+        return new PendingMessage("msg-1", RabbitMQConfig.NOTIFICATION_EXCHANGE, RabbitMQConfig.NOTIFICATION_ROUTING_KEY,
+                payload, attempt);
+    }
+}
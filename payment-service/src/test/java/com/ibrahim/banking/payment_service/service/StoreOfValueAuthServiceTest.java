@@ -1,5 +1,6 @@
 package com.ibrahim.banking.payment_service.service;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,8 +10,12 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,6 +38,14 @@ public class StoreOfValueAuthServiceTest {
         ReflectionTestUtils.setField(authService, "storeOfValueServiceUrl", "https://auth-api.example.com");
         ReflectionTestUtils.setField(authService, "username", "test-user");
         ReflectionTestUtils.setField(authService, "password", "test-password");
+        ReflectionTestUtils.setField(authService, "refreshAheadMs", 60_000L);
+        ReflectionTestUtils.setField(authService, "refreshRetryMs", 60_000L);
+        ReflectionTestUtils.setField(authService, "fallbackTokenTtlMs", 3_600_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        authService.shutdown();
     }
 
     @Test
@@ -95,8 +108,11 @@ public class StoreOfValueAuthServiceTest {
     @SuppressWarnings("unchecked")
     void getAuthToken_ExpiredToken_ReturnsNewToken() throws Exception {
         // Arrange
+        // the first token's exp claim is already in the past
+        String expiredToken = jwtExpiringAt(Instant.now().minusSeconds(1));
+        
         Map<String, String> firstResponseMap = new HashMap<>();
-        firstResponseMap.put("token", "first-token");
+        firstResponseMap.put("token", expiredToken);
         firstResponseMap.put("type", "Bearer");
         
         Map<String, String> secondResponseMap = new HashMap<>();
@@ -115,15 +131,11 @@ public class StoreOfValueAuthServiceTest {
         // First call to get a token
         String firstToken = authService.getAuthToken();
         
-        // Manually set token expiration to now to simulate expired token
-        // This is safer than using Thread.sleep which can make tests flaky
-        ReflectionTestUtils.setField(authService, "tokenExpirationTime", java.time.Instant.now().minusSeconds(1));
-        
         // Act - Second call should get a new token
         String secondToken = authService.getAuthToken();
 
         // Assert
-        assertEquals("Bearer first-token", firstToken);
+        assertEquals("Bearer " + expiredToken, firstToken);
         assertEquals("Bearer second-token", secondToken);
         // Verify exchange was called twice
         verify(restTemplate, times(2)).postForEntity(
@@ -132,4 +144,76 @@ public class StoreOfValueAuthServiceTest {
                 eq(Map.class)
         );
     }
-} 
\ No newline at end of file
+
+    @Test
+    void getAuthToken_JwtWithExpClaim_CachedUntilExpiry() {
+        // Arrange
+        String jwt = jwtExpiringAt(Instant.now().plusSeconds(3600));
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Map.class)))
+                .thenReturn(ResponseEntity.ok(Map.of("token", jwt, "type", "Bearer")));
+
+        // Act
+        String firstToken = authService.getAuthToken();
+        String secondToken = authService.getAuthToken();
+
+        // Assert
+        assertEquals("Bearer " + jwt, firstToken);
+        assertSame(firstToken, secondToken);
+        verify(restTemplate, times(1)).postForEntity(anyString(), any(HttpEntity.class), eq(Map.class));
+    }
+
+    @Test
+    void refreshAfterUnauthorized_CurrentToken_SignsInAgain() {
+        // Arrange
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Map.class))).thenReturn(
+                ResponseEntity.ok(Map.of("token", "first-token", "type", "Bearer")),
+                ResponseEntity.ok(Map.of("token", "second-token", "type", "Bearer")));
+        String rejectedToken = authService.getAuthToken();
+
+        // Act
+        String refreshedToken = authService.refreshAfterUnauthorized(rejectedToken);
+
+        // Assert
+        assertEquals("Bearer second-token", refreshedToken);
+        assertEquals("Bearer second-token", authService.getAuthToken());
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), eq(Map.class));
+    }
+
+    @Test
+    void refreshAfterUnauthorized_TokenAlreadyReplaced_DoesNotSignInAgain() {
+        // Arrange
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Map.class))).thenReturn(
+                ResponseEntity.ok(Map.of("token", "first-token", "type", "Bearer")),
+                ResponseEntity.ok(Map.of("token", "second-token", "type", "Bearer")));
+        String rejectedToken = authService.getAuthToken();
+        authService.refreshAfterUnauthorized(rejectedToken);
+
+        // Act - a second caller that was rejected with the same old token
+        String refreshedToken = authService.refreshAfterUnauthorized(rejectedToken);
+
+        // Assert
+        assertEquals("Bearer second-token", refreshedToken);
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), eq(Map.class));
+    }
+
+    @Test
+    void getAuthToken_SignInFails_ReturnsNull() {
+        // Arrange
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Map.class)))
+                .thenThrow(new RestClientException("connection refused"));
+
+        // Act
+        String token = authService.getAuthToken();
+
+        // Assert
+        assertNull(token);
+    }
+
+    private static String jwtExpiringAt(Instant expiresAt) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(("{\"sub\":\"test-user\",\"exp\":" + expiresAt.getEpochSecond() + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".signature";
+    }
+}
@@ -0,0 +1,133 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = "payment.export.fetch-size=2")
+@ActiveProfiles("test")
+@Import(TransactionExportService.class)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class TransactionExportServiceTest {
+
+    private static final Instant BASE = Instant.parse("2025-06-01T10:00:00Z");
+
+    @Autowired
+    private TransactionExportService exportService;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @AfterEach
+    void tearDown() {
+        transactionRepository.deleteAll();
+    }
+
+    @Test
+    void export_Ndjson_WritesOneObjectPerLineOldestFirst() throws Exception {
+        // Arrange
+        transactionRepository.saveAll(List.of(
+                createTransaction("TXN-E2", 1L, null, BASE.plusSeconds(60), "second"),
+                createTransaction("TXN-E1", 1L, null, BASE, "first"),
+                createTransaction("TXN-E3", 2L, 1L, BASE.plusSeconds(120), "incoming"),
+                createTransaction("TXN-E4", 3L, null, BASE.plusSeconds(180), "other account")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        long rows = exportService.export(1L, null, null, TransactionExportService.Format.NDJSON, out);
+
+        // Assert
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, rows);
+        assertEquals(3, lines.length);
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertEquals("TXN-E1", first.get("transactionReference").asText());
+        assertEquals("2025-06-01T10:00:00Z", first.get("createdAt").asText());
+        assertEquals("TXN-E2", objectMapper.readTree(lines[1]).get("transactionReference").asText());
+        assertEquals("TXN-E3", objectMapper.readTree(lines[2]).get("transactionReference").asText());
+    }
+
+    @Test
+    void export_CsvWithDateRange_QuotesAndFiltersRows() throws Exception {
+        // Arrange
+        transactionRepository.saveAll(List.of(
+                createTransaction("TXN-C1", 1L, null, BASE, "before the range"),
+                createTransaction("TXN-C2", 1L, null, BASE.plusSeconds(60), "rent, \"June\""),
+                createTransaction("TXN-C3", 1L, null, BASE.plusSeconds(120), "=HYPERLINK(\"x\")"),
+                createTransaction("TXN-C4", 1L, null, BASE.plusSeconds(180), "at the end, excluded")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        long rows = exportService.export(null, BASE.plusSeconds(60), BASE.plusSeconds(180),
+                TransactionExportService.Format.CSV, out);
+
+        // Assert
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(2, rows);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("id,transactionReference,type,amount"));
+        assertTrue(lines[1].contains(",TXN-C2,DEPOSIT,100.00,1,,PENDING,USD,\"rent, \"\"June\"\"\",2025-06-01T10:01:00Z,"),
+                lines[1]);
+        assertTrue(lines[2].contains(",\"'=HYPERLINK(\"\"x\"\")\","), lines[2]);
+    }
+
+    @Test
+    void export_NoRows_WritesOnlyTheCsvHeader() {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        long rows = exportService.export(42L, null, null, TransactionExportService.Format.CSV, out);
+
+        // Assert
+        assertEquals(0, rows);
+        assertEquals(1, out.toString(StandardCharsets.UTF_8).split("\r\n").length);
+    }
+
+    @Test
+    void formatOf_UnknownFormat_ThrowsException() {
+        assertEquals(TransactionExportService.Format.CSV, TransactionExportService.Format.of("CSV"));
+        assertThrows(IllegalArgumentException.class, () -> TransactionExportService.Format.of("xml"));
+    }
+
+    private Transaction createTransaction(String reference, Long sourceAccountId, Long destinationAccountId,
+                                          Instant createdAt, String description) {
+        Transaction transaction = new Transaction();
+        transaction.setTransactionReference(reference);
+        transaction.setType(destinationAccountId != null ? TransactionType.TRANSFER : TransactionType.DEPOSIT);
+        transaction.setAmount(new BigDecimal("100.00"));
+        transaction.setSourceAccountId(sourceAccountId);
+        transaction.setDestinationAccountId(destinationAccountId);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setCurrency("USD");
+        transaction.setDescription(description);
+        transaction.setCreatedAt(createdAt);
+        transaction.setUserId(1L);
+        return transaction;
+    }
+}
@@ -1,14 +1,18 @@
 package com.ibrahim.banking.payment_service.service;
 
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.lock.AccountLockProvider;
+import com.ibrahim.banking.payment_service.service.TransactionLockService.TransactionLease;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -16,52 +20,159 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class TransactionLockServiceTest {
 
-    @Mock
-    private RedisTemplate<String, String> redisTemplate;
+    private static final String OWNER = "TXN-12345678";
+    private static final long QUEUED_LEASE_MILLIS = 600_000L;
+    private static final long RETRY_MAX_INTERVAL_MILLIS = 10_000L;
 
     @Mock
-    private ValueOperations<String, String> valueOperations;
+    private AccountLockProvider lockProvider;
 
     private TransactionLockService transactionLockService;
 
     @BeforeEach
     void setUp() {
-        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
-        transactionLockService = new TransactionLockService(redisTemplate);
+        transactionLockService = new TransactionLockService(lockProvider, QUEUED_LEASE_MILLIS, RETRY_MAX_INTERVAL_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transactionLockService.shutdown();
     }
 
     @Test
     void acquireTransactionLock_Success_ReturnsTrue() {
         // Arrange
         Long accountId = 1L;
-        String key = "transaction:account:" + accountId;
-        when(valueOperations.setIfAbsent(eq(key), eq("LOCKED"), eq(12L), eq(TimeUnit.SECONDS)))
-                .thenReturn(true);
+        when(lockProvider.tryAcquire(List.of(accountId), OWNER, QUEUED_LEASE_MILLIS)).thenReturn(true);
 
         // Act
-        boolean result = transactionLockService.acquireTransactionLock(accountId);
+        boolean result = transactionLockService.acquireTransactionLock(accountId, OWNER);
 
         // Assert
         assertTrue(result);
-        verify(redisTemplate).opsForValue();
-        verify(valueOperations).setIfAbsent(eq(key), eq("LOCKED"), eq(12L), eq(TimeUnit.SECONDS));
+        verify(lockProvider).tryAcquire(List.of(accountId), OWNER, QUEUED_LEASE_MILLIS);
     }
 
     @Test
     void acquireTransactionLock_AlreadyLocked_ReturnsFalse() {
         // Arrange
         Long accountId = 1L;
-        String key = "transaction:account:" + accountId;
-        when(valueOperations.setIfAbsent(eq(key), eq("LOCKED"), eq(12L), eq(TimeUnit.SECONDS)))
-                .thenReturn(false);
+        when(lockProvider.tryAcquire(List.of(accountId), OWNER, QUEUED_LEASE_MILLIS)).thenReturn(false);
+
+        // Act
+        boolean result = transactionLockService.acquireTransactionLock(accountId, OWNER);
+
+        // Assert
+        assertFalse(result);
+        verify(lockProvider).tryAcquire(List.of(accountId), OWNER, QUEUED_LEASE_MILLIS);
+    }
+
+    @Test
+    void acquireTransactionLocks_MultipleAccounts_SingleProviderCallInAscendingOrder() {
+        // Arrange
+        when(lockProvider.tryAcquire(List.of(3L, 7L), OWNER, QUEUED_LEASE_MILLIS)).thenReturn(true);
+
+        // Act
+        boolean result = transactionLockService.acquireTransactionLocks(List.of(7L, 3L, 7L), OWNER);
+
+        // Assert
+        assertTrue(result);
+        verify(lockProvider, times(1)).tryAcquire(anyList(), anyString(), anyLong());
+    }
+
+    @Test
+    void releaseTransactionLocks_PartlyOwned_ReturnsReleasedCount() {
+        // Arrange
+        when(lockProvider.release(List.of(1L, 2L), OWNER)).thenReturn(1L);
+
+        // Act
+        long released = transactionLockService.releaseTransactionLocks(List.of(2L, 1L), OWNER);
+
+        // Assert
+        assertEquals(1L, released);
+    }
+
+    @Test
+    void releaseTransactionLock_DifferentOwner_ReturnsFalse() {
+        // Arrange
+        when(lockProvider.release(List.of(1L), "TXN-OTHER")).thenReturn(0L);
 
         // Act
-        boolean result = transactionLockService.acquireTransactionLock(accountId);
+        boolean result = transactionLockService.releaseTransactionLock(1L, "TXN-OTHER");
 
         // Assert
         assertFalse(result);
-        verify(redisTemplate).opsForValue();
-        verify(valueOperations).setIfAbsent(eq(key), eq("LOCKED"), eq(12L), eq(TimeUnit.SECONDS));
     }
 
-} 
\ No newline at end of file
+    @Test
+    void renewTransactionLocks_Owner_ExtendsLease() {
+        // Arrange
+        when(lockProvider.renew(List.of(1L, 2L), OWNER, 12000L)).thenReturn(2L);
+
+        // Act
+        boolean result = transactionLockService.renewTransactionLocks(List.of(1L, 2L), OWNER);
+
+        // Assert
+        assertTrue(result);
+    }
+
+    @Test
+    void resumeLease_Close_ReleasesEveryLockedAccount() {
+        // Arrange
+        when(lockProvider.renew(List.of(1L, 2L), OWNER, 12000L)).thenReturn(2L);
+        when(lockProvider.release(List.of(1L, 2L), OWNER)).thenReturn(2L);
+
+        // Act
+        try (TransactionLease lease = transactionLockService.resumeLease(OWNER, 2L, null, 1L)) {
+            assertEquals(List.of(2L, 1L), lease.getAccountIds());
+        }
+
+        // Assert
+        verify(lockProvider).release(List.of(1L, 2L), OWNER);
+    }
+
+    @Test
+    void resumeLease_QueuedLeaseExpired_TakesTheLocksAgain() {
+        // Arrange - one of the two locks ran out while the message was queued
+        when(lockProvider.renew(List.of(1L, 2L), OWNER, 12000L)).thenReturn(1L);
+        when(lockProvider.tryAcquire(List.of(1L, 2L), OWNER, 12000L)).thenReturn(true);
+
+        // Act
+        transactionLockService.resumeLease(OWNER, 1L, 2L).retainForRedelivery();
+
+        // Assert
+        InOrder inOrder = inOrder(lockProvider);
+        inOrder.verify(lockProvider).release(List.of(1L, 2L), OWNER);
+        inOrder.verify(lockProvider).tryAcquire(List.of(1L, 2L), OWNER, 12000L);
+    }
+
+    @Test
+    void resumeLease_AccountTakenByAnotherTransaction_Throws() {
+        // Arrange
+        when(lockProvider.renew(List.of(1L), OWNER, 12000L)).thenReturn(0L);
+        when(lockProvider.tryAcquire(List.of(1L), OWNER, 12000L)).thenReturn(false);
+
+        // Act & Assert
+        assertThrows(ConcurrentTransactionException.class, () -> transactionLockService.resumeLease(OWNER, 1L));
+    }
+
+    @Test
+    void retainForRedelivery_Close_KeepsLocksForTheRetryBackoffOnly() {
+        // Arrange - after the last attempt nothing comes back for them, they must not outlive the backoff
+        when(lockProvider.renew(List.of(1L), OWNER, 12000L)).thenReturn(1L);
+        when(lockProvider.renew(List.of(1L), OWNER, 22000L)).thenReturn(1L);
+        List<List<Long>> released = new ArrayList<>();
+        transactionLockService.addReleaseListener(released::add);
+
+        // Act
+        try (TransactionLease lease = transactionLockService.resumeLease(OWNER, 1L)) {
+            lease.retainForRedelivery();
+        }
+
+        // Assert
+        verify(lockProvider).renew(List.of(1L), OWNER, 22000L);
+        verify(lockProvider, never()).renew(List.of(1L), OWNER, QUEUED_LEASE_MILLIS);
+        verify(lockProvider, never()).release(anyList(), anyString());
+        assertTrue(released.isEmpty());
+    }
+}
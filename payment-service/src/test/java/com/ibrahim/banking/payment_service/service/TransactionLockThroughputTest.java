@@ -0,0 +1,101 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.lock.InMemoryAccountLockProvider;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sustained transactions per second on a single hot account through {@link TransactionLockService}
+ * and the in-memory provider, on the wall clock. Clients create transactions as fast as the lock
+ * lets them, backing off briefly after a refusal, and a consumer thread processes each one. Run once
+ * with the consumer leaving the lock to its lease (the old behaviour) and once with the consumer
+ * resuming the lease and closing it when done.
+ * <p>
+ * The queued lease is scaled down from the production default so the first run completes more than
+ * a handful of transactions in the measuring window.
+ */
+@Tag("benchmark")
+public class TransactionLockThroughputTest {
+
+    private static final int CLIENTS = 4;
+    private static final long ACCOUNT_ID = 1L;
+    private static final long DURATION_MS = 2_000;
+    private static final long QUEUED_LEASE_MS = 200;
+    private static final long PROCESSING_MS = 1;      // stand-in for the Store of Value call
+    private static final long CLIENT_BACKOFF_MS = 1;  // client backs off after a 409
+
+    @Test
+    void releaseOnCompletionVersusWaitingOutTheLease(TestReporter reporter) throws Exception {
+        double waitForLease = sustainedTransactionsPerSecond(false);
+        double releaseOnCompletion = sustainedTransactionsPerSecond(true);
+
+        reporter.publishEntry("wait-for-lease", String.format("%,.1f tps on one account", waitForLease));
+        reporter.publishEntry("release-on-completion", String.format("%,.1f tps on one account", releaseOnCompletion));
+        assertTrue(waitForLease > 0);
+        assertTrue(releaseOnCompletion > waitForLease);
+    }
+
+    private double sustainedTransactionsPerSecond(boolean releaseOnCompletion) throws Exception {
+        TransactionLockService lockService = new TransactionLockService(new InMemoryAccountLockProvider(16), QUEUED_LEASE_MS, 10_000);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        AtomicLong references = new AtomicLong();
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                futures.add(clients.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        String reference = "TXN-" + references.incrementAndGet();
+                        if (!lockService.acquireTransactionLock(ACCOUNT_ID, reference)) {
+                            Thread.sleep(CLIENT_BACKOFF_MS);
+                            continue;
+                        }
+                        consumer.execute(() -> consume(lockService, reference, releaseOnCompletion, deadline, completed));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            clients.shutdownNow();
+            consumer.shutdownNow();
+            consumer.awaitTermination(1, TimeUnit.SECONDS);
+            lockService.shutdown();
+        }
+        return completed.get() * 1000.0 / DURATION_MS;
+    }
+
+    private static void consume(TransactionLockService lockService, String reference, boolean releaseOnCompletion,
+                                long deadline, AtomicLong completed) {
+        try {
+            if (releaseOnCompletion) {
+                try (TransactionLockService.TransactionLease lease = lockService.resumeLease(reference, ACCOUNT_ID)) {
+                    Thread.sleep(PROCESSING_MS);
+                }
+            } else {
+                Thread.sleep(PROCESSING_MS);
+            }
+            if (System.nanoTime() < deadline) {
+                completed.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
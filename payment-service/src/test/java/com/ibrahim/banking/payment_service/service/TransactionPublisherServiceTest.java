@@ -5,92 +5,52 @@ import com.ibrahim.banking.payment_service.dto.TransactionMessageDto;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
-import org.mockito.Mock;
-import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.verify;
 
-@ExtendWith(MockitoExtension.class)
 public class TransactionPublisherServiceTest {
 
-    @Mock
-    private RabbitTemplate rabbitTemplate;
-
-    @Captor
-    private ArgumentCaptor<TransactionMessageDto> messageDtoCaptor;
-
-    private TransactionPublisherService publisherService;
-
-    @BeforeEach
-    void setUp() {
-        publisherService = new TransactionPublisherService(rabbitTemplate);
-    }
+    private final TransactionPublisherService publisherService =
+            new TransactionPublisherService(new TransactionShardRouter(false, 8));
 
     @Test
-    void publishTransaction_DepositTransaction_PublishesToDepositQueue() {
-        // Arrange
-        Transaction transaction = createTransaction(TransactionType.DEPOSIT);
-
-        // Act
-        publisherService.publishTransaction(transaction);
-
-        // Assert
-        verify(rabbitTemplate).convertAndSend(
-                eq(RabbitMQConfig.PAYMENT_EXCHANGE),
-                eq(RabbitMQConfig.DEPOSIT_ROUTING_KEY),
-                messageDtoCaptor.capture());
-
-        TransactionMessageDto capturedDto = messageDtoCaptor.getValue();
-        assertTransactionMessageDtoMatchesTransaction(transaction, capturedDto);
+    void routingKeyFor_EachType_RoutesToItsQueue() {
+        // Act & Assert
+        assertEquals(RabbitMQConfig.DEPOSIT_ROUTING_KEY, publisherService.routingKeyFor(createTransaction(TransactionType.DEPOSIT)));
+        assertEquals(RabbitMQConfig.WITHDRAWAL_ROUTING_KEY, publisherService.routingKeyFor(createTransaction(TransactionType.WITHDRAWAL)));
+        assertEquals(RabbitMQConfig.TRANSFER_ROUTING_KEY, publisherService.routingKeyFor(createTransaction(TransactionType.TRANSFER)));
+        assertEquals(RabbitMQConfig.PAYMENT_EXCHANGE, publisherService.exchangeFor(createTransaction(TransactionType.DEPOSIT)));
     }
 
     @Test
-    void publishTransaction_WithdrawalTransaction_PublishesToWithdrawalQueue() {
+    void routingKeyFor_ShardingEnabled_RoutesToAccountShard() {
         // Arrange
-        Transaction transaction = createTransaction(TransactionType.WITHDRAWAL);
-
-        // Act
-        publisherService.publishTransaction(transaction);
-
-        // Assert
-        verify(rabbitTemplate).convertAndSend(
-                eq(RabbitMQConfig.PAYMENT_EXCHANGE),
-                eq(RabbitMQConfig.WITHDRAWAL_ROUTING_KEY),
-                messageDtoCaptor.capture());
+        TransactionShardRouter shardRouter = new TransactionShardRouter(true, 8);
+        TransactionPublisherService shardedPublisherService = new TransactionPublisherService(shardRouter);
+        Transaction transaction = createTransaction(TransactionType.TRANSFER);
 
-        TransactionMessageDto capturedDto = messageDtoCaptor.getValue();
-        assertTransactionMessageDtoMatchesTransaction(transaction, capturedDto);
+        // Act & Assert
+        assertEquals(RabbitMQConfig.PAYMENT_SHARD_EXCHANGE, shardedPublisherService.exchangeFor(transaction));
+        assertEquals(RabbitMQConfig.shardRoutingKey(shardRouter.shardFor(transaction.getSourceAccountId())),
+                shardedPublisherService.routingKeyFor(transaction));
     }
 
     @Test
-    void publishTransaction_TransferTransaction_PublishesToTransferQueue() {
+    void convertToMessageDto_CopiesTheTransaction() {
         // Arrange
         Transaction transaction = createTransaction(TransactionType.TRANSFER);
         transaction.setDestinationAccountId(2L);
 
         // Act
-        publisherService.publishTransaction(transaction);
+        TransactionMessageDto messageDto = publisherService.convertToMessageDto(transaction);
 
         // Assert
-        verify(rabbitTemplate).convertAndSend(
-                eq(RabbitMQConfig.PAYMENT_EXCHANGE),
-                eq(RabbitMQConfig.TRANSFER_ROUTING_KEY),
-                messageDtoCaptor.capture());
-
-        TransactionMessageDto capturedDto = messageDtoCaptor.getValue();
-        assertTransactionMessageDtoMatchesTransaction(transaction, capturedDto);
+        assertTransactionMessageDtoMatchesTransaction(transaction, messageDto);
     }
 
     private Transaction createTransaction(TransactionType type) {
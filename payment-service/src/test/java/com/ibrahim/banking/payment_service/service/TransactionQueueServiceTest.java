@@ -0,0 +1,209 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TransactionQueueServiceTest {
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionLockService transactionLockService;
+
+    @Mock
+    private TransactionOutboxService outboxService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private NotificationPublisherService notificationPublisherService;
+
+    private TransactionQueueService queueService;
+
+    @BeforeEach
+    void setUp() {
+        queueService = new TransactionQueueService(transactionRepository, jdbcTemplate, transactionLockService,
+                outboxService, transactionManager, notificationPublisherService, true, 2, 30_000);
+    }
+
+    @Test
+    void constructor_Enabled_RegistersReleaseListener() {
+        verify(transactionLockService).addReleaseListener(any());
+    }
+
+    @Test
+    void enqueue_QueueHasRoom_SavesWithQueuedAt() {
+        // Arrange
+        Transaction transaction = createTransaction("TXN-1", Instant.now());
+        transaction.setQueuedAt(null);
+        when(transactionRepository.countQueuedByAccountId(1L)).thenReturn(1L);
+        when(transactionRepository.save(transaction)).thenReturn(transaction);
+
+        // Act
+        Transaction result = queueService.enqueue(transaction);
+
+        // Assert
+        assertNotNull(result.getQueuedAt());
+        assertEquals(TransactionStatus.PENDING, result.getStatus());
+        verify(outboxService, never()).enqueue(any());
+    }
+
+    @Test
+    void enqueue_QueueFull_ThrowsConcurrentTransactionException() {
+        // Arrange
+        Transaction transaction = createTransaction("TXN-1", null);
+        when(transactionRepository.countQueuedByAccountId(1L)).thenReturn(2L);
+
+        // Act & Assert
+        assertThrows(ConcurrentTransactionException.class, () -> queueService.enqueue(transaction));
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void enqueue_Transfer_LocksBothQueuesInAccountOrderBeforeCounting() {
+        // Arrange
+        Transaction transaction = createTransaction("TXN-1", null);
+        transaction.setType(TransactionType.TRANSFER);
+        transaction.setSourceAccountId(9L);
+        transaction.setDestinationAccountId(3L);
+        when(transactionRepository.save(transaction)).thenReturn(transaction);
+
+        // Act
+        queueService.enqueue(transaction);
+
+        // Assert
+        InOrder inOrder = inOrder(jdbcTemplate, transactionRepository);
+        inOrder.verify(jdbcTemplate).queryForList(anyString(),
+                argThat((MapSqlParameterSource params) -> Long.valueOf(3L).equals(params.getValue("accountId"))));
+        inOrder.verify(jdbcTemplate).queryForList(anyString(),
+                argThat((MapSqlParameterSource params) -> Long.valueOf(9L).equals(params.getValue("accountId"))));
+        inOrder.verify(transactionRepository).countQueuedByAccountId(3L);
+        inOrder.verify(transactionRepository).countQueuedByAccountId(9L);
+        inOrder.verify(transactionRepository).save(transaction);
+    }
+
+    @Test
+    void dispatchNext_HeadCanLock_MovesHeadToOutbox() {
+        // Arrange
+        Transaction head = createTransaction("TXN-1", Instant.now());
+        when(transactionRepository.findQueuedByAccountId(eq(1L), any(Pageable.class))).thenReturn(List.of(head));
+        when(transactionLockService.acquireTransactionLocks(List.of(1L), "TXN-1")).thenReturn(true);
+        when(transactionRepository.dequeue(head.getId())).thenReturn(1);
+
+        // Act
+        queueService.dispatchNext(List.of(1L));
+
+        // Assert
+        assertNull(head.getQueuedAt());
+        verify(transactionRepository, never()).save(any());
+        verify(outboxService).enqueue(head);
+        verify(transactionLockService, never()).releaseTransactionLocks(any(), any());
+    }
+
+    @Test
+    void dispatchNext_HeadExpiredSinceRead_ReleasesLocksWithoutPublishing() {
+        // Arrange - a sweep failed it between the read and the dequeue
+        Transaction head = createTransaction("TXN-1", Instant.now());
+        when(transactionRepository.findQueuedByAccountId(eq(1L), any(Pageable.class))).thenReturn(List.of(head));
+        when(transactionLockService.acquireTransactionLocks(List.of(1L), "TXN-1")).thenReturn(true);
+        when(transactionRepository.dequeue(head.getId())).thenReturn(0);
+
+        // Act
+        queueService.dispatchNext(List.of(1L));
+
+        // Assert
+        verify(outboxService, never()).enqueue(any());
+        verify(transactionLockService).releaseTransactionLocks(List.of(1L), "TXN-1");
+    }
+
+    @Test
+    void dispatchNext_HeadCannotLock_StaysQueued() {
+        // Arrange
+        Transaction head = createTransaction("TXN-1", Instant.now());
+        when(transactionRepository.findQueuedByAccountId(eq(1L), any(Pageable.class))).thenReturn(List.of(head));
+        when(transactionLockService.acquireTransactionLocks(List.of(1L), "TXN-1")).thenReturn(false);
+
+        // Act
+        queueService.dispatchNext(List.of(1L));
+
+        // Assert
+        assertNotNull(head.getQueuedAt());
+        verify(transactionRepository, never()).save(any());
+        verify(outboxService, never()).enqueue(any());
+    }
+
+    @Test
+    void sweep_WaitedTooLong_FailsAndNotifies() {
+        // Arrange
+        Transaction expired = createTransaction("TXN-1", Instant.now().minusSeconds(60));
+        when(transactionRepository.findByQueuedAtIsNotNullOrderByQueuedAtAscIdAsc(any(Pageable.class))).thenReturn(List.of(expired));
+        when(transactionRepository.expireQueued(eq(expired.getId()), anyString())).thenReturn(1);
+
+        // Act
+        queueService.sweep();
+
+        // Assert
+        assertEquals(TransactionStatus.FAILED, expired.getStatus());
+        assertNull(expired.getQueuedAt());
+        verify(transactionRepository, never()).save(any());
+        verify(notificationPublisherService).publishTransactionNotification(expired);
+        verify(outboxService, never()).enqueue(any());
+    }
+
+    @Test
+    void sweep_LeftTheQueueSinceRead_DoesNotNotify() {
+        // Arrange - dispatched by a release listener, or expired by another node's sweep
+        Transaction expired = createTransaction("TXN-1", Instant.now().minusSeconds(60));
+        when(transactionRepository.findByQueuedAtIsNotNullOrderByQueuedAtAscIdAsc(any(Pageable.class))).thenReturn(List.of(expired));
+        when(transactionRepository.expireQueued(eq(expired.getId()), anyString())).thenReturn(0);
+
+        // Act
+        queueService.sweep();
+
+        // Assert
+        assertEquals(TransactionStatus.PENDING, expired.getStatus());
+        verifyNoInteractions(notificationPublisherService);
+    }
+
+    private Transaction createTransaction(String reference, Instant queuedAt) {
+        Transaction transaction = new Transaction();
+        transaction.setId(1L);
+        transaction.setTransactionReference(reference);
+        transaction.setType(TransactionType.DEPOSIT);
+        transaction.setAmount(new BigDecimal("100.00"));
+        transaction.setSourceAccountId(1L);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setCurrency("USD");
+        transaction.setCreatedAt(Instant.now());
+        transaction.setUserId(1L);
+        transaction.setQueuedAt(queuedAt);
+        return transaction;
+    }
+}
@@ -0,0 +1,110 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.model.Transaction;
+import com.ibrahim.banking.payment_service.model.TransactionStatus;
+import com.ibrahim.banking.payment_service.model.TransactionType;
+import com.ibrahim.banking.payment_service.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TransactionRecoveryServiceTest {
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private TransactionOutboxService outboxService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionRecoveryService recoveryService;
+
+    @BeforeEach
+    void setUp() {
+        recoveryService = new TransactionRecoveryService(transactionRepository, outboxService, transactionManager, 300_000);
+    }
+
+    @Test
+    void sweep_StaleClaim_ReturnsToPendingAndPublishesAgain() {
+        // Arrange
+        Transaction transaction = createTransaction("TXN-1", Instant.now().minus(Duration.ofMinutes(10)));
+        staleClaims(transaction);
+        when(transactionRepository.releaseStaleClaim(transaction.getId(), transaction.getClaimedAt())).thenReturn(1);
+
+        // Act
+        recoveryService.sweep();
+
+        // Assert
+        verify(outboxService).enqueue(transaction);
+        assertEquals(TransactionStatus.PENDING, transaction.getStatus());
+    }
+
+    @Test
+    void sweep_ClaimedOrFinishedSinceRead_LeavesItAlone() {
+        // Arrange - another node's sweep, or the consumer after all
+        Transaction transaction = createTransaction("TXN-1", Instant.now().minus(Duration.ofMinutes(10)));
+        staleClaims(transaction);
+        when(transactionRepository.releaseStaleClaim(transaction.getId(), transaction.getClaimedAt())).thenReturn(0);
+
+        // Act
+        recoveryService.sweep();
+
+        // Assert
+        verifyNoInteractions(outboxService);
+    }
+
+    @Test
+    void sweep_LooksOnlyForClaimsOlderThanTheLimit() {
+        // Arrange
+        when(transactionRepository.findByStatusAndClaimedAtBeforeOrderByClaimedAt(any(), any(), any())).thenReturn(List.of());
+        Instant before = Instant.now();
+
+        // Act
+        recoveryService.sweep();
+        Instant after = Instant.now();
+
+        // Assert
+        ArgumentCaptor<Instant> claimedBefore = ArgumentCaptor.forClass(Instant.class);
+        verify(transactionRepository).findByStatusAndClaimedAtBeforeOrderByClaimedAt(
+                eq(TransactionStatus.PROCESSING), claimedBefore.capture(), any(Pageable.class));
+        assertFalse(claimedBefore.getValue().isBefore(before.minus(Duration.ofMinutes(5))));
+        assertFalse(claimedBefore.getValue().isAfter(after.minus(Duration.ofMinutes(5))));
+    }
+
+    private void staleClaims(Transaction... transactions) {
+        when(transactionRepository.findByStatusAndClaimedAtBeforeOrderByClaimedAt(
+                eq(TransactionStatus.PROCESSING), any(Instant.class), any(Pageable.class))).thenReturn(List.of(transactions));
+    }
+
+    private Transaction createTransaction(String reference, Instant claimedAt) {
+        Transaction transaction = new Transaction();
+        transaction.setId(1L);
+        transaction.setTransactionReference(reference);
+        transaction.setType(TransactionType.DEPOSIT);
+        transaction.setAmount(new BigDecimal("100.00"));
+        transaction.setSourceAccountId(1L);
+        transaction.setStatus(TransactionStatus.PROCESSING);
+        transaction.setCurrency("USD");
+        transaction.setCreatedAt(claimedAt);
+        transaction.setClaimedAt(claimedAt);
+        transaction.setUserId(1L);
+        return transaction;
+    }
+}
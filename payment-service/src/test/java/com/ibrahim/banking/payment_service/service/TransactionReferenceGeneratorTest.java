@@ -0,0 +1,111 @@
+package com.ibrahim.banking.payment_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionReferenceGeneratorTest {
+
+    private static final long NOW = 1_760_000_000_000L;
+
+    @Test
+    void next_ReturnsFixedLengthReference() {
+        // Arrange
+        TransactionReferenceGenerator generator = new TransactionReferenceGenerator(7, () -> NOW);
+
+        // Act
+        String reference = generator.next();
+
+        // Assert
+        assertTrue(reference.matches("TXN-[0-9A-HJKMNP-TV-Z]{13}"), reference);
+    }
+
+    @Test
+    void next_SortsByCreationTime() {
+        // Arrange
+        AtomicLong clock = new AtomicLong(NOW);
+        TransactionReferenceGenerator generator = new TransactionReferenceGenerator(7, clock::get);
+        List<String> references = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 10_000; i++) {
+            references.add(generator.next());
+            if (i % 100 == 0) {
+                clock.addAndGet(1);
+            }
+        }
+
+        // Assert
+        List<String> sorted = new ArrayList<>(references);
+        Collections.sort(sorted);
+        assertEquals(references, sorted);
+        assertEquals(references.size(), new HashSet<>(references).size());
+    }
+
+    @Test
+    void next_ClockStepsBack_KeepsIncreasing() {
+        // Arrange
+        AtomicLong clock = new AtomicLong(NOW);
+        TransactionReferenceGenerator generator = new TransactionReferenceGenerator(7, clock::get);
+        String before = generator.next();
+
+        // Act
+        clock.set(NOW - 60_000);
+        String after = generator.next();
+
+        // Assert
+        assertTrue(after.compareTo(before) > 0);
+    }
+
+    @Test
+    void next_SameMillisecondOnTwoNodes_Differs() {
+        // Arrange
+        TransactionReferenceGenerator first = new TransactionReferenceGenerator(1, () -> NOW);
+        TransactionReferenceGenerator second = new TransactionReferenceGenerator(2, () -> NOW);
+
+        // Act & Assert
+        assertNotEquals(first.next(), second.next());
+    }
+
+    @Test
+    void next_ConcurrentCallers_GetDistinctReferences() throws Exception {
+        // Arrange
+        TransactionReferenceGenerator generator = new TransactionReferenceGenerator(7, System::currentTimeMillis);
+        Set<String> references = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // Act
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    references.add(generator.next());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Assert
+        assertEquals(160_000, references.size());
+    }
+
+    @Test
+    void constructor_NodeIdOutOfRange_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionReferenceGenerator(1024, () -> NOW));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionReferenceGenerator(-1, () -> NOW));
+    }
+}
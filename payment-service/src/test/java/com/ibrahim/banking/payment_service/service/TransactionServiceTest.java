@@ -1,6 +1,12 @@
 package com.ibrahim.banking.payment_service.service;
 
 import com.ibrahim.banking.payment_service.consumer.AccountServiceClient;
+import com.ibrahim.banking.payment_service.dto.TransactionDetailsDto;
+import com.ibrahim.banking.payment_service.dto.TransactionHistoryFilter;
+import com.ibrahim.banking.payment_service.dto.TransactionPageDto;
+import com.ibrahim.banking.payment_service.exception.ConcurrentTransactionException;
+import com.ibrahim.banking.payment_service.exception.InvalidTransactionException;
+import com.ibrahim.banking.payment_service.exception.PaymentProcessingException;
 import com.ibrahim.banking.payment_service.model.Transaction;
 import com.ibrahim.banking.payment_service.model.TransactionStatus;
 import com.ibrahim.banking.payment_service.model.TransactionType;
@@ -11,6 +17,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -32,16 +40,21 @@ public class TransactionServiceTest {
     private AccountServiceClient accountServiceClient;
 
     @Mock
-    private TransactionPublisherService publisherService;
+    private TransactionOutboxService outboxService;
 
     @Mock
     private TransactionLockService transactionLockService;
 
+    @Mock
+    private TransactionQueueService transactionQueueService;
+
     private TransactionService transactionService;
 
     @BeforeEach
     void setUp() {
-        transactionService = new TransactionService(transactionRepository, accountServiceClient, publisherService, transactionLockService);
+        transactionService = new TransactionService(transactionRepository, accountServiceClient, outboxService,
+                transactionLockService, transactionQueueService, new TransactionReferenceGenerator(1, System::currentTimeMillis));
+        ReflectionTestUtils.setField(transactionService, "maxPageSize", 200);
     }
 
     @Test
@@ -54,7 +67,7 @@ public class TransactionServiceTest {
         Long userId = 1L;
 
         when(accountServiceClient.isAccountActive(accountId)).thenReturn(true);
-        when(transactionLockService.acquireTransactionLock(accountId)).thenReturn(true);
+        when(transactionLockService.acquireTransactionLocks(eq(List.of(accountId)), anyString())).thenReturn(true);
         when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
             Transaction savedTransaction = invocation.getArgument(0);
             savedTransaction.setId(1L);
@@ -77,9 +90,9 @@ public class TransactionServiceTest {
         assertTrue(result.getTransactionReference().startsWith("TXN-"));
 
         verify(accountServiceClient).isAccountActive(accountId);
-        verify(transactionLockService).acquireTransactionLock(accountId);
+        verify(transactionLockService).acquireTransactionLocks(eq(List.of(accountId)), anyString());
         verify(transactionRepository).save(any(Transaction.class));
-        verify(publisherService).publishTransaction(any(Transaction.class));
+        verify(outboxService).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -101,7 +114,7 @@ public class TransactionServiceTest {
         assertEquals("Account is not active or does not exist", exception.getMessage());
         verify(accountServiceClient).isAccountActive(accountId);
         verify(transactionRepository, never()).save(any(Transaction.class));
-        verify(publisherService, never()).publishTransaction(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -114,7 +127,7 @@ public class TransactionServiceTest {
         Long userId = 1L;
 
         when(accountServiceClient.isAccountActive(accountId)).thenReturn(true);
-        when(transactionLockService.acquireTransactionLock(accountId)).thenReturn(true);
+        when(transactionLockService.acquireTransactionLocks(eq(List.of(accountId)), anyString())).thenReturn(true);
         when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
             Transaction savedTransaction = invocation.getArgument(0);
             savedTransaction.setId(1L);
@@ -137,9 +150,9 @@ public class TransactionServiceTest {
         assertTrue(result.getTransactionReference().startsWith("TXN-"));
 
         verify(accountServiceClient).isAccountActive(accountId);
-        verify(transactionLockService).acquireTransactionLock(accountId);
+        verify(transactionLockService).acquireTransactionLocks(eq(List.of(accountId)), anyString());
         verify(transactionRepository).save(any(Transaction.class));
-        verify(publisherService).publishTransaction(any(Transaction.class));
+        verify(outboxService).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -154,8 +167,8 @@ public class TransactionServiceTest {
 
         when(accountServiceClient.isAccountActive(sourceAccountId)).thenReturn(true);
         when(accountServiceClient.isAccountActive(destinationAccountId)).thenReturn(true);
-        when(transactionLockService.acquireTransactionLock(sourceAccountId)).thenReturn(true);
-        when(transactionLockService.acquireTransactionLock(destinationAccountId)).thenReturn(true);
+        when(transactionLockService.acquireTransactionLocks(eq(List.of(sourceAccountId, destinationAccountId)), anyString()))
+                .thenReturn(true);
         when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
             Transaction savedTransaction = invocation.getArgument(0);
             savedTransaction.setId(1L);
@@ -181,10 +194,70 @@ public class TransactionServiceTest {
 
         verify(accountServiceClient).isAccountActive(sourceAccountId);
         verify(accountServiceClient).isAccountActive(destinationAccountId);
-        verify(transactionLockService).acquireTransactionLock(sourceAccountId);
-        verify(transactionLockService).acquireTransactionLock(destinationAccountId);
+        verify(transactionLockService).acquireTransactionLocks(eq(List.of(sourceAccountId, destinationAccountId)), anyString());
         verify(transactionRepository).save(any(Transaction.class));
-        verify(publisherService).publishTransaction(any(Transaction.class));
+        verify(outboxService).enqueue(any(Transaction.class));
+    }
+
+    @Test
+    void createTransferTransaction_AccountLocked_ThrowsConcurrentTransactionException() {
+        // Arrange
+        Long sourceAccountId = 1L;
+        Long destinationAccountId = 2L;
+
+        when(accountServiceClient.isAccountActive(sourceAccountId)).thenReturn(true);
+        when(accountServiceClient.isAccountActive(destinationAccountId)).thenReturn(true);
+        when(transactionLockService.acquireTransactionLocks(eq(List.of(sourceAccountId, destinationAccountId)), anyString()))
+                .thenReturn(false);
+
+        // Act & Assert
+        assertThrows(ConcurrentTransactionException.class, () -> {
+            transactionService.createTransferTransaction(
+                    sourceAccountId, destinationAccountId, new BigDecimal("200.00"), "USD", "Test transfer", 1L);
+        });
+
+        verify(transactionLockService, never()).releaseTransactionLocks(anyCollection(), anyString());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
+    }
+
+    @Test
+    void createDepositTransaction_AccountLockedWithQueueEnabled_QueuesInsteadOfRejecting() {
+        // Arrange
+        Long accountId = 1L;
+
+        when(accountServiceClient.isAccountActive(accountId)).thenReturn(true);
+        when(transactionLockService.acquireTransactionLocks(eq(List.of(accountId)), anyString())).thenReturn(false);
+        when(transactionQueueService.isEnabled()).thenReturn(true);
+        when(transactionQueueService.enqueue(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Transaction result = transactionService.createDepositTransaction(
+                accountId, new BigDecimal("100.00"), "USD", "Test deposit", 1L);
+
+        // Assert
+        assertEquals(TransactionStatus.PENDING, result.getStatus());
+        verify(transactionQueueService).enqueue(any(Transaction.class));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
+        verify(transactionLockService, never()).releaseTransactionLocks(anyCollection(), anyString());
+    }
+
+    @Test
+    void createDepositTransaction_QueueNotEmpty_LinesUpWithoutTakingLock() {
+        // Arrange
+        Long accountId = 1L;
+
+        when(accountServiceClient.isAccountActive(accountId)).thenReturn(true);
+        when(transactionQueueService.hasQueuedTransactions(List.of(accountId))).thenReturn(true);
+        when(transactionQueueService.enqueue(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        transactionService.createDepositTransaction(accountId, new BigDecimal("100.00"), "USD", "Test deposit", 1L);
+
+        // Assert
+        verify(transactionLockService, never()).acquireTransactionLocks(anyCollection(), anyString());
+        verify(transactionQueueService).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -209,7 +282,7 @@ public class TransactionServiceTest {
         verify(accountServiceClient).isAccountActive(sourceAccountId);
         verify(accountServiceClient, never()).isAccountActive(destinationAccountId);
         verify(transactionRepository, never()).save(any(Transaction.class));
-        verify(publisherService, never()).publishTransaction(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -235,7 +308,7 @@ public class TransactionServiceTest {
         verify(accountServiceClient).isAccountActive(sourceAccountId);
         verify(accountServiceClient).isAccountActive(destinationAccountId);
         verify(transactionRepository, never()).save(any(Transaction.class));
-        verify(publisherService, never()).publishTransaction(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
     }
 
     @Test
@@ -273,27 +346,120 @@ public class TransactionServiceTest {
     }
 
     @Test
-    void getTransactionsByUserId_ExistingUserId_ReturnsTransactionsList() {
+    void getTransactionsByUserId_MoreThanAPage_ReturnsPageAndCursor() {
         // Arrange
         Long userId = 1L;
-        Transaction transaction1 = new Transaction();
-        transaction1.setId(1L);
-        transaction1.setUserId(userId);
-        Transaction transaction2 = new Transaction();
-        transaction2.setId(2L);
-        transaction2.setUserId(userId);
-        List<Transaction> expectedTransactions = Arrays.asList(transaction1, transaction2);
+        Instant createdAt = Instant.parse("2025-06-01T10:00:00Z");
+        List<TransactionDetailsDto> rows = Arrays.asList(
+                createDetails(3L, createdAt), createDetails(2L, createdAt), createDetails(1L, createdAt));
+
+        when(transactionRepository.findHistoryByUserId(eq(userId), isNull(), isNull(), eq(Instant.EPOCH),
+                any(), eq(Long.MAX_VALUE), eq(Limit.of(3)))).thenReturn(rows);
+
+        // Act
+        TransactionPageDto page = transactionService.getTransactionsByUserId(userId, TransactionHistoryFilter.none(), null, 2);
+
+        // Assert
+        assertEquals(2, page.getItems().size());
+        assertNotNull(page.getNextCursor());
+
+        // Act - the next page starts after the last item
+        when(transactionRepository.findHistoryByUserId(userId, null, null, Instant.EPOCH, createdAt, 2L, Limit.of(3)))
+                .thenReturn(List.of(createDetails(1L, createdAt)));
+        TransactionPageDto next = transactionService.getTransactionsByUserId(
+                userId, TransactionHistoryFilter.none(), page.getNextCursor(), 2);
+
+        // Assert
+        assertEquals(1, next.getItems().size());
+        assertNull(next.getNextCursor());
+    }
+
+    @Test
+    void getTransactionsByAccountId_Filters_ArePassedToTheQuery() {
+        // Arrange
+        Long accountId = 1L;
+        Instant from = Instant.parse("2025-01-01T00:00:00Z");
+        Instant to = Instant.parse("2025-02-01T00:00:00Z");
+        TransactionHistoryFilter filter = new TransactionHistoryFilter(TransactionStatus.COMPLETED, TransactionType.TRANSFER, from, to);
 
-        when(transactionRepository.findByUserId(userId)).thenReturn(expectedTransactions);
+        when(transactionRepository.findHistoryByAccountId(accountId, TransactionStatus.COMPLETED, TransactionType.TRANSFER,
+                from, to, Long.MIN_VALUE, Limit.of(201))).thenReturn(List.of());
+
+        // Act - the limit is capped
+        TransactionPageDto page = transactionService.getTransactionsByAccountId(accountId, filter, null, 10_000);
+
+        // Assert
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+        verify(transactionRepository, never()).findBySourceAccountId(any());
+    }
+
+    @Test
+    void getTransactionsByAccountId_InvalidCursor_ThrowsException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () ->
+                transactionService.getTransactionsByAccountId(1L, TransactionHistoryFilter.none(), "not-a-cursor", 50));
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void createWithdrawalTransaction_HoldsEnabled_HoldsFundsWithoutLocking() {
+        // Arrange
+        ReflectionTestUtils.setField(transactionService, "holdsEnabled", true);
+        Long accountId = 1L;
+        BigDecimal amount = new BigDecimal("50.00");
+
+        when(accountServiceClient.isAccountActive(accountId)).thenReturn(true);
+        when(accountServiceClient.placeHold(eq(accountId), eq(amount), eq("USD"), anyString())).thenReturn(true);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Act
-        List<Transaction> result = transactionService.getTransactionsByUserId(userId);
+        Transaction result = transactionService.createWithdrawalTransaction(accountId, amount, "USD", "Test withdrawal", 1L);
 
         // Assert
-        assertEquals(2, result.size());
-        assertEquals(expectedTransactions, result);
-        verify(transactionRepository).findByUserId(userId);
+        assertTrue(result.isFundsHeld());
+        assertEquals(TransactionStatus.PENDING, result.getStatus());
+        verify(accountServiceClient).placeHold(accountId, amount, "USD", result.getTransactionReference());
+        verify(outboxService).enqueue(result);
+        verifyNoInteractions(transactionLockService, transactionQueueService);
     }
 
+    @Test
+    void createTransferTransaction_HoldRejected_ThrowsWithoutSaving() {
+        // Arrange
+        ReflectionTestUtils.setField(transactionService, "holdsEnabled", true);
+        BigDecimal amount = new BigDecimal("500.00");
+
+        when(accountServiceClient.isAccountActive(anyLong())).thenReturn(true);
+        when(accountServiceClient.placeHold(eq(1L), eq(amount), eq("USD"), anyString())).thenReturn(false);
 
-} 
\ No newline at end of file
+        // Act & Assert
+        assertThrows(InvalidTransactionException.class, () ->
+                transactionService.createTransferTransaction(1L, 2L, amount, "USD", "Test transfer", 1L));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verify(outboxService, never()).enqueue(any(Transaction.class));
+        verifyNoInteractions(transactionLockService);
+    }
+
+    @Test
+    void createTransferTransaction_HoldOutcomeUnknown_ReleasesHoldAndThrows() {
+        // Arrange
+        ReflectionTestUtils.setField(transactionService, "holdsEnabled", true);
+        BigDecimal amount = new BigDecimal("500.00");
+
+        when(accountServiceClient.isAccountActive(anyLong())).thenReturn(true);
+        when(accountServiceClient.placeHold(eq(1L), eq(amount), eq("USD"), anyString()))
+                .thenThrow(new PaymentProcessingException("Outcome of hold unknown"));
+
+        // Act & Assert
+        assertThrows(PaymentProcessingException.class, () ->
+                transactionService.createTransferTransaction(1L, 2L, amount, "USD", "Test transfer", 1L));
+        verify(accountServiceClient).releaseHold(anyString());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    private TransactionDetailsDto createDetails(Long id, Instant createdAt) {
+        return new TransactionDetailsDto(id, "TXN-" + id, TransactionType.DEPOSIT, new BigDecimal("100.00"), 1L, null,
+                TransactionStatus.COMPLETED, "USD", null, createdAt, createdAt, 1L, null);
+    }
+}
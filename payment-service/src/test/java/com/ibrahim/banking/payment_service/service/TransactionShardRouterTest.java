@@ -0,0 +1,83 @@
+package com.ibrahim.banking.payment_service.service;
+
+import com.ibrahim.banking.payment_service.config.RabbitMQConfig;
+import com.ibrahim.banking.payment_service.model.Transaction;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionShardRouterTest {
+
+    private static final int ACCOUNTS = 100_000;
+
+    @Test
+    void shardFor_SameAccount_AlwaysSameShard() {
+        TransactionShardRouter router = new TransactionShardRouter(true, 8);
+
+        for (long accountId = 1; accountId <= 1000; accountId++) {
+            int shard = router.shardFor(accountId);
+            assertTrue(shard >= 0 && shard < 8);
+            assertEquals(shard, router.shardFor(accountId));
+        }
+    }
+
+    @Test
+    void shardFor_SequentialAccountIds_SpreadEvenly() {
+        TransactionShardRouter router = new TransactionShardRouter(true, 8);
+        int[] counts = new int[8];
+
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            counts[router.shardFor(accountId)]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(ACCOUNTS / 8.0, count, ACCOUNTS / 8.0 * 0.05);
+        }
+    }
+
+    @Test
+    void shardFor_AddingAShard_OnlyMovesAccountsToTheNewShard() {
+        TransactionShardRouter before = new TransactionShardRouter(true, 8);
+        TransactionShardRouter after = new TransactionShardRouter(true, 9);
+        int moved = 0;
+
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            int oldShard = before.shardFor(accountId);
+            int newShard = after.shardFor(accountId);
+            if (oldShard != newShard) {
+                assertEquals(8, newShard);
+                moved++;
+            }
+        }
+
+        // about 1/9 of the accounts, a modulo hash would move almost all of them
+        assertEquals(ACCOUNTS / 9.0, moved, ACCOUNTS / 9.0 * 0.05);
+    }
+
+    @Test
+    void routingKeyFor_Transfer_RoutesByTheLowerAccountIdInBothDirections() {
+        TransactionShardRouter router = new TransactionShardRouter(true, 8);
+        long low = 3;
+        long high = 4;
+        while (router.shardFor(low) == router.shardFor(high)) {
+            high++;
+        }
+        String expected = RabbitMQConfig.shardRoutingKey(router.shardFor(low));
+
+        assertEquals(expected, router.routingKeyFor(transaction(high, low)));
+        assertEquals(expected, router.routingKeyFor(transaction(low, high)));
+        assertEquals(expected, router.routingKeyFor(transaction(low, null)));
+    }
+
+    @Test
+    void constructor_NoShards_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionShardRouter(true, 0));
+    }
+
+    private static Transaction transaction(Long sourceAccountId, Long destinationAccountId) {
+        Transaction transaction = new Transaction();
+        transaction.setSourceAccountId(sourceAccountId);
+        transaction.setDestinationAccountId(destinationAccountId);
+        return transaction;
+    }
+}
@@ -2,8 +2,10 @@ package com.ibrahim.banking.store_of_value_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class StoreOfValueServiceApplication {
 
 	public static void main(String[] args) {
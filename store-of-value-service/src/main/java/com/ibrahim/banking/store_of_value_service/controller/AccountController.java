@@ -1,12 +1,21 @@
 package com.ibrahim.banking.store_of_value_service.controller;
 
 import com.ibrahim.banking.store_of_value_service.dto.AccountResponse;
+import com.ibrahim.banking.store_of_value_service.dto.BalanceSlotsRequest;
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingResponse;
+import com.ibrahim.banking.store_of_value_service.dto.CaptureHoldRequest;
 import com.ibrahim.banking.store_of_value_service.dto.CreateAccountRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldResponse;
 import com.ibrahim.banking.store_of_value_service.dto.UpdateAccountRequest;
 import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
 import com.ibrahim.banking.store_of_value_service.dto.AccountStatusResponse;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
 import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
 import com.ibrahim.banking.store_of_value_service.service.AccountService;
+import com.ibrahim.banking.store_of_value_service.service.PostingBatchService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -18,12 +27,14 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -34,6 +45,7 @@ import java.util.List;
 public class AccountController {
 
     private final AccountService accountService;
+    private final PostingBatchService postingBatchService;
 
     @Operation(summary = "Create new account", description = "Creates a new bank account (Admin only)")
     @ApiResponses(value = {
@@ -83,6 +95,24 @@ public class AccountController {
         return ResponseEntity.ok(response);
     }
 
+    @Operation(summary = "Set balance slots", description = "Splits the balance of a hot account over several rows so concurrent postings don't queue on one, 1 merges it back (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Balance slots updated successfully", 
+                     content = @Content(schema = @Schema(implementation = AccountResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Account not found")
+    })
+    @PutMapping("/{accountNumber}/balance-slots")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<AccountResponse> setBalanceSlots(
+            @Parameter(description = "Account number to update") @PathVariable String accountNumber,
+            @Valid @RequestBody BalanceSlotsRequest request) {
+        AccountResponse response = accountService.setBalanceSlots(accountNumber, request.getSlots());
+        return ResponseEntity.ok(response);
+    }
+
     @Operation(summary = "Get account balance", description = "Retrieves the current balance for an account")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved balance", 
@@ -99,6 +129,25 @@ public class AccountController {
         return ResponseEntity.ok(balance);
     }
 
+    @Operation(summary = "Get account balance at a point in time", description = "Retrieves the balance of an account at the given time from its journal (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved balance",
+                     content = @Content(schema = @Schema(implementation = BigDecimal.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid time"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Account not found")
+    })
+    @GetMapping("/{accountNumber}/balance/history")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<BigDecimal> getBalanceAt(
+            @Parameter(description = "Account number") @PathVariable String accountNumber,
+            @Parameter(description = "Point in time, e.g. 2025-01-31T23:59:59")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at) {
+        BigDecimal balance = accountService.getBalanceAt(accountNumber, at);
+        return ResponseEntity.ok(balance);
+    }
+
     @Operation(summary = "Activate account", description = "Activates a deactivated account (Admin only)")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Account activated successfully", 
@@ -167,6 +216,89 @@ public class AccountController {
         return ResponseEntity.ok(response);
     }
 
+    @Operation(summary = "Transfer between accounts", description = "Debits the source and credits the destination account in one transaction (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Transfer completed successfully", 
+                     content = @Content(schema = @Schema(implementation = TransferResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data or insufficient funds"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Account not found")
+    })
+    @PostMapping("/transfer")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<TransferResponse> transfer(@Valid @RequestBody TransferRequest request) {
+        TransferResponse response = accountService.transfer(request);
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(summary = "Hold funds", description = "Reserves funds on an account until they are captured, released or expire (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Funds held successfully", 
+                     content = @Content(schema = @Schema(implementation = HoldResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data or insufficient funds"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Account not found"),
+        @ApiResponse(responseCode = "409", description = "Hold reference already used for a different hold")
+    })
+    @PostMapping("/{accountNumber}/holds")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<HoldResponse> placeHold(
+            @Parameter(description = "Account number to hold funds on") @PathVariable String accountNumber,
+            @Valid @RequestBody HoldRequest request) {
+        HoldResponse response = accountService.placeHold(accountNumber, request);
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(summary = "Capture a hold", description = "Debits the held funds, or transfers them to a destination account (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Hold captured successfully", 
+                     content = @Content(schema = @Schema(implementation = HoldResponse.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Hold or destination account not found")
+    })
+    @PostMapping("/holds/{holdReference}/capture")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<HoldResponse> captureHold(
+            @Parameter(description = "Reference of the hold to capture") @PathVariable String holdReference,
+            @RequestBody(required = false) CaptureHoldRequest request) {
+        HoldResponse response = accountService.captureHold(holdReference, request);
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(summary = "Release a hold", description = "Makes the held funds available again (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Hold released successfully", 
+                     content = @Content(schema = @Schema(implementation = HoldResponse.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role"),
+        @ApiResponse(responseCode = "404", description = "Hold not found")
+    })
+    @PostMapping("/holds/{holdReference}/release")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<HoldResponse> releaseHold(
+            @Parameter(description = "Reference of the hold to release") @PathVariable String holdReference) {
+        HoldResponse response = accountService.releaseHold(holdReference);
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(summary = "Apply a batch of postings", description = "Applies credits and debits in one transaction and returns a result per posting (Admin only)")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Batch applied, see the per-posting results", 
+                     content = @Content(schema = @Schema(implementation = BatchPostingResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - requires admin role")
+    })
+    @PostMapping("/postings:batch")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<BatchPostingResponse> applyPostings(@Valid @RequestBody BatchPostingRequest request) {
+        BatchPostingResponse response = postingBatchService.applyPostings(request.getPostings());
+        return ResponseEntity.ok(response);
+    }
+
     @Operation(summary = "Get account status", description = "Retrieves the current status of an account (Admin only)")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved account status", 
@@ -14,6 +14,7 @@ public class AccountResponse {
     private String profileId;
     private AccountType accountType;
     private BigDecimal balance;
+    private BigDecimal availableBalance; // balance minus funds on hold
     private AccountStatus status;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
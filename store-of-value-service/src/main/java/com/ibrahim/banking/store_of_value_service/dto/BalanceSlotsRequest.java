@@ -0,0 +1,16 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+@Data
+public class BalanceSlotsRequest {
+
+    // 1 keeps the whole balance on the account row
+    @NotNull(message = "Slots cannot be null")
+    @Min(value = 1, message = "An account needs at least one balance slot")
+    @Max(value = 64, message = "An account can have at most 64 balance slots")
+    private Integer slots;
+}
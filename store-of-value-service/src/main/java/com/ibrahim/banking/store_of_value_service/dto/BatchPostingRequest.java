@@ -0,0 +1,18 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPostingRequest {
+
+    @NotEmpty(message = "Postings cannot be empty")
+    private List<@Valid PostingRequest> postings;
+}
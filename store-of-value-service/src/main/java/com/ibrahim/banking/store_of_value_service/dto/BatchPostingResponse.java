@@ -0,0 +1,14 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPostingResponse {
+    private List<PostingResult> results; // same order as the request
+}
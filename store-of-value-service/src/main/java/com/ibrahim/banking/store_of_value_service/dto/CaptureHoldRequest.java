@@ -0,0 +1,10 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import lombok.Data;
+
+@Data
+public class CaptureHoldRequest {
+
+    // when set the captured funds are credited to this account in the same transaction, as a transfer
+    private String destinationAccountNumber;
+}
@@ -0,0 +1,27 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+@Data
+public class HoldRequest {
+
+    @NotNull(message = "Amount cannot be null")
+    @DecimalMin(value = "0.01", message = "Amount must be greater than zero")
+    private BigDecimal amount;
+
+    // identifies the hold for capture and release, a repeat with the same reference returns the existing hold
+    @NotBlank(message = "Hold reference cannot be blank")
+    private String holdReference;
+
+    // the hold is released on its own after this long, store-of-value.holds.default-expiry-seconds if not set
+    @Min(value = 1, message = "A hold must last at least a second")
+    @Max(value = 604800, message = "A hold can last at most 7 days")
+    private Long expiresInSeconds;
+}
@@ -0,0 +1,17 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import com.ibrahim.banking.store_of_value_service.model.HoldStatus;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+public class HoldResponse {
+    private String holdReference;
+    private String accountNumber;
+    private BigDecimal amount;
+    private HoldStatus status;
+    private LocalDateTime expiresAt;
+    private BigDecimal availableBalance; // of the held account, right after this request
+}
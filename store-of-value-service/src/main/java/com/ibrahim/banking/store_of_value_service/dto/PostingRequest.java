@@ -0,0 +1,29 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostingRequest {
+
+    @NotBlank(message = "Account number cannot be blank")
+    private String accountNumber;
+
+    @NotNull(message = "Posting type cannot be null")
+    private PostingType type;
+
+    @NotNull(message = "Amount cannot be null")
+    @DecimalMin(value = "0.01", message = "Amount must be greater than zero")
+    private BigDecimal amount;
+
+    private String transactionReference; // echoed back in the result
+}
@@ -0,0 +1,15 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostingResult {
+    private String transactionReference;
+    private String accountNumber;
+    private PostingStatus status;
+}
@@ -12,4 +12,7 @@ public class TransactionRequest {
     @NotNull(message = "Amount cannot be null")
     @DecimalMin(value = "0.01", message = "Amount must be greater than zero")
     private BigDecimal amount;
+
+    // when set, a repeat of this posting returns the original result instead of changing the balance again
+    private String transactionReference;
 } 
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+@Data
+public class TransferRequest {
+
+    @NotBlank(message = "Source account number cannot be blank")
+    private String sourceAccountNumber;
+
+    @NotBlank(message = "Destination account number cannot be blank")
+    private String destinationAccountNumber;
+
+    @NotNull(message = "Amount cannot be null")
+    @DecimalMin(value = "0.01", message = "Amount must be greater than zero")
+    private BigDecimal amount;
+
+    private String transactionReference; // optional, only used for logging
+}
@@ -0,0 +1,14 @@
+package com.ibrahim.banking.store_of_value_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferResponse {
+    private String transactionReference;
+    private AccountResponse sourceAccount;
+    private AccountResponse destinationAccount;
+}
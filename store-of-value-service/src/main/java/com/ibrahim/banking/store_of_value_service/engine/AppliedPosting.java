@@ -0,0 +1,8 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import java.math.BigDecimal;
+
+// what a repeat of a posting is answered with; counterparty is the other account of a transfer leg,
+// appliedAt the journal timestamp in epoch millis that the idempotency window is counted from
+record AppliedPosting(String accountNumber, BigDecimal amount, BigDecimal balanceAfter, String counterparty, long appliedAt) {
+}
@@ -0,0 +1,310 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.event.AccountStatusChangedEvent;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.service.BalanceSlotService;
+import com.ibrahim.banking.store_of_value_service.service.PostingLedger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Optional balance engine ({@code store-of-value.engine.mode=in-memory}): accounts are partitioned
+ * over single-writer {@link BalanceShard}s that apply postings in memory and acknowledge them once
+ * they are in the shard's memory-mapped journal. PostgreSQL becomes a projection of the balances
+ * and of the postings ledger, written in the background every {@code projection-interval-ms};
+ * account data and statuses stay owned by PostgreSQL. The shards keep applied postings in memory for
+ * {@code idempotency-window-ms} and answer repeats of older references from the ledger.
+ * <p>
+ * A transfer is a debit on the source account followed by a credit on the destination, both keyed
+ * by the transfer's reference, and a reversal of the debit if the credit is rejected. A transfer
+ * that was cut short by a crash is finished on startup. The engine owns the balances it has
+ * loaded, so it only works with a single Store of Value instance.
+ */
+@Component
+@ConditionalOnProperty(name = "store-of-value.engine.mode", havingValue = "in-memory")
+public class BalanceEngine {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceEngine.class);
+
+    static final String REVERSAL_SUFFIX = "/reversal";
+
+    private final Function<String, Optional<Account>> accountLoader;
+    private final Function<PostingKey, Optional<Posting>> postingLoader;
+    private final BiConsumer<Map<String, BigDecimal>, List<Posting>> projection;
+    private final Path directory;
+    private final int shardCount;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final int maxGroupSize;
+    private final long idempotencyWindowMs;
+    private final long snapshotIntervalMs;
+    private final long projectionIntervalMs;
+
+    private BalanceShard[] shards;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public BalanceEngine(AccountRepository accountRepository,
+                         BalanceSlotService balanceSlotService,
+                         PostingLedger postingLedger,
+                         JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         @Value("${store-of-value.engine.journal-dir:data/engine}") String directory,
+                         @Value("${store-of-value.engine.shards:4}") int shardCount,
+                         @Value("${store-of-value.engine.segment-size-mb:64}") int segmentSizeMb,
+                         @Value("${store-of-value.engine.fsync:true}") boolean fsync,
+                         @Value("${store-of-value.engine.max-group-size:256}") int maxGroupSize,
+                         @Value("${store-of-value.engine.idempotency-window-ms:3600000}") long idempotencyWindowMs,
+                         @Value("${store-of-value.engine.snapshot-interval-ms:60000}") long snapshotIntervalMs,
+                         @Value("${store-of-value.engine.projection-interval-ms:200}") long projectionIntervalMs) {
+        // an account split into balance slots is taken over with its total, and its slots are emptied by the projection
+        this(accountNumber -> accountRepository.findByAccountNumber(accountNumber).map(account -> {
+                    account.setBalance(balanceSlotService.totalBalance(account));
+                    return account;
+                }),
+                key -> postingLedger.find(key.transactionReference(), key.direction()),
+                (balances, postings) -> transactionTemplate.executeWithoutResult(status -> {
+                    writeBalances(jdbcTemplate, balances);
+                    postingLedger.recordAllIfAbsent(postings);
+                }),
+                Path.of(directory), shardCount, segmentSizeMb * 1024 * 1024, fsync, maxGroupSize, idempotencyWindowMs,
+                snapshotIntervalMs, projectionIntervalMs);
+    }
+
+    BalanceEngine(Function<String, Optional<Account>> accountLoader, Function<PostingKey, Optional<Posting>> postingLoader,
+                  BiConsumer<Map<String, BigDecimal>, List<Posting>> projection, Path directory, int shardCount,
+                  int segmentSize, boolean fsync, int maxGroupSize, long idempotencyWindowMs,
+                  long snapshotIntervalMs, long projectionIntervalMs) {
+        this.accountLoader = accountLoader;
+        this.postingLoader = postingLoader;
+        this.projection = projection;
+        this.directory = directory;
+        this.shardCount = shardCount;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.maxGroupSize = maxGroupSize;
+        this.idempotencyWindowMs = idempotencyWindowMs;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        this.projectionIntervalMs = projectionIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> existing = Files.list(directory)) {
+            long existingShards = existing.filter(path -> path.getFileName().toString().startsWith("shard-")).count();
+            // accounts are routed by shard count, changing it would strand their journals
+            if (existingShards != 0 && existingShards != shardCount) {
+                throw new IllegalStateException("Journal directory " + directory + " holds " + existingShards
+                        + " shards but store-of-value.engine.shards is " + shardCount);
+            }
+        }
+
+        shards = new BalanceShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new BalanceShard(i, directory.resolve("shard-" + i), segmentSize, fsync, maxGroupSize,
+                    idempotencyWindowMs, accountLoader, postingLoader);
+            shards[i].start();
+        }
+        finishInterruptedTransfers();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::project, projectionIntervalMs, projectionIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::snapshot, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Balance engine started with {} shards in {}", shardCount, directory);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (shards == null) {
+            return;
+        }
+        snapshot();
+        for (BalanceShard shard : shards) {
+            shard.stop();
+        }
+        project();
+        logger.info("Balance engine stopped");
+    }
+
+    // stops the shards the way a crash would, without a last snapshot or projection
+    void halt() throws IOException, InterruptedException {
+        scheduler.shutdownNow();
+        for (BalanceShard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    public CompletableFuture<PostingOutcome> credit(String accountNumber, BigDecimal amount, String transactionReference) {
+        return shardFor(accountNumber).post(accountNumber, PostingType.CREDIT, amount, transactionReference, null);
+    }
+
+    public CompletableFuture<PostingOutcome> debit(String accountNumber, BigDecimal amount, String transactionReference) {
+        return shardFor(accountNumber).post(accountNumber, PostingType.DEBIT, amount, transactionReference, null);
+    }
+
+    /**
+     * Moves money between two accounts, waiting for both legs. Repeating a transfer with the same
+     * reference repeats neither leg; a transfer that was reversed stays reversed.
+     */
+    public TransferOutcome transfer(String source, String destination, BigDecimal amount, String transactionReference) {
+        // the legs are matched up by reference after a crash, so a transfer always has one
+        String reference = transactionReference != null ? transactionReference : "transfer-" + UUID.randomUUID();
+        if (shardFor(source).appliedPosting(new PostingKey(reference + REVERSAL_SUFFIX, PostingType.CREDIT)) != null) {
+            logger.warn("Transfer {} was already reversed", reference);
+            return new TransferOutcome(new PostingOutcome(PostingStatus.APPLIED, null, true),
+                    PostingOutcome.rejected(PostingStatus.REFERENCE_CONFLICT));
+        }
+
+        PostingOutcome debit = shardFor(source).post(source, PostingType.DEBIT, amount, reference, destination).join();
+        if (!debit.isApplied()) {
+            return new TransferOutcome(debit, null);
+        }
+        return new TransferOutcome(debit, creditOrReverse(source, destination, amount, reference));
+    }
+
+    /**
+     * The engine's balance of an account, empty if the engine has not taken the account over yet and
+     * PostgreSQL still holds its balance.
+     */
+    public Optional<BigDecimal> balanceOf(String accountNumber) {
+        return Optional.ofNullable(shardFor(accountNumber).balanceOf(accountNumber));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onAccountStatusChanged(AccountStatusChangedEvent event) {
+        shardFor(event.getAccountNumber()).updateStatus(event.getAccountNumber(), event.getStatus());
+    }
+
+    void project() {
+        for (BalanceShard shard : shards) {
+            Map<String, BigDecimal> changed = shard.drainChangedBalances();
+            Map<PostingKey, AppliedPosting> postings = shard.unprojectedPostings();
+            if (changed.isEmpty() && postings.isEmpty()) {
+                continue;
+            }
+            try {
+                projection.accept(changed, toLedger(postings));
+                // only now may the shard drop them from memory once they are old enough
+                shard.markProjected(postings.keySet());
+            } catch (RuntimeException e) {
+                logger.error("Failed to project {} balances and {} postings to PostgreSQL, retrying later",
+                        changed.size(), postings.size(), e);
+                shard.markChanged(changed.keySet());
+            }
+        }
+    }
+
+    void snapshot() {
+        List<CompletableFuture<Void>> snapshots = new ArrayList<>();
+        for (BalanceShard shard : shards) {
+            snapshots.add(shard.snapshot());
+        }
+        for (CompletableFuture<Void> snapshot : snapshots) {
+            try {
+                snapshot.join();
+            } catch (RuntimeException e) {
+                logger.error("Failed to write balance snapshot", e);
+            }
+        }
+    }
+
+    private PostingOutcome creditOrReverse(String source, String destination, BigDecimal amount, String reference) {
+        PostingOutcome credit = shardFor(destination).post(destination, PostingType.CREDIT, amount, reference, source).join();
+        if (!credit.isApplied()) {
+            logger.warn("Credit of transfer {} to {} was rejected ({}), reversing the debit of {}",
+                    reference, destination, credit.status(), source);
+            shardFor(source).post(source, PostingType.CREDIT, amount, reference + REVERSAL_SUFFIX, destination).join();
+        }
+        return credit;
+    }
+
+    // a debit leg with neither its credit nor its reversal was cut short by a crash
+    private void finishInterruptedTransfers() {
+        for (BalanceShard shard : shards) {
+            shard.appliedPostings().forEach((key, posting) -> {
+                if (key.direction() != PostingType.DEBIT || posting.counterparty() == null
+                        || key.transactionReference().endsWith(REVERSAL_SUFFIX)) {
+                    return;
+                }
+                boolean credited = shardFor(posting.counterparty())
+                        .appliedPosting(new PostingKey(key.transactionReference(), PostingType.CREDIT)) != null;
+                boolean reversed = shard
+                        .appliedPosting(new PostingKey(key.transactionReference() + REVERSAL_SUFFIX, PostingType.CREDIT)) != null;
+                if (!credited && !reversed) {
+                    logger.warn("Finishing transfer {} that was interrupted after its debit", key.transactionReference());
+                    creditOrReverse(posting.accountNumber(), posting.counterparty(), posting.amount(), key.transactionReference());
+                }
+            });
+        }
+    }
+
+    private static List<Posting> toLedger(Map<PostingKey, AppliedPosting> postings) {
+        List<Posting> ledger = new ArrayList<>(postings.size());
+        postings.forEach((key, applied) -> {
+            Posting posting = new Posting();
+            posting.setTransactionReference(key.transactionReference());
+            posting.setDirection(key.direction());
+            posting.setAccountNumber(applied.accountNumber());
+            posting.setAmount(applied.amount());
+            posting.setBalanceAfter(applied.balanceAfter());
+            posting.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(applied.appliedAt()), ZoneId.systemDefault()));
+            ledger.add(posting);
+        });
+        return ledger;
+    }
+
+    private BalanceShard shardFor(String accountNumber) {
+        return shards[Math.floorMod(accountNumber.hashCode(), shards.length)];
+    }
+
+    private static void writeBalances(JdbcTemplate jdbcTemplate, Map<String, BigDecimal> balances) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(balances.size());
+        balances.forEach((accountNumber, balance) -> rows.add(new Object[]{balance, now, accountNumber}));
+        jdbcTemplate.batchUpdate("UPDATE accounts SET balance = ?, updated_at = ? WHERE account_number = ?", rows);
+        jdbcTemplate.batchUpdate("UPDATE account_balance_slots SET balance = 0, updated_at = ? WHERE account_number = ? AND balance <> 0",
+                balances.keySet().stream().map(accountNumber -> new Object[]{now, accountNumber}).toList());
+    }
+}
@@ -0,0 +1,407 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The accounts of one partition, owned by a single thread that applies their postings in memory.
+ * <p>
+ * The thread takes postings off its queue in groups, validates and journals each one, flushes the
+ * journal once for the whole group and only then completes the callers' futures, so a posting is
+ * acknowledged only once it is durable. Balances are readable from any thread; they may show a
+ * posting shortly before it is acknowledged, never one that is lost without having been rejected.
+ * <p>
+ * Applied postings are kept in memory for {@code idempotencyWindowMs} once they have been projected
+ * to the PostgreSQL postings ledger, and dropped from memory and the snapshot at the next snapshot
+ * after that. A reference that is not in memory is looked up in the ledger, which holds them all.
+ */
+class BalanceShard {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceShard.class);
+
+    private final int index;
+    private final Path directory;
+    private final PostingJournal journal;
+    private final Function<String, Optional<Account>> accountLoader;
+    private final Function<PostingKey, Optional<Posting>> postingLoader;
+    private final int maxGroupSize;
+    private final long idempotencyWindowMs;
+    private final BlockingQueue<Command<?>> commands = new LinkedBlockingQueue<>(65_536);
+
+    private final Map<String, AccountState> accounts = new ConcurrentHashMap<>();
+    private final Map<PostingKey, AppliedPosting> applied = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // applied postings not yet in the ledger, they stay in memory until they are
+    private final Set<PostingKey> unprojected = ConcurrentHashMap.newKeySet();
+
+    // only touched by the shard thread once it runs
+    private long sequence;
+    private long snapshotSequence;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    BalanceShard(int index, Path directory, int segmentSize, boolean fsync, int maxGroupSize, long idempotencyWindowMs,
+                 Function<String, Optional<Account>> accountLoader,
+                 Function<PostingKey, Optional<Posting>> postingLoader) throws IOException {
+        this.index = index;
+        this.directory = directory;
+        this.journal = new PostingJournal(directory, segmentSize, fsync);
+        this.accountLoader = accountLoader;
+        this.postingLoader = postingLoader;
+        this.maxGroupSize = maxGroupSize;
+        this.idempotencyWindowMs = idempotencyWindowMs;
+    }
+
+    /**
+     * Rebuilds the shard from its latest snapshot and the journal after it, then starts the shard thread.
+     */
+    void start() throws IOException {
+        Optional<BalanceSnapshot> snapshot = BalanceSnapshot.readLatest(directory);
+        snapshot.ifPresent(loaded -> {
+            loaded.balances().forEach((accountNumber, balance) -> accounts.put(accountNumber, new AccountState(balance)));
+            applied.putAll(loaded.applied());
+        });
+        snapshotSequence = snapshot.map(BalanceSnapshot::sequence).orElse(0L);
+
+        int[] replayed = new int[1];
+        sequence = journal.recover(snapshotSequence, record -> {
+            replay(record);
+            replayed[0]++;
+        });
+        // PostgreSQL may not have caught up before the last shutdown
+        dirty.addAll(accounts.keySet());
+        unprojected.addAll(applied.keySet());
+        logger.info("Shard {} recovered {} accounts from snapshot {} and {} journal records",
+                index, accounts.size(), snapshotSequence, replayed[0]);
+
+        running = true;
+        thread = new Thread(this::run, "balance-shard-" + index);
+        thread.start();
+    }
+
+    CompletableFuture<PostingOutcome> post(String accountNumber, PostingType direction, BigDecimal amount,
+                                           String transactionReference, String counterparty) {
+        return submit(new Command<>(() -> applyPosting(accountNumber, direction, amount, transactionReference, counterparty)));
+    }
+
+    void updateStatus(String accountNumber, AccountStatus status) {
+        submit(new Command<>(() -> {
+            AccountState account = accounts.get(accountNumber);
+            if (account != null) {
+                account.status = status;
+            }
+            return null;
+        }));
+    }
+
+    CompletableFuture<Void> snapshot() {
+        return submit(new Command<>(() -> {
+            writeSnapshot();
+            return null;
+        }));
+    }
+
+    BigDecimal balanceOf(String accountNumber) {
+        AccountState account = accounts.get(accountNumber);
+        return account == null ? null : account.balance;
+    }
+
+    /**
+     * The posting applied under this key, from memory or else from the ledger; null if there is none.
+     */
+    AppliedPosting appliedPosting(PostingKey key) {
+        AppliedPosting posting = applied.get(key);
+        if (posting != null) {
+            return posting;
+        }
+        return postingLoader.apply(key).map(BalanceShard::fromLedger).orElse(null);
+    }
+
+    // the postings still in memory, the ones older than the window are only in the ledger
+    Map<PostingKey, AppliedPosting> appliedPostings() {
+        return Map.copyOf(applied);
+    }
+
+    /**
+     * The applied postings that have not been projected to the ledger yet; they stay so until
+     * {@link #markProjected} is called with their keys.
+     */
+    Map<PostingKey, AppliedPosting> unprojectedPostings() {
+        Map<PostingKey, AppliedPosting> postings = new HashMap<>();
+        for (PostingKey key : unprojected) {
+            postings.put(key, applied.get(key));
+        }
+        return postings;
+    }
+
+    void markProjected(Collection<PostingKey> keys) {
+        unprojected.removeAll(keys);
+    }
+
+    /**
+     * Takes the balances that changed since the last call, for the PostgreSQL projection.
+     */
+    Map<String, BigDecimal> drainChangedBalances() {
+        Map<String, BigDecimal> changed = new HashMap<>();
+        for (String accountNumber : dirty) {
+            // unmark before reading, so a posting applied in between marks the account again
+            dirty.remove(accountNumber);
+            changed.put(accountNumber, accounts.get(accountNumber).balance);
+        }
+        return changed;
+    }
+
+    void markChanged(Collection<String> accountNumbers) {
+        dirty.addAll(accountNumbers);
+    }
+
+    void stop() throws IOException, InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        journal.close();
+    }
+
+    private <T> CompletableFuture<T> submit(Command<T> command) {
+        if (!running) {
+            command.result.completeExceptionally(new IllegalStateException("Balance shard " + index + " is not running"));
+            return command.result;
+        }
+        try {
+            commands.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            command.result.completeExceptionally(e);
+        }
+        return command.result;
+    }
+
+    private void run() {
+        List<Command<?>> group = new ArrayList<>(maxGroupSize);
+        while (running || !commands.isEmpty()) {
+            try {
+                Command<?> first = commands.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                commands.drainTo(group, maxGroupSize - 1);
+
+                for (Command<?> command : group) {
+                    command.execute();
+                }
+                // one flush acknowledges the whole group
+                journal.force();
+                group.forEach(Command::complete);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Balance shard {} failed to flush its journal, failing {} postings", index, group.size(), e);
+                group.forEach(command -> command.result.completeExceptionally(e));
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private PostingOutcome applyPosting(String accountNumber, PostingType direction, BigDecimal amount,
+                                        String transactionReference, String counterparty) throws IOException {
+        if (transactionReference != null) {
+            AppliedPosting original = appliedPosting(new PostingKey(transactionReference, direction));
+            if (original != null) {
+                return replayOf(original, accountNumber, amount);
+            }
+        }
+
+        AccountState account = load(accountNumber);
+        PostingStatus rejection = check(account, direction, amount);
+        if (rejection != null) {
+            return PostingOutcome.rejected(rejection);
+        }
+        return PostingOutcome.applied(apply(accountNumber, account, direction, amount, transactionReference, counterparty));
+    }
+
+    private static PostingOutcome replayOf(AppliedPosting original, String accountNumber, BigDecimal amount) {
+        if (!original.accountNumber().equals(accountNumber) || original.amount().compareTo(amount) != 0) {
+            return PostingOutcome.rejected(PostingStatus.REFERENCE_CONFLICT);
+        }
+        return new PostingOutcome(PostingStatus.APPLIED, original.balanceAfter(), true);
+    }
+
+    private static PostingStatus check(AccountState account, PostingType direction, BigDecimal amount) {
+        if (account == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (account.status != AccountStatus.ACTIVE) {
+            return PostingStatus.ACCOUNT_NOT_ACTIVE;
+        }
+        if (direction == PostingType.DEBIT && account.balance.compareTo(amount) < 0) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
+        }
+        return null;
+    }
+
+    // the first posting to an account takes its balance over from PostgreSQL, journaled as OPEN
+    private AccountState load(String accountNumber) throws IOException {
+        AccountState account = accounts.get(accountNumber);
+        if (account != null && account.status != null) {
+            return account;
+        }
+        Optional<Account> stored = accountLoader.apply(accountNumber);
+        if (stored.isEmpty()) {
+            return null;
+        }
+        if (account == null) {
+            account = new AccountState(stored.get().getBalance());
+            append(JournalRecord.Type.OPEN, accountNumber, account.balance, null, null);
+            accounts.put(accountNumber, account);
+        }
+        // statuses are not journaled, they are owned by PostgreSQL and kept current by status events
+        account.status = stored.get().getStatus();
+        return account;
+    }
+
+    private BigDecimal apply(String accountNumber, AccountState account, PostingType direction, BigDecimal amount,
+                             String transactionReference, String counterparty) throws IOException {
+        long appliedAt = append(direction == PostingType.CREDIT ? JournalRecord.Type.CREDIT : JournalRecord.Type.DEBIT,
+                accountNumber, amount, transactionReference, counterparty);
+        BigDecimal balance = direction == PostingType.CREDIT ? account.balance.add(amount) : account.balance.subtract(amount);
+        account.balance = balance;
+        if (transactionReference != null) {
+            remember(new PostingKey(transactionReference, direction), new AppliedPosting(accountNumber, amount, balance, counterparty, appliedAt));
+        }
+        dirty.add(accountNumber);
+        return balance;
+    }
+
+    // returns the record's timestamp
+    private long append(JournalRecord.Type type, String accountNumber, BigDecimal amount,
+                        String transactionReference, String counterparty) throws IOException {
+        long next = sequence + 1;
+        long timestamp = System.currentTimeMillis();
+        journal.append(new JournalRecord(next, timestamp, type, accountNumber, amount, transactionReference, counterparty));
+        sequence = next;
+        return timestamp;
+    }
+
+    private void remember(PostingKey key, AppliedPosting posting) {
+        applied.put(key, posting);
+        unprojected.add(key);
+    }
+
+    // a reference older than the window, only a repeat of it is answered from here
+    private static AppliedPosting fromLedger(Posting posting) {
+        long appliedAt = posting.getCreatedAt() == null ? 0
+                : posting.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new AppliedPosting(posting.getAccountNumber(), posting.getAmount(), posting.getBalanceAfter(), null, appliedAt);
+    }
+
+    private void replay(JournalRecord record) {
+        if (record.type() == JournalRecord.Type.OPEN) {
+            accounts.put(record.accountNumber(), new AccountState(record.amount()));
+            return;
+        }
+        AccountState account = accounts.get(record.accountNumber());
+        if (account == null) {
+            throw new IllegalStateException("Journal record " + record.sequence() + " posts to account "
+                    + record.accountNumber() + " before it was opened");
+        }
+        PostingType direction = record.type() == JournalRecord.Type.CREDIT ? PostingType.CREDIT : PostingType.DEBIT;
+        account.balance = direction == PostingType.CREDIT ? account.balance.add(record.amount()) : account.balance.subtract(record.amount());
+        if (record.transactionReference() != null) {
+            remember(new PostingKey(record.transactionReference(), direction), new AppliedPosting(record.accountNumber(),
+                    record.amount(), account.balance, record.counterparty(), record.timestamp()));
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        if (sequence == snapshotSequence) {
+            return;
+        }
+        // records from here on go to a new segment, so the older ones can go once the snapshot is written
+        journal.roll(sequence + 1);
+        int evicted = evictExpiredPostings();
+        Map<String, BigDecimal> balances = new HashMap<>();
+        accounts.forEach((accountNumber, account) -> balances.put(accountNumber, account.balance));
+        new BalanceSnapshot(sequence, balances, new HashMap<>(applied)).write(directory);
+        journal.deleteInactiveSegments();
+        snapshotSequence = sequence;
+        logger.info("Shard {} wrote snapshot {} of {} accounts and {} postings, {} older postings left to the ledger",
+                index, sequence, balances.size(), applied.size(), evicted);
+    }
+
+    // only postings the ledger already has, a repeat of one of them is then answered from there
+    private int evictExpiredPostings() {
+        long cutoff = System.currentTimeMillis() - idempotencyWindowMs;
+        int before = applied.size();
+        applied.entrySet().removeIf(entry -> entry.getValue().appliedAt() <= cutoff && !unprojected.contains(entry.getKey()));
+        return before - applied.size();
+    }
+
+    private static final class AccountState {
+        volatile BigDecimal balance;
+        volatile AccountStatus status; // null until loaded from PostgreSQL
+
+        AccountState(BigDecimal balance) {
+            this.balance = balance;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private static final class Command<T> {
+        private final Action<T> action;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+        private Exception failure;
+
+        Command(Action<T> action) {
+            this.action = action;
+        }
+
+        void execute() {
+            try {
+                value = action.run();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copy of a shard's balances and the applied postings still in its idempotency
+ * window, so recovery only replays the journal written after it. Written to a temporary file, flushed and renamed into place, so a
+ * snapshot file is either complete or absent.
+ */
+record BalanceSnapshot(long sequence, Map<String, BigDecimal> balances, Map<PostingKey, AppliedPosting> applied) {
+
+    private static final int MAGIC = 0x534F5602;
+    // before postings carried the time they were applied
+    private static final int MAGIC_V1 = 0x534F5601;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    void write(Path directory) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(balances.size());
+            for (Map.Entry<String, BigDecimal> balance : balances.entrySet()) {
+                out.writeUTF(balance.getKey());
+                out.writeUTF(balance.getValue().toPlainString());
+            }
+            out.writeInt(applied.size());
+            for (Map.Entry<PostingKey, AppliedPosting> posting : applied.entrySet()) {
+                out.writeUTF(posting.getKey().transactionReference());
+                out.writeByte(posting.getKey().direction().ordinal());
+                out.writeUTF(posting.getValue().accountNumber());
+                out.writeUTF(posting.getValue().amount().toPlainString());
+                out.writeUTF(posting.getValue().balanceAfter().toPlainString());
+                out.writeUTF(posting.getValue().counterparty() == null ? "" : posting.getValue().counterparty());
+                out.writeLong(posting.getValue().appliedAt());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // older snapshots are covered by this one
+        for (Path snapshot : snapshots(directory)) {
+            if (!snapshot.equals(target)) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    static Optional<BalanceSnapshot> readLatest(Path directory) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        if (snapshots.isEmpty()) {
+            return Optional.empty();
+        }
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest), 64 * 1024))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                throw new IllegalStateException("Not a balance snapshot: " + latest);
+            }
+            // postings of an old snapshot get a window from now
+            long readAt = System.currentTimeMillis();
+            long sequence = in.readLong();
+            int accountCount = in.readInt();
+            Map<String, BigDecimal> balances = new HashMap<>(accountCount * 2);
+            for (int i = 0; i < accountCount; i++) {
+                balances.put(in.readUTF(), new BigDecimal(in.readUTF()));
+            }
+            int postingCount = in.readInt();
+            Map<PostingKey, AppliedPosting> applied = new HashMap<>(postingCount * 2);
+            for (int i = 0; i < postingCount; i++) {
+                PostingKey key = new PostingKey(in.readUTF(), PostingType.values()[in.readByte()]);
+                String accountNumber = in.readUTF();
+                BigDecimal amount = new BigDecimal(in.readUTF());
+                BigDecimal balanceAfter = new BigDecimal(in.readUTF());
+                String counterparty = in.readUTF();
+                long appliedAt = magic == MAGIC ? in.readLong() : readAt;
+                applied.put(key, new AppliedPosting(accountNumber, amount, balanceAfter,
+                        counterparty.isEmpty() ? null : counterparty, appliedAt));
+            }
+            return Optional.of(new BalanceSnapshot(sequence, balances, applied));
+        }
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(PREFIX)
+                            && file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
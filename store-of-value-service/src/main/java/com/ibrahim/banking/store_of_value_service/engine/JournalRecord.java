@@ -0,0 +1,82 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One entry of a shard's write-ahead journal. {@code OPEN} carries the balance an account had in
+ * PostgreSQL when the engine took it over, {@code CREDIT} and {@code DEBIT} the amount of a posting.
+ * <p>
+ * Encoded as {@code sequence, timestamp, type, accountNumber, amount, transactionReference,
+ * counterparty}; strings are length-prefixed UTF-8 with -1 for null, amounts are scale plus
+ * unscaled value bytes.
+ */
+record JournalRecord(long sequence, long timestamp, Type type, String accountNumber, BigDecimal amount,
+                     String transactionReference, String counterparty) {
+
+    enum Type {
+        OPEN,
+        CREDIT,
+        DEBIT
+    }
+
+    byte[] encode() {
+        byte[] account = bytes(accountNumber);
+        byte[] reference = bytes(transactionReference);
+        byte[] other = bytes(counterparty);
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 1 + sized(account) + 4 + 1 + unscaled.length + sized(reference) + sized(other));
+        buffer.putLong(sequence);
+        buffer.putLong(timestamp);
+        buffer.put((byte) type.ordinal());
+        put(buffer, account);
+        buffer.putInt(amount.scale());
+        buffer.put((byte) unscaled.length);
+        buffer.put(unscaled);
+        put(buffer, reference);
+        put(buffer, other);
+        return buffer.array();
+    }
+
+    static JournalRecord decode(ByteBuffer buffer) {
+        long sequence = buffer.getLong();
+        long timestamp = buffer.getLong();
+        Type type = Type.values()[buffer.get()];
+        String account = string(buffer);
+        int scale = buffer.getInt();
+        byte[] unscaled = new byte[buffer.get()];
+        buffer.get(unscaled);
+        String reference = string(buffer);
+        String other = string(buffer);
+        return new JournalRecord(sequence, timestamp, type, account, new BigDecimal(new BigInteger(unscaled), scale), reference, other);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sized(byte[] value) {
+        return 2 + (value == null ? 0 : value.length);
+    }
+
+    private static void put(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
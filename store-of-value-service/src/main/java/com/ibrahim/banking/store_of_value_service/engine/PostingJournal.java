@@ -0,0 +1,190 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of one shard, written through memory-mapped segment files.
+ * <p>
+ * Each record is framed as {@code length, crc32c, body}. Writes to the mapping survive a crash of
+ * the process as soon as they are made; {@link #force()} additionally flushes them to the device,
+ * so they survive an operating system crash or power loss. Recovery reads records until the first
+ * empty or damaged frame, which is where a torn write ends, and appending continues from there.
+ * <p>
+ * Segments are named after the first sequence number they may hold, so segments that are covered
+ * by a snapshot can be deleted by name. Not thread-safe, a journal belongs to one shard thread.
+ */
+class PostingJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PostingJournal.class);
+
+    private static final int FRAME_HEADER = 8;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long activeFirstSequence;
+    private int forcedPosition;
+
+    PostingJournal(Path directory, int segmentSize, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Passes every intact record after {@code afterSequence} to the consumer, in order, and opens the
+     * journal for appending after the last one. Must be called once before {@link #append}.
+     * @return the sequence number of the last record, or {@code afterSequence} if there is none after it
+     */
+    long recover(long afterSequence, Consumer<JournalRecord> consumer) throws IOException {
+        List<Path> segments = segments();
+        long lastSequence = afterSequence;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            boolean active = i == segments.size() - 1;
+            FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer mapped = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentChannel.size());
+
+            int position = 0;
+            while (position + FRAME_HEADER <= mapped.limit()) {
+                int length = mapped.getInt(position);
+                if (length <= 0 || position + FRAME_HEADER + length > mapped.limit()
+                        || checksum(mapped, position + FRAME_HEADER, length) != mapped.getInt(position + 4)) {
+                    break;
+                }
+                JournalRecord record = JournalRecord.decode(mapped.slice(position + FRAME_HEADER, length));
+                if (record.sequence() > afterSequence) {
+                    consumer.accept(record);
+                    lastSequence = record.sequence();
+                }
+                position += FRAME_HEADER + length;
+            }
+
+            if (!active) {
+                if (position + FRAME_HEADER <= mapped.limit() && mapped.getInt(position) != 0) {
+                    segmentChannel.close();
+                    throw new IllegalStateException("Journal segment " + segment + " is damaged at offset " + position);
+                }
+                segmentChannel.close();
+                continue;
+            }
+
+            // clear what is left of a torn write, so it can't be mistaken for a record later
+            if (position + FRAME_HEADER <= mapped.limit() && mapped.getInt(position) != 0) {
+                logger.warn("Journal {} ends with a damaged record at offset {}, discarding it", segment, position);
+                for (int offset = position; offset < mapped.limit(); offset++) {
+                    mapped.put(offset, (byte) 0);
+                }
+                mapped.force();
+            }
+            channel = segmentChannel;
+            buffer = mapped;
+            buffer.position(position);
+            forcedPosition = position;
+            activeFirstSequence = firstSequenceOf(segment);
+        }
+
+        if (buffer == null) {
+            openSegment(lastSequence + 1);
+        }
+        return lastSequence;
+    }
+
+    void append(JournalRecord record) throws IOException {
+        byte[] body = record.encode();
+        if (buffer.remaining() < FRAME_HEADER + body.length) {
+            roll(record.sequence());
+        }
+        int position = buffer.position();
+        buffer.position(position + FRAME_HEADER);
+        buffer.put(body);
+        buffer.putInt(position + 4, checksum(buffer, position + FRAME_HEADER, body.length));
+        // the length goes in last, a frame without it reads as the end of the journal
+        buffer.putInt(position, body.length);
+    }
+
+    /**
+     * Flushes everything appended since the last call to the device, if fsync is enabled.
+     */
+    void force() {
+        int position = buffer.position();
+        if (fsync && position > forcedPosition) {
+            buffer.force(forcedPosition, position - forcedPosition);
+        }
+        forcedPosition = position;
+    }
+
+    /**
+     * Starts a new segment for records from {@code nextSequence} on.
+     */
+    void roll(long nextSequence) throws IOException {
+        force();
+        channel.close();
+        openSegment(nextSequence);
+    }
+
+    /**
+     * Deletes the segments before the active one, once a snapshot covers everything in them.
+     */
+    void deleteInactiveSegments() throws IOException {
+        for (Path segment : segments()) {
+            if (firstSequenceOf(segment) < activeFirstSequence) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+        }
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        Path segment = directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        forcedPosition = 0;
+        activeFirstSequence = firstSequence;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(PREFIX)
+                            && file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
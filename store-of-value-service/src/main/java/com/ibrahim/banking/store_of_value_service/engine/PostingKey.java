@@ -0,0 +1,6 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+
+record PostingKey(String transactionReference, PostingType direction) {
+}
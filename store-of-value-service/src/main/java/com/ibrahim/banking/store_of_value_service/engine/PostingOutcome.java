@@ -0,0 +1,25 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+
+import java.math.BigDecimal;
+
+/**
+ * Result of a posting applied by the engine. {@code balanceAfter} is set when the posting was
+ * applied, {@code replayed} when it had been applied before and was answered from the engine's
+ * record of it.
+ */
+public record PostingOutcome(PostingStatus status, BigDecimal balanceAfter, boolean replayed) {
+
+    static PostingOutcome applied(BigDecimal balanceAfter) {
+        return new PostingOutcome(PostingStatus.APPLIED, balanceAfter, false);
+    }
+
+    static PostingOutcome rejected(PostingStatus status) {
+        return new PostingOutcome(status, null, false);
+    }
+
+    public boolean isApplied() {
+        return status == PostingStatus.APPLIED;
+    }
+}
@@ -0,0 +1,21 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+
+/**
+ * Result of the two legs of a transfer. When the transfer was rejected, {@code credit} is null if
+ * the debit was rejected, and otherwise tells why the credit was (the debit was then reversed).
+ */
+public record TransferOutcome(PostingOutcome debit, PostingOutcome credit) {
+
+    public boolean isApplied() {
+        return debit.isApplied() && credit != null && credit.isApplied();
+    }
+
+    public PostingStatus status() {
+        if (!debit.isApplied()) {
+            return debit.status();
+        }
+        return credit == null ? PostingStatus.APPLIED : credit.status();
+    }
+}
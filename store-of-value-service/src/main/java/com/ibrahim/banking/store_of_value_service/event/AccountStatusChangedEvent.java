@@ -0,0 +1,18 @@
+package com.ibrahim.banking.store_of_value_service.event;
+
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// published after an account's status change commits, services caching the status evict it
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountStatusChangedEvent {
+    private String accountNumber;
+    private AccountStatus status;
+    private Instant changedAt;
+}
@@ -0,0 +1,31 @@
+package com.ibrahim.banking.store_of_value_service.event;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import static com.ibrahim.banking.store_of_value_service.config.RabbitMQConfig.ACCOUNT_STATUS_EXCHANGE;
+
+@Component
+@RequiredArgsConstructor
+public class AccountStatusEventPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountStatusEventPublisher.class);
+    private final RabbitTemplate rabbitTemplate;
+
+    // only once the new status is committed, otherwise a cache could reload the old one
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onAccountStatusChanged(AccountStatusChangedEvent event) {
+        try {
+            rabbitTemplate.convertAndSend(ACCOUNT_STATUS_EXCHANGE, "", event);
+            logger.info("Published status change of account {} to {}", event.getAccountNumber(), event.getStatus());
+        } catch (Exception e) {
+            // the status change itself already succeeded, caches fall back to their TTL
+            logger.error("Failed to publish status change of account {}", event.getAccountNumber(), e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.ibrahim.banking.store_of_value_service.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// the transaction reference was already used for a posting to another account or of another amount
+@ResponseStatus(HttpStatus.CONFLICT)
+public class DuplicatePostingException extends RuntimeException {
+    public DuplicatePostingException(String message) {
+        super(message);
+    }
+}
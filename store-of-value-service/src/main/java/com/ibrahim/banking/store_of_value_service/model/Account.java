@@ -4,7 +4,9 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import java.math.BigDecimal;
@@ -12,6 +14,7 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "accounts")
+@DynamicUpdate // only write changed columns, a status change must not put back a stale balance
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -34,6 +37,21 @@ public class Account {
     @Column(nullable = false, precision = 19, scale = 4) // need this for money values
     private BigDecimal balance;
 
+    // above 1 the balance is this column plus the account's rows in account_balance_slots, see BalanceSlotService
+    @ColumnDefault("1") // existing rows are migrated as unsplit accounts
+    @Column(nullable = false)
+    private int balanceSlots = 1;
+
+    // reserved by open holds, the available balance is the balance minus this
+    @ColumnDefault("0")
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal held = BigDecimal.ZERO;
+
+    // false for accounts from before the double-entry journal until their opening entry is written, see DoubleEntryJournal
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean journalOpened = true;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private AccountStatus status;
@@ -0,0 +1,41 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// the balance of an account after all its journal legs up to journalId; asOf is when the last of them was written
+@Entity
+@Table(name = "balance_checkpoints",
+        uniqueConstraints = @UniqueConstraint(name = "uk_balance_checkpoints_account_journal", columnNames = {"accountNumber", "journalId"}),
+        indexes = @Index(name = "idx_balance_checkpoints_account_as_of", columnList = "accountNumber, asOf"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceCheckpoint {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String accountNumber;
+
+    @Column(nullable = false)
+    private long journalId;
+
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal balance;
+
+    @Column(nullable = false)
+    private LocalDateTime asOf;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+}
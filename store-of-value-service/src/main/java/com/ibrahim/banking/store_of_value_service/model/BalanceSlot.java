@@ -0,0 +1,36 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// part of the balance of an account that is split into slots, see BalanceSlotService
+@Entity
+@Table(name = "account_balance_slots", uniqueConstraints = @UniqueConstraint(
+        name = "uk_balance_slots_account_slot", columnNames = {"accountNumber", "slot"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceSlot {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String accountNumber;
+
+    @Column(nullable = false)
+    private int slot;
+
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal balance;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+}
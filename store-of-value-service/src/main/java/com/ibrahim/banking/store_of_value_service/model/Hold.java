@@ -0,0 +1,50 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// funds reserved on an account until they are captured, released or the hold expires;
+// while HELD its amount is counted in the account's held column
+@Entity
+@Table(name = "holds",
+        uniqueConstraints = @UniqueConstraint(name = "uk_holds_reference", columnNames = "holdReference"),
+        indexes = @Index(name = "idx_holds_status_expires_at", columnList = "status, expiresAt"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Hold {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String holdReference;
+
+    @Column(nullable = false)
+    private String accountNumber;
+
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private HoldStatus status;
+
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+}
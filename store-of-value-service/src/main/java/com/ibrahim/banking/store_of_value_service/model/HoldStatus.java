@@ -0,0 +1,8 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+public enum HoldStatus {
+    HELD,
+    CAPTURED,
+    RELEASED,
+    EXPIRED
+}
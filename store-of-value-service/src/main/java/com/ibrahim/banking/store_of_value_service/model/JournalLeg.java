@@ -0,0 +1,43 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// one side of a double-entry journal entry, signed from the account holder's side; the legs of an
+// entry sum to zero. Append-only, written by DoubleEntryJournal
+@Entity
+@Table(name = "journal_legs", indexes = {
+        @Index(name = "idx_journal_legs_account_id", columnList = "accountNumber, id"),
+        @Index(name = "idx_journal_legs_created_at", columnList = "createdAt")})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalLeg {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 36)
+    private String entryId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JournalEntryType entryType;
+
+    @Column(nullable = false)
+    private String accountNumber;
+
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal amount;
+
+    private String transactionReference;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
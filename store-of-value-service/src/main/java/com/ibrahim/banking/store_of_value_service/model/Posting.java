@@ -0,0 +1,45 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// append-only record of every balance change that carried a transaction reference,
+// the unique key is what stops a redelivered or retried posting from being applied twice
+@Entity
+@Table(name = "postings", uniqueConstraints = @UniqueConstraint(
+        name = "uk_postings_reference_direction", columnNames = {"transactionReference", "direction"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Posting {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String transactionReference;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private PostingType direction;
+
+    @Column(nullable = false)
+    private String accountNumber;
+
+    @Column(nullable = false, precision = 19, scale = 4)
+    private BigDecimal amount;
+
+    @Column(precision = 19, scale = 4) // not known for batch postings
+    private BigDecimal balanceAfter;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,9 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+public enum PostingStatus {
+    APPLIED,
+    INSUFFICIENT_FUNDS,
+    ACCOUNT_NOT_ACTIVE,
+    ACCOUNT_NOT_FOUND,
+    REFERENCE_CONFLICT // reference already used for a different account or amount
+}
@@ -0,0 +1,6 @@
+package com.ibrahim.banking.store_of_value_service.model;
+
+public enum PostingType {
+    CREDIT,
+    DEBIT
+}
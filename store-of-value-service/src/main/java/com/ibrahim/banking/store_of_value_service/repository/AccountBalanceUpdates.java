@@ -0,0 +1,19 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.Account;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Balance changes as single conditional updates that hand back the updated row, so concurrent
+ * postings can't overwrite each other and the new balance costs no second round trip. Empty means
+ * the account is missing, not active, (for debits) short of available funds, or split into balance slots.
+ */
+public interface AccountBalanceUpdates {
+
+    Optional<Account> creditIfActive(String accountNumber, BigDecimal amount, LocalDateTime now);
+
+    Optional<Account> debitIfActiveAndCovered(String accountNumber, BigDecimal amount, LocalDateTime now);
+}
@@ -0,0 +1,60 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+// PostgreSQL returns the row with UPDATE ... RETURNING; H2, used by the tests, has no RETURNING and
+// reads it from the update's FINAL TABLE instead
+class AccountBalanceUpdatesImpl implements AccountBalanceUpdates {
+
+    private static final String CREDIT = "UPDATE accounts SET balance = balance + :amount, updated_at = :now "
+            + "WHERE account_number = :accountNumber AND status = 'ACTIVE' AND balance_slots = 1";
+    private static final String DEBIT = "UPDATE accounts SET balance = balance - :amount, updated_at = :now "
+            + "WHERE account_number = :accountNumber AND status = 'ACTIVE' AND balance - held >= :amount AND balance_slots = 1";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile Boolean returning;
+
+    @Override
+    public Optional<Account> creditIfActive(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        return update(CREDIT, accountNumber, amount, now);
+    }
+
+    @Override
+    public Optional<Account> debitIfActiveAndCovered(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        return update(DEBIT, accountNumber, amount, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Optional<Account> update(String update, String accountNumber, BigDecimal amount, LocalDateTime now) {
+        // as the other balance updates: pending changes go out first, and no managed account is left
+        // stale, the row read back would otherwise be answered with it
+        entityManager.flush();
+        entityManager.clear();
+        String sql = supportsReturning() ? update + " RETURNING *" : "SELECT * FROM FINAL TABLE (" + update + ")";
+        List<Account> updated = entityManager.createNativeQuery(sql, Account.class)
+                .setParameter("accountNumber", accountNumber)
+                .setParameter("amount", amount)
+                .setParameter("now", now)
+                .getResultList();
+        return updated.stream().findFirst();
+    }
+
+    // the configured dialect is PostgreSQL's on H2 too, so ask the connection
+    private boolean supportsReturning() {
+        if (returning == null) {
+            returning = entityManager.unwrap(Session.class).doReturningWork(connection ->
+                    "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName()));
+        }
+        return returning;
+    }
+}
@@ -2,17 +2,49 @@ package com.ibrahim.banking.store_of_value_service.repository;
 
 import com.ibrahim.banking.store_of_value_service.model.Account;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface AccountRepository extends JpaRepository<Account, Long> {
+public interface AccountRepository extends JpaRepository<Account, Long>, AccountBalanceUpdates {
 
     Optional<Account> findByAccountNumber(String accountNumber);
     
     // find all accounts owned by a user
     List<Account> findByProfileId(String profileId);
 
+    List<Account> findByAccountNumberIn(Collection<String> accountNumbers);
+
+    @Query("SELECT a.accountNumber FROM Account a WHERE a.journalOpened = false")
+    List<String> findAccountNumbersWithoutJournal();
+
+    // plain FOR UPDATE rather than @Lock, the PostgreSQL dialect's FOR NO KEY UPDATE doesn't run on H2
+    @Query(value = "SELECT * FROM accounts WHERE account_number = :accountNumber FOR UPDATE", nativeQuery = true)
+    Optional<Account> lockByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    // holds and releases are single conditional updates like the postings in AccountBalanceUpdates,
+    // 0 rows means the account is missing, not active, short of available funds, or split into balance slots
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Account a SET a.held = a.held + :amount, a.updatedAt = :now " +
+            "WHERE a.accountNumber = :accountNumber AND a.status = com.ibrahim.banking.store_of_value_service.model.AccountStatus.ACTIVE " +
+            "AND a.balance - a.held >= :amount AND a.balanceSlots = 1")
+    int holdIfActiveAndCovered(@Param("accountNumber") String accountNumber,
+                               @Param("amount") BigDecimal amount,
+                               @Param("now") LocalDateTime now);
+
+    // gives back funds of a hold that was captured, released or expired, whatever the account's status
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Account a SET a.held = a.held - :amount, a.updatedAt = :now WHERE a.accountNumber = :accountNumber")
+    int releaseHeld(@Param("accountNumber") String accountNumber,
+                    @Param("amount") BigDecimal amount,
+                    @Param("now") LocalDateTime now);
+
 } 
\ No newline at end of file
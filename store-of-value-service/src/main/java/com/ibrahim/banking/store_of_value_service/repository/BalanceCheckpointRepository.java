@@ -0,0 +1,27 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.BalanceCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BalanceCheckpointRepository extends JpaRepository<BalanceCheckpoint, Long> {
+
+    Optional<BalanceCheckpoint> findFirstByAccountNumberAndAsOfLessThanEqualOrderByJournalIdDesc(String accountNumber,
+                                                                                              LocalDateTime at);
+
+    @Query("SELECT c FROM BalanceCheckpoint c WHERE c.accountNumber IN :accountNumbers AND c.journalId = " +
+            "(SELECT MAX(c2.journalId) FROM BalanceCheckpoint c2 WHERE c2.accountNumber = c.accountNumber)")
+    List<BalanceCheckpoint> findLatest(@Param("accountNumbers") Collection<String> accountNumbers);
+
+    // every checkpoint run covers all journal legs up to the highest id it saw, so this is where the next one starts
+    @Query("SELECT COALESCE(MAX(c.journalId), 0) FROM BalanceCheckpoint c")
+    long findLastJournalId();
+}
@@ -0,0 +1,44 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.BalanceSlot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface BalanceSlotRepository extends JpaRepository<BalanceSlot, Long> {
+
+    List<BalanceSlot> findByAccountNumberOrderBySlot(String accountNumber);
+
+    @Query(value = "SELECT * FROM account_balance_slots WHERE account_number = :accountNumber ORDER BY slot FOR UPDATE",
+            nativeQuery = true)
+    List<BalanceSlot> lockByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM BalanceSlot s WHERE s.accountNumber = :accountNumber")
+    BigDecimal sumBalance(@Param("accountNumber") String accountNumber);
+
+    // same conditions as the account row updates, the status is read from the account row without locking it
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE BalanceSlot s SET s.balance = s.balance + :amount, s.updatedAt = :now " +
+            "WHERE s.accountNumber = :accountNumber AND s.slot = :slot AND EXISTS (SELECT a.id FROM Account a " +
+            "WHERE a.accountNumber = s.accountNumber AND a.status = com.ibrahim.banking.store_of_value_service.model.AccountStatus.ACTIVE)")
+    int creditIfActive(@Param("accountNumber") String accountNumber,
+                       @Param("slot") int slot,
+                       @Param("amount") BigDecimal amount,
+                       @Param("now") LocalDateTime now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE BalanceSlot s SET s.balance = s.balance - :amount, s.updatedAt = :now " +
+            "WHERE s.accountNumber = :accountNumber AND s.slot = :slot AND s.balance >= :amount AND EXISTS (SELECT a.id FROM Account a " +
+            "WHERE a.accountNumber = s.accountNumber AND a.status = com.ibrahim.banking.store_of_value_service.model.AccountStatus.ACTIVE)")
+    int debitIfActiveAndCovered(@Param("accountNumber") String accountNumber,
+                                @Param("slot") int slot,
+                                @Param("amount") BigDecimal amount,
+                                @Param("now") LocalDateTime now);
+}
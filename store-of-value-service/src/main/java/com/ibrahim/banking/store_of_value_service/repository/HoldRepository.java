@@ -0,0 +1,39 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.Hold;
+import com.ibrahim.banking.store_of_value_service.model.HoldStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface HoldRepository extends JpaRepository<Hold, Long> {
+
+    Optional<Hold> findByHoldReference(String holdReference);
+
+    @Query("SELECT h FROM Hold h WHERE h.status = com.ibrahim.banking.store_of_value_service.model.HoldStatus.HELD " +
+            "AND h.expiresAt <= :now ORDER BY h.expiresAt")
+    List<Hold> findExpired(@Param("now") LocalDateTime now, Pageable pageable);
+
+    // a hold changes status with one conditional update, so of a concurrent capture and release only one wins
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Hold h SET h.status = :to, h.updatedAt = :now WHERE h.holdReference = :holdReference AND h.status = :from")
+    int transition(@Param("holdReference") String holdReference,
+                   @Param("from") HoldStatus from,
+                   @Param("to") HoldStatus to,
+                   @Param("now") LocalDateTime now);
+
+    // an expired hold can't be captured any more, even before the expiry sweep has released it
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Hold h SET h.status = com.ibrahim.banking.store_of_value_service.model.HoldStatus.CAPTURED, h.updatedAt = :now " +
+            "WHERE h.holdReference = :holdReference AND h.status = com.ibrahim.banking.store_of_value_service.model.HoldStatus.HELD " +
+            "AND h.expiresAt > :now")
+    int captureIfUnexpired(@Param("holdReference") String holdReference, @Param("now") LocalDateTime now);
+}
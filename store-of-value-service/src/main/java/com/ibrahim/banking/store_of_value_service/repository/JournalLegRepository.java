@@ -0,0 +1,46 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.JournalLeg;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface JournalLegRepository extends JpaRepository<JournalLeg, Long> {
+
+    List<JournalLeg> findByAccountNumberOrderById(String accountNumber);
+
+    List<JournalLeg> findByTransactionReferenceOrderById(String transactionReference);
+
+    @Query("SELECT COALESCE(SUM(l.amount), 0) FROM JournalLeg l WHERE l.accountNumber = :accountNumber")
+    BigDecimal sumAmount(@Param("accountNumber") String accountNumber);
+
+    // the delta on top of a checkpoint, a range scan of idx_journal_legs_account_id
+    @Query("SELECT COALESCE(SUM(l.amount), 0) FROM JournalLeg l " +
+            "WHERE l.accountNumber = :accountNumber AND l.id > :afterId AND l.createdAt <= :at")
+    BigDecimal sumAmountAfter(@Param("accountNumber") String accountNumber,
+                              @Param("afterId") long afterId,
+                              @Param("at") LocalDateTime at);
+
+    @Query("SELECT MAX(l.id) FROM JournalLeg l WHERE l.createdAt < :before")
+    Long findLastIdCreatedBefore(@Param("before") LocalDateTime before);
+
+    @Query("SELECT l.accountNumber AS accountNumber, SUM(l.amount) AS amount, MAX(l.id) AS lastId, MAX(l.createdAt) AS lastCreatedAt " +
+            "FROM JournalLeg l WHERE l.id > :afterId AND l.id <= :upToId GROUP BY l.accountNumber")
+    List<AccountTotal> sumByAccount(@Param("afterId") long afterId, @Param("upToId") long upToId);
+
+    interface AccountTotal {
+        String getAccountNumber();
+
+        BigDecimal getAmount();
+
+        Long getLastId();
+
+        LocalDateTime getLastCreatedAt();
+    }
+}
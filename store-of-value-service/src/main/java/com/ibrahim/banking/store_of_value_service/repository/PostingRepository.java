@@ -0,0 +1,18 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PostingRepository extends JpaRepository<Posting, Long> {
+
+    Optional<Posting> findByTransactionReferenceAndDirection(String transactionReference, PostingType direction);
+
+    List<Posting> findByTransactionReferenceIn(Collection<String> transactionReferences);
+}
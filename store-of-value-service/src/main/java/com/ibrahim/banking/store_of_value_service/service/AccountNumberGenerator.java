@@ -0,0 +1,143 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out 10-digit account numbers: a 9-digit body and a Luhn check digit.
+ * <p>
+ * Bodies come from the {@code account_number_seq} sequence, which steps by a whole block, so one
+ * {@code nextval} reserves a block of numbers that is then handed out from memory without locks or
+ * queries. Every sequence value maps to a different body through a fixed permutation, so numbers
+ * never repeat but consecutive accounts don't get consecutive numbers. Numbers of a block that an
+ * instance did not hand out before it stopped are skipped.
+ * <p>
+ * The block size is fixed when the sequence is created; a different configured size later is
+ * ignored, because blocks reserved with the old step could otherwise overlap.
+ */
+@Service
+public class AccountNumberGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountNumberGenerator.class);
+
+    static final String SEQUENCE = "account_number_seq";
+
+    // bodies run from 100000000 to 999999999; the multiplier has no factor in common with the range,
+    // so multiplying by it modulo the range is a permutation
+    private static final long FIRST_BODY = 100_000_000L;
+    private static final long BODIES = 900_000_000L;
+    private static final long MULTIPLIER = 282_475_249L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int configuredBlockSize;
+
+    private String nextValueSql;
+    private long blockSize;
+    private volatile Block block = new Block(0, 0);
+
+    public AccountNumberGenerator(JdbcTemplate jdbcTemplate,
+                                  EntityManagerFactory entityManagerFactory,
+                                  @Value("${store-of-value.account-numbers.block-size:100}") int configuredBlockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.configuredBlockSize = configuredBlockSize;
+    }
+
+    @PostConstruct
+    void createSequence() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + SEQUENCE + " START WITH 1 INCREMENT BY " + configuredBlockSize);
+        blockSize = Long.parseLong(jdbcTemplate.queryForObject(
+                "SELECT increment FROM information_schema.sequences WHERE LOWER(sequence_name) = ?",
+                String.class, SEQUENCE));
+        if (blockSize != configuredBlockSize) {
+            logger.warn("Account number sequence steps by {}, not the configured {}; using {}", blockSize,
+                    configuredBlockSize, blockSize);
+        }
+        nextValueSql = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                .getSequenceSupport().getSequenceNextValString(SEQUENCE);
+    }
+
+    public String next() {
+        while (true) {
+            Block current = block;
+            long value = current.claim();
+            if (value >= 0) {
+                return format(value);
+            }
+            reserve(current);
+        }
+    }
+
+    public static boolean hasValidCheckDigit(String accountNumber) {
+        if (accountNumber == null || accountNumber.length() != 10) {
+            return false;
+        }
+        for (int i = 0; i < accountNumber.length(); i++) {
+            if (!Character.isDigit(accountNumber.charAt(i))) {
+                return false;
+            }
+        }
+        return checkDigit(accountNumber.substring(0, 9)) == accountNumber.charAt(9);
+    }
+
+    // Luhn: every second digit from the right of the body is doubled, the check digit tops the sum up to a multiple of 10
+    static char checkDigit(String body) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = body.length() - 1; i >= 0; i--) {
+            int digit = body.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+    // only the thread that finds the block used up reserves the next one, the others wait for it here
+    private synchronized void reserve(Block exhausted) {
+        if (block != exhausted) {
+            return;
+        }
+        Long start = jdbcTemplate.queryForObject(nextValueSql, Long.class);
+        if (start == null || start + blockSize > BODIES) {
+            throw new IllegalStateException("Account numbers are used up, sequence is at " + start);
+        }
+        block = new Block(start, start + blockSize);
+        logger.debug("Reserved account numbers {} to {} of the sequence", start, start + blockSize - 1);
+    }
+
+    private static String format(long value) {
+        String body = Long.toString(FIRST_BODY + value * MULTIPLIER % BODIES);
+        return body + checkDigit(body);
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+
+        // the next sequence value of this block, or -1 once it is used up
+        private long claim() {
+            long value = next.getAndIncrement();
+            return value < end ? value : -1;
+        }
+    }
+}
@@ -1,25 +1,54 @@
 package com.ibrahim.banking.store_of_value_service.service;
 
+import com.ibrahim.banking.store_of_value_service.config.ReplicaRoutingDataSource;
 import com.ibrahim.banking.store_of_value_service.dto.CreateAccountRequest;
 import com.ibrahim.banking.store_of_value_service.dto.AccountResponse;
 import com.ibrahim.banking.store_of_value_service.dto.UpdateAccountRequest;
 import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
 import com.ibrahim.banking.store_of_value_service.dto.AccountStatusResponse;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
+import com.ibrahim.banking.store_of_value_service.dto.CaptureHoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldResponse;
+import com.ibrahim.banking.store_of_value_service.engine.BalanceEngine;
+import com.ibrahim.banking.store_of_value_service.engine.PostingOutcome;
+import com.ibrahim.banking.store_of_value_service.engine.TransferOutcome;
+import com.ibrahim.banking.store_of_value_service.event.AccountStatusChangedEvent;
 import com.ibrahim.banking.store_of_value_service.exception.AccountNotFoundException;
+import com.ibrahim.banking.store_of_value_service.exception.DuplicatePostingException;
+import com.ibrahim.banking.store_of_value_service.exception.HoldNotFoundException;
 import com.ibrahim.banking.store_of_value_service.exception.InsufficientFundsException;
 import com.ibrahim.banking.store_of_value_service.model.Account;
 import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.Hold;
+import com.ibrahim.banking.store_of_value_service.model.HoldStatus;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
 import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.HoldRepository;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,18 +56,47 @@ import java.util.stream.Collectors;
 public class AccountService {
 
     private static final Logger logger = LoggerFactory.getLogger(AccountService.class);
+    private static final int MAX_ACCOUNT_NUMBER_ATTEMPTS = 3;
     private final AccountRepository accountRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PostingLedger postingLedger;
+    private final TransactionTemplate transactionTemplate;
+    private final BalanceSlotService balanceSlotService;
+    private final HoldRepository holdRepository;
+    private final DoubleEntryJournal journal;
+    private final AccountNumberGenerator accountNumberGenerator;
+    // only present with store-of-value.engine.mode=in-memory, then it owns the balances
+    private final ObjectProvider<BalanceEngine> balanceEngine;
+
+    @Value("${store-of-value.holds.default-expiry-seconds:900}")
+    private long defaultHoldExpirySeconds;
+
+    // only once every account number carries a check digit, older accounts were numbered at random
+    @Value("${store-of-value.account-numbers.validate-check-digit:false}")
+    private boolean validateCheckDigit;
 
-
-    @Transactional
     public AccountResponse createAccount(CreateAccountRequest request) {
         logger.info("Attempting to create account for profileId: {}", request.getProfileId());
 
-        String newAccountNumber = generateUniqueAccountNumber();
-        logger.info("Generated unique account number: {}", newAccountNumber);
+        // generated numbers never repeat, but one can match an account that was numbered at random before;
+        // the unique key catches that, in a transaction of its own so the next number can be tried
+        for (int attempt = 1; ; attempt++) {
+            String newAccountNumber = accountNumberGenerator.next();
+            logger.info("Generated account number: {}", newAccountNumber);
+            try {
+                return transactionTemplate.execute(status -> saveNewAccount(newAccountNumber, request));
+            } catch (DataIntegrityViolationException e) {
+                if (attempt == MAX_ACCOUNT_NUMBER_ATTEMPTS) {
+                    throw e;
+                }
+                logger.warn("Account number {} is taken already, trying the next one", newAccountNumber);
+            }
+        }
+    }
 
+    private AccountResponse saveNewAccount(String accountNumber, CreateAccountRequest request) {
         Account newAccount = new Account();
-        newAccount.setAccountNumber(newAccountNumber);
+        newAccount.setAccountNumber(accountNumber);
         newAccount.setProfileId(request.getProfileId());
         newAccount.setAccountType(request.getAccountType());
         newAccount.setBalance(BigDecimal.ZERO); // start with 0
@@ -52,6 +110,7 @@ public class AccountService {
     @Transactional(readOnly = true)
     public List<AccountResponse> getAccountsByProfileId(String profileId) {
         logger.info("Fetching all accounts for profileId: {}", profileId);
+        ReplicaRoutingDataSource.touch("profile:" + profileId);
         List<Account> accounts = accountRepository.findByProfileId(profileId);
         logger.info("Found {} accounts for profileId: {}", accounts.size(), profileId);
         return accounts.stream()
@@ -62,6 +121,7 @@ public class AccountService {
     @Transactional(readOnly = true)
     public BigDecimal getBalance(String accountNumber) {
         logger.debug("Fetching balance for account number: {}", accountNumber);
+        checkAccountNumber(accountNumber);
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
 
@@ -70,13 +130,32 @@ public class AccountService {
             throw new IllegalStateException("Account is not active.");
          }
 
-        logger.debug("Balance found for account number {}: {}", accountNumber, account.getBalance());
-        return account.getBalance();
+        BigDecimal balance = currentBalance(account);
+        logger.debug("Balance found for account number {}: {}", accountNumber, balance);
+        return balance;
+    }
+
+    /**
+     * The balance of an account at a point in time, from the double-entry journal. See
+     * {@link DoubleEntryJournal#balanceAt}.
+     */
+    @Transactional(readOnly = true)
+    public BigDecimal getBalanceAt(String accountNumber, LocalDateTime at) {
+        logger.debug("Fetching balance for account number: {} at {}", accountNumber, at);
+        checkAccountNumber(accountNumber);
+        if (balanceEngine.getIfAvailable() != null) {
+            throw new IllegalStateException("Balance history is not kept while the balance engine owns the balances.");
+        }
+        if (accountRepository.findByAccountNumber(accountNumber).isEmpty()) {
+            throw new AccountNotFoundException("Account not found with number: " + accountNumber);
+        }
+        return journal.balanceAt(accountNumber, at);
     }
 
     @Transactional
     public AccountResponse activateAccount(String accountNumber) {
         logger.info("Attempting to activate account number: {}", accountNumber);
+        checkAccountNumber(accountNumber);
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
 
@@ -91,12 +170,14 @@ public class AccountService {
         account.setStatus(AccountStatus.ACTIVE);
         Account updatedAccount = accountRepository.save(account);
         logger.info("Account {} activated successfully.", accountNumber);
+        eventPublisher.publishEvent(new AccountStatusChangedEvent(accountNumber, AccountStatus.ACTIVE, Instant.now()));
         return mapToAccountResponse(updatedAccount);
     }
 
     @Transactional
     public AccountResponse deactivateAccount(String accountNumber) {
         logger.info("Attempting to deactivate account number: {}", accountNumber);
+        checkAccountNumber(accountNumber);
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
 
@@ -112,12 +193,14 @@ public class AccountService {
         account.setStatus(AccountStatus.INACTIVE);
         Account updatedAccount = accountRepository.save(account);
         logger.info("Account {} deactivated successfully.", accountNumber);
+        eventPublisher.publishEvent(new AccountStatusChangedEvent(accountNumber, AccountStatus.INACTIVE, Instant.now()));
         return mapToAccountResponse(updatedAccount);
     }
 
     @Transactional
     public AccountResponse updateAccount(String accountNumber, UpdateAccountRequest request) {
         logger.info("Attempting to update account type for account number: {}", accountNumber);
+        checkAccountNumber(accountNumber);
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
 
@@ -135,56 +218,466 @@ public class AccountService {
         return mapToAccountResponse(updatedAccount);
     }
 
-    @Transactional
+    // credit, debit and transfer run their own transaction through postOnce, see there why
     public AccountResponse creditAccount(String accountNumber, TransactionRequest request) {
-        logger.info("Attempting to credit account number: {} with amount: {}", accountNumber, request.getAmount());
-        Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+        logger.info("Attempting to credit account number: {} with amount: {} (reference: {})",
+                accountNumber, request.getAmount(), request.getTransactionReference());
+        checkAccountNumber(accountNumber);
+        String reference = request.getTransactionReference();
+
+        BalanceEngine engine = balanceEngine.getIfAvailable();
+        if (engine != null) {
+            return engineResult(accountNumber, PostingType.CREDIT,
+                    engine.credit(accountNumber, request.getAmount(), reference).join());
+        }
 
-        if (account.getStatus() != AccountStatus.ACTIVE) {
+        return postOnce(reference, PostingType.CREDIT, () -> {
+            // add money to balance, in the database so concurrent credits can't lose updates; the update
+            // returns the row, so this is exactly our new balance (for an account split into balance
+            // slots, other slots may have changed since)
+            Account updated = applyCredit(accountNumber, request.getAmount(), LocalDateTime.now());
+            journal.credit(accountNumber, request.getAmount(), reference);
+
+            AccountResponse response = mapToAccountResponse(updated);
+            recordPosting(reference, PostingType.CREDIT, accountNumber, request.getAmount(), response.getBalance());
+            logger.info("Account {} credited successfully. New balance: {}", accountNumber, response.getBalance());
+            return response;
+        }, original -> replayPosting(original, accountNumber, request.getAmount()));
+    }
+
+    public AccountResponse debitAccount(String accountNumber, TransactionRequest request) {
+        logger.info("Attempting to debit account number: {} with amount: {} (reference: {})",
+                accountNumber, request.getAmount(), request.getTransactionReference());
+        checkAccountNumber(accountNumber);
+        String reference = request.getTransactionReference();
+
+        BalanceEngine engine = balanceEngine.getIfAvailable();
+        if (engine != null) {
+            return engineResult(accountNumber, PostingType.DEBIT,
+                    engine.debit(accountNumber, request.getAmount(), reference).join());
+        }
+
+        return postOnce(reference, PostingType.DEBIT, () -> {
+            // take out money only if the account is active and has enough, checked and applied in one statement
+            Account updated = applyDebit(accountNumber, request.getAmount(), LocalDateTime.now());
+            journal.debit(accountNumber, request.getAmount(), reference);
+
+            AccountResponse response = mapToAccountResponse(updated);
+            recordPosting(reference, PostingType.DEBIT, accountNumber, request.getAmount(), response.getBalance());
+            logger.info("Account {} debited successfully. New balance: {}", accountNumber, response.getBalance());
+            return response;
+        }, original -> replayPosting(original, accountNumber, request.getAmount()));
+    }
+
+    /**
+     * Moves money between two accounts in one database transaction, so either both balances change or neither does.
+     * The two rows are updated in account number order, so opposite transfers between the same accounts can't deadlock.
+     * A transfer with a reference is recorded as a debit and a credit posting, and a repeat returns the original result.
+     */
+    public TransferResponse transfer(TransferRequest request) {
+        String source = request.getSourceAccountNumber();
+        String destination = request.getDestinationAccountNumber();
+        logger.info("Attempting to transfer {} from account {} to account {} (reference: {})",
+                request.getAmount(), source, destination, request.getTransactionReference());
+
+        if (source.equals(destination)) {
+            throw new IllegalArgumentException("Source and destination accounts must be different");
+        }
+        checkAccountNumber(source);
+        checkAccountNumber(destination);
+
+        String reference = request.getTransactionReference();
+        BalanceEngine engine = balanceEngine.getIfAvailable();
+        if (engine != null) {
+            TransferOutcome outcome = engine.transfer(source, destination, request.getAmount(), reference);
+            if (!outcome.debit().isApplied()) {
+                throw engineRejection(source, PostingType.DEBIT, outcome.debit().status());
+            }
+            if (!outcome.credit().isApplied()) {
+                throw engineRejection(destination, PostingType.CREDIT, outcome.credit().status());
+            }
+            return new TransferResponse(reference, engineResult(source, PostingType.DEBIT, outcome.debit()),
+                    engineResult(destination, PostingType.CREDIT, outcome.credit()));
+        }
+
+        return postOnce(reference, PostingType.DEBIT, () -> {
+            LocalDateTime now = LocalDateTime.now();
+            Account debited;
+            Account credited;
+            // any failure below throws and rolls back the leg that was already applied
+            if (source.compareTo(destination) < 0) {
+                debited = applyDebit(source, request.getAmount(), now);
+                credited = applyCredit(destination, request.getAmount(), now);
+            } else {
+                credited = applyCredit(destination, request.getAmount(), now);
+                debited = applyDebit(source, request.getAmount(), now);
+            }
+            journal.transfer(source, destination, request.getAmount(), reference);
+
+            AccountResponse updatedSource = mapToAccountResponse(debited);
+            AccountResponse updatedDestination = mapToAccountResponse(credited);
+            recordPosting(reference, PostingType.DEBIT, source, request.getAmount(), updatedSource.getBalance());
+            recordPosting(reference, PostingType.CREDIT, destination, request.getAmount(), updatedDestination.getBalance());
+            logger.info("Transfer {} completed. New balances: {} -> {}, {} -> {}", reference,
+                    source, updatedSource.getBalance(), destination, updatedDestination.getBalance());
+            return new TransferResponse(reference, updatedSource, updatedDestination);
+        }, original -> {
+            AccountResponse sourceAccount = replayPosting(original, source, request.getAmount());
+            Posting credit = postingLedger.load(reference, PostingType.CREDIT)
+                    .orElseThrow(() -> new IllegalStateException("Transfer " + reference + " has no credit posting"));
+            return new TransferResponse(reference, sourceAccount, replayPosting(credit, destination, request.getAmount()));
+        });
+    }
+
+    /**
+     * Applies a posting at most once per reference and direction. The ledger is checked first, and a
+     * posting found there returns its original result without touching the balance. Otherwise the
+     * balance update and the ledger insert commit together; if a concurrent duplicate commits first
+     * our insert violates the unique key, our whole transaction rolls back, and the winner's result
+     * is returned instead. That rollback has to finish before the lookup, which is why these methods
+     * run their own transaction instead of being {@code @Transactional}.
+     */
+    private <T> T postOnce(String reference, PostingType direction, Supplier<T> apply, Function<Posting, T> replay) {
+        if (reference == null || reference.isBlank()) {
+            return transactionTemplate.execute(status -> apply.get());
+        }
+
+        Optional<Posting> original = postingLedger.find(reference, direction);
+        if (original.isPresent()) {
+            return replay.apply(original.get());
+        }
+
+        try {
+            return transactionTemplate.execute(status -> apply.get());
+        } catch (DataIntegrityViolationException e) {
+            Posting winner = postingLedger.load(reference, direction).orElseThrow(() -> e);
+            logger.warn("Posting {} {} was applied concurrently, returning that result", direction, reference);
+            return replay.apply(winner);
+        }
+    }
+
+    // the engine has already applied or rejected the posting, this only builds the response
+    private AccountResponse engineResult(String accountNumber, PostingType direction, PostingOutcome outcome) {
+        if (!outcome.isApplied()) {
+            throw engineRejection(accountNumber, direction, outcome.status());
+        }
+        AccountResponse response = mapToAccountResponse(findUpdatedAccount(accountNumber));
+        if (outcome.balanceAfter() != null) {
+            response.setBalance(outcome.balanceAfter());
+        }
+        logger.info("Account {} {} by the balance engine{}. New balance: {}", accountNumber,
+                direction == PostingType.CREDIT ? "credited" : "debited", outcome.replayed() ? " (repeat)" : "", response.getBalance());
+        return response;
+    }
+
+    private RuntimeException engineRejection(String accountNumber, PostingType direction, PostingStatus status) {
+        logger.error("Balance engine rejected {} of account {}: {}", direction, accountNumber, status);
+        return switch (status) {
+            case ACCOUNT_NOT_FOUND -> new AccountNotFoundException("Account not found with number: " + accountNumber);
+            case ACCOUNT_NOT_ACTIVE -> new IllegalStateException("Account must be ACTIVE to be "
+                    + (direction == PostingType.CREDIT ? "credited." : "debited."));
+            case INSUFFICIENT_FUNDS -> new InsufficientFundsException("Insufficient funds for this transaction. Current balance: "
+                    + balanceEngine.getObject().balanceOf(accountNumber).map(BigDecimal::toPlainString).orElse("unknown"));
+            case REFERENCE_CONFLICT -> new DuplicatePostingException("Transaction reference was already used for a different "
+                    + direction + " posting");
+            default -> new IllegalStateException("Unexpected posting status: " + status);
+        };
+    }
+
+    private void recordPosting(String reference, PostingType direction, String accountNumber, BigDecimal amount, BigDecimal balanceAfter) {
+        if (reference != null && !reference.isBlank()) {
+            postingLedger.record(reference, direction, accountNumber, amount, balanceAfter);
+        }
+    }
+
+    // the balance is the one right after the original posting, the rest of the account is current
+    private AccountResponse replayPosting(Posting original, String accountNumber, BigDecimal amount) {
+        if (!original.getAccountNumber().equals(accountNumber) || original.getAmount().compareTo(amount) != 0) {
+            logger.error("Transaction reference {} was already used to {} {} on account {}", original.getTransactionReference(),
+                    original.getDirection(), original.getAmount(), original.getAccountNumber());
+            throw new DuplicatePostingException("Transaction reference " + original.getTransactionReference()
+                    + " was already used for a different " + original.getDirection() + " posting");
+        }
+
+        logger.info("Posting {} {} was already applied to account {}, returning the original result",
+                original.getDirection(), original.getTransactionReference(), accountNumber);
+        AccountResponse response = mapToAccountResponse(findUpdatedAccount(accountNumber));
+        if (original.getBalanceAfter() != null) {
+            response.setBalance(original.getBalanceAfter());
+        }
+        return response;
+    }
+
+    // returns the account as updated, read back by the update itself; an account split into balance
+    // slots is read again, the slot updates may have changed its row through another instance
+    private Account applyCredit(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        Optional<Account> updated = accountRepository.creditIfActive(accountNumber, amount, now);
+        if (updated.isEmpty()) {
+            Account account = accountRepository.findByAccountNumber(accountNumber)
+                    .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+            if (account.getBalanceSlots() > 1 && account.getStatus() == AccountStatus.ACTIVE
+                    && balanceSlotService.credit(account, amount, now) == PostingStatus.APPLIED) {
+                return findUpdatedAccount(accountNumber);
+            }
             logger.error("Cannot credit account {} because it is not active. Current status: {}", accountNumber, account.getStatus());
             throw new IllegalStateException("Account must be ACTIVE to be credited. Current state: " + account.getStatus());
         }
+        return updated.get();
+    }
 
-        // add money to balance
-        BigDecimal newBalance = account.getBalance().add(request.getAmount());
-        account.setBalance(newBalance);
+    private Account applyDebit(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        Optional<Account> updated = accountRepository.debitIfActiveAndCovered(accountNumber, amount, now);
+        if (updated.isEmpty()) {
+            Account account = accountRepository.findByAccountNumber(accountNumber)
+                    .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+            if (account.getBalanceSlots() > 1 && account.getStatus() == AccountStatus.ACTIVE
+                    && balanceSlotService.debit(account, amount, now) == PostingStatus.APPLIED) {
+                return findUpdatedAccount(accountNumber);
+            }
+
+            if (account.getStatus() != AccountStatus.ACTIVE) {
+                logger.error("Cannot debit account {} because it is not active. Current status: {}", accountNumber, account.getStatus());
+                throw new IllegalStateException("Account must be ACTIVE to be debited. Current state: " + account.getStatus());
+            }
+
+            BigDecimal balance = currentBalance(account);
+            logger.error("Insufficient funds in account {}. Current balance: {}, held: {}, Requested amount: {}",
+                accountNumber, balance, account.getHeld(), amount);
+            throw new InsufficientFundsException("Insufficient funds for this transaction. Current balance: " + balance
+                    + (account.getHeld().signum() > 0 ? ", of which " + account.getHeld() + " is on hold" : ""));
+        }
+        return updated.get();
+    }
 
-        Account updatedAccount = accountRepository.save(account);
-        logger.info("Account {} credited successfully. New balance: {}", accountNumber, updatedAccount.getBalance());
-        return mapToAccountResponse(updatedAccount);
+    /**
+     * Reserves funds on an account until they are captured or released, or the hold expires. The
+     * account's held column is raised in the same conditional update that checks the available
+     * balance, so debits and other holds can't spend the funds in the meantime. A repeat with the
+     * same hold reference returns the existing hold.
+     */
+    public HoldResponse placeHold(String accountNumber, HoldRequest request) {
+        logger.info("Attempting to hold {} on account number: {} (reference: {})",
+                request.getAmount(), accountNumber, request.getHoldReference());
+        requireNoBalanceEngine();
+        checkAccountNumber(accountNumber);
+        String reference = request.getHoldReference();
+
+        Optional<Hold> existing = holdRepository.findByHoldReference(reference);
+        if (existing.isPresent()) {
+            return replayHold(existing.get(), accountNumber, request.getAmount());
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        long expiresIn = request.getExpiresInSeconds() != null ? request.getExpiresInSeconds() : defaultHoldExpirySeconds;
+        Hold hold = new Hold(null, reference, accountNumber, request.getAmount(), HoldStatus.HELD, now.plusSeconds(expiresIn), null, null);
+        try {
+            // same as postOnce: a concurrent duplicate fails our insert and rolls back our held amount
+            return transactionTemplate.execute(status -> {
+                applyHold(accountNumber, request.getAmount(), now);
+                Hold saved = holdRepository.saveAndFlush(hold);
+                logger.info("Held {} on account {} until {} (reference: {})", saved.getAmount(), accountNumber,
+                        saved.getExpiresAt(), reference);
+                return mapToHoldResponse(saved);
+            });
+        } catch (DataIntegrityViolationException e) {
+            Hold winner = holdRepository.findByHoldReference(reference).orElseThrow(() -> e);
+            logger.warn("Hold {} was placed concurrently, returning that hold", reference);
+            return replayHold(winner, accountNumber, request.getAmount());
+        }
+    }
+
+    /**
+     * Takes the held funds off the account, or moves them to {@code destinationAccountNumber} as a
+     * transfer. The hold is marked captured, its funds are given back and debited in one transaction,
+     * and the debit (and credit) is recorded as a posting under the hold reference. Capturing a hold
+     * that was already captured returns it unchanged; an expired or released hold can't be captured.
+     */
+    public HoldResponse captureHold(String holdReference, CaptureHoldRequest request) {
+        String destination = request == null || request.getDestinationAccountNumber() == null
+                || request.getDestinationAccountNumber().isBlank() ? null : request.getDestinationAccountNumber();
+        logger.info("Attempting to capture hold {}{}", holdReference, destination == null ? "" : " to account " + destination);
+        requireNoBalanceEngine();
+        if (destination != null) {
+            checkAccountNumber(destination);
+        }
+
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            if (holdRepository.captureIfUnexpired(holdReference, now) == 0) {
+                Hold hold = findHold(holdReference);
+                if (hold.getStatus() == HoldStatus.CAPTURED) {
+                    logger.info("Hold {} was already captured, returning it", holdReference);
+                    return mapToHoldResponse(hold);
+                }
+                String state = hold.getStatus() == HoldStatus.HELD ? "expired" : hold.getStatus().name();
+                logger.error("Cannot capture hold {} because it is {}", holdReference, state);
+                throw new IllegalStateException("Hold cannot be captured, it is " + state + ".");
+            }
+
+            Hold hold = findHold(holdReference);
+            String source = hold.getAccountNumber();
+            ReplicaRoutingDataSource.touch("account:" + source);
+            BigDecimal amount = hold.getAmount();
+            Account debited;
+            Account credited = null;
+            if (destination == null) {
+                debited = captureFrom(source, amount, now);
+            } else if (source.equals(destination)) {
+                throw new IllegalArgumentException("Source and destination accounts must be different");
+            } else if (source.compareTo(destination) < 0) {
+                // same row lock order as a transfer
+                debited = captureFrom(source, amount, now);
+                credited = applyCredit(destination, amount, now);
+            } else {
+                credited = applyCredit(destination, amount, now);
+                debited = captureFrom(source, amount, now);
+            }
+            if (destination == null) {
+                journal.debit(source, amount, holdReference);
+            } else {
+                journal.transfer(source, destination, amount, holdReference);
+            }
+
+            BigDecimal sourceBalance = currentBalance(debited);
+            recordPosting(holdReference, PostingType.DEBIT, source, amount, sourceBalance);
+            if (credited != null) {
+                recordPosting(holdReference, PostingType.CREDIT, destination, amount, currentBalance(credited));
+            }
+            logger.info("Hold {} captured. New balance of account {}: {}", holdReference, source, sourceBalance);
+            return mapToHoldResponse(hold);
+        });
     }
 
+    /**
+     * Gives the held funds back to the available balance. Releasing a hold that was already released
+     * or has expired returns it unchanged; a captured hold can't be released.
+     */
     @Transactional
-    public AccountResponse debitAccount(String accountNumber, TransactionRequest request) {
-        logger.info("Attempting to debit account number: {} with amount: {}", accountNumber, request.getAmount());
-        Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+    public HoldResponse releaseHold(String holdReference) {
+        logger.info("Attempting to release hold {}", holdReference);
+        LocalDateTime now = LocalDateTime.now();
+        if (holdRepository.transition(holdReference, HoldStatus.HELD, HoldStatus.RELEASED, now) == 0) {
+            Hold hold = findHold(holdReference);
+            if (hold.getStatus() == HoldStatus.CAPTURED) {
+                logger.error("Cannot release hold {} because it was captured", holdReference);
+                throw new IllegalStateException("Hold cannot be released, it was captured.");
+            }
+            logger.info("Hold {} is already {}, returning it", holdReference, hold.getStatus());
+            return mapToHoldResponse(hold);
+        }
 
-        if (account.getStatus() != AccountStatus.ACTIVE) {
-            logger.error("Cannot debit account {} because it is not active. Current status: {}", accountNumber, account.getStatus());
-            throw new IllegalStateException("Account must be ACTIVE to be debited. Current state: " + account.getStatus());
+        Hold hold = findHold(holdReference);
+        ReplicaRoutingDataSource.touch("account:" + hold.getAccountNumber());
+        accountRepository.releaseHeld(hold.getAccountNumber(), hold.getAmount(), now);
+        logger.info("Hold {} released, {} available again on account {}", holdReference, hold.getAmount(), hold.getAccountNumber());
+        return mapToHoldResponse(hold);
+    }
+
+    /**
+     * Releases holds past their expiry. Each hold expires in its own transaction with the same
+     * conditional status change as a release, so a hold captured at the same moment is left alone.
+     */
+    @Scheduled(fixedDelayString = "${store-of-value.holds.expiry-sweep-interval-ms:10000}")
+    public void expireHolds() {
+        List<Hold> expired = holdRepository.findExpired(LocalDateTime.now(), PageRequest.of(0, 500));
+        long released = 0;
+        for (Hold hold : expired) {
+            try {
+                Boolean expiredNow = transactionTemplate.execute(status -> {
+                    LocalDateTime now = LocalDateTime.now();
+                    if (holdRepository.transition(hold.getHoldReference(), HoldStatus.HELD, HoldStatus.EXPIRED, now) == 0) {
+                        return false;
+                    }
+                    accountRepository.releaseHeld(hold.getAccountNumber(), hold.getAmount(), now);
+                    return true;
+                });
+                released += Boolean.TRUE.equals(expiredNow) ? 1 : 0;
+            } catch (Exception e) {
+                // the next sweep tries again
+                logger.error("Error expiring hold {}", hold.getHoldReference(), e);
+            }
         }
+        if (released > 0) {
+            logger.info("Expired {} holds", released);
+        }
+    }
 
-        // check if enough money
-        if (account.getBalance().compareTo(request.getAmount()) < 0) {
-            logger.error("Insufficient funds in account {}. Current balance: {}, Requested amount: {}", 
-                accountNumber, account.getBalance(), request.getAmount());
-            throw new InsufficientFundsException("Insufficient funds for this transaction. Current balance: " + account.getBalance());
+    private void applyHold(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        if (accountRepository.holdIfActiveAndCovered(accountNumber, amount, now) == 0) {
+            Account account = accountRepository.findByAccountNumber(accountNumber)
+                    .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+            if (account.getBalanceSlots() > 1 && account.getStatus() == AccountStatus.ACTIVE
+                    && balanceSlotService.hold(account, amount) == PostingStatus.APPLIED) {
+                return;
+            }
+
+            if (account.getStatus() != AccountStatus.ACTIVE) {
+                logger.error("Cannot hold funds on account {} because it is not active. Current status: {}", accountNumber, account.getStatus());
+                throw new IllegalStateException("Account must be ACTIVE to hold funds. Current state: " + account.getStatus());
+            }
+
+            BigDecimal available = availableBalance(account);
+            logger.error("Insufficient funds in account {}. Available balance: {}, Requested hold: {}",
+                accountNumber, available, amount);
+            throw new InsufficientFundsException("Insufficient funds for this hold. Available balance: " + available);
         }
+    }
 
-        // take out money from balance
-        BigDecimal newBalance = account.getBalance().subtract(request.getAmount());
-        account.setBalance(newBalance);
+    // giving the funds back locks the account row, so nothing else can take them before the debit does
+    private Account captureFrom(String accountNumber, BigDecimal amount, LocalDateTime now) {
+        accountRepository.releaseHeld(accountNumber, amount, now);
+        return applyDebit(accountNumber, amount, now);
+    }
 
-        Account updatedAccount = accountRepository.save(account);
-        logger.info("Account {} debited successfully. New balance: {}", accountNumber, updatedAccount.getBalance());
+    private HoldResponse replayHold(Hold original, String accountNumber, BigDecimal amount) {
+        if (!original.getAccountNumber().equals(accountNumber) || original.getAmount().compareTo(amount) != 0) {
+            logger.error("Hold reference {} was already used to hold {} on account {}", original.getHoldReference(),
+                    original.getAmount(), original.getAccountNumber());
+            throw new DuplicatePostingException("Hold reference " + original.getHoldReference()
+                    + " was already used for a different hold");
+        }
+        logger.info("Hold {} was already placed on account {}, returning it", original.getHoldReference(), accountNumber);
+        return mapToHoldResponse(original);
+    }
+
+    private Hold findHold(String holdReference) {
+        return holdRepository.findByHoldReference(holdReference)
+                .orElseThrow(() -> new HoldNotFoundException("Hold not found with reference: " + holdReference));
+    }
+
+    private void requireNoBalanceEngine() {
+        if (balanceEngine.getIfAvailable() != null) {
+            throw new IllegalStateException("Holds are not supported while the balance engine owns the balances.");
+        }
+    }
+
+    /**
+     * Splits the balance of a hot account over {@code slots} rows so concurrent postings don't all wait
+     * for its account row, or merges it back with 1. See {@link BalanceSlotService}.
+     */
+    @Transactional
+    public AccountResponse setBalanceSlots(String accountNumber, int slots) {
+        logger.info("Attempting to set {} balance slots for account number: {}", slots, accountNumber);
+        checkAccountNumber(accountNumber);
+        if (balanceEngine.getIfAvailable() != null) {
+            throw new IllegalStateException("Balance slots are not used while the balance engine owns the balances.");
+        }
+        Account account = accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+        if (account.getStatus() == AccountStatus.CLOSED) {
+            logger.error("Cannot change the balance slots of account {} because it is closed.", accountNumber);
+            throw new IllegalStateException("Cannot update a closed account.");
+        }
+
+        Account updatedAccount = balanceSlotService.resize(accountNumber, slots);
+        logger.info("Account {} balance slots updated successfully.", accountNumber);
         return mapToAccountResponse(updatedAccount);
     }
 
     @Transactional(readOnly = true)
     public AccountStatusResponse getAccountStatus(String accountNumber) {
         logger.debug("Fetching status for account number: {}", accountNumber);
+        checkAccountNumber(accountNumber);
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
 
@@ -192,27 +685,59 @@ public class AccountService {
         return new AccountStatusResponse(accountNumber, account.getStatus());
     }
 
+    private Account findUpdatedAccount(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+    }
+
     private AccountResponse mapToAccountResponse(Account account) {
+        // writes hand back the account through here, so a new balance or status pins its profile's list too
+        ReplicaRoutingDataSource.touch("profile:" + account.getProfileId());
         AccountResponse response = new AccountResponse();
         response.setId(account.getId());
         response.setAccountNumber(account.getAccountNumber());
         response.setProfileId(account.getProfileId());
         response.setAccountType(account.getAccountType());
-        response.setBalance(account.getBalance());
+        response.setBalance(currentBalance(account));
+        response.setAvailableBalance(response.getBalance().subtract(account.getHeld()));
         response.setStatus(account.getStatus());
         response.setCreatedAt(account.getCreatedAt());
         response.setUpdatedAt(account.getUpdatedAt());
         return response;
     }
 
-    // helper for making account numbers
-    private String generateUniqueAccountNumber() {
-        String accountNumber;
-        do {
+    private HoldResponse mapToHoldResponse(Hold hold) {
+        HoldResponse response = new HoldResponse();
+        response.setHoldReference(hold.getHoldReference());
+        response.setAccountNumber(hold.getAccountNumber());
+        response.setAmount(hold.getAmount());
+        response.setStatus(hold.getStatus());
+        response.setExpiresAt(hold.getExpiresAt());
+        accountRepository.findByAccountNumber(hold.getAccountNumber())
+                .ifPresent(account -> response.setAvailableBalance(availableBalance(account)));
+        return response;
+    }
+
+    private BigDecimal availableBalance(Account account) {
+        return currentBalance(account).subtract(account.getHeld());
+    }
+
+    private BigDecimal currentBalance(Account account) {
+        BalanceEngine engine = balanceEngine.getIfAvailable();
+        Optional<BigDecimal> engineBalance = engine == null ? Optional.empty() : engine.balanceOf(account.getAccountNumber());
+        if (engineBalance.isPresent()) {
+            return engineBalance.get();
+        }
+        return account.getBalanceSlots() > 1 ? balanceSlotService.totalBalance(account) : account.getBalance();
+    }
 
-            long number = ThreadLocalRandom.current().nextLong(1_000_000_000L, 10_000_000_000L);
-            accountNumber = String.valueOf(number);
-        } while (accountRepository.findByAccountNumber(accountNumber).isPresent()); // make sure its unique
-        return accountNumber;
+    // with check digits on, a mistyped account number is turned away without a query
+    // also names the account for read-your-writes routing, every per-account operation starts here
+    private void checkAccountNumber(String accountNumber) {
+        ReplicaRoutingDataSource.touch("account:" + accountNumber);
+        if (validateCheckDigit && !AccountNumberGenerator.hasValidCheckDigit(accountNumber)) {
+            logger.warn("Rejected account number {} with an invalid check digit", accountNumber);
+            throw new AccountNotFoundException("Account not found with number: " + accountNumber);
+        }
     }
 } 
\ No newline at end of file
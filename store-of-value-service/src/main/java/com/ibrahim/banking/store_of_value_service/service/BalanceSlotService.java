@@ -0,0 +1,186 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.exception.AccountNotFoundException;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.BalanceSlot;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Balances of hot accounts split over several rows, so concurrent postings to one account stop
+ * queueing on its {@code accounts} row.
+ * <p>
+ * An account with {@code balanceSlots} above 1 has that many rows in {@code account_balance_slots},
+ * and its balance is the balance on its account row plus the balances of its slots. A credit goes to
+ * a random slot and locks nothing else. A debit locks the account row first, so debits to one account
+ * queue behind each other but never deadlock. It then takes the amount from a random slot that
+ * covers it. If no single slot does, it sweeps: it locks all slots and takes the amount from the
+ * account row first and then slot by slot.
+ * <p>
+ * Funds on hold are kept in the {@code held} column of the account row. Debits and holds of a split
+ * account lock that row anyway, so they check the total balance minus the held funds there.
+ * <p>
+ * Existing accounts need no data migration: an account starts with one slot, which is the account
+ * row itself, and splitting it leaves its balance there until debits drain it. Merging slots moves
+ * their balances back to the account row.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class BalanceSlotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BalanceSlotService.class);
+
+    private final AccountRepository accountRepository;
+    private final BalanceSlotRepository balanceSlotRepository;
+
+    @Transactional(readOnly = true)
+    public BigDecimal totalBalance(Account account) {
+        if (account.getBalanceSlots() <= 1) {
+            return account.getBalance();
+        }
+        return account.getBalance().add(balanceSlotRepository.sumBalance(account.getAccountNumber()));
+    }
+
+    public PostingStatus credit(Account account, BigDecimal amount, LocalDateTime now) {
+        int slot = ThreadLocalRandom.current().nextInt(account.getBalanceSlots());
+        if (balanceSlotRepository.creditIfActive(account.getAccountNumber(), slot, amount, now) > 0) {
+            return PostingStatus.APPLIED;
+        }
+
+        // the account is not active any more, or the slot was merged away concurrently
+        Account locked = accountRepository.lockByAccountNumber(account.getAccountNumber()).orElse(null);
+        PostingStatus status = statusOf(locked);
+        if (status == PostingStatus.APPLIED) {
+            locked.setBalance(locked.getBalance().add(amount));
+        }
+        return status;
+    }
+
+    public PostingStatus debit(Account account, BigDecimal amount, LocalDateTime now) {
+        String accountNumber = account.getAccountNumber();
+        Account locked = accountRepository.lockByAccountNumber(accountNumber).orElse(null);
+        PostingStatus status = statusOf(locked);
+        if (status != PostingStatus.APPLIED) {
+            return status;
+        }
+
+        // funds on hold are checked against the total, holds on this account wait for the lock we have
+        if (locked.getHeld().signum() > 0 && available(locked).compareTo(amount) < 0) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
+        }
+
+        // credits only add, so a slot that covers the debit now still covers it when we update it;
+        // taking it from one slot leaves the others free for credits
+        List<Integer> covering = balanceSlotRepository.findByAccountNumberOrderBySlot(accountNumber).stream()
+                .filter(slot -> slot.getBalance().compareTo(amount) >= 0)
+                .map(BalanceSlot::getSlot)
+                .toList();
+        if (!covering.isEmpty()) {
+            int slot = covering.get(ThreadLocalRandom.current().nextInt(covering.size()));
+            if (balanceSlotRepository.debitIfActiveAndCovered(accountNumber, slot, amount, now) > 0) {
+                return PostingStatus.APPLIED;
+            }
+        }
+        return sweep(accountNumber, amount);
+    }
+
+    /**
+     * Reserves funds of a split account for a hold. The held amount is kept on the account row, so
+     * this locks the account row like a debit and checks the total balance.
+     */
+    public PostingStatus hold(Account account, BigDecimal amount) {
+        Account locked = accountRepository.lockByAccountNumber(account.getAccountNumber()).orElse(null);
+        PostingStatus status = statusOf(locked);
+        if (status != PostingStatus.APPLIED) {
+            return status;
+        }
+        if (available(locked).compareTo(amount) < 0) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
+        }
+        locked.setHeld(locked.getHeld().add(amount));
+        return PostingStatus.APPLIED;
+    }
+
+    /**
+     * Splits the balance of an account over {@code slots} rows, or merges it back with 1. New slots
+     * start empty; slots that go away hand their balance to the account row.
+     */
+    public Account resize(String accountNumber, int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("An account needs at least one balance slot, got " + slots);
+        }
+        // same lock order as a debit: account row, then slots in slot order
+        Account account = accountRepository.lockByAccountNumber(accountNumber)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found with number: " + accountNumber));
+        List<BalanceSlot> existing = balanceSlotRepository.lockByAccountNumber(accountNumber);
+
+        // with one slot the account row is the only one
+        int rows = slots == 1 ? 0 : slots;
+        for (BalanceSlot slot : existing) {
+            if (slot.getSlot() >= rows) {
+                account.setBalance(account.getBalance().add(slot.getBalance()));
+                balanceSlotRepository.delete(slot);
+            }
+        }
+        Set<Integer> present = existing.stream().map(BalanceSlot::getSlot).collect(Collectors.toSet());
+        for (int slot = 0; slot < rows; slot++) {
+            if (!present.contains(slot)) {
+                balanceSlotRepository.save(new BalanceSlot(null, accountNumber, slot, BigDecimal.ZERO, null));
+            }
+        }
+
+        logger.info("Account {} now has {} balance slots (was {})", accountNumber, slots, account.getBalanceSlots());
+        account.setBalanceSlots(slots);
+        return account;
+    }
+
+    // the account row is locked already; the debit above may have cleared the persistence context, so it is read again
+    private PostingStatus sweep(String accountNumber, BigDecimal amount) {
+        Account account = accountRepository.lockByAccountNumber(accountNumber).orElseThrow();
+        List<BalanceSlot> slots = balanceSlotRepository.lockByAccountNumber(accountNumber);
+        BigDecimal total = slots.stream().map(BalanceSlot::getBalance).reduce(account.getBalance(), BigDecimal::add);
+        if (total.subtract(account.getHeld()).compareTo(amount) < 0) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
+        }
+
+        BigDecimal fromAccountRow = account.getBalance().min(amount);
+        account.setBalance(account.getBalance().subtract(fromAccountRow));
+        BigDecimal remaining = amount.subtract(fromAccountRow);
+        for (BalanceSlot slot : slots) {
+            if (remaining.signum() == 0) {
+                break;
+            }
+            BigDecimal taken = slot.getBalance().min(remaining);
+            slot.setBalance(slot.getBalance().subtract(taken));
+            remaining = remaining.subtract(taken);
+        }
+        logger.debug("Debit of {} from account {} swept its balance slots", amount, accountNumber);
+        return PostingStatus.APPLIED;
+    }
+
+    private BigDecimal available(Account account) {
+        return totalBalance(account).subtract(account.getHeld());
+    }
+
+    private static PostingStatus statusOf(Account account) {
+        if (account == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        return account.getStatus() == AccountStatus.ACTIVE ? PostingStatus.APPLIED : PostingStatus.ACCOUNT_NOT_ACTIVE;
+    }
+}
@@ -0,0 +1,267 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.engine.BalanceEngine;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.BalanceCheckpoint;
+import com.ibrahim.banking.store_of_value_service.model.BalanceSlot;
+import com.ibrahim.banking.store_of_value_service.model.JournalEntryType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceCheckpointRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import com.ibrahim.banking.store_of_value_service.repository.JournalLegRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only double-entry journal of every balance change. A credit, debit or transfer is one entry
+ * of balanced legs, signed from the account holder's side: a credit adds the amount to the account and
+ * takes it from {@link #EXTERNAL_ACCOUNT}, the money outside the platform, a debit does the opposite,
+ * and a transfer takes it from one account and adds it to the other. The legs of an entry always sum
+ * to zero. They are written in the transaction of the balance change, so the {@code balance} column
+ * stays a cached projection of the journal.
+ * <p>
+ * A scheduled run checkpoints the balance of every account with new legs. The balance at a point in
+ * time is then the latest checkpoint before it plus the account's legs after that checkpoint, an
+ * indexed lookup and a short range scan instead of a replay of the whole history. A run only covers
+ * legs older than {@code checkpoint-settle-ms}, so a transaction still in flight can't commit a leg
+ * below a checkpoint that was already taken.
+ * <p>
+ * Accounts that existed before the journal get an opening entry for their balance at startup, their
+ * history starts there. The in-memory {@link BalanceEngine} keeps its own journal; postings it applies
+ * are not written here.
+ */
+@Service
+public class DoubleEntryJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(DoubleEntryJournal.class);
+
+    // contra account for money coming in and going out, its balance is minus the money on all accounts
+    public static final String EXTERNAL_ACCOUNT = "EXTERNAL";
+
+    private static final String INSERT_LEG_SQL =
+            "INSERT INTO journal_legs (entry_id, entry_type, account_number, amount, transaction_reference, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AccountRepository accountRepository;
+    private final BalanceSlotRepository balanceSlotRepository;
+    private final JournalLegRepository journalLegRepository;
+    private final BalanceCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<BalanceEngine> balanceEngine;
+    private final long settleMs;
+
+    public DoubleEntryJournal(JdbcTemplate jdbcTemplate,
+                              AccountRepository accountRepository,
+                              BalanceSlotRepository balanceSlotRepository,
+                              JournalLegRepository journalLegRepository,
+                              BalanceCheckpointRepository checkpointRepository,
+                              TransactionTemplate transactionTemplate,
+                              ObjectProvider<BalanceEngine> balanceEngine,
+                              @Value("${store-of-value.journal.checkpoint-settle-ms:5000}") long settleMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.accountRepository = accountRepository;
+        this.balanceSlotRepository = balanceSlotRepository;
+        this.journalLegRepository = journalLegRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.balanceEngine = balanceEngine;
+        this.settleMs = settleMs;
+    }
+
+    public void credit(String accountNumber, BigDecimal amount, String transactionReference) {
+        record(List.of(Entry.credit(accountNumber, amount, transactionReference)));
+    }
+
+    public void debit(String accountNumber, BigDecimal amount, String transactionReference) {
+        record(List.of(Entry.debit(accountNumber, amount, transactionReference)));
+    }
+
+    public void transfer(String source, String destination, BigDecimal amount, String transactionReference) {
+        record(List.of(new Entry(JournalEntryType.TRANSFER, transactionReference,
+                List.of(new Leg(source, amount.negate()), new Leg(destination, amount)))));
+    }
+
+    /**
+     * Writes the legs of all entries in the caller's transaction, as one JDBC batch.
+     */
+    public void record(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<String> entryIds = new ArrayList<>();
+        List<Entry> legEntries = new ArrayList<>();
+        List<Leg> legs = new ArrayList<>();
+        for (Entry entry : entries) {
+            String entryId = newEntryId();
+            for (Leg leg : entry.legs()) {
+                entryIds.add(entryId);
+                legEntries.add(entry);
+                legs.add(leg);
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_LEG_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setString(1, entryIds.get(i));
+                ps.setString(2, legEntries.get(i).type().name());
+                ps.setString(3, legs.get(i).accountNumber());
+                ps.setBigDecimal(4, legs.get(i).amount());
+                ps.setString(5, legEntries.get(i).transactionReference());
+                ps.setTimestamp(6, now);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return legs.size();
+            }
+        });
+    }
+
+    /**
+     * The balance of an account after all its legs written up to {@code at}: the latest checkpoint
+     * that covers only such legs, plus the account's legs after it.
+     */
+    @Transactional(readOnly = true)
+    public BigDecimal balanceAt(String accountNumber, LocalDateTime at) {
+        return checkpointRepository.findFirstByAccountNumberAndAsOfLessThanEqualOrderByJournalIdDesc(accountNumber, at)
+                .map(checkpoint -> checkpoint.getBalance()
+                        .add(journalLegRepository.sumAmountAfter(accountNumber, checkpoint.getJournalId(), at)))
+                .orElseGet(() -> journalLegRepository.sumAmountAfter(accountNumber, 0, at));
+    }
+
+    /**
+     * Checkpoints every account with legs since the last run, up to the last leg that is older than
+     * the settle time. Several instances may run this at once; the unique key lets only one of them
+     * write a checkpoint.
+     */
+    @Scheduled(fixedDelayString = "${store-of-value.journal.checkpoint-interval-ms:60000}")
+    public void checkpoint() {
+        Long upToId = journalLegRepository.findLastIdCreatedBefore(LocalDateTime.now().minus(Duration.ofMillis(settleMs)));
+        long afterId = checkpointRepository.findLastJournalId();
+        if (upToId == null || upToId <= afterId) {
+            return;
+        }
+
+        try {
+            Integer written = transactionTemplate.execute(status -> {
+                List<JournalLegRepository.AccountTotal> totals = journalLegRepository.sumByAccount(afterId, upToId);
+                Map<String, BalanceCheckpoint> previous = checkpointRepository.findLatest(totals.stream()
+                                .map(JournalLegRepository.AccountTotal::getAccountNumber).toList()).stream()
+                        .collect(Collectors.toMap(BalanceCheckpoint::getAccountNumber, Function.identity()));
+
+                List<BalanceCheckpoint> checkpoints = new ArrayList<>();
+                for (JournalLegRepository.AccountTotal total : totals) {
+                    BalanceCheckpoint last = previous.get(total.getAccountNumber());
+                    BigDecimal balance = last == null ? total.getAmount() : last.getBalance().add(total.getAmount());
+                    LocalDateTime asOf = last == null || total.getLastCreatedAt().isAfter(last.getAsOf())
+                            ? total.getLastCreatedAt() : last.getAsOf();
+                    checkpoints.add(new BalanceCheckpoint(null, total.getAccountNumber(), total.getLastId(), balance, asOf, null));
+                }
+                checkpointRepository.saveAllAndFlush(checkpoints);
+                return checkpoints.size();
+            });
+            logger.info("Checkpointed the balances of {} accounts up to journal leg {}", written, upToId);
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Balance checkpoint up to journal leg {} was taken concurrently, skipping it", upToId);
+        }
+    }
+
+    /**
+     * Writes an opening entry for every account from before the journal: its current balance less
+     * whatever legs it already has. Each account is locked, its balance slots too, while this runs.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void openAccounts() {
+        if (balanceEngine.getIfAvailable() != null) {
+            // the engine owns the balances, the ones in the accounts table may be behind
+            return;
+        }
+        List<String> accountNumbers = accountRepository.findAccountNumbersWithoutJournal();
+        long opened = 0;
+        for (String accountNumber : accountNumbers) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> open(accountNumber));
+                opened++;
+            } catch (Exception e) {
+                // the next startup tries again
+                logger.error("Error writing the opening journal entry of account {}", accountNumber, e);
+            }
+        }
+        if (opened > 0) {
+            logger.info("Wrote opening journal entries for {} accounts", opened);
+        }
+    }
+
+    private void open(String accountNumber) {
+        // credits to balance slots don't lock the account row, so the slots are locked as well
+        Account account = accountRepository.lockByAccountNumber(accountNumber).orElse(null);
+        if (account == null || account.isJournalOpened()) {
+            return;
+        }
+        BigDecimal balance = balanceSlotRepository.lockByAccountNumber(accountNumber).stream()
+                .map(BalanceSlot::getBalance)
+                .reduce(account.getBalance(), BigDecimal::add);
+
+        BigDecimal opening = balance.subtract(journalLegRepository.sumAmount(accountNumber));
+        if (opening.signum() != 0) {
+            record(List.of(new Entry(JournalEntryType.OPENING, null,
+                    List.of(new Leg(accountNumber, opening), new Leg(EXTERNAL_ACCOUNT, opening.negate())))));
+        }
+        account.setJournalOpened(true);
+    }
+
+    // random rather than UUID.randomUUID(), which draws from a shared SecureRandom on every posting
+    private static String newEntryId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    public record Leg(String accountNumber, BigDecimal amount) {
+    }
+
+    public record Entry(JournalEntryType type, String transactionReference, List<Leg> legs) {
+
+        public Entry {
+            if (legs.stream().map(Leg::amount).reduce(BigDecimal.ZERO, BigDecimal::add).signum() != 0) {
+                throw new IllegalArgumentException("The legs of a journal entry must sum to zero: " + legs);
+            }
+        }
+
+        public static Entry credit(String accountNumber, BigDecimal amount, String transactionReference) {
+            return new Entry(JournalEntryType.CREDIT, transactionReference,
+                    List.of(new Leg(accountNumber, amount), new Leg(EXTERNAL_ACCOUNT, amount.negate())));
+        }
+
+        public static Entry debit(String accountNumber, BigDecimal amount, String transactionReference) {
+            return new Entry(JournalEntryType.DEBIT, transactionReference,
+                    List.of(new Leg(accountNumber, amount.negate()), new Leg(EXTERNAL_ACCOUNT, amount)));
+        }
+    }
+}
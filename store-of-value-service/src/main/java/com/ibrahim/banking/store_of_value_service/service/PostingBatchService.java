@@ -0,0 +1,297 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.config.ReplicaRoutingDataSource;
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingResponse;
+import com.ibrahim.banking.store_of_value_service.dto.PostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.PostingResult;
+import com.ibrahim.banking.store_of_value_service.engine.BalanceEngine;
+import com.ibrahim.banking.store_of_value_service.engine.PostingOutcome;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Applies many credits and debits in one database transaction and one JDBC batch.
+ * <p>
+ * Each posting is the same conditional update as a single credit or debit, with a signed amount,
+ * so a rejected posting simply updates no row and never fails the rest of the batch. Postings are
+ * executed ordered by account number, which keeps the row lock order deterministic across
+ * concurrent batches while postings to the same account keep their request order.
+ * <p>
+ * Postings with a transaction reference go through the {@link PostingLedger}: one that was already
+ * applied, earlier or further up in the same batch, is answered from the ledger instead of being
+ * applied again, and the applied ones are recorded in the same transaction. Every applied posting
+ * is written to the {@link DoubleEntryJournal} as well, in one more JDBC batch.
+ * <p>
+ * Accounts split into balance slots are left out of the batch update; their postings are applied
+ * one by one through the {@link BalanceSlotService} afterwards.
+ * <p>
+ * With the in-memory {@link BalanceEngine} the postings are handed to the engine instead, which
+ * applies postings to one account in the order they are submitted.
+ */
+@Service
+public class PostingBatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostingBatchService.class);
+
+    private static final String APPLY_POSTING_SQL =
+            "UPDATE accounts SET balance = balance + ?, updated_at = ? " +
+            "WHERE account_number = ? AND status = 'ACTIVE' AND balance - held + ? >= 0 AND balance_slots = 1";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AccountRepository accountRepository;
+    private final PostingLedger postingLedger;
+    private final TransactionTemplate transactionTemplate;
+    private final BalanceSlotService balanceSlotService;
+    private final DoubleEntryJournal journal;
+    private final ObjectProvider<BalanceEngine> balanceEngine;
+    private final int maxBatchSize;
+    private final boolean validateCheckDigit;
+
+    public PostingBatchService(JdbcTemplate jdbcTemplate,
+                               AccountRepository accountRepository,
+                               PostingLedger postingLedger,
+                               TransactionTemplate transactionTemplate,
+                               BalanceSlotService balanceSlotService,
+                               DoubleEntryJournal journal,
+                               ObjectProvider<BalanceEngine> balanceEngine,
+                               @Value("${store-of-value.postings.max-batch-size:500}") int maxBatchSize,
+                               @Value("${store-of-value.account-numbers.validate-check-digit:false}") boolean validateCheckDigit) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.accountRepository = accountRepository;
+        this.postingLedger = postingLedger;
+        this.transactionTemplate = transactionTemplate;
+        this.balanceSlotService = balanceSlotService;
+        this.journal = journal;
+        this.balanceEngine = balanceEngine;
+        this.maxBatchSize = maxBatchSize;
+        this.validateCheckDigit = validateCheckDigit;
+    }
+
+    public BatchPostingResponse applyPostings(List<PostingRequest> postings) {
+        if (postings.size() > maxBatchSize) {
+            throw new IllegalArgumentException("A batch can hold at most " + maxBatchSize + " postings, got " + postings.size());
+        }
+        logger.info("Applying batch of {} postings", postings.size());
+        postings.forEach(posting -> ReplicaRoutingDataSource.touch("account:" + posting.getAccountNumber()));
+
+        BalanceEngine engine = balanceEngine.getIfAvailable();
+        if (engine != null) {
+            return applyThroughEngine(engine, postings);
+        }
+
+        try {
+            return transactionTemplate.execute(status -> apply(postings, false));
+        } catch (DataIntegrityViolationException e) {
+            // a posting in the batch was recorded concurrently, maybe by another instance; the whole batch
+            // rolled back, so run it once more against the table instead of the local filter
+            logger.warn("Batch of {} postings raced a duplicate, applying it again", postings.size());
+            return transactionTemplate.execute(status -> apply(postings, true));
+        }
+    }
+
+    private BatchPostingResponse applyThroughEngine(BalanceEngine engine, List<PostingRequest> postings) {
+        List<CompletableFuture<PostingOutcome>> outcomes = postings.stream()
+                .map(posting -> posting.getType() == PostingType.CREDIT
+                        ? engine.credit(posting.getAccountNumber(), posting.getAmount(), posting.getTransactionReference())
+                        : engine.debit(posting.getAccountNumber(), posting.getAmount(), posting.getTransactionReference()))
+                .toList();
+        List<PostingResult> results = IntStream.range(0, postings.size())
+                .mapToObj(i -> new PostingResult(postings.get(i).getTransactionReference(), postings.get(i).getAccountNumber(),
+                        outcomes.get(i).join().status()))
+                .toList();
+        logger.info("Applied {} of {} postings through the balance engine",
+                results.stream().filter(result -> result.getStatus() == PostingStatus.APPLIED).count(), postings.size());
+        return new BatchPostingResponse(results);
+    }
+
+    private BatchPostingResponse apply(List<PostingRequest> postings, boolean bypassFilter) {
+        PostingResult[] results = new PostingResult[postings.size()];
+
+        // postings already in the ledger, or repeated within this batch, are answered without touching a balance
+        List<PostingLedger.Key> keys = IntStream.range(0, postings.size())
+                .mapToObj(i -> keyOf(postings.get(i)))
+                .filter(Objects::nonNull)
+                .toList();
+        Map<PostingLedger.Key, Posting> recorded = bypassFilter ? postingLedger.loadAll(keys) : postingLedger.findAll(keys);
+        Map<PostingLedger.Key, Integer> firstInBatch = new HashMap<>();
+        int[] sameAs = new int[postings.size()];
+        List<Integer> fresh = new ArrayList<>();
+        for (int i = 0; i < postings.size(); i++) {
+            PostingRequest posting = postings.get(i);
+            PostingLedger.Key key = keyOf(posting);
+            sameAs[i] = -1;
+            if (validateCheckDigit && !AccountNumberGenerator.hasValidCheckDigit(posting.getAccountNumber())) {
+                // a mistyped account number, no need to look for it
+                results[i] = new PostingResult(posting.getTransactionReference(), posting.getAccountNumber(),
+                        PostingStatus.ACCOUNT_NOT_FOUND);
+            } else if (key != null && recorded.containsKey(key)) {
+                results[i] = replay(posting, recorded.get(key));
+            } else if (key != null && firstInBatch.containsKey(key)) {
+                sameAs[i] = firstInBatch.get(key);
+            } else {
+                if (key != null) {
+                    firstInBatch.put(key, i);
+                }
+                fresh.add(i);
+            }
+        }
+
+        boolean[] applied = applyBalances(postings, fresh);
+
+        // one query to find out why the rejected postings were rejected, or whether their account has balance slots
+        Set<String> rejectedAccounts = fresh.stream()
+                .filter(i -> !applied[i])
+                .map(i -> postings.get(i).getAccountNumber())
+                .collect(Collectors.toSet());
+        Map<String, Account> accounts = rejectedAccounts.isEmpty() ? Map.of() :
+                accountRepository.findByAccountNumberIn(rejectedAccounts).stream()
+                        .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+
+        // in the same account order as the batch update, for the same reason
+        LocalDateTime now = LocalDateTime.now();
+        PostingStatus[] statuses = new PostingStatus[postings.size()];
+        fresh.stream()
+                .sorted(Comparator.comparing(i -> postings.get(i).getAccountNumber()))
+                .forEach(i -> statuses[i] = applied[i] ? PostingStatus.APPLIED
+                        : applyToSlots(postings.get(i), accounts.get(postings.get(i).getAccountNumber()), now));
+
+        List<Posting> toRecord = new ArrayList<>();
+        List<DoubleEntryJournal.Entry> entries = new ArrayList<>();
+        for (int i : fresh) {
+            PostingRequest posting = postings.get(i);
+            applied[i] = statuses[i] == PostingStatus.APPLIED;
+            results[i] = new PostingResult(posting.getTransactionReference(), posting.getAccountNumber(), statuses[i]);
+            if (applied[i]) {
+                entries.add(posting.getType() == PostingType.CREDIT
+                        ? DoubleEntryJournal.Entry.credit(posting.getAccountNumber(), posting.getAmount(), posting.getTransactionReference())
+                        : DoubleEntryJournal.Entry.debit(posting.getAccountNumber(), posting.getAmount(), posting.getTransactionReference()));
+            }
+            if (applied[i] && keyOf(posting) != null) {
+                toRecord.add(new Posting(null, posting.getTransactionReference(), posting.getType(),
+                        posting.getAccountNumber(), posting.getAmount(), null, null));
+            }
+        }
+        for (int i = 0; i < postings.size(); i++) {
+            if (sameAs[i] >= 0) {
+                results[i] = replay(postings.get(i), results[sameAs[i]], postings.get(sameAs[i]));
+            }
+        }
+        journal.record(entries);
+        if (!toRecord.isEmpty()) {
+            postingLedger.recordAll(toRecord);
+        }
+
+        long appliedCount = fresh.stream().filter(i -> applied[i]).count();
+        logger.info("Applied {} of {} postings, {} were repeats", appliedCount, postings.size(), postings.size() - fresh.size());
+        return new BatchPostingResponse(List.of(results));
+    }
+
+    private boolean[] applyBalances(List<PostingRequest> postings, List<Integer> fresh) {
+        boolean[] applied = new boolean[postings.size()];
+        if (fresh.isEmpty()) {
+            return applied;
+        }
+
+        // stable sort, so postings to one account are applied in request order
+        int[] executionOrder = fresh.stream()
+                .sorted(Comparator.comparing(i -> postings.get(i).getAccountNumber()))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        int[] updatedRows = jdbcTemplate.batchUpdate(APPLY_POSTING_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                PostingRequest posting = postings.get(executionOrder[i]);
+                BigDecimal delta = signedAmount(posting);
+                ps.setBigDecimal(1, delta);
+                ps.setTimestamp(2, now);
+                ps.setString(3, posting.getAccountNumber());
+                ps.setBigDecimal(4, delta);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return executionOrder.length;
+            }
+        });
+
+        for (int i = 0; i < executionOrder.length; i++) {
+            applied[executionOrder[i]] = updatedRows[i] > 0;
+        }
+        return applied;
+    }
+
+    private PostingStatus applyToSlots(PostingRequest posting, Account account, LocalDateTime now) {
+        if (account == null || account.getBalanceSlots() <= 1 || account.getStatus() != AccountStatus.ACTIVE) {
+            return rejectionOf(account);
+        }
+        return posting.getType() == PostingType.CREDIT
+                ? balanceSlotService.credit(account, posting.getAmount(), now)
+                : balanceSlotService.debit(account, posting.getAmount(), now);
+    }
+
+    private static PostingLedger.Key keyOf(PostingRequest posting) {
+        String reference = posting.getTransactionReference();
+        return reference == null || reference.isBlank() ? null : new PostingLedger.Key(reference, posting.getType());
+    }
+
+    private static PostingResult replay(PostingRequest posting, Posting original) {
+        boolean same = original.getAccountNumber().equals(posting.getAccountNumber())
+                && original.getAmount().compareTo(posting.getAmount()) == 0;
+        return new PostingResult(posting.getTransactionReference(), posting.getAccountNumber(),
+                same ? PostingStatus.APPLIED : PostingStatus.REFERENCE_CONFLICT);
+    }
+
+    // a repeat within the batch gets the result of the first posting with its reference
+    private static PostingResult replay(PostingRequest posting, PostingResult first, PostingRequest firstPosting) {
+        boolean same = firstPosting.getAccountNumber().equals(posting.getAccountNumber())
+                && firstPosting.getAmount().compareTo(posting.getAmount()) == 0;
+        return new PostingResult(posting.getTransactionReference(), posting.getAccountNumber(),
+                same ? first.getStatus() : PostingStatus.REFERENCE_CONFLICT);
+    }
+
+    private static BigDecimal signedAmount(PostingRequest posting) {
+        return posting.getType() == PostingType.DEBIT ? posting.getAmount().negate() : posting.getAmount();
+    }
+
+    private static PostingStatus rejectionOf(Account account) {
+        if (account == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (account.getStatus() != AccountStatus.ACTIVE) {
+            return PostingStatus.ACCOUNT_NOT_ACTIVE;
+        }
+        return PostingStatus.INSUFFICIENT_FUNDS;
+    }
+}
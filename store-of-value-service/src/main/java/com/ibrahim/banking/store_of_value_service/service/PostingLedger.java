@@ -0,0 +1,168 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Idempotency ledger for balance changes, keyed by transaction reference and direction.
+ * <p>
+ * A posting is recorded in the same transaction as its balance update, and the unique key on the
+ * postings table is what guarantees it is applied once. A Bloom filter of the keys seen so far sits
+ * in front of the lookups, so a new posting, the common case, costs no extra query; a possible
+ * duplicate is always confirmed against the table. The filter is per instance and filled from the
+ * table at startup, a posting it has not seen is still caught by the unique key. Until it is
+ * filled every lookup goes to the table.
+ */
+@Service
+public class PostingLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostingLedger.class);
+
+    private final PostingRepository postingRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PostingReferenceFilter filter;
+    private final long expectedInsertions;
+    private volatile boolean filterLoaded;
+
+    public PostingLedger(PostingRepository postingRepository,
+                         JdbcTemplate jdbcTemplate,
+                         @Value("${store-of-value.postings.filter.expected-insertions:1000000}") long expectedInsertions,
+                         @Value("${store-of-value.postings.filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.postingRepository = postingRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.expectedInsertions = expectedInsertions;
+        this.filter = new PostingReferenceFilter(expectedInsertions, falsePositiveRate);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadFilter() {
+        long start = System.currentTimeMillis();
+        jdbcTemplate.query("SELECT transaction_reference, direction FROM postings", rs -> {
+            filter.put(key(rs.getString(1), PostingType.valueOf(rs.getString(2))));
+        });
+        filterLoaded = true;
+        logger.info("Loaded {} posting references into the duplicate filter in {} ms",
+                filter.insertions(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the recorded posting for this reference and direction, without a query when the filter
+     * rules it out.
+     */
+    public Optional<Posting> find(String transactionReference, PostingType direction) {
+        if (filterLoaded && !filter.mightContain(key(transactionReference, direction))) {
+            return Optional.empty();
+        }
+        return postingRepository.findByTransactionReferenceAndDirection(transactionReference, direction);
+    }
+
+    /**
+     * Looks the posting up in the table even if the filter has not seen it, e.g. after an insert lost
+     * to a duplicate that another instance recorded.
+     */
+    public Optional<Posting> load(String transactionReference, PostingType direction) {
+        Optional<Posting> posting = postingRepository.findByTransactionReferenceAndDirection(transactionReference, direction);
+        posting.ifPresent(found -> remember(transactionReference, direction));
+        return posting;
+    }
+
+    /**
+     * Returns the recorded postings among the given keys, with at most one query for all of them.
+     */
+    public Map<Key, Posting> findAll(Collection<Key> keys) {
+        return query(keys.stream()
+                .filter(key -> !filterLoaded || filter.mightContain(key(key.transactionReference(), key.direction())))
+                .toList());
+    }
+
+    /**
+     * Like {@link #findAll} but without the filter, see {@link #load}.
+     */
+    public Map<Key, Posting> loadAll(Collection<Key> keys) {
+        Map<Key, Posting> postings = query(keys);
+        postings.keySet().forEach(key -> remember(key.transactionReference(), key.direction()));
+        return postings;
+    }
+
+    private Map<Key, Posting> query(Collection<Key> keys) {
+        List<String> references = keys.stream().map(Key::transactionReference).distinct().toList();
+        if (references.isEmpty()) {
+            return Map.of();
+        }
+        return postingRepository.findByTransactionReferenceIn(references).stream()
+                .collect(Collectors.toMap(posting -> new Key(posting.getTransactionReference(), posting.getDirection()),
+                        Function.identity()));
+    }
+
+    /**
+     * Records a posting in the caller's transaction. Flushed right away, so a duplicate fails here
+     * with a {@link org.springframework.dao.DataIntegrityViolationException} and rolls back the
+     * balance update made before it.
+     */
+    public Posting record(String transactionReference, PostingType direction, String accountNumber,
+                          BigDecimal amount, BigDecimal balanceAfter) {
+        Posting posting = new Posting();
+        posting.setTransactionReference(transactionReference);
+        posting.setDirection(direction);
+        posting.setAccountNumber(accountNumber);
+        posting.setAmount(amount);
+        posting.setBalanceAfter(balanceAfter);
+        Posting saved = postingRepository.saveAndFlush(posting);
+        remember(transactionReference, direction);
+        return saved;
+    }
+
+    public void recordAll(List<Posting> postings) {
+        postingRepository.saveAllAndFlush(postings);
+        postings.forEach(posting -> remember(posting.getTransactionReference(), posting.getDirection()));
+    }
+
+    /**
+     * Records postings in the caller's transaction, skipping those already recorded. For postings
+     * applied elsewhere, e.g. by the balance engine, that may be recorded again after a restart.
+     */
+    public void recordAllIfAbsent(List<Posting> postings) {
+        if (postings.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO postings (transaction_reference, direction, account_number, amount, balance_after, created_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (transaction_reference, direction) DO NOTHING",
+                postings.stream().map(posting -> new Object[]{posting.getTransactionReference(), posting.getDirection().name(),
+                        posting.getAccountNumber(), posting.getAmount(), posting.getBalanceAfter(),
+                        Timestamp.valueOf(posting.getCreatedAt())}).toList());
+        postings.forEach(posting -> remember(posting.getTransactionReference(), posting.getDirection()));
+    }
+
+    // a key remembered for a transaction that then rolls back is only a false positive
+    private void remember(String transactionReference, PostingType direction) {
+        filter.put(key(transactionReference, direction));
+        if (filter.insertions() == expectedInsertions) {
+            logger.warn("Posting duplicate filter reached its expected {} keys, more postings will need a lookup",
+                    expectedInsertions);
+        }
+    }
+
+    private static String key(String transactionReference, PostingType direction) {
+        return direction + ":" + transactionReference;
+    }
+
+    public record Key(String transactionReference, PostingType direction) {
+    }
+}
@@ -0,0 +1,150 @@
+package com.ibrahim.banking.store_of_value_service.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// two H2 databases stand in for the primary and the replica; each one knows its own name
+public class ReplicaRoutingDataSourceTest {
+
+    private static final String SERVICE_READ = "com.ibrahim.banking.store_of_value_service.service.AccountService.getBalance";
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private DataSourceTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        primary = new JdbcTemplate(database("routing_primary"));
+        replica = new JdbcTemplate(database("routing_replica"));
+        primary.execute("CREATE TABLE origin (name VARCHAR(10))");
+        primary.update("INSERT INTO origin VALUES ('primary')");
+        replica.execute("CREATE TABLE origin (name VARCHAR(10))");
+        replica.update("INSERT INTO origin VALUES ('replica')");
+        replica.execute("CREATE TABLE replica_lag (lag_ms BIGINT)");
+        replica.update("INSERT INTO replica_lag VALUES (0)");
+
+        routingDataSource = new ReplicaRoutingDataSource(primary.getDataSource(), replica.getDataSource(),
+                "SELECT lag_ms FROM replica_lag", 1000, 60_000);
+        routingDataSource.afterPropertiesSet();
+        routingDataSource.checkReplicaLag();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        ReplicaRoutingDataSource.clearTouched();
+        primary.execute("DROP ALL OBJECTS");
+        replica.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void readOnlyServiceTransaction_shouldUseTheReplica() {
+        // when / then
+        assertThat(origin(SERVICE_READ, true)).isEqualTo("replica");
+        assertThat(origin(SERVICE_READ, false)).isEqualTo("primary");
+        assertThat(jdbcTemplate.queryForObject("SELECT name FROM origin", String.class)).isEqualTo("primary");
+    }
+
+    @Test
+    void repositoryDefaultTransaction_shouldStayOnThePrimary() {
+        // when / then
+        assertThat(origin("org.springframework.data.jpa.repository.support.SimpleJpaRepository.findAll", true))
+                .isEqualTo("primary");
+    }
+
+    @Test
+    void laggingOrUnreachableReplica_shouldFallBackToThePrimary() {
+        // given
+        replica.update("UPDATE replica_lag SET lag_ms = 5000");
+
+        // when
+        routingDataSource.checkReplicaLag();
+
+        // then
+        assertThat(routingDataSource.isReplicaUsable()).isFalse();
+        assertThat(origin(SERVICE_READ, true)).isEqualTo("primary");
+
+        // when - caught up again, then unreachable
+        replica.update("UPDATE replica_lag SET lag_ms = 10");
+        routingDataSource.checkReplicaLag();
+        assertThat(origin(SERVICE_READ, true)).isEqualTo("replica");
+        replica.execute("DROP TABLE replica_lag");
+        routingDataSource.checkReplicaLag();
+
+        // then
+        assertThat(origin(SERVICE_READ, true)).isEqualTo("primary");
+    }
+
+    @Test
+    void readAfterWrite_shouldStayOnThePrimaryForTheWrittenAccountOnly() {
+        // given - postings arrive under the payment service's account, reads under the user's
+        authenticate("payment-service");
+        ReplicaRoutingDataSource.touch("account:1001");
+        origin("com.ibrahim.banking.store_of_value_service.service.AccountService.creditAccount", false);
+        ReplicaRoutingDataSource.clearTouched();
+
+        // when
+        authenticate("alice");
+        ReplicaRoutingDataSource.touch("account:1001");
+        String writtenAccount = origin(SERVICE_READ, true);
+        ReplicaRoutingDataSource.clearTouched();
+        authenticate("payment-service");
+        ReplicaRoutingDataSource.touch("account:2002");
+        String otherAccount = origin(SERVICE_READ, true);
+
+        // then
+        assertThat(writtenAccount).isEqualTo("primary");
+        assertThat(otherAccount).isEqualTo("replica");
+    }
+
+    @Test
+    void rolledBackWrite_shouldNotPin() {
+        // given
+        ReplicaRoutingDataSource.touch("account:1001");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName("com.ibrahim.banking.store_of_value_service.service.AccountService.debitAccount");
+
+        // when
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT name FROM origin", String.class);
+            status.setRollbackOnly();
+        });
+
+        // then
+        assertThat(origin(SERVICE_READ, true)).isEqualTo("replica");
+    }
+
+    private String origin(String transactionName, boolean readOnly) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName(transactionName);
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM origin", String.class));
+    }
+
+    private static void authenticate(String user) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, AuthorityUtils.NO_AUTHORITIES));
+    }
+
+    private static DataSource database(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+}
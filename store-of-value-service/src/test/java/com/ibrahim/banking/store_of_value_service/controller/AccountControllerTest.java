@@ -2,12 +2,25 @@ package com.ibrahim.banking.store_of_value_service.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibrahim.banking.store_of_value_service.dto.AccountResponse;
+import com.ibrahim.banking.store_of_value_service.dto.BalanceSlotsRequest;
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingResponse;
 import com.ibrahim.banking.store_of_value_service.dto.CreateAccountRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldResponse;
+import com.ibrahim.banking.store_of_value_service.dto.PostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.PostingResult;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
 import com.ibrahim.banking.store_of_value_service.dto.UpdateAccountRequest;
 import com.ibrahim.banking.store_of_value_service.exception.AccountNotFoundException;
 import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
 import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.HoldStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
 import com.ibrahim.banking.store_of_value_service.service.AccountService;
+import com.ibrahim.banking.store_of_value_service.service.PostingBatchService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -28,6 +41,7 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
@@ -43,6 +57,9 @@ public class AccountControllerTest {
     @Mock
     private AccountService accountService;
 
+    @Mock
+    private PostingBatchService postingBatchService;
+
     @InjectMocks
     private AccountController accountController;
 
@@ -236,6 +253,24 @@ public class AccountControllerTest {
         verify(accountService, times(1)).getBalance(accountNumber);
     }
 
+    @Test
+    void getBalanceAt_Success() throws Exception {
+        // setup
+        String accountNumber = "1234567890";
+        LocalDateTime at = LocalDateTime.of(2025, 1, 31, 23, 59, 59);
+
+        when(accountService.getBalanceAt(accountNumber, at)).thenReturn(new BigDecimal("42.50"));
+
+        // do it & check
+        mockMvc.perform(get("/api/accounts/{accountNumber}/balance/history", accountNumber)
+                .param("at", "2025-01-31T23:59:59")
+                .with(user("admin").roles("ADMIN")))
+                .andExpect(status().isOk())
+                .andExpect(content().string("42.50"));
+
+        verify(accountService, times(1)).getBalanceAt(accountNumber, at);
+    }
+
 
 
     @Test
@@ -370,5 +405,182 @@ public class AccountControllerTest {
         verify(accountService, times(1)).deactivateAccount(accountNumber);
     }
 
+    @Test
+    void transfer_Success() throws Exception {
+        // Arrange
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber("1234567890");
+        request.setDestinationAccountNumber("0987654321");
+        request.setAmount(new BigDecimal("25.00"));
+        request.setTransactionReference("TXN-1");
+
+        AccountResponse source = new AccountResponse();
+        source.setAccountNumber("1234567890");
+        source.setBalance(new BigDecimal("75.00"));
+        AccountResponse destination = new AccountResponse();
+        destination.setAccountNumber("0987654321");
+        destination.setBalance(new BigDecimal("25.00"));
 
-} 
\ No newline at end of file
+        when(accountService.transfer(any(TransferRequest.class))).thenReturn(new TransferResponse("TXN-1", source, destination));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/transfer")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactionReference", is("TXN-1")))
+                .andExpect(jsonPath("$.sourceAccount.balance", is(75.00)))
+                .andExpect(jsonPath("$.destinationAccount.balance", is(25.00)));
+
+        verify(accountService, times(1)).transfer(any(TransferRequest.class));
+    }
+
+    @Test
+    void transfer_ValidationFailure() throws Exception {
+        // Arrange
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber("1234567890");
+        // no destination or amount
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/transfer")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+
+        verify(accountService, never()).transfer(any(TransferRequest.class));
+    }
+
+    @Test
+    void applyPostings_Success() throws Exception {
+        // Arrange
+        BatchPostingRequest request = new BatchPostingRequest(List.of(
+                new PostingRequest("1234567890", PostingType.CREDIT, new BigDecimal("10.00"), "TXN-1"),
+                new PostingRequest("0987654321", PostingType.DEBIT, new BigDecimal("99.00"), "TXN-2")));
+
+        when(postingBatchService.applyPostings(anyList())).thenReturn(new BatchPostingResponse(List.of(
+                new PostingResult("TXN-1", "1234567890", PostingStatus.APPLIED),
+                new PostingResult("TXN-2", "0987654321", PostingStatus.INSUFFICIENT_FUNDS))));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/postings:batch")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results", hasSize(2)))
+                .andExpect(jsonPath("$.results[0].status", is("APPLIED")))
+                .andExpect(jsonPath("$.results[1].status", is("INSUFFICIENT_FUNDS")));
+
+        verify(postingBatchService, times(1)).applyPostings(anyList());
+    }
+
+    @Test
+    void applyPostings_InvalidPosting() throws Exception {
+        // Arrange
+        BatchPostingRequest request = new BatchPostingRequest(List.of(
+                new PostingRequest("1234567890", PostingType.CREDIT, BigDecimal.ZERO, "TXN-1")));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/postings:batch")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+
+        verify(postingBatchService, never()).applyPostings(anyList());
+    }
+
+    @Test
+    void setBalanceSlots_Success() throws Exception {
+        // Arrange
+        BalanceSlotsRequest request = new BalanceSlotsRequest();
+        request.setSlots(8);
+        AccountResponse response = new AccountResponse();
+        response.setAccountNumber("1234567890");
+        response.setBalance(new BigDecimal("250.00"));
+
+        when(accountService.setBalanceSlots("1234567890", 8)).thenReturn(response);
+
+        // Act & Assert
+        mockMvc.perform(put("/api/accounts/{accountNumber}/balance-slots", "1234567890")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance", is(250.00)));
+
+        verify(accountService, times(1)).setBalanceSlots("1234567890", 8);
+    }
+
+    @Test
+    void setBalanceSlots_TooMany() throws Exception {
+        // Arrange
+        BalanceSlotsRequest request = new BalanceSlotsRequest();
+        request.setSlots(65);
+
+        // Act & Assert
+        mockMvc.perform(put("/api/accounts/{accountNumber}/balance-slots", "1234567890")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+
+        verify(accountService, never()).setBalanceSlots(anyString(), anyInt());
+    }
+
+    @Test
+    void placeHold_Success() throws Exception {
+        // Arrange
+        HoldRequest request = new HoldRequest();
+        request.setAmount(new BigDecimal("40.00"));
+        request.setHoldReference("TXN-HOLD1");
+        HoldResponse response = new HoldResponse();
+        response.setHoldReference("TXN-HOLD1");
+        response.setAccountNumber("1234567890");
+        response.setAmount(new BigDecimal("40.00"));
+        response.setStatus(HoldStatus.HELD);
+        response.setAvailableBalance(new BigDecimal("60.00"));
+
+        when(accountService.placeHold(eq("1234567890"), any(HoldRequest.class))).thenReturn(response);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/{accountNumber}/holds", "1234567890")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("HELD")))
+                .andExpect(jsonPath("$.availableBalance", is(60.00)));
+
+        verify(accountService, times(1)).placeHold(eq("1234567890"), any(HoldRequest.class));
+    }
+
+    @Test
+    void captureHold_WithoutBody() throws Exception {
+        // Arrange
+        HoldResponse response = new HoldResponse();
+        response.setHoldReference("TXN-HOLD1");
+        response.setStatus(HoldStatus.CAPTURED);
+
+        when(accountService.captureHold("TXN-HOLD1", null)).thenReturn(response);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/accounts/holds/{holdReference}/capture", "TXN-HOLD1")
+                .with(user("admin").roles("ADMIN"))
+                .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("CAPTURED")));
+
+        verify(accountService, times(1)).captureHold("TXN-HOLD1", null);
+    }
+}
@@ -0,0 +1,192 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import com.ibrahim.banking.store_of_value_service.service.AccountNumberGenerator;
+import com.ibrahim.banking.store_of_value_service.service.AccountService;
+import com.ibrahim.banking.store_of_value_service.service.BalanceSlotService;
+import com.ibrahim.banking.store_of_value_service.service.DoubleEntryJournal;
+import com.ibrahim.banking.store_of_value_service.service.PostingLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput of credits to a small set of hot accounts: 8 threads post for a second through the JPA
+ * path (a conditional update and a ledger insert per posting, in H2) and through the in-memory
+ * engine (journaled with fsync, projected to the same database). Reports throughput and latency
+ * percentiles; H2 in memory flatters the JPA path compared with a networked PostgreSQL.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BalanceEngineBenchmarkTest {
+
+    private static final int THREADS = 8;
+    private static final int HOT_ACCOUNTS = 4;
+    private static final long DURATION_MS = 1_000;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        postingRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void jpaPathVersusEngine(TestReporter reporter) throws Exception {
+        // given
+        for (int i = 0; i < HOT_ACCOUNTS; i++) {
+            createAccount(accountNumber(i));
+        }
+
+        // when
+        AtomicLong jpaReferences = new AtomicLong();
+        Result jpa = run((accountNumber, amount) -> {
+            TransactionRequest request = new TransactionRequest();
+            request.setAmount(amount);
+            request.setTransactionReference("JPA-" + jpaReferences.incrementAndGet());
+            accountService.creditAccount(accountNumber, request);
+        });
+
+        // every reference is new, so the ledger is never asked
+        BalanceEngine engine = new BalanceEngine(accountRepository::findByAccountNumber, key -> Optional.empty(),
+                (balances, postings) -> projectBalances(balances), directory, 4, 64 * 1024 * 1024, true, 256,
+                3_600_000, 3_600_000, 200);
+        engine.start();
+        AtomicLong engineReferences = new AtomicLong();
+        Result inMemory;
+        try {
+            inMemory = run((accountNumber, amount) ->
+                    engine.credit(accountNumber, amount, "ENGINE-" + engineReferences.incrementAndGet()).join());
+        } finally {
+            engine.stop();
+        }
+
+        // then
+        reporter.publishEntry("jpa", jpa.toString());
+        reporter.publishEntry("in-memory", inMemory.toString());
+        assertThat(jpa.operations()).isPositive();
+        assertThat(inMemory.operations()).isPositive();
+
+        // every acknowledged posting reached the projection
+        BigDecimal total = accountRepository.findAll().stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(total).isEqualByComparingTo(BigDecimal.valueOf(jpa.operations() + inMemory.operations()));
+    }
+
+    private Result run(BiConsumer<String, BigDecimal> post) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1024];
+                int size = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    post.accept(accountNumber(random.nextInt(HOT_ACCOUNTS)), BigDecimal.ONE);
+                    if (size == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, size * 2);
+                    }
+                    latencies[size++] = System.nanoTime() - start;
+                }
+                return Arrays.copyOf(latencies, size);
+            }));
+        }
+
+        List<long[]> samples = new ArrayList<>();
+        for (Future<long[]> future : futures) {
+            samples.add(future.get());
+        }
+        executor.shutdown();
+
+        long[] merged = samples.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(merged);
+        return new Result(merged.length, merged);
+    }
+
+    private void projectBalances(Map<String, BigDecimal> balances) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        balances.forEach((accountNumber, balance) -> rows.add(new Object[]{balance, now, accountNumber}));
+        jdbcTemplate.batchUpdate("UPDATE accounts SET balance = ?, updated_at = ? WHERE account_number = ?", rows);
+    }
+
+    private void createAccount(String accountNumber) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(BigDecimal.ZERO);
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private static String accountNumber(int i) {
+        return "11100000" + (10 + i);
+    }
+
+    private record Result(long operations, long[] latencies) {
+
+        @Override
+        public String toString() {
+            return String.format("%,d postings/s, p50=%.1fus p99=%.1fus",
+                    operations * 1000 / DURATION_MS, percentile(0.50), percentile(0.99));
+        }
+
+        private double percentile(double quantile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.round(quantile * (latencies.length - 1)))] / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// the database is two maps here: accounts are loaded from it and projected balances written back to it,
+// projected postings form the ledger
+public class BalanceEngineRecoveryTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private Map<String, Account> database;
+    private Map<PostingKey, Posting> ledger;
+    private BalanceEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        database = new ConcurrentHashMap<>();
+        ledger = new ConcurrentHashMap<>();
+        addAccount("1110000000", "100.00", AccountStatus.ACTIVE);
+        addAccount("2220000000", "0.00", AccountStatus.ACTIVE);
+        addAccount("3330000000", "0.00", AccountStatus.INACTIVE);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (engine != null) {
+            engine.halt();
+        }
+    }
+
+    @Test
+    void restartAfterCrash_shouldReplayTheJournal() throws Exception {
+        // given
+        engine = startEngine(2);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        engine.debit("1110000000", new BigDecimal("30.00"), "TXN-2").join();
+        engine.credit("2220000000", new BigDecimal("5.00"), null).join();
+
+        // when - no snapshot and nothing projected before the crash
+        crashAndRestart(2);
+
+        // then
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("80.00"));
+        assertThat(engine.balanceOf("2220000000")).contains(new BigDecimal("5.00"));
+        PostingOutcome repeat = engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        assertThat(repeat.replayed()).isTrue();
+        assertThat(repeat.balanceAfter()).isEqualByComparingTo("110.00");
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("80.00"));
+    }
+
+    @Test
+    void restart_shouldReplayOnlyTheJournalAfterTheSnapshot() throws Exception {
+        // given
+        engine = startEngine(1);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        engine.snapshot();
+        engine.credit("1110000000", new BigDecimal("1.00"), "TXN-2").join();
+
+        // when
+        crashAndRestart(1);
+
+        // then
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("111.00"));
+        assertThat(files("shard-0", "snapshot-")).hasSize(1);
+        assertThat(files("shard-0", "journal-")).hasSize(1); // the segment before the snapshot was deleted
+        assertThat(engine.debit("1110000000", new BigDecimal("10.00"), "TXN-1").join().isApplied()).isTrue();
+        assertThat(engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join().replayed()).isTrue();
+    }
+
+    @Test
+    void restart_shouldFinishATransferInterruptedAfterItsDebit() throws Exception {
+        // given - the debit leg is journaled, the crash happened before the credit
+        BalanceShard shard = new BalanceShard(0, directory.resolve("shard-0"), SEGMENT_SIZE, true, 16, 3_600_000,
+                this::load, this::loadPosting);
+        shard.start();
+        shard.post("1110000000", PostingType.DEBIT, new BigDecimal("40.00"), "TXN-1", "2220000000").join();
+        shard.stop();
+
+        // when
+        engine = startEngine(1);
+
+        // then
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("60.00"));
+        assertThat(engine.balanceOf("2220000000")).contains(new BigDecimal("40.00"));
+    }
+
+    @Test
+    void transfer_whenCreditRejected_shouldReverseTheDebitAndStayReversed() throws Exception {
+        // given
+        engine = startEngine(2);
+
+        // when
+        TransferOutcome outcome = engine.transfer("1110000000", "3330000000", new BigDecimal("40.00"), "TXN-1");
+        database.get("3330000000").setStatus(AccountStatus.ACTIVE);
+        crashAndRestart(2);
+        TransferOutcome retry = engine.transfer("1110000000", "3330000000", new BigDecimal("40.00"), "TXN-1");
+
+        // then
+        assertThat(outcome.isApplied()).isFalse();
+        assertThat(outcome.status()).isEqualTo(PostingStatus.ACCOUNT_NOT_ACTIVE);
+        assertThat(retry.isApplied()).isFalse();
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("100.00"));
+    }
+
+    @Test
+    void project_shouldWriteChangedBalancesToTheDatabase() throws Exception {
+        // given
+        engine = startEngine(2);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        engine.debit("2220000000", new BigDecimal("1.00"), "TXN-2").join(); // rejected, nothing changes
+
+        // when
+        engine.project();
+
+        // then
+        assertThat(database.get("1110000000").getBalance()).isEqualByComparingTo("110.00");
+        assertThat(database.get("2220000000").getBalance()).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void project_shouldRecordAppliedPostingsInTheLedger() throws Exception {
+        // given
+        engine = startEngine(1);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+
+        // when
+        engine.project();
+
+        // then
+        Posting posting = ledger.get(new PostingKey("TXN-1", PostingType.CREDIT));
+        assertThat(posting.getAccountNumber()).isEqualTo("1110000000");
+        assertThat(posting.getBalanceAfter()).isEqualByComparingTo("110.00");
+    }
+
+    @Test
+    void snapshot_shouldDropProjectedPostingsOutsideTheWindow() throws Exception {
+        // given
+        engine = startEngine(1, 0);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        engine.project();
+
+        // when
+        engine.snapshot();
+
+        // then - the repeat is answered from the ledger
+        assertThat(BalanceSnapshot.readLatest(directory.resolve("shard-0")).orElseThrow().applied()).isEmpty();
+        PostingOutcome repeat = engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        assertThat(repeat.replayed()).isTrue();
+        assertThat(repeat.balanceAfter()).isEqualByComparingTo("110.00");
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("110.00"));
+    }
+
+    @Test
+    void snapshot_shouldKeepPostingsTheLedgerDoesNotHaveYet() throws Exception {
+        // given
+        engine = startEngine(1, 0);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+
+        // when - not projected before the snapshot
+        engine.snapshot();
+        crashAndRestart(1);
+
+        // then
+        assertThat(BalanceSnapshot.readLatest(directory.resolve("shard-0")).orElseThrow().applied())
+                .containsKey(new PostingKey("TXN-1", PostingType.CREDIT));
+        assertThat(engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join().replayed()).isTrue();
+        assertThat(engine.balanceOf("1110000000")).contains(new BigDecimal("110.00"));
+    }
+
+    @Test
+    void start_withDifferentShardCount_shouldFail() throws Exception {
+        // given
+        engine = startEngine(2);
+        engine.credit("1110000000", new BigDecimal("10.00"), "TXN-1").join();
+        engine.halt();
+        engine = null;
+
+        // when/then
+        assertThatThrownBy(() -> startEngine(4))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("2 shards");
+    }
+
+    private BalanceEngine startEngine(int shards) throws IOException {
+        return startEngine(shards, 3_600_000);
+    }
+
+    private BalanceEngine startEngine(int shards, long idempotencyWindowMs) throws IOException {
+        BalanceEngine started = new BalanceEngine(this::load, this::loadPosting, this::project, directory, shards,
+                SEGMENT_SIZE, true, 16, idempotencyWindowMs, 3_600_000, 3_600_000);
+        started.start();
+        return started;
+    }
+
+    private void crashAndRestart(int shards) throws Exception {
+        engine.halt();
+        engine = startEngine(shards);
+    }
+
+    private Optional<Account> load(String accountNumber) {
+        Account account = database.get(accountNumber);
+        if (account == null) {
+            return Optional.empty();
+        }
+        // a copy, as a repository would return
+        Account copy = new Account();
+        copy.setAccountNumber(account.getAccountNumber());
+        copy.setBalance(account.getBalance());
+        copy.setStatus(account.getStatus());
+        return Optional.of(copy);
+    }
+
+    private Optional<Posting> loadPosting(PostingKey key) {
+        return Optional.ofNullable(ledger.get(key));
+    }
+
+    private void project(Map<String, BigDecimal> balances, List<Posting> postings) {
+        balances.forEach((accountNumber, balance) -> database.get(accountNumber).setBalance(balance));
+        postings.forEach(posting -> ledger.putIfAbsent(new PostingKey(posting.getTransactionReference(), posting.getDirection()), posting));
+    }
+
+    private void addAccount(String accountNumber, String balance, AccountStatus status) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(status);
+        database.put(accountNumber, account);
+    }
+
+    private List<Path> files(String shard, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve(shard))) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)
+                    && !file.getFileName().toString().endsWith(".tmp")).toList();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.ibrahim.banking.store_of_value_service.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PostingJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recover_shouldReturnAppendedRecordsInOrder() throws IOException {
+        // given
+        try (PostingJournal journal = new PostingJournal(directory, SEGMENT_SIZE, true)) {
+            journal.recover(0, record -> { });
+            journal.append(record(1, JournalRecord.Type.OPEN, "10.00", null));
+            journal.append(record(2, JournalRecord.Type.CREDIT, "5.25", "TXN-1"));
+            journal.force();
+        }
+
+        // when
+        List<JournalRecord> recovered = new ArrayList<>();
+        long last = new PostingJournal(directory, SEGMENT_SIZE, true).recover(0, recovered::add);
+
+        // then
+        assertThat(last).isEqualTo(2);
+        assertThat(recovered).extracting(JournalRecord::sequence).containsExactly(1L, 2L);
+        assertThat(recovered.get(1).amount()).isEqualByComparingTo("5.25");
+        assertThat(recovered.get(1).transactionReference()).isEqualTo("TXN-1");
+        assertThat(recovered.get(0).transactionReference()).isNull();
+    }
+
+    @Test
+    void recover_shouldSkipRecordsCoveredByASnapshot() throws IOException {
+        // given
+        try (PostingJournal journal = new PostingJournal(directory, SEGMENT_SIZE, true)) {
+            journal.recover(0, record -> { });
+            for (int i = 1; i <= 5; i++) {
+                journal.append(record(i, JournalRecord.Type.CREDIT, "1.00", "TXN-" + i));
+            }
+        }
+
+        // when
+        List<JournalRecord> recovered = new ArrayList<>();
+        new PostingJournal(directory, SEGMENT_SIZE, true).recover(3, recovered::add);
+
+        // then
+        assertThat(recovered).extracting(JournalRecord::sequence).containsExactly(4L, 5L);
+    }
+
+    @Test
+    void recover_withTornLastRecord_shouldDiscardItAndAppendAfterTheLastIntactOne() throws IOException {
+        // given
+        try (PostingJournal journal = new PostingJournal(directory, SEGMENT_SIZE, true)) {
+            journal.recover(0, record -> { });
+            journal.append(record(1, JournalRecord.Type.CREDIT, "1.00", "TXN-1"));
+            journal.append(record(2, JournalRecord.Type.CREDIT, "2.00", "TXN-2"));
+        }
+        damageLastRecord(segments().get(0));
+
+        // when
+        List<JournalRecord> recovered = new ArrayList<>();
+        try (PostingJournal journal = new PostingJournal(directory, SEGMENT_SIZE, true)) {
+            journal.recover(0, recovered::add);
+            journal.append(record(2, JournalRecord.Type.CREDIT, "3.00", "TXN-3"));
+        }
+        List<JournalRecord> afterRestart = new ArrayList<>();
+        new PostingJournal(directory, SEGMENT_SIZE, true).recover(0, afterRestart::add);
+
+        // then
+        assertThat(recovered).extracting(JournalRecord::transactionReference).containsExactly("TXN-1");
+        assertThat(afterRestart).extracting(JournalRecord::transactionReference).containsExactly("TXN-1", "TXN-3");
+    }
+
+    @Test
+    void append_whenSegmentIsFull_shouldRollToANewSegment() throws IOException {
+        // given
+        try (PostingJournal journal = new PostingJournal(directory, SEGMENT_SIZE, true)) {
+            journal.recover(0, record -> { });
+
+            // when
+            for (int i = 1; i <= 200; i++) {
+                journal.append(record(i, JournalRecord.Type.CREDIT, "1.00", "TXN-" + i));
+            }
+        }
+
+        // then
+        List<JournalRecord> recovered = new ArrayList<>();
+        new PostingJournal(directory, SEGMENT_SIZE, true).recover(0, recovered::add);
+        assertThat(segments()).hasSizeGreaterThan(1);
+        assertThat(recovered).hasSize(200);
+        assertThat(recovered.get(199).sequence()).isEqualTo(200);
+    }
+
+    private JournalRecord record(long sequence, JournalRecord.Type type, String amount, String reference) {
+        return new JournalRecord(sequence, System.currentTimeMillis(), type, "1110000000", new BigDecimal(amount), reference, null);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-")).sorted().toList();
+        }
+    }
+
+    // flip a byte in the body of the last record, as a write cut short by a crash would leave it
+    private static void damageLastRecord(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int position = 0;
+            int lastBody = -1;
+            while (true) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                lastBody = position + 8;
+                position += 8 + length;
+            }
+            file.seek(lastBody + 3);
+            int value = file.read();
+            file.seek(lastBody + 3);
+            file.write(value ^ 0xff);
+        }
+    }
+}
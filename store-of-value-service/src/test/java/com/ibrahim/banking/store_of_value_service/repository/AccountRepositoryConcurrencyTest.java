@@ -0,0 +1,120 @@
+package com.ibrahim.banking.store_of_value_service.repository;
+
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// every posting commits in its own transaction, like concurrent requests would
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AccountRepositoryConcurrencyTest {
+
+    private static final String ACCOUNT_NUMBER = "5556667770";
+    private static final int THREADS = 16;
+    private static final int POSTINGS = 400;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void concurrentCredits_shouldNotLoseUpdates() throws Exception {
+        // given
+        createAccount(BigDecimal.ZERO);
+
+        // when
+        List<Integer> updated = runConcurrently(() -> transactionTemplate.execute(status ->
+                accountRepository.creditIfActive(ACCOUNT_NUMBER, BigDecimal.ONE, LocalDateTime.now()).isPresent() ? 1 : 0));
+
+        // then
+        assertThat(updated).containsOnly(1);
+        assertThat(balance()).isEqualByComparingTo(BigDecimal.valueOf(POSTINGS));
+    }
+
+    @Test
+    void concurrentDebits_shouldNeverOverdraw() throws Exception {
+        // given - only half of the debits are covered
+        createAccount(BigDecimal.valueOf(POSTINGS / 2));
+
+        // when
+        List<Integer> updated = runConcurrently(() -> transactionTemplate.execute(status ->
+                accountRepository.debitIfActiveAndCovered(ACCOUNT_NUMBER, BigDecimal.ONE, LocalDateTime.now()).isPresent() ? 1 : 0));
+
+        // then
+        assertThat(updated.stream().filter(rows -> rows == 1)).hasSize(POSTINGS / 2);
+        assertThat(balance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    private List<Integer> runConcurrently(Callable<Integer> posting) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < POSTINGS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return posting.call();
+                }));
+            }
+            start.countDown();
+
+            List<Integer> results = new ArrayList<>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void createAccount(BigDecimal balance) {
+        Account account = new Account();
+        account.setAccountNumber(ACCOUNT_NUMBER);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.SAVINGS);
+        account.setBalance(balance);
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private BigDecimal balance() {
+        return accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().getBalance();
+    }
+}
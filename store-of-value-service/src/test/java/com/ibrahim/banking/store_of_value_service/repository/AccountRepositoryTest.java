@@ -9,6 +9,7 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -52,4 +53,69 @@ public class AccountRepositoryTest {
         // then
         assertThat(found).isNotPresent();
     }
-} 
\ No newline at end of file
+
+    @Test
+    void whenDebitIfActiveAndCovered_withInsufficientBalance_thenNothingIsUpdated() {
+        // given
+        persistAccount("1234567890", BigDecimal.TEN, AccountStatus.ACTIVE);
+
+        // when
+        Optional<Account> updated = accountRepository.debitIfActiveAndCovered("1234567890", new BigDecimal("10.01"), LocalDateTime.now());
+
+        // then
+        assertThat(updated).isNotPresent();
+        assertThat(accountRepository.findByAccountNumber("1234567890").get().getBalance()).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    void whenCreditIfActive_withInactiveAccount_thenNothingIsUpdated() {
+        // given
+        persistAccount("1234567890", BigDecimal.TEN, AccountStatus.INACTIVE);
+
+        // when
+        Optional<Account> updated = accountRepository.creditIfActive("1234567890", BigDecimal.ONE, LocalDateTime.now());
+
+        // then
+        assertThat(updated).isNotPresent();
+        assertThat(accountRepository.findByAccountNumber("1234567890").get().getBalance()).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    void whenDebitIfActiveAndCovered_withEnoughBalance_thenBalanceIsReduced() {
+        // given
+        persistAccount("1234567890", BigDecimal.TEN, AccountStatus.ACTIVE);
+
+        // when
+        Optional<Account> updated = accountRepository.debitIfActiveAndCovered("1234567890", BigDecimal.TEN, LocalDateTime.now());
+
+        // then
+        assertThat(updated).get().extracting(Account::getBalance).satisfies(balance -> assertThat(balance).isEqualByComparingTo(BigDecimal.ZERO));
+        assertThat(accountRepository.findByAccountNumber("1234567890").get().getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    void whenCreditIfActive_withActiveAccount_thenTheUpdatedRowIsReturned() {
+        // given
+        persistAccount("1234567890", BigDecimal.TEN, AccountStatus.ACTIVE);
+
+        // when
+        Optional<Account> updated = accountRepository.creditIfActive("1234567890", BigDecimal.ONE, LocalDateTime.now());
+
+        // then
+        assertThat(updated).isPresent();
+        assertThat(updated.get().getAccountNumber()).isEqualTo("1234567890");
+        assertThat(updated.get().getProfileId()).isEqualTo("profile-1");
+        assertThat(updated.get().getBalance()).isEqualByComparingTo("11");
+    }
+
+    private void persistAccount(String accountNumber, BigDecimal balance, AccountStatus status) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.SAVINGS);
+        account.setBalance(balance);
+        account.setStatus(status);
+        entityManager.persist(account);
+        entityManager.flush();
+    }
+}
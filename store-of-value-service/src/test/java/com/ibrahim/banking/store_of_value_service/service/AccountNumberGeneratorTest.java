@@ -0,0 +1,103 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// blocks of 10 from the sequence on H2, so a few hundred numbers span many blocks
+@DataJpaTest(properties = "store-of-value.account-numbers.block-size=10")
+@Import(AccountNumberGenerator.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AccountNumberGeneratorTest {
+
+    @Autowired
+    private AccountNumberGenerator generator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void next_fromConcurrentThreadsAndInstances_shouldNeverRepeat() throws Exception {
+        // given - a second instance sharing the sequence
+        AccountNumberGenerator otherInstance = new AccountNumberGenerator(jdbcTemplate, entityManagerFactory, 10);
+        otherInstance.createSequence();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<String>>> futures = new ArrayList<>();
+
+        // when
+        try {
+            for (int t = 0; t < 8; t++) {
+                AccountNumberGenerator instance = t % 2 == 0 ? generator : otherInstance;
+                futures.add(executor.submit(() -> {
+                    List<String> numbers = new ArrayList<>();
+                    for (int i = 0; i < 100; i++) {
+                        numbers.add(instance.next());
+                    }
+                    return numbers;
+                }));
+            }
+            List<String> numbers = new ArrayList<>();
+            for (Future<List<String>> future : futures) {
+                numbers.addAll(future.get());
+            }
+
+            // then
+            assertThat(new HashSet<>(numbers)).hasSize(800);
+            assertThat(numbers).allSatisfy(number -> {
+                assertThat(number).hasSize(10).doesNotStartWith("0");
+                assertThat(AccountNumberGenerator.hasValidCheckDigit(number)).isTrue();
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void next_shouldNotHandOutConsecutiveNumbers() {
+        // when
+        long first = Long.parseLong(generator.next().substring(0, 9));
+        long second = Long.parseLong(generator.next().substring(0, 9));
+
+        // then
+        assertThat(Math.abs(second - first)).isGreaterThan(1);
+    }
+
+    @Test
+    void hasValidCheckDigit_shouldCatchSingleDigitTyposAndSwaps() {
+        // given
+        String number = generator.next();
+        Set<String> typos = new HashSet<>();
+        for (int i = 0; i < number.length(); i++) {
+            for (char digit = '0'; digit <= '9'; digit++) {
+                if (digit != number.charAt(i)) {
+                    typos.add(number.substring(0, i) + digit + number.substring(i + 1));
+                }
+            }
+        }
+
+        // when / then
+        assertThat(typos).noneMatch(AccountNumberGenerator::hasValidCheckDigit);
+        assertThat(AccountNumberGenerator.hasValidCheckDigit("1234567897")).isTrue();
+        assertThat(AccountNumberGenerator.hasValidCheckDigit("1234567987")).isFalse();
+        assertThat(AccountNumberGenerator.hasValidCheckDigit("12345678")).isFalse();
+        assertThat(AccountNumberGenerator.hasValidCheckDigit("12345678ab")).isFalse();
+    }
+}
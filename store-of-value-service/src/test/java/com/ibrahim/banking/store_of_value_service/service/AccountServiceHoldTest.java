@@ -0,0 +1,274 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.CaptureHoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldRequest;
+import com.ibrahim.banking.store_of_value_service.dto.HoldResponse;
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.exception.DuplicatePostingException;
+import com.ibrahim.banking.store_of_value_service.exception.InsufficientFundsException;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.Hold;
+import com.ibrahim.banking.store_of_value_service.model.HoldStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import com.ibrahim.banking.store_of_value_service.repository.HoldRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// holds through the real service against H2, each call commits or rolls back on its own
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AccountServiceHoldTest {
+
+    private static final String ACCOUNT_NUMBER = "3330000000";
+    private static final String DESTINATION = "4440000000";
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private HoldRepository holdRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @Autowired
+    private BalanceSlotRepository balanceSlotRepository;
+
+    @AfterEach
+    void tearDown() {
+        holdRepository.deleteAll();
+        postingRepository.deleteAll();
+        balanceSlotRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void placeHold_shouldReserveFundsAgainstDebits() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+
+        // when
+        HoldResponse hold = accountService.placeHold(ACCOUNT_NUMBER, holdRequest("70.00", "HOLD-1"));
+
+        // then
+        assertThat(hold.getStatus()).isEqualTo(HoldStatus.HELD);
+        assertThat(hold.getAvailableBalance()).isEqualByComparingTo("30.00");
+        assertThatThrownBy(() -> accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("40.00")))
+                .isInstanceOf(InsufficientFundsException.class)
+                .hasMessageContaining("70.00");
+        accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("30.00"));
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("70.00");
+        assertThat(held()).isEqualByComparingTo("70.00");
+    }
+
+    @Test
+    void placeHold_moreThanAvailable_shouldThrowAndHoldNothing() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("60.00", "HOLD-1"));
+
+        // when / then
+        assertThatThrownBy(() -> accountService.placeHold(ACCOUNT_NUMBER, holdRequest("40.01", "HOLD-2")))
+                .isInstanceOf(InsufficientFundsException.class)
+                .hasMessageContaining("40.00");
+        assertThat(held()).isEqualByComparingTo("60.00");
+        assertThat(holdRepository.findByHoldReference("HOLD-2")).isEmpty();
+    }
+
+    @Test
+    void placeHold_sameReferenceTwice_shouldHoldOnce() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("30.00", "HOLD-1"));
+
+        // when
+        HoldResponse repeat = accountService.placeHold(ACCOUNT_NUMBER, holdRequest("30.00", "HOLD-1"));
+
+        // then
+        assertThat(repeat.getStatus()).isEqualTo(HoldStatus.HELD);
+        assertThat(held()).isEqualByComparingTo("30.00");
+        assertThatThrownBy(() -> accountService.placeHold(ACCOUNT_NUMBER, holdRequest("31.00", "HOLD-1")))
+                .isInstanceOf(DuplicatePostingException.class);
+    }
+
+    @Test
+    void captureHold_shouldDebitTheHeldFundsOnce() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("40.00", "HOLD-1"));
+
+        // when
+        HoldResponse captured = accountService.captureHold("HOLD-1", null);
+        HoldResponse repeat = accountService.captureHold("HOLD-1", null);
+
+        // then
+        assertThat(captured.getStatus()).isEqualTo(HoldStatus.CAPTURED);
+        assertThat(repeat.getStatus()).isEqualTo(HoldStatus.CAPTURED);
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("60.00");
+        assertThat(held()).isEqualByComparingTo("0.00");
+        assertThat(postingRepository.findByTransactionReferenceAndDirection("HOLD-1", PostingType.DEBIT).orElseThrow()
+                .getBalanceAfter()).isEqualByComparingTo("60.00");
+    }
+
+    @Test
+    void captureHold_withDestination_shouldTransferTheHeldFunds() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        createAccount(DESTINATION, "5.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("40.00", "HOLD-1"));
+        CaptureHoldRequest request = new CaptureHoldRequest();
+        request.setDestinationAccountNumber(DESTINATION);
+
+        // when
+        accountService.captureHold("HOLD-1", request);
+
+        // then
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("60.00");
+        assertThat(accountService.getBalance(DESTINATION)).isEqualByComparingTo("45.00");
+        assertThat(postingRepository.findByTransactionReferenceAndDirection("HOLD-1", PostingType.CREDIT)).isPresent();
+    }
+
+    @Test
+    void releaseHold_shouldMakeTheFundsAvailableAndPreventCapture() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("40.00", "HOLD-1"));
+
+        // when
+        HoldResponse released = accountService.releaseHold("HOLD-1");
+
+        // then
+        assertThat(released.getStatus()).isEqualTo(HoldStatus.RELEASED);
+        assertThat(released.getAvailableBalance()).isEqualByComparingTo("100.00");
+        assertThat(accountService.releaseHold("HOLD-1").getStatus()).isEqualTo(HoldStatus.RELEASED);
+        assertThatThrownBy(() -> accountService.captureHold("HOLD-1", null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("RELEASED");
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("100.00");
+    }
+
+    @Test
+    void expiredHold_shouldNotBeCapturableAndBeReleasedBySweep() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "100.00");
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("40.00", "HOLD-1"));
+        Hold hold = holdRepository.findByHoldReference("HOLD-1").orElseThrow();
+        hold.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        holdRepository.save(hold);
+
+        // when / then - expired but not yet swept
+        assertThatThrownBy(() -> accountService.captureHold("HOLD-1", null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("expired");
+
+        accountService.expireHolds();
+        assertThat(holdRepository.findByHoldReference("HOLD-1").orElseThrow().getStatus()).isEqualTo(HoldStatus.EXPIRED);
+        assertThat(held()).isEqualByComparingTo("0.00");
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("100.00");
+    }
+
+    @Test
+    void placeHold_onSplitAccount_shouldCheckTheTotalBalance() {
+        // given - 10 on the account row, the rest credited to the slots
+        createAccount(ACCOUNT_NUMBER, "10.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 4);
+        for (int i = 0; i < 4; i++) {
+            accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("10.00"));
+        }
+
+        // when
+        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("35.00", "HOLD-1"));
+
+        // then
+        assertThatThrownBy(() -> accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("15.01")))
+                .isInstanceOf(InsufficientFundsException.class);
+        accountService.captureHold("HOLD-1", null);
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("15.00");
+        assertThat(held()).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void concurrentHolds_shouldNotReserveMoreThanTheBalance() throws Exception {
+        // given - 50 holds of 10 on a balance of 200
+        createAccount(ACCOUNT_NUMBER, "200.00");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+
+        // when
+        try {
+            for (int i = 0; i < 50; i++) {
+                String reference = "HOLD-" + i;
+                futures.add(executor.submit(() -> {
+                    try {
+                        accountService.placeHold(ACCOUNT_NUMBER, holdRequest("10.00", reference));
+                        return true;
+                    } catch (InsufficientFundsException e) {
+                        return false;
+                    }
+                }));
+            }
+            long placed = 0;
+            for (Future<Boolean> future : futures) {
+                placed += future.get() ? 1 : 0;
+            }
+
+            // then
+            assertThat(placed).isEqualTo(20);
+            assertThat(held()).isEqualByComparingTo("200.00");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigDecimal held() {
+        return accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().getHeld();
+    }
+
+    private void createAccount(String accountNumber, String balance) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private static HoldRequest holdRequest(String amount, String reference) {
+        HoldRequest request = new HoldRequest();
+        request.setAmount(new BigDecimal(amount));
+        request.setHoldReference(reference);
+        return request;
+    }
+
+    private static TransactionRequest transactionRequest(String amount) {
+        TransactionRequest request = new TransactionRequest();
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+}
@@ -0,0 +1,177 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.AccountResponse;
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// redeliveries and retries against the real ledger on H2, each posting commits on its own
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AccountServicePostingIdempotencyTest {
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @AfterEach
+    void tearDown() {
+        postingRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void creditAccount_repeated_shouldCreditOnceAndReturnTheOriginalBalance() {
+        // given
+        createAccount("1110000000", "10.00");
+        AccountResponse first = accountService.creditAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+        accountService.creditAccount("1110000000", transactionRequest("1.00", "TXN-2"));
+
+        // when
+        AccountResponse repeat = accountService.creditAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+
+        // then
+        assertThat(repeat.getBalance()).isEqualByComparingTo(first.getBalance()).isEqualByComparingTo("15.00");
+        assertThat(balance("1110000000")).isEqualByComparingTo("16.00");
+        assertThat(postingRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void creditAndDebit_withSameReference_shouldBothApply() {
+        // given
+        createAccount("1110000000", "10.00");
+
+        // when - a reversal carries the reference of the posting it reverses
+        accountService.creditAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+        accountService.debitAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+
+        // then
+        assertThat(balance("1110000000")).isEqualByComparingTo("10.00");
+        assertThat(postingRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrentDuplicates_shouldCreditOnce() throws Exception {
+        // given
+        createAccount("1110000000", "0.00");
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<AccountResponse>> futures = new ArrayList<>();
+
+        // when - all of them pass the ledger check before any has committed
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return accountService.creditAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+                }));
+            }
+            start.countDown();
+            for (Future<AccountResponse> future : futures) {
+                // then - every caller gets the result of the one posting that was applied
+                assertThat(future.get(30, TimeUnit.SECONDS).getBalance()).isEqualByComparingTo("5.00");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // then
+        assertThat(balance("1110000000")).isEqualByComparingTo("5.00");
+        assertThat(postingRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void transfer_repeated_shouldMoveMoneyOnce() {
+        // given
+        createAccount("1110000000", "100.00");
+        createAccount("2220000000", "0.00");
+        accountService.transfer(transferRequest("1110000000", "2220000000", "40.00", "TXN-1"));
+
+        // when
+        TransferResponse repeat = accountService.transfer(transferRequest("1110000000", "2220000000", "40.00", "TXN-1"));
+
+        // then
+        assertThat(repeat.getSourceAccount().getBalance()).isEqualByComparingTo("60.00");
+        assertThat(repeat.getDestinationAccount().getBalance()).isEqualByComparingTo("40.00");
+        assertThat(balance("1110000000")).isEqualByComparingTo("60.00");
+        assertThat(balance("2220000000")).isEqualByComparingTo("40.00");
+    }
+
+    @Test
+    void failedPosting_shouldNotBeRecorded() {
+        // given
+        createAccount("1110000000", "1.00");
+
+        // when - the first attempt bounces, the retry after a top-up goes through
+        try {
+            accountService.debitAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+        } catch (RuntimeException expected) {
+            // insufficient funds
+        }
+        accountService.creditAccount("1110000000", transactionRequest("10.00", "TXN-2"));
+        accountService.debitAccount("1110000000", transactionRequest("5.00", "TXN-1"));
+
+        // then
+        assertThat(balance("1110000000")).isEqualByComparingTo("6.00");
+    }
+
+    private void createAccount(String accountNumber, String balance) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private BigDecimal balance(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private TransactionRequest transactionRequest(String amount, String reference) {
+        TransactionRequest request = new TransactionRequest();
+        request.setAmount(new BigDecimal(amount));
+        request.setTransactionReference(reference);
+        return request;
+    }
+
+    private TransferRequest transferRequest(String source, String destination, String amount, String reference) {
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber(source);
+        request.setDestinationAccountNumber(destination);
+        request.setAmount(new BigDecimal(amount));
+        request.setTransactionReference(reference);
+        return request;
+    }
+}
@@ -2,30 +2,51 @@ package com.ibrahim.banking.store_of_value_service.service;
 
 import com.ibrahim.banking.store_of_value_service.dto.AccountResponse;
 import com.ibrahim.banking.store_of_value_service.dto.CreateAccountRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
 import com.ibrahim.banking.store_of_value_service.dto.UpdateAccountRequest;
+import com.ibrahim.banking.store_of_value_service.engine.BalanceEngine;
+import com.ibrahim.banking.store_of_value_service.engine.PostingOutcome;
+import com.ibrahim.banking.store_of_value_service.event.AccountStatusChangedEvent;
 import com.ibrahim.banking.store_of_value_service.exception.AccountNotFoundException;
+import com.ibrahim.banking.store_of_value_service.exception.DuplicatePostingException;
+import com.ibrahim.banking.store_of_value_service.exception.InsufficientFundsException;
 import com.ibrahim.banking.store_of_value_service.model.Account;
 import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
 import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.Posting;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
 import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.HoldRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class) // needed for mocks
@@ -34,6 +55,30 @@ public class AccountServiceTest {
     @Mock
     private AccountRepository accountRepository;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PostingLedger postingLedger;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private BalanceSlotService balanceSlotService;
+
+    @Mock
+    private HoldRepository holdRepository;
+
+    @Mock
+    private DoubleEntryJournal journal;
+
+    @Mock
+    private AccountNumberGenerator accountNumberGenerator;
+
+    @Mock // no engine unless a test provides one
+    private ObjectProvider<BalanceEngine> balanceEngine;
+
     @InjectMocks // puts mocks into service
     private AccountService accountService;
 
@@ -52,6 +97,10 @@ public class AccountServiceTest {
         sampleAccount.setStatus(AccountStatus.PENDING_ACTIVATION);
         sampleAccount.setCreatedAt(LocalDateTime.now().minusDays(1));
         sampleAccount.setUpdatedAt(LocalDateTime.now());
+
+        // run postings inline, there is no real transaction here
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
     }
     
     // test fetching accounts by profile id
@@ -94,7 +143,7 @@ public class AccountServiceTest {
         ArgumentCaptor<Account> accountCaptor = ArgumentCaptor.forClass(Account.class);
 
         // mock the repo stuff 
-        when(accountRepository.findByAccountNumber(anyString())).thenReturn(Optional.empty());
+        when(accountNumberGenerator.next()).thenReturn("1234567897");
         when(accountRepository.save(accountCaptor.capture())).thenAnswer(invocation -> {
             Account accountToSave = invocation.getArgument(0);
             accountToSave.setId(99L); // fake an ID
@@ -114,7 +163,7 @@ public class AccountServiceTest {
         assertThat(response.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
         assertThat(response.getAccountNumber()).isNotNull().hasSize(10); // should be 10 digits
 
-        verify(accountRepository, times(1)).findByAccountNumber(anyString()); // make sure we checked if unique
+        verify(accountRepository, never()).findByAccountNumber(anyString()); // generated numbers need no probing
         verify(accountRepository, times(1)).save(any(Account.class));
 
         Account savedAccount = accountCaptor.getValue();
@@ -125,6 +174,25 @@ public class AccountServiceTest {
         assertThat(savedAccount.getAccountNumber()).isEqualTo(response.getAccountNumber());
     }
 
+    @Test
+    void createAccount_whenNumberIsTaken_shouldUseTheNextOne() {
+        // given - the first number matches an account numbered at random before
+        CreateAccountRequest request = new CreateAccountRequest();
+        request.setProfileId("profile-new");
+        request.setAccountType(AccountType.CURRENT);
+        when(accountNumberGenerator.next()).thenReturn("1234567897", "1112223332");
+        when(accountRepository.save(any(Account.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate account number"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        // when
+        AccountResponse response = accountService.createAccount(request);
+
+        // then
+        assertThat(response.getAccountNumber()).isEqualTo("1112223332");
+        verify(accountRepository, times(2)).save(any(Account.class));
+    }
+
     // getBalance tests
     @Test
     void getBalance_whenAccountExists_shouldReturnBalance() {
@@ -152,6 +220,18 @@ public class AccountServiceTest {
         verify(accountRepository, times(1)).findByAccountNumber(nonExistingAccountNumber);
     }
 
+    @Test
+    void getBalance_whenCheckDigitIsWrong_shouldThrowWithoutQuery() {
+        // given - the check digit of 123456789 is 7
+        ReflectionTestUtils.setField(accountService, "validateCheckDigit", true);
+
+        // when/then
+        assertThatThrownBy(() -> accountService.getBalance("1234567890"))
+                .isInstanceOf(AccountNotFoundException.class)
+                .hasMessageContaining("1234567890");
+        verifyNoInteractions(accountRepository);
+    }
+
     // activate account tests
     @Test
     void activateAccount_whenPending_shouldActivateAndReturnAccount() {
@@ -168,6 +248,7 @@ public class AccountServiceTest {
         verify(accountRepository, times(1)).findByAccountNumber(existingAccountNumber);
         verify(accountRepository, times(1)).save(sampleAccount);
         assertThat(sampleAccount.getStatus()).isEqualTo(AccountStatus.ACTIVE); // make sure it changed
+        verify(eventPublisher).publishEvent(any(AccountStatusChangedEvent.class)); // caches get told
     }
 
     @Test
@@ -183,6 +264,7 @@ public class AccountServiceTest {
         assertThat(response.getStatus()).isEqualTo(AccountStatus.ACTIVE);
         verify(accountRepository, times(1)).findByAccountNumber(existingAccountNumber);
         verify(accountRepository, never()).save(any(Account.class)); // shouldnt save if already active
+        verifyNoInteractions(eventPublisher); // nothing changed, nothing to announce
     }
 
     @Test
@@ -227,6 +309,10 @@ public class AccountServiceTest {
         verify(accountRepository, times(1)).findByAccountNumber(existingAccountNumber);
         verify(accountRepository, times(1)).save(sampleAccount);
         assertThat(sampleAccount.getStatus()).isEqualTo(AccountStatus.INACTIVE);
+        ArgumentCaptor<AccountStatusChangedEvent> eventCaptor = ArgumentCaptor.forClass(AccountStatusChangedEvent.class);
+        verify(eventPublisher).publishEvent(eventCaptor.capture());
+        assertThat(eventCaptor.getValue().getStatus()).isEqualTo(AccountStatus.INACTIVE);
+        assertThat(eventCaptor.getValue().getAccountNumber()).isEqualTo(existingAccountNumber);
     }
 
     @Test
@@ -319,4 +405,208 @@ public class AccountServiceTest {
         verify(accountRepository, times(1)).findByAccountNumber(nonExistingAccountNumber);
         verify(accountRepository, never()).save(any(Account.class));
     }
-} 
\ No newline at end of file
+
+    // credit/debit tests
+    @Test
+    void creditAccount_whenActive_shouldReturnUpdatedBalance() {
+        // given
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        sampleAccount.setBalance(new BigDecimal("125.50"));
+        when(accountRepository.creditIfActive(eq(existingAccountNumber), eq(new BigDecimal("25.00")), any(LocalDateTime.class)))
+                .thenReturn(Optional.of(sampleAccount));
+
+        // when
+        AccountResponse response = accountService.creditAccount(existingAccountNumber, transactionRequest("25.00"));
+
+        // then
+        assertThat(response.getBalance()).isEqualByComparingTo("125.50");
+        verify(accountRepository, never()).save(any(Account.class)); // balance is changed by the update only
+        verify(accountRepository, never()).findByAccountNumber(anyString()); // and read back by it
+    }
+
+    @Test
+    void creditAccount_withNewReference_shouldRecordPosting() {
+        // given
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        sampleAccount.setBalance(new BigDecimal("125.50"));
+        when(postingLedger.find("TXN-1", PostingType.CREDIT)).thenReturn(Optional.empty());
+        when(accountRepository.creditIfActive(eq(existingAccountNumber), eq(new BigDecimal("25.00")), any(LocalDateTime.class)))
+                .thenReturn(Optional.of(sampleAccount));
+
+        // when
+        accountService.creditAccount(existingAccountNumber, transactionRequest("25.00", "TXN-1"));
+
+        // then
+        verify(postingLedger).record("TXN-1", PostingType.CREDIT, existingAccountNumber,
+                new BigDecimal("25.00"), new BigDecimal("125.50"));
+    }
+
+    @Test
+    void creditAccount_withRecordedReference_shouldReturnOriginalResultWithoutCrediting() {
+        // given - the balance has moved on since the original posting
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        sampleAccount.setBalance(new BigDecimal("300.00"));
+        when(postingLedger.find("TXN-1", PostingType.CREDIT)).thenReturn(Optional.of(
+                recordedPosting("TXN-1", PostingType.CREDIT, existingAccountNumber, "25.00", "125.50")));
+        when(accountRepository.findByAccountNumber(existingAccountNumber)).thenReturn(Optional.of(sampleAccount));
+
+        // when
+        AccountResponse response = accountService.creditAccount(existingAccountNumber, transactionRequest("25.00", "TXN-1"));
+
+        // then
+        assertThat(response.getBalance()).isEqualByComparingTo("125.50");
+        verify(accountRepository, never()).creditIfActive(anyString(), any(BigDecimal.class), any(LocalDateTime.class));
+        verify(postingLedger, never()).record(anyString(), any(), anyString(), any(), any());
+    }
+
+    @Test
+    void debitAccount_withReferenceUsedForAnotherAccount_shouldThrowDuplicatePostingException() {
+        // given
+        when(postingLedger.find("TXN-1", PostingType.DEBIT)).thenReturn(Optional.of(
+                recordedPosting("TXN-1", PostingType.DEBIT, "9990000000", "25.00", "0.00")));
+
+        // when/then
+        assertThatThrownBy(() -> accountService.debitAccount(existingAccountNumber, transactionRequest("25.00", "TXN-1")))
+                .isInstanceOf(DuplicatePostingException.class)
+                .hasMessageContaining("TXN-1");
+        verifyNoInteractions(accountRepository);
+    }
+
+    @Test
+    void creditAccount_withBalanceEngine_shouldPostThroughTheEngine() {
+        // given
+        BalanceEngine engine = mock(BalanceEngine.class);
+        when(balanceEngine.getIfAvailable()).thenReturn(engine);
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        when(engine.credit(existingAccountNumber, new BigDecimal("25.00"), "TXN-1")).thenReturn(CompletableFuture.completedFuture(
+                new PostingOutcome(PostingStatus.APPLIED, new BigDecimal("125.50"), false)));
+        when(accountRepository.findByAccountNumber(existingAccountNumber)).thenReturn(Optional.of(sampleAccount));
+
+        // when
+        AccountResponse response = accountService.creditAccount(existingAccountNumber, transactionRequest("25.00", "TXN-1"));
+
+        // then
+        assertThat(response.getBalance()).isEqualByComparingTo("125.50");
+        verify(accountRepository, never()).creditIfActive(anyString(), any(BigDecimal.class), any(LocalDateTime.class));
+        verifyNoInteractions(postingLedger, transactionTemplate);
+    }
+
+    @Test
+    void creditAccount_whenNotActive_shouldThrowIllegalStateException() {
+        // given
+        sampleAccount.setStatus(AccountStatus.INACTIVE);
+        when(accountRepository.creditIfActive(eq(existingAccountNumber), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.empty());
+        when(accountRepository.findByAccountNumber(existingAccountNumber)).thenReturn(Optional.of(sampleAccount));
+
+        // when/then
+        assertThatThrownBy(() -> accountService.creditAccount(existingAccountNumber, transactionRequest("25.00")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("INACTIVE");
+    }
+
+    @Test
+    void debitAccount_whenInsufficientFunds_shouldThrowInsufficientFundsException() {
+        // given
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        when(accountRepository.debitIfActiveAndCovered(eq(existingAccountNumber), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.empty());
+        when(accountRepository.findByAccountNumber(existingAccountNumber)).thenReturn(Optional.of(sampleAccount));
+
+        // when/then
+        assertThatThrownBy(() -> accountService.debitAccount(existingAccountNumber, transactionRequest("500.00")))
+                .isInstanceOf(InsufficientFundsException.class)
+                .hasMessageContaining("100.50");
+    }
+
+    @Test
+    void debitAccount_whenNotActive_shouldThrowIllegalStateException() {
+        // given
+        sampleAccount.setStatus(AccountStatus.PENDING_ACTIVATION);
+        when(accountRepository.debitIfActiveAndCovered(eq(existingAccountNumber), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.empty());
+        when(accountRepository.findByAccountNumber(existingAccountNumber)).thenReturn(Optional.of(sampleAccount));
+
+        // when/then
+        assertThatThrownBy(() -> accountService.debitAccount(existingAccountNumber, transactionRequest("1.00")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("PENDING_ACTIVATION");
+    }
+
+    @Test
+    void debitAccount_whenNotFound_shouldThrowAccountNotFoundException() {
+        // given
+        when(accountRepository.debitIfActiveAndCovered(eq(nonExistingAccountNumber), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.empty());
+        when(accountRepository.findByAccountNumber(nonExistingAccountNumber)).thenReturn(Optional.empty());
+
+        // when/then
+        assertThatThrownBy(() -> accountService.debitAccount(nonExistingAccountNumber, transactionRequest("1.00")))
+                .isInstanceOf(AccountNotFoundException.class)
+                .hasMessageContaining(nonExistingAccountNumber);
+    }
+
+    // transfer tests
+    @Test
+    void transfer_shouldUpdateRowsInAccountNumberOrder() {
+        // given - the destination sorts first, so it is credited before the source is debited
+        TransferRequest request = transferRequest("9990000000", "1110000000", "10.00");
+        when(accountRepository.creditIfActive(eq("1110000000"), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.of(sampleAccount));
+        when(accountRepository.debitIfActiveAndCovered(eq("9990000000"), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.of(sampleAccount));
+
+        // when
+        TransferResponse response = accountService.transfer(request);
+
+        // then
+        assertThat(response.getSourceAccount()).isNotNull();
+        assertThat(response.getDestinationAccount()).isNotNull();
+        InOrder inOrder = inOrder(accountRepository);
+        inOrder.verify(accountRepository).creditIfActive(eq("1110000000"), eq(new BigDecimal("10.00")), any(LocalDateTime.class));
+        inOrder.verify(accountRepository).debitIfActiveAndCovered(eq("9990000000"), eq(new BigDecimal("10.00")), any(LocalDateTime.class));
+    }
+
+    @Test
+    void transfer_whenInsufficientFunds_shouldThrowBeforeCrediting() {
+        // given
+        sampleAccount.setStatus(AccountStatus.ACTIVE);
+        TransferRequest request = transferRequest("1110000000", "9990000000", "500.00");
+        when(accountRepository.debitIfActiveAndCovered(eq("1110000000"), any(BigDecimal.class), any(LocalDateTime.class))).thenReturn(Optional.empty());
+        when(accountRepository.findByAccountNumber("1110000000")).thenReturn(Optional.of(sampleAccount));
+
+        // when/then
+        assertThatThrownBy(() -> accountService.transfer(request))
+                .isInstanceOf(InsufficientFundsException.class);
+        verify(accountRepository, never()).creditIfActive(anyString(), any(BigDecimal.class), any(LocalDateTime.class));
+    }
+
+    @Test
+    void transfer_toSameAccount_shouldThrowIllegalArgumentException() {
+        // given
+        TransferRequest request = transferRequest(existingAccountNumber, existingAccountNumber, "1.00");
+
+        // when/then
+        assertThatThrownBy(() -> accountService.transfer(request))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(accountRepository);
+    }
+
+    private TransferRequest transferRequest(String source, String destination, String amount) {
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber(source);
+        request.setDestinationAccountNumber(destination);
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+
+    private TransactionRequest transactionRequest(String amount) {
+        TransactionRequest request = new TransactionRequest();
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+
+    private TransactionRequest transactionRequest(String amount, String transactionReference) {
+        TransactionRequest request = transactionRequest(amount);
+        request.setTransactionReference(transactionReference);
+        return request;
+    }
+
+    private Posting recordedPosting(String reference, PostingType direction, String accountNumber, String amount, String balanceAfter) {
+        return new Posting(1L, reference, direction, accountNumber, new BigDecimal(amount), new BigDecimal(balanceAfter), LocalDateTime.now());
+    }
+}
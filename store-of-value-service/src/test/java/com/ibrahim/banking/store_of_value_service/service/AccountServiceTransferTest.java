@@ -0,0 +1,121 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferResponse;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// runs the real service against H2, each transfer commits or rolls back on its own
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AccountServiceTransferTest {
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @AfterEach
+    void tearDown() {
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void transfer_shouldMoveMoneyBetweenAccounts() {
+        // given
+        createAccount("1110000000", "100.00", AccountStatus.ACTIVE);
+        createAccount("2220000000", "0.00", AccountStatus.ACTIVE);
+
+        // when
+        TransferResponse response = accountService.transfer(transferRequest("1110000000", "2220000000", "40.00"));
+
+        // then
+        assertThat(response.getSourceAccount().getBalance()).isEqualByComparingTo("60.00");
+        assertThat(response.getDestinationAccount().getBalance()).isEqualByComparingTo("40.00");
+    }
+
+    @Test
+    void transfer_whenDestinationNotActive_shouldRollBackTheDebit() {
+        // given
+        createAccount("1110000000", "100.00", AccountStatus.ACTIVE);
+        createAccount("2220000000", "0.00", AccountStatus.INACTIVE);
+
+        // when/then
+        assertThatThrownBy(() -> accountService.transfer(transferRequest("1110000000", "2220000000", "40.00")))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(balance("1110000000")).isEqualByComparingTo("100.00");
+        assertThat(balance("2220000000")).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void concurrentOppositeTransfers_shouldKeepTheTotal() throws Exception {
+        // given
+        createAccount("1110000000", "1000.00", AccountStatus.ACTIVE);
+        createAccount("2220000000", "1000.00", AccountStatus.ACTIVE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // when
+        try {
+            for (int i = 0; i < 200; i++) {
+                boolean forward = i % 2 == 0;
+                futures.add(executor.submit(() -> accountService.transfer(forward
+                        ? transferRequest("1110000000", "2220000000", "1.00")
+                        : transferRequest("2220000000", "1110000000", "1.00"))));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // then
+        assertThat(balance("1110000000")).isEqualByComparingTo("1000.00");
+        assertThat(balance("2220000000")).isEqualByComparingTo("1000.00");
+    }
+
+    private void createAccount(String accountNumber, String balance, AccountStatus status) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(status);
+        accountRepository.save(account);
+    }
+
+    private BigDecimal balance(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private TransferRequest transferRequest(String source, String destination, String amount) {
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber(source);
+        request.setDestinationAccountNumber(destination);
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+}
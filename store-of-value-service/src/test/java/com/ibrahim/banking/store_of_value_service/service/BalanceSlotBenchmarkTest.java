@@ -0,0 +1,167 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput of credits to a single hot account from 8 threads, with its balance on the account row
+ * and split over 4 and 16 balance slots. Each run posts for a second and reports throughput and latency
+ * percentiles. Every credit keeps its transaction, and so its row lock, open for {@code HOLD_MS}
+ * after the update, standing in for a slow commit on a networked PostgreSQL; H2 in memory commits
+ * so fast that the test would otherwise only measure CPU.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BalanceSlotBenchmarkTest {
+
+    private static final String ACCOUNT_NUMBER = "7770000002";
+    private static final int THREADS = 8;
+    private static final long DURATION_MS = 1_000;
+    private static final long HOLD_MS = 20;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceSlotRepository balanceSlotRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    void tearDown() {
+        postingRepository.deleteAll();
+        balanceSlotRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void creditsToOneHotAccount(TestReporter reporter) throws Exception {
+        // given
+        createAccount();
+        Map<Integer, Result> results = new TreeMap<>();
+
+        // when
+        for (int slots : new int[]{1, 4, 16}) {
+            accountService.setBalanceSlots(ACCOUNT_NUMBER, slots);
+            Result result = run();
+            results.put(slots, result);
+            reporter.publishEntry(slots + " slot(s)", result.toString());
+        }
+
+        // then - one slot serializes the credits on its row lock, more slots let them run side by side
+        assertThat(results.get(1).operations()).isPositive();
+        assertThat(results.get(16).operations()).isGreaterThan(results.get(1).operations() * 2);
+
+        // no credit was lost on the way
+        long total = results.values().stream().mapToLong(Result::operations).sum();
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo(BigDecimal.valueOf(total));
+    }
+
+    private Result run() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1024];
+                int size = 0;
+                TransactionRequest request = new TransactionRequest();
+                request.setAmount(BigDecimal.ONE);
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    transactionTemplate.executeWithoutResult(status -> {
+                        accountService.creditAccount(ACCOUNT_NUMBER, request);
+                        sleep(HOLD_MS);
+                    });
+                    if (size == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, size * 2);
+                    }
+                    latencies[size++] = System.nanoTime() - start;
+                }
+                return Arrays.copyOf(latencies, size);
+            }));
+        }
+
+        List<long[]> samples = new ArrayList<>();
+        for (Future<long[]> future : futures) {
+            samples.add(future.get());
+        }
+        executor.shutdown();
+
+        long[] merged = samples.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(merged);
+        return new Result(merged.length, merged);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void createAccount() {
+        Account account = new Account();
+        account.setAccountNumber(ACCOUNT_NUMBER);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(BigDecimal.ZERO);
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private record Result(long operations, long[] latencies) {
+
+        @Override
+        public String toString() {
+            return String.format("%,d credits/s, p50=%.1fus p99=%.1fus",
+                    operations * 1000 / DURATION_MS, percentile(0.50), percentile(0.99));
+        }
+
+        private double percentile(double quantile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.round(quantile * (latencies.length - 1)))] / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingResponse;
+import com.ibrahim.banking.store_of_value_service.dto.PostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.PostingResult;
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.exception.InsufficientFundsException;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.BalanceSlot;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// accounts split into balance slots, through the account and batch services on H2
+@DataJpaTest
+@Import({AccountService.class, AccountNumberGenerator.class, PostingBatchService.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BalanceSlotServiceTest {
+
+    private static final String ACCOUNT_NUMBER = "7770000001";
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private PostingBatchService postingBatchService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceSlotRepository balanceSlotRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @AfterEach
+    void tearDown() {
+        postingRepository.deleteAll();
+        balanceSlotRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void setBalanceSlots_existingBalance_shouldStayOnTheAccountRow() {
+        // given
+        createAccount("50.00");
+
+        // when
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 4);
+
+        // then
+        assertThat(slotBalances()).containsExactly(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+        assertThat(accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().getBalance()).isEqualByComparingTo("50.00");
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("50.00");
+    }
+
+    @Test
+    void creditAccount_withSlots_shouldLeaveTheAccountRowAloneAndSumOnRead() {
+        // given
+        createAccount("50.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 4);
+
+        // when
+        for (int i = 0; i < 20; i++) {
+            accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("1.00", "TXN-" + i));
+        }
+
+        // then
+        assertThat(accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().getBalance()).isEqualByComparingTo("50.00");
+        assertThat(slotBalances().stream().reduce(BigDecimal.ZERO, BigDecimal::add)).isEqualByComparingTo("20.00");
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("70.00");
+        assertThat(postingRepository.findByTransactionReferenceAndDirection("TXN-19", PostingType.CREDIT).orElseThrow()
+                .getBalanceAfter()).isEqualByComparingTo("70.00");
+    }
+
+    @Test
+    void debitAccount_largerThanAnySlot_shouldSweepAcrossSlots() {
+        // given - 10 on the account row, 5 in each of two slots
+        createAccount("10.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 2);
+        setSlotBalances("5.00", "5.00");
+
+        // when
+        accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("17.00", null));
+
+        // then - the account row is drained first, then the slots in order
+        assertThat(accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().getBalance()).isEqualByComparingTo("0.00");
+        assertThat(slotBalances()).usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(new BigDecimal("0.00"), new BigDecimal("3.00"));
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("3.00");
+    }
+
+    @Test
+    void debitAccount_coveredBySlot_shouldTakeItFromThatSlot() {
+        // given
+        createAccount("0.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 2);
+        setSlotBalances("2.00", "30.00");
+
+        // when
+        accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("20.00", null));
+
+        // then
+        assertThat(slotBalances()).usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(new BigDecimal("2.00"), new BigDecimal("10.00"));
+    }
+
+    @Test
+    void debitAccount_moreThanTheTotal_shouldThrowAndChangeNothing() {
+        // given
+        createAccount("10.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 2);
+        setSlotBalances("5.00", "5.00");
+
+        // when / then
+        assertThatThrownBy(() -> accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("20.01", null)))
+                .isInstanceOf(InsufficientFundsException.class)
+                .hasMessageContaining("20.00");
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("20.00");
+    }
+
+    @Test
+    void setBalanceSlots_fewerSlots_shouldMoveTheirBalanceToTheAccountRow() {
+        // given
+        createAccount("10.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 3);
+        setSlotBalances("1.00", "2.00", "4.00");
+
+        // when
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 2);
+        Account twoSlots = accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow();
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 1);
+
+        // then
+        assertThat(twoSlots.getBalance()).isEqualByComparingTo("14.00");
+        assertThat(balanceSlotRepository.findByAccountNumberOrderBySlot(ACCOUNT_NUMBER)).isEmpty();
+        Account merged = accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow();
+        assertThat(merged.getBalanceSlots()).isEqualTo(1);
+        assertThat(merged.getBalance()).isEqualByComparingTo("17.00");
+    }
+
+    @Test
+    void applyPostings_withSlots_shouldApplyThemOneByOne() {
+        // given
+        createAccount("0.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 4);
+
+        // when
+        BatchPostingResponse response = postingBatchService.applyPostings(List.of(
+                posting(PostingType.CREDIT, "8.00", "B-1"),
+                posting(PostingType.DEBIT, "6.00", "B-2"),
+                posting(PostingType.DEBIT, "6.00", "B-3")));
+
+        // then
+        assertThat(response.getResults()).extracting(PostingResult::getStatus)
+                .containsExactly(PostingStatus.APPLIED, PostingStatus.APPLIED, PostingStatus.INSUFFICIENT_FUNDS);
+        assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("2.00");
+    }
+
+    @Test
+    void concurrentCreditsAndDebits_withSlots_shouldNotLoseUpdatesOrOverdraw() throws Exception {
+        // given - 200 credits of 1 and 300 debits of 1, so 100 debits can't be covered at any point
+        createAccount("0.00");
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> credits = new ArrayList<>();
+        List<Future<Boolean>> debits = new ArrayList<>();
+
+        // when
+        try {
+            for (int i = 0; i < 200; i++) {
+                credits.add(executor.submit(() -> post(PostingType.CREDIT)));
+            }
+            for (Future<Boolean> credit : credits) {
+                credit.get();
+            }
+            for (int i = 0; i < 300; i++) {
+                debits.add(executor.submit(() -> post(PostingType.DEBIT)));
+            }
+            long appliedDebits = 0;
+            for (Future<Boolean> debit : debits) {
+                appliedDebits += debit.get() ? 1 : 0;
+            }
+
+            // then
+            assertThat(appliedDebits).isEqualTo(200);
+            assertThat(accountService.getBalance(ACCOUNT_NUMBER)).isEqualByComparingTo("0.00");
+            assertThat(slotBalances()).allSatisfy(balance -> assertThat(balance).isNotNegative());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean post(PostingType type) {
+        try {
+            if (type == PostingType.CREDIT) {
+                accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("1.00", null));
+            } else {
+                accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("1.00", null));
+            }
+            return true;
+        } catch (InsufficientFundsException e) {
+            return false;
+        }
+    }
+
+    private List<BigDecimal> slotBalances() {
+        return balanceSlotRepository.findByAccountNumberOrderBySlot(ACCOUNT_NUMBER).stream()
+                .map(BalanceSlot::getBalance)
+                .map(BigDecimal::stripTrailingZeros)
+                .map(balance -> balance.signum() == 0 ? BigDecimal.ZERO : balance)
+                .toList();
+    }
+
+    private void setSlotBalances(String... balances) {
+        List<BalanceSlot> slots = balanceSlotRepository.findByAccountNumberOrderBySlot(ACCOUNT_NUMBER);
+        for (int i = 0; i < balances.length; i++) {
+            slots.get(i).setBalance(new BigDecimal(balances[i]));
+        }
+        balanceSlotRepository.saveAll(slots);
+    }
+
+    private void createAccount(String balance) {
+        Account account = new Account();
+        account.setAccountNumber(ACCOUNT_NUMBER);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(AccountStatus.ACTIVE);
+        accountRepository.save(account);
+    }
+
+    private static TransactionRequest transactionRequest(String amount, String reference) {
+        TransactionRequest request = new TransactionRequest();
+        request.setAmount(new BigDecimal(amount));
+        request.setTransactionReference(reference);
+        return request;
+    }
+
+    private static PostingRequest posting(PostingType type, String amount, String reference) {
+        PostingRequest posting = new PostingRequest();
+        posting.setAccountNumber(ACCOUNT_NUMBER);
+        posting.setType(type);
+        posting.setAmount(new BigDecimal(amount));
+        posting.setTransactionReference(reference);
+        return posting;
+    }
+}
@@ -0,0 +1,205 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.PostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransactionRequest;
+import com.ibrahim.banking.store_of_value_service.dto.TransferRequest;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.JournalEntryType;
+import com.ibrahim.banking.store_of_value_service.model.JournalLeg;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceCheckpointRepository;
+import com.ibrahim.banking.store_of_value_service.repository.BalanceSlotRepository;
+import com.ibrahim.banking.store_of_value_service.repository.JournalLegRepository;
+import com.ibrahim.banking.store_of_value_service.repository.PostingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the journal written by the real services against H2; checkpoints cover legs as soon as they are written
+@DataJpaTest(properties = "store-of-value.journal.checkpoint-settle-ms=0")
+@Import({AccountService.class, AccountNumberGenerator.class, PostingBatchService.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class DoubleEntryJournalTest {
+
+    private static final String ACCOUNT_NUMBER = "5550000000";
+    private static final String DESTINATION = "6660000000";
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private PostingBatchService postingBatchService;
+
+    @Autowired
+    private DoubleEntryJournal journal;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private JournalLegRepository journalLegRepository;
+
+    @Autowired
+    private BalanceCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private PostingRepository postingRepository;
+
+    @Autowired
+    private BalanceSlotRepository balanceSlotRepository;
+
+    @AfterEach
+    void tearDown() {
+        checkpointRepository.deleteAll();
+        journalLegRepository.deleteAll();
+        postingRepository.deleteAll();
+        balanceSlotRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void postings_shouldWriteBalancedLegsMatchingTheBalances() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "0.00", true);
+        createAccount(DESTINATION, "0.00", true);
+
+        // when
+        accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("100.00", "TXN-1"));
+        accountService.transfer(transferRequest("30.00", "TXN-2"));
+        accountService.debitAccount(DESTINATION, transactionRequest("10.00", "TXN-3"));
+
+        // then
+        for (String reference : List.of("TXN-1", "TXN-2", "TXN-3")) {
+            List<JournalLeg> legs = journalLegRepository.findByTransactionReferenceOrderById(reference);
+            assertThat(legs).hasSize(2);
+            assertThat(legs.get(0).getEntryId()).isEqualTo(legs.get(1).getEntryId());
+            assertThat(legs.stream().map(JournalLeg::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add)).isEqualByComparingTo("0");
+        }
+        assertThat(journalLegRepository.findByTransactionReferenceOrderById("TXN-2"))
+                .extracting(JournalLeg::getEntryType).containsOnly(JournalEntryType.TRANSFER);
+        assertThat(journalLegRepository.sumAmount(ACCOUNT_NUMBER)).isEqualByComparingTo(accountService.getBalance(ACCOUNT_NUMBER));
+        assertThat(journalLegRepository.sumAmount(DESTINATION)).isEqualByComparingTo(accountService.getBalance(DESTINATION));
+        assertThat(journalLegRepository.sumAmount(DoubleEntryJournal.EXTERNAL_ACCOUNT)).isEqualByComparingTo("-90.00");
+    }
+
+    @Test
+    void balanceAt_shouldAddTheLegsAfterTheLatestCheckpoint() throws Exception {
+        // given
+        createAccount(ACCOUNT_NUMBER, "0.00", true);
+        accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("100.00", null));
+        LocalDateTime afterFirstCredit = pause();
+        journal.checkpoint();
+        accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("50.00", null));
+        LocalDateTime afterSecondCredit = pause();
+        accountService.debitAccount(ACCOUNT_NUMBER, transactionRequest("30.00", null));
+        pause();
+        journal.checkpoint();
+
+        // when
+        accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("5.00", null));
+
+        // then
+        assertThat(checkpointRepository.findAll())
+                .filteredOn(checkpoint -> checkpoint.getAccountNumber().equals(ACCOUNT_NUMBER)).hasSize(2);
+        assertThat(accountService.getBalanceAt(ACCOUNT_NUMBER, afterFirstCredit)).isEqualByComparingTo("100.00");
+        assertThat(accountService.getBalanceAt(ACCOUNT_NUMBER, afterSecondCredit)).isEqualByComparingTo("150.00");
+        assertThat(accountService.getBalanceAt(ACCOUNT_NUMBER, LocalDateTime.now())).isEqualByComparingTo("125.00");
+        assertThat(accountService.getBalanceAt(ACCOUNT_NUMBER, LocalDateTime.now()))
+                .isEqualByComparingTo(accountService.getBalance(ACCOUNT_NUMBER));
+    }
+
+    @Test
+    void openAccounts_shouldJournalTheBalanceOfExistingAccountsOnce() {
+        // given - an account from before the journal, with part of its balance in slots
+        createAccount(ACCOUNT_NUMBER, "80.00", false);
+        accountService.setBalanceSlots(ACCOUNT_NUMBER, 2);
+        accountService.creditAccount(ACCOUNT_NUMBER, transactionRequest("20.00", null));
+
+        // when
+        journal.openAccounts();
+        journal.openAccounts();
+
+        // then
+        assertThat(journalLegRepository.findByAccountNumberOrderById(ACCOUNT_NUMBER))
+                .extracting(JournalLeg::getEntryType).containsExactly(JournalEntryType.CREDIT, JournalEntryType.OPENING);
+        assertThat(journalLegRepository.sumAmount(ACCOUNT_NUMBER)).isEqualByComparingTo("100.00");
+        assertThat(accountRepository.findByAccountNumber(ACCOUNT_NUMBER).orElseThrow().isJournalOpened()).isTrue();
+        assertThat(accountService.getBalanceAt(ACCOUNT_NUMBER, LocalDateTime.now())).isEqualByComparingTo("100.00");
+    }
+
+    @Test
+    void applyPostings_shouldJournalTheAppliedPostingsOnly() {
+        // given
+        createAccount(ACCOUNT_NUMBER, "10.00", true);
+
+        // when
+        postingBatchService.applyPostings(List.of(
+                posting(PostingType.CREDIT, "5.00", "B-1"),
+                posting(PostingType.DEBIT, "50.00", "B-2"),
+                posting(PostingType.DEBIT, "15.00", null)));
+
+        // then - the opening 10 was never journaled, so the journal only holds the batch
+        assertThat(journalLegRepository.findByAccountNumberOrderById(ACCOUNT_NUMBER))
+                .extracting(JournalLeg::getAmount)
+                .usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(new BigDecimal("5.00"), new BigDecimal("-15.00"));
+        assertThat(journalLegRepository.findByTransactionReferenceOrderById("B-2")).isEmpty();
+    }
+
+    // separates the timestamps of the legs written before and after the returned time
+    private static LocalDateTime pause() throws InterruptedException {
+        Thread.sleep(5);
+        LocalDateTime now = LocalDateTime.now();
+        Thread.sleep(5);
+        return now;
+    }
+
+    private void createAccount(String accountNumber, String balance, boolean journalOpened) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.CURRENT);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(AccountStatus.ACTIVE);
+        account.setJournalOpened(journalOpened);
+        accountRepository.save(account);
+    }
+
+    private static TransactionRequest transactionRequest(String amount, String reference) {
+        TransactionRequest request = new TransactionRequest();
+        request.setAmount(new BigDecimal(amount));
+        request.setTransactionReference(reference);
+        return request;
+    }
+
+    private static TransferRequest transferRequest(String amount, String reference) {
+        TransferRequest request = new TransferRequest();
+        request.setSourceAccountNumber(ACCOUNT_NUMBER);
+        request.setDestinationAccountNumber(DESTINATION);
+        request.setAmount(new BigDecimal(amount));
+        request.setTransactionReference(reference);
+        return request;
+    }
+
+    private static PostingRequest posting(PostingType type, String amount, String reference) {
+        PostingRequest posting = new PostingRequest();
+        posting.setAccountNumber(ACCOUNT_NUMBER);
+        posting.setType(type);
+        posting.setAmount(new BigDecimal(amount));
+        posting.setTransactionReference(reference);
+        return posting;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import com.ibrahim.banking.store_of_value_service.dto.BatchPostingResponse;
+import com.ibrahim.banking.store_of_value_service.dto.PostingRequest;
+import com.ibrahim.banking.store_of_value_service.dto.PostingResult;
+import com.ibrahim.banking.store_of_value_service.model.Account;
+import com.ibrahim.banking.store_of_value_service.model.AccountStatus;
+import com.ibrahim.banking.store_of_value_service.model.AccountType;
+import com.ibrahim.banking.store_of_value_service.model.PostingStatus;
+import com.ibrahim.banking.store_of_value_service.model.PostingType;
+import com.ibrahim.banking.store_of_value_service.repository.AccountRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@Import({PostingBatchService.class, PostingLedger.class, BalanceSlotService.class, DoubleEntryJournal.class})
+public class PostingBatchServiceTest {
+
+    @Autowired
+    private PostingBatchService postingBatchService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void applyPostings_shouldReturnResultPerPostingInRequestOrder() {
+        // given
+        persistAccount("2220000000", "10.00", AccountStatus.ACTIVE);
+        persistAccount("1110000000", "0.00", AccountStatus.ACTIVE);
+        persistAccount("3330000000", "50.00", AccountStatus.INACTIVE);
+
+        List<PostingRequest> postings = List.of(
+                posting("2220000000", PostingType.DEBIT, "4.00", "TXN-1"),
+                posting("1110000000", PostingType.CREDIT, "7.50", "TXN-2"),
+                posting("2220000000", PostingType.DEBIT, "7.00", "TXN-3"), // only 6.00 left
+                posting("3330000000", PostingType.CREDIT, "1.00", "TXN-4"),
+                posting("9990000000", PostingType.CREDIT, "1.00", "TXN-5"));
+
+        // when
+        BatchPostingResponse response = postingBatchService.applyPostings(postings);
+
+        // then
+        assertThat(response.getResults()).extracting(PostingResult::getTransactionReference)
+                .containsExactly("TXN-1", "TXN-2", "TXN-3", "TXN-4", "TXN-5");
+        assertThat(response.getResults()).extracting(PostingResult::getStatus).containsExactly(
+                PostingStatus.APPLIED,
+                PostingStatus.APPLIED,
+                PostingStatus.INSUFFICIENT_FUNDS,
+                PostingStatus.ACCOUNT_NOT_ACTIVE,
+                PostingStatus.ACCOUNT_NOT_FOUND);
+
+        entityManager.clear();
+        assertThat(balance("2220000000")).isEqualByComparingTo("6.00");
+        assertThat(balance("1110000000")).isEqualByComparingTo("7.50");
+        assertThat(balance("3330000000")).isEqualByComparingTo("50.00");
+    }
+
+    @Test
+    void applyPostings_shouldApplyPostingsToOneAccountInRequestOrder() {
+        // given - the debit is only covered because the credit before it is applied first
+        persistAccount("1110000000", "0.00", AccountStatus.ACTIVE);
+
+        // when
+        BatchPostingResponse response = postingBatchService.applyPostings(List.of(
+                posting("1110000000", PostingType.CREDIT, "5.00", "TXN-1"),
+                posting("1110000000", PostingType.DEBIT, "5.00", "TXN-2")));
+
+        // then
+        assertThat(response.getResults()).extracting(PostingResult::getStatus)
+                .containsOnly(PostingStatus.APPLIED);
+        entityManager.clear();
+        assertThat(balance("1110000000")).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void applyPostings_shouldNotApplyARepeatedReferenceTwice() {
+        // given
+        persistAccount("1110000000", "0.00", AccountStatus.ACTIVE);
+        postingBatchService.applyPostings(List.of(posting("1110000000", PostingType.CREDIT, "5.00", "TXN-1")));
+
+        // when - a redelivery of the same posting, a repeat within the batch and a reused reference
+        BatchPostingResponse response = postingBatchService.applyPostings(List.of(
+                posting("1110000000", PostingType.CREDIT, "5.00", "TXN-1"),
+                posting("1110000000", PostingType.CREDIT, "2.00", "TXN-2"),
+                posting("1110000000", PostingType.CREDIT, "2.00", "TXN-2"),
+                posting("1110000000", PostingType.CREDIT, "9.00", "TXN-1")));
+
+        // then
+        assertThat(response.getResults()).extracting(PostingResult::getStatus).containsExactly(
+                PostingStatus.APPLIED,
+                PostingStatus.APPLIED,
+                PostingStatus.APPLIED,
+                PostingStatus.REFERENCE_CONFLICT);
+        entityManager.clear();
+        assertThat(balance("1110000000")).isEqualByComparingTo("7.00");
+    }
+
+    @Test
+    void applyPostings_whenBatchTooLarge_shouldThrowIllegalArgumentException() {
+        // given
+        List<PostingRequest> postings = new ArrayList<>();
+        for (int i = 0; i < 501; i++) {
+            postings.add(posting("1110000000", PostingType.CREDIT, "1.00", "TXN-" + i));
+        }
+
+        // when/then
+        assertThatThrownBy(() -> postingBatchService.applyPostings(postings))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("500");
+    }
+
+    private void persistAccount(String accountNumber, String balance, AccountStatus status) {
+        Account account = new Account();
+        account.setAccountNumber(accountNumber);
+        account.setProfileId("profile-1");
+        account.setAccountType(AccountType.SAVINGS);
+        account.setBalance(new BigDecimal(balance));
+        account.setStatus(status);
+        entityManager.persist(account);
+        entityManager.flush();
+    }
+
+    private BigDecimal balance(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private PostingRequest posting(String accountNumber, PostingType type, String amount, String reference) {
+        return new PostingRequest(accountNumber, type, new BigDecimal(amount), reference);
+    }
+}
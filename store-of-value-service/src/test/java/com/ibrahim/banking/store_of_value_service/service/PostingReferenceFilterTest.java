@@ -0,0 +1,45 @@
+package com.ibrahim.banking.store_of_value_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PostingReferenceFilterTest {
+
+    @Test
+    void mightContain_shouldFindEveryKeyThatWasPut() {
+        // given
+        PostingReferenceFilter filter = new PostingReferenceFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("CREDIT:TXN-" + i));
+
+        // when/then - no false negatives, ever
+        assertThat(IntStream.range(0, 10_000).allMatch(i -> filter.mightContain("CREDIT:TXN-" + i))).isTrue();
+        assertThat(filter.insertions()).isEqualTo(10_000);
+    }
+
+    @Test
+    void mightContain_shouldKeepFalsePositivesNearTheConfiguredRate() {
+        // given
+        PostingReferenceFilter filter = new PostingReferenceFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("CREDIT:TXN-" + i));
+
+        // when
+        long falsePositives = IntStream.range(0, 100_000)
+                .filter(i -> filter.mightContain("DEBIT:TXN-" + i))
+                .count();
+
+        // then
+        assertThat(filter.hashCount()).isEqualTo(7);
+        assertThat(falsePositives / 100_000.0).isLessThan(0.02);
+    }
+
+    @Test
+    void constructor_withInvalidRate_shouldThrowIllegalArgumentException() {
+        // when/then
+        assertThatThrownBy(() -> new PostingReferenceFilter(1000, 1.0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}